@@ -1,6 +1,10 @@
 package rita;
 
 import java.io.PrintStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.net.URL;
 import java.util.*;
 import java.util.regex.Matcher;
@@ -8,6 +12,7 @@ import java.util.regex.Pattern;
 
 import rita.json.*;
 import rita.render.RiGrammarEditor;
+import rita.support.CompiledGrammar;
 import rita.support.YAMLParser;
 
 public class RiGrammar
@@ -17,6 +22,8 @@ public class RiGrammar
   static final String E = "";
   static final Pattern PROB_PATT = Pattern.compile("(.*[^\\s])\\s*\\[([0-9.]+)\\](.*)");
   static final Pattern EXEC_PATT = Pattern.compile("(.*?)(`[^`]+?\\(.*?\\);?`)(.*)");
+  static final Pattern ARGS_PATT = Pattern.compile("\\((.*?)\\)");
+  static final int MAX_CACHED_EXECS = 256;
 
   public YAMLParser yamlParser;
   public Map<String, Map<String, Float>> _rules;
@@ -25,6 +32,9 @@ public class RiGrammar
   public RiGrammarEditor editor;
   public boolean execDisabled;
   public int maxIterations = 1000;
+  
+  protected CompiledGrammar compiled; // rebuilt after any change to the rules
+  protected Map<String, ExecCall> execCache; // back-ticked call -> parsed call
 
   static boolean yamlWarning;
 
@@ -231,6 +241,7 @@ public class RiGrammar
   public RiGrammar removeRule(String name)
   {
     this._rules.remove(name);
+    this.compiled = null;
     return this;
   }
 
@@ -239,7 +250,7 @@ public class RiGrammar
     RiGrammar tmp = new RiGrammar();
     for (String name : _rules.keySet())
     {
-      tmp._rules.put(name, this._rules.get(name));
+      tmp._rules.put(name, new HashMap<String, Float>(this._rules.get(name)));
     }
     return tmp;
   }
@@ -258,6 +269,7 @@ public class RiGrammar
     if (dbug) log("addRule: " + name + " -> '" + ruleStr + "'       [" + weight + "]");
 
     String[] ruleset = ruleStr.split(OR_PATT);
+    this.compiled = null;
 
     for (int i = 0; i < ruleset.length; i++)
     {
@@ -309,6 +321,7 @@ public class RiGrammar
   public RiGrammar reset()
   {
     _rules.clear();
+    compiled = null;
     return this;
   }
 
@@ -415,40 +428,53 @@ public class RiGrammar
     if (callbackListener == null)
       callbackListener = parent;
     
-    int tries = 0;
-    while (++tries < maxIterations)
+    CompiledGrammar cg = compiled();
+    int[] budget = { maxIterations - 1 };
+    while (true)
     {
-      String next = expandRule(rule);
-      
-      if (next != null && next.length()> 0) { // matched a rule
-        
-        rule = next;
-        continue;
+      // expand all rules (and any names formed by adjacent expansions)
+      do
+      {
+        rule = cg.expand(rule, budget);
       }
+      while (budget[0] > 0 && cg.containsRule(rule));
       
       // we're done with rules
       
-      if (this.execDisabled) break; // return
-            
+      if (this.execDisabled || budget[0] <= 0) break; // return
+      
       // now check for back-ticked strings to eval      
       String result = this.checkExec(rule, callbackListener);
       if (result == null) {
         
         break;
       }
-        
+      
+      budget[0]--;
       rule = result;
     } 
     
-    if (tries >= maxIterations && !RiTa.SILENT) 
+    if (budget[0] <= 0 && cg.containsRule(rule) && !RiTa.SILENT) 
       System.out.println("[WARN] max number of iterations reached: "+maxIterations);
 
     return RiTa.unescapeHTML(rule);  // after any execs
   }
 
+  /**
+   * Returns the compiled form of the current rules, compiling them if needed
+   */
+  protected CompiledGrammar compiled()
+  {
+    if (compiled == null)
+      compiled = new CompiledGrammar(_rules);
+    return compiled;
+  }
+
   // TODO: doesn't handle recursive rules: see GH issue #3
   protected String checkExec(String rule, Object callbackListener)
   {
+    if (rule.indexOf('`') < 0) return null;
+
     String[] parts = testExec(EXEC_PATT, rule);
     
     if (parts == null || parts.length < 2) {
@@ -508,43 +534,22 @@ public class RiGrammar
     
     if (dbug) System.out.println("RiGrammar.handleExec("+thePart+")");
     
-    String toReturn = E, function = null;
+    String toReturn = E;
     try
     {
-      function = thePart.trim().replaceAll("^`", E)
-          .replaceAll("`$", E).replaceAll(";$", E);
+      ExecCall call = parseExec(thePart);
       
-      if (function == null || function.length() < 1) return null;
-          
-      String[] args = testExec(Pattern.compile("\\((.*?)\\)"), thePart); // TODO: make constant
-     
-      if (args.length != 2)
-        throw new RiTaException("Unable to parse args in back-ticked call: "+thePart);
+      if (call == null) return null;
       
       if (callee == null) 
         throw new RiTaException("\nFound what appears to be a callback:\n  "
            + thePart + "\nbut no callee object was supplied.\n\nPerhaps you "
            + "meant RiGrammar.expand(this)?\n");
-  
-      function = function.replaceAll("\\(.*?\\)", E);
-      
-      if (dbug) System.out.println("RiGrammar.function="+function);
       
-      Object[] argsArr = null;
+      if (dbug)System.out.println("RiGrammar.invoke: "+call.function+"("+
+          (RiTa.asList(call.args).toString()).replaceAll("[\\[\\]]", E)+");");
       
-      if (!args[1].equals(E))  { // found args
-        
-        if (dbug) System.out.println("RiGrammar.args[1]="+args[1]);
-        
-        argsArr = formatArgs(args[1]);
-        
-        //if (dbug) System.out.println("RiGrammar.argsArr"+RiTa.asList(argsArr));
-      }
-      
-      if (dbug)System.out.println("RiGrammar.invoke: "+function+"("+
-          (RiTa.asList(argsArr).toString()).replaceAll("[\\[\\]]", E)+");");
-      
-      Object callResult = RiTa.invoke(callee, function, argsArr);
+      Object callResult = call.invoke(callee);
 
       if (callResult != null) toReturn = callResult.toString();
       
@@ -561,6 +566,124 @@ public class RiGrammar
     }
   }
   
+  /**
+   * Parses a back-ticked call (function name and arguments) once, caching the
+   * result, so that repeated expansions only need to invoke it
+   */
+  private ExecCall parseExec(String thePart)
+  {
+    if (execCache == null)
+    {
+      execCache = new ExecCache();
+    }
+    
+    ExecCall call = execCache.get(thePart);
+    if (call != null) return call;
+
+    String function = thePart.trim().replaceAll("^`", E)
+        .replaceAll("`$", E).replaceAll(";$", E);
+    
+    if (function == null || function.length() < 1) return null;
+        
+    String[] args = testExec(ARGS_PATT, thePart);
+   
+    if (args == null || args.length != 2)
+      throw new RiTaException("Unable to parse args in back-ticked call: "+thePart);
+
+    function = function.replaceAll("\\(.*?\\)", E);
+    
+    call = new ExecCall(function, args[1].equals(E) ? null : formatArgs(args[1]));
+    execCache.put(thePart, call);
+    
+    return call;
+  }
+  
+  /**
+   * A parsed back-ticked call, with its argument values and types precomputed,
+   * and bound (lazily) to a method handle on the last callee it was invoked on
+   */
+  static class ExecCall
+  {
+    final String function;
+    final Object[] args;
+    final Class[] argTypes;
+    
+    private Object boundTo;
+    private MethodHandle handle;
+    
+    ExecCall(String function, Object[] args)
+    {
+      this.function = function;
+      this.args = args == null ? new Object[0] : args;
+      this.argTypes = new Class[this.args.length];
+      
+      for (int i = 0; i < argTypes.length; i++)  {
+        argTypes[i] = this.args[i].getClass();  
+        if (argTypes[i]==Integer.class)
+          argTypes[i] = Integer.TYPE;
+        else if (argTypes[i]==Boolean.class)
+          argTypes[i] = Boolean.TYPE;
+        else if (argTypes[i]==Float.class)
+          argTypes[i] = Float.TYPE;
+      }
+    }
+    
+    Object invoke(Object callee)
+    {
+      MethodHandle mh = handle;
+      if (mh == null || boundTo != callee) {
+        mh = bind(callee);
+        handle = mh;
+        boundTo = callee;
+      }
+      
+      try
+      {
+        return (Object) mh.invokeExact(args);
+      }
+      catch (Throwable e)
+      {
+        throw new RiTaException(e);
+      }
+    }
+    
+    private MethodHandle bind(Object callee)
+    {
+      Method m = RiTa._findMethod(callee, function, argTypes, true);
+      try
+      {
+        MethodHandle mh = MethodHandles.lookup().unreflect(m);
+        if (!Modifier.isStatic(m.getModifiers()))
+          mh = mh.bindTo(callee);
+        
+        // as (Object[])Object, with the arguments boxed/unboxed as needed
+        return mh.asType(mh.type().generic()).asSpreader(Object[].class, argTypes.length);
+      }
+      catch (IllegalAccessException e)
+      {
+        throw new RiTaException(e);
+      }
+    }
+  }
+  
+  /*
+   * The parsed calls, most recently used last, holding at most MAX_CACHED_EXECS
+   */
+  static class ExecCache extends LinkedHashMap<String, ExecCall>
+  {
+    private static final long serialVersionUID = 0;
+
+    ExecCache()
+    {
+      super(16, .75f, true);
+    }
+
+    protected boolean removeEldestEntry(Map.Entry<String, ExecCall> eldest)
+    {
+      return size() > MAX_CACHED_EXECS;
+    }
+  }
+  
   private Object[] formatArgs(String argsStr) {
     
     boolean dbug = false;
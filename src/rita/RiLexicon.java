@@ -32,6 +32,10 @@ public class RiLexicon implements Constants
   
   static MinEditDist minEditDist;
   
+  static RhymeIndex rhymeIndex;
+  
+  static BKTree letterTree, soundTree;
+  
   public JSONLexicon lexImpl;
   
   /**
@@ -65,7 +69,7 @@ public class RiLexicon implements Constants
   
   public RiLexicon removeWord(String s)
   {
-    lexicalData().remove(s.toLowerCase());
+    lexImpl.removeAddendum(s.toLowerCase(), null);
     return this;
   }
   
@@ -166,36 +170,8 @@ public class RiLexicon implements Constants
    */
   public String randomWord(String pos, int syllableCount)
   {
-    Iterator<String> it = getIterator(pos);
-    
-    if (it != null) {
-    
-      if (syllableCount<0) return it.next(); // ignore syllable-count
-      
-      Map<String,String> lookup = lexImpl.getLexicalData();
-      
-      while (it.hasNext()) {
-        
-        String s = it.next(), data = lookup.get(s);
-        if (data == null) {
-          System.err.println("[WARN] null data after lookup: "+s);
-          return E;
-        }
-        
-        String sylStr = data.split("\\|")[0].trim();
-        if (sylStr.split(SP).length == syllableCount) 
-          return s;
-      }
-    }
-    
-    return E;
-  }
-
-  private Iterator<String> getIterator(String pos)
-  {
-    Iterator<String> it = (pos == null) ? lexImpl.randomIterator() 
-        : lexImpl.randomPosIterator(pos);
-    return it;
+    String word = lexImpl.randomWord(pos, syllableCount, -1);
+    return word == null ? E : word;
   }
   
   /** 
@@ -205,17 +181,8 @@ public class RiLexicon implements Constants
    */
   String randomWordByLength(String pos, int targetLength) { // NIAPI
     
-    Iterator<String> it = getIterator(pos);
-        
-    if (targetLength < 0) return it.next();
-    
-    while (it.hasNext()) {
-      String s = it.next();
-      if (s.length() == targetLength) 
-        return s;
-    }
-    
-    return E;
+    String word = lexImpl.randomWord(pos, -1, targetLength);
+    return word == null ? E : word;
   }
   
   /**
@@ -268,16 +235,18 @@ public class RiLexicon implements Constants
     String lss = lastStressedPhoneToEnd(input, false); // TODO: change to true !
     if (lss == null) return; // no result
     
-    for (Iterator it = lexicalData().keySet().iterator(); it.hasNext();) 
-    {      
-      String cand = (String)it.next();
-      
-      if (cand.equals(input)) continue;
-      
-      String chck = lexImpl.getRawPhones(cand);
-       if (chck != null && chck.endsWith(lss))
-         result.add(cand);         
-    }
+    rhymeIndex().lookup(lss, input, result);
+  }
+  
+  /*
+   * Returns the (shared) rhyme index, (re)building it if the lexicon has changed
+   */
+  RhymeIndex rhymeIndex()
+  {
+    RhymeIndex idx = rhymeIndex;
+    if (idx == null || idx.isStale(lexImpl))
+      rhymeIndex = idx = new RhymeIndex(lexImpl);
+    return idx;
   }
 
   public String[] words()
@@ -406,10 +375,30 @@ public class RiLexicon implements Constants
   public String[] similarByLetter(String input)
   {   
     Set result = new HashSet();   
-    similarByLetter(lexImpl.getWords(), input, result, 1, false);
+    similarByLetter(input, result, 1, false);
     return SetOp.toStringArray(result); 
   }
 
+  /*  
+   * As below, but searches the whole lexicon via the (shared) letter index
+   */
+  int similarByLetter(final String input, Collection result, int minMed, final boolean preserveLength)
+  { 
+    if (result == null) 
+      throw new IllegalArgumentException("Null Arg: result[Collection](3)");
+    
+    if (input == null || input.length() < 1) return -1;
+    
+    return letterTree().nearest(input, minMed, result, new BKTree.Filter() {
+      public boolean accept(String candidate)
+      {
+        if (preserveLength && candidate.length() != input.length())
+          return false;
+        return !candidate.equalsIgnoreCase(input) && checkResult(input, null, candidate, 2);
+      }
+    });
+  }
+
   /*  
    * Compares the characters of the input string (using a version of the min-edit distance algorithm)
    * to each word in the lexicon, adding the set of closest matches to <code>result</code>.
@@ -463,53 +452,49 @@ public class RiLexicon implements Constants
     return minVal;
   }
 
-  int similarBySound(String input, Set result, int minDist)
+  int similarBySound(final String input, Set result, int minDist)
   { 
     if (result == null) 
       throw new IllegalArgumentException("Null Arg: result[Collection](3)");
 
     if (input == null || input.length() < 1) return -1;
 
-    int idx = 0;
-    int minVal = Integer.MAX_VALUE;
     String[] targetPhones = lexImpl.getPhonemeArr(input, true);
 
     if (targetPhones == null) 
       return -1;
     
-    if (minEditDist == null)
-      minEditDist = new MinEditDist();        
+    BKTree tree = soundTree();
     
-//System.out.println("TARGET: "+RiTa.asList(targetPhones));
-    
-    for (Iterator i = lexImpl.iterator(); i.hasNext(); idx++)
-    {
-      String candidate = (String)i.next();
-      String[] phones = lexImpl.getPhonemeArr(candidate, false);
-      
-//System.out.println("TEST: "+RiTa.asList(targetPhones));
-      
-      int med = minEditDist.computeRaw(phones, targetPhones);  
-
-      if (med == 0) continue; // same phones     
-      
-      // found something even closer
-      if(med >= minDist && med < minVal) {
-        if (checkResult(input, result, candidate, 3)) {
-          minVal = med;
-          result.clear();
-          result.add(candidate);
-        }
-      }  
-      // we have another best to add
-      else if (med == minVal) {
-        addResult(input, result,  candidate, 3);
+    return tree.nearest(tree.encode(targetPhones), minDist, result, new BKTree.Filter() {
+      public boolean accept(String candidate)
+      {
+        return checkResult(input, null, candidate, 3);
       }
-    }
-
-    return minVal;
+    });
   }
 
+  /*
+   * Returns the (shared) letter index, (re)building it if the lexicon has changed
+   */
+  BKTree letterTree()
+  {
+    BKTree tree = letterTree;
+    if (tree == null || tree.isStale(lexImpl))
+      letterTree = tree = BKTree.byLetter(lexImpl);
+    return tree;
+  }
+  
+  /*
+   * Returns the (shared) phoneme index, (re)building it if the lexicon has changed
+   */
+  BKTree soundTree()
+  {
+    BKTree tree = soundTree;
+    if (tree == null || tree.isStale(lexImpl))
+      soundTree = tree = BKTree.bySound(lexImpl);
+    return tree;
+  }
   
   /**
    * Compares the phonemes of the input String to those of each word in the 
@@ -630,8 +615,7 @@ public class RiLexicon implements Constants
   public String[] similarByLetter(String input, int minEditDistance, boolean preserveLength)
   {
     Set result = new HashSet();   
-    this.similarByLetter
-      (lexImpl.getWords(), input, result, minEditDistance, preserveLength);
+    this.similarByLetter(input, result, minEditDistance, preserveLength);
     return SetOp.toStringArray(result);
   }
 
@@ -723,48 +707,7 @@ public class RiLexicon implements Constants
    */  
   private String lastStressedPhoneToEnd(String word, boolean useLTS) 
   {
-    boolean dbug = false;
-    
-    String raw = lexImpl.getRawPhones(word, useLTS);
-    if (raw == null) return null;
-    
-    if (dbug)System.out.print("'"+raw+"' -> ");
-    
-    int idx = raw.lastIndexOf(STRESSED);
-    
-    if (dbug)System.out.print("idx="+idx);
-    
-    if (idx < 0) return null; 
-    
-    /*if (idx == raw.length()-1) { // edge case
-      
-      String[] syls = raw.split(SP);
-      return syls[syls.length-1];
-    }*/
-      
-    char c = raw.charAt(--idx);
-    
-    if (dbug)System.out.print("\n  chk:"+idx+"="+c);
-    
-    while (c != '-' && c != ' ') {
-      
-      if (--idx < 0) {
-        
-        if (dbug)System.out.println("\nres="+raw);
-        
-        return raw; // single-stressed syllable
-      }
-      
-      if (dbug)System.out.print("  chk:"+idx+"="+raw.charAt(idx));
-    
-      c = raw.charAt(idx);      
-    }    
-    
-    String res = raw.substring(idx+1);
-    
-    if (dbug)System.out.println("\nres="+res);
-    
-    return res;
+    return RhymeIndex.lastStressedPhoneToEnd(lexImpl.getRawPhones(word, useLTS));
   }
   
   public Iterator iterator() // NIAPI
@@ -1,10 +1,18 @@
 package rita;
 
-import java.io.PrintStream;
+import java.io.*;
 import java.net.URL;
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
+import rita.support.CompactTextNode;
 import rita.support.Constants;
+import rita.support.NgramStore;
+import rita.support.PennWordTokenizer;
+import rita.support.RiTokenizer;
+import rita.support.Splitter;
 import rita.support.TextNode;
 
 
@@ -34,6 +42,7 @@ public class RiMarkov implements Constants
   protected static final Map EMPTY_MAP = new HashMap();
   protected static final String SS_DELIM = "D=l1m_";
   protected static final int MAX_PROB_MISSES = 100;
+  protected static final int MODEL_MAGIC = 0x52694D6B, MODEL_VERSION = 1;
 
   public int minSentenceLength = 6, maxSentenceLength = 35;
   
@@ -45,6 +54,7 @@ public class RiMarkov implements Constants
   protected int nFactor, wordsPerFile, tokenCount, skippedDups;
   protected boolean useSmoothing, ignoreCase, allowDuplicates, printIgnoredText = false;
   protected boolean removeQuotations = true, sentenceAware = true, addSpaces = true, profile = true;
+  protected boolean parallelLoading;
 
   private Object parent;
 
@@ -128,6 +138,9 @@ public class RiMarkov implements Constants
   
   public RiMarkov loadFrom(URL[] urls, int multiplier, String regex) // impl
   {
+    if (parallelLoading && urls.length > 1)
+      return loadParallel(urls, multiplier, regex);
+
     return loadText(RiTa.loadString(urls), multiplier, regex);
   } 
   
@@ -195,12 +208,163 @@ public class RiMarkov implements Constants
   
   public RiMarkov loadFrom(String[] urls, int multiplier, String regex, Object aParent)
   {
+    if (parallelLoading && aParent == null && urls.length > 1)
+      return loadParallel(urls, multiplier, regex);
+
     if (aParent == null)
       return loadText(RiTa.loadString(urls, "RiMarkov.loadFrom"), multiplier, regex);
 
     return loadText(RiTa.loadString(urls, aParent), multiplier, regex);
   }
 
+  // parallel loading  ------------------------------------------------------
+
+  /**
+   * Returns whether loadFrom() with multiple files (or URLs) loads them in
+   * parallel (default=false)
+   */
+  public boolean parallelLoading()
+  {
+    return this.parallelLoading;
+  }
+
+  /**
+   * Toggles whether loadFrom() with multiple files (or URLs) loads them in
+   * parallel, in which case each file is split, tokenized and counted into its
+   * own partial model on a fork-join pool, and the partial models are then
+   * merged into this one (with the multiplier applied to the counts).
+   * <p>
+   * Note: as each file is processed separately, no n-grams will span the
+   * boundary between two files.
+   */
+  public RiMarkov parallelLoading(boolean parallelLoading)
+  {
+    this.parallelLoading = parallelLoading;
+    return this;
+  }
+
+  protected RiMarkov loadParallel(Object[] sources, int multiplier, String regex)
+  {
+    ForkJoinPool pool = new ForkJoinPool();
+    try
+    {
+      merge(pool.invoke(new LoadTask(sources, 0, sources.length, regex)), Math.max(multiplier, 1));
+    }
+    finally
+    {
+      pool.shutdown();
+    }
+    return this;
+  }
+
+  /*
+   * Loads a range of files into a partial model, splitting it in half (and
+   * merging the results) until there is a single file per task
+   */
+  class LoadTask extends RecursiveTask<RiMarkov>
+  {
+    private static final long serialVersionUID = 0;
+
+    final Object[] sources;
+    final int start, end;
+    final String regex;
+
+    LoadTask(Object[] sources, int start, int end, String regex)
+    {
+      this.sources = sources;
+      this.start = start;
+      this.end = end;
+      this.regex = regex;
+    }
+
+    protected RiMarkov compute()
+    {
+      if (end - start == 1)
+      {
+        Object src = sources[start];
+        String text = (src instanceof URL) ? RiTa.loadString((URL) src)
+            : RiTa.loadString((String) src, "RiMarkov.loadFrom");
+        return createPartial().loadText(text, 1, regex);
+      }
+
+      int mid = (start + end) >>> 1;
+      LoadTask left = new LoadTask(sources, start, mid, regex);
+      left.fork();
+      RiMarkov right = new LoadTask(sources, mid, end, regex).compute();
+      return left.join().merge(right, 1);
+    }
+  }
+
+  /*
+   * Creates an empty (tree-based) model with the same settings as this one
+   */
+  protected RiMarkov createPartial()
+  {
+    RiMarkov rm = new RiMarkov(nFactor, sentenceAware, allowDuplicates);
+    rm.ignoreCase = ignoreCase;
+    rm.useSmoothing = useSmoothing;
+    rm.removeQuotations = removeQuotations;
+    rm.printIgnoredText = printIgnoredText;
+    rm.profile = profile;
+    return rm;
+  }
+
+  /**
+   * Merges the n-grams (and sentence-starts) of the other model into this one,
+   * multiplying the other model's counts by <code>multiplier</code>, so that the
+   * result is the same as if its text had been loaded into this model
+   */
+  protected RiMarkov merge(RiMarkov other, int multiplier)
+  {
+    merge(root, other.root, multiplier);
+
+    // as in loadTokens(), the multiplier only applies to the token count
+    // when the text was not loaded as sentences
+    boolean asTokens = other.sentenceStarts == null || other.sentenceStarts.isEmpty();
+    tokenCount += asTokens ? other.tokenCount * multiplier : other.tokenCount;
+    wordsPerFile += other.wordsPerFile;
+
+    if (other.sentenceStarts != null)
+    {
+      if (sentenceStarts == null)
+        sentenceStarts = new ArrayList();
+      for (int i = 0; i < multiplier; i++)
+        sentenceStarts.addAll(other.sentenceStarts);
+    }
+
+    if (other.sentenceList != null)
+    {
+      if (sentenceList == null)
+        sentenceList = new HashSet();
+      sentenceList.addAll(other.sentenceList);
+    }
+
+    return this;
+  }
+
+  private void merge(TextNode target, TextNode source, int multiplier)
+  {
+    if (!source.hasChildren()) return;
+
+    int smoothing = useSmoothing ? 1 : 0; // only counted once per n-gram
+    for (Iterator it = source.childIterator(); it.hasNext();)
+    {
+      TextNode src = (TextNode) it.next();
+      int amount = (src.count() - smoothing) * multiplier;
+
+      TextNode dst = target.lookup(src.token());
+      if (dst == null)
+        dst = target.addChild(src.token(), amount + smoothing);
+      else
+        dst.increment(amount);
+
+      if (src.isSentenceStart() && !dst.isSentenceStart())
+        dst.isSentenceStart(true);
+
+      merge(dst, src, multiplier);
+    }
+  }
+
   // METHODS ----------------------------------------------------------
   
   public boolean printingIgnoredText()
@@ -520,7 +684,10 @@ if (rawText.length() < 10)
     
     if (sentenceAware)
     {
-      loadSentences(RiTa.splitSentences(rawText), multiplier, regex);
+      if (regex == null && RiTokenizer.getInstance().supportsSpans())
+        loadSentences(Splitter.getInstance().sentenceCursor(rawText), multiplier);
+      else
+        loadSentences(RiTa.splitSentences(rawText), multiplier, regex);
       
       // System.out.println(sentenceList);
       // System.out.println(sentenceStarts);
@@ -625,6 +792,117 @@ if (rawText.length() < 10)
     return print(System.out, false);
   }
 
+  /**
+   * Saves the trained model (its n-grams and counts, sentence-starts, the
+   * sentences used for duplicate checking, and its settings) to a versioned
+   * binary file that can be re-loaded (and memory-mapped) via loadModel().
+   */
+  public RiMarkov saveModel(String fileName)
+  {
+    try
+    {
+      OutputStream os = new BufferedOutputStream(new FileOutputStream(fileName), 1 << 16);
+      try
+      {
+        saveModel(os);
+      }
+      finally
+      {
+        os.close();
+      }
+    }
+    catch (IOException e)
+    {
+      throw new RiTaException(e);
+    }
+    return this;
+  }
+
+  /**
+   * Writes the trained model to the stream (which is not closed) in the format
+   * read by loadModel()
+   * 
+   * @see #saveModel(String)
+   */
+  public RiMarkov saveModel(OutputStream os) throws IOException
+  {
+    NgramStore store = useCompactStore() ? ((CompactTextNode) root).store()
+        : NgramStore.fromTree(root);
+
+    DataOutputStream dos = new DataOutputStream(os);
+    dos.writeInt(MODEL_MAGIC);
+    dos.writeInt(MODEL_VERSION);
+    dos.writeInt(nFactor);
+    dos.writeInt((ignoreCase ? 1 : 0) | (useSmoothing ? 2 : 0) | (sentenceAware ? 4 : 0)
+        | (allowDuplicates ? 8 : 0) | (removeQuotations ? 16 : 0) | (addSpaces ? 32 : 0));
+    dos.writeInt(minSentenceLength);
+    dos.writeInt(maxSentenceLength);
+    dos.writeInt(tokenCount);
+    dos.writeInt(wordsPerFile);
+    writeStrings(dos, sentenceStarts);
+    writeStrings(dos, sentenceList);
+    store.write(dos);
+    dos.flush();
+    return this;
+  }
+
+  /**
+   * Loads a model saved via saveModel(), memory-mapping the file (read-only)
+   * when it is on the local file system so that startup is immediate and the
+   * pages can be shared between processes. The returned model always uses a
+   * compact store (see useCompactStore()), and may be trained further.
+   */
+  public static RiMarkov loadModel(String fileName)
+  {
+    ByteBuffer bb = NgramStore.open(fileName);
+    int[] pos = { 0 };
+
+    if (NgramStore.readInt(bb, pos) != MODEL_MAGIC)
+      throw new RiTaException("Not a RiMarkov model: " + fileName);
+    int version = NgramStore.readInt(bb, pos);
+    if (version != MODEL_VERSION)
+      throw new RiTaException("Unsupported RiMarkov model version (" + version + "): " + fileName);
+
+    int n = NgramStore.readInt(bb, pos), flags = NgramStore.readInt(bb, pos);
+    RiMarkov rm = new RiMarkov(n, (flags & 4) != 0, (flags & 8) != 0);
+    rm.ignoreCase = (flags & 1) != 0;
+    rm.useSmoothing = (flags & 2) != 0;
+    rm.removeQuotations = (flags & 16) != 0;
+    rm.addSpaces = (flags & 32) != 0;
+    rm.minSentenceLength = NgramStore.readInt(bb, pos);
+    rm.maxSentenceLength = NgramStore.readInt(bb, pos);
+    rm.tokenCount = NgramStore.readInt(bb, pos);
+    rm.wordsPerFile = NgramStore.readInt(bb, pos);
+
+    String[] starts = readStrings(bb, pos);
+    if (starts != null)
+      rm.sentenceStarts = new ArrayList(Arrays.asList(starts));
+    String[] sents = readStrings(bb, pos);
+    if (sents != null)
+      rm.sentenceList = new HashSet(Arrays.asList(sents));
+
+    rm.root = NgramStore.read(bb, pos).root();
+    return rm;
+  }
+
+  private static void writeStrings(DataOutputStream dos, Collection c) throws IOException
+  {
+    dos.writeInt(c == null ? -1 : c.size());
+    if (c == null) return;
+    for (Iterator it = c.iterator(); it.hasNext();)
+      NgramStore.writeString(dos, (String) it.next());
+  }
+
+  private static String[] readStrings(ByteBuffer bb, int[] pos)
+  {
+    int num = NgramStore.readInt(bb, pos);
+    if (num < 0) return null;
+    String[] s = new String[num];
+    for (int i = 0; i < num; i++)
+      s[i] = NgramStore.readString(bb, pos);
+    return s;
+  }
+
   /**
    * Returns the TextNode representing the root of the model's tree, so that it
    * can be (manually) navigated.
@@ -663,6 +941,30 @@ if (rawText.length() < 10)
     return this;
   }
 
+  /**
+   * Returns whether the model is stored in a compact n-gram store (with
+   * interned tokens and primitive arrays) rather than a tree of TextNodes
+   */
+  public boolean useCompactStore()
+  {
+    return this.root instanceof CompactTextNode;
+  }
+
+  /**
+   * Toggles whether the model is stored in a compact n-gram store, which uses a
+   * fraction of the memory of the default tree of TextNodes for large models.
+   * Should be called before any data loading is done.
+   */
+  public RiMarkov useCompactStore(boolean useCompactStore)
+  {
+    if (this.root.hasChildren())
+      throw new RiTaException("Invalid state: useCompactStore() "
+          + "must be called before any data is added to the model");
+    this.root = useCompactStore ? CompactTextNode.createRoot(ignoreCase)
+        : TextNode.createRoot(ignoreCase);
+    return this;
+  }
+
   protected String nextToken(String[] tokens)
   {
     TextNode node = this.nextNodeForArr(tokens);
@@ -959,17 +1261,23 @@ if (rawText.length() < 10)
   public RiMarkov loadSentences(String[] sentences, int multiplier, String regex)
   {
     //System.out.println("RiMarkov.loadSentences("+sentences.length+")");
-    multiplier = Math.max(multiplier, 1); 
-    
-    List allWords = new ArrayList();
+    return loadSentences(Arrays.asList(sentences).iterator(), multiplier, regex);
+  }
 
+  /**
+   * Loads the sentences from the iterator into the model, one at a time, so
+   * that only the last n words need be kept in memory. After sentence
+   * splitting, the input is tokenized into words using the specified regex.
+   */
+  protected RiMarkov loadSentences(Iterator<String> sentences, int multiplier, String regex)
+  {
     if (sentenceStarts == null)
       sentenceStarts = new ArrayList();
 
-    // do the cleaning/splitting first ---------------------
-    for (int i = 0; i < sentences.length; i++)
+    Window window = new Window(multiplier, true);
+    while (sentences.hasNext())
     {
-      String sentence = clean(sentences[i]);
+      String sentence = clean(sentences.next());
       if (!allowDuplicates)
       {
         if (sentenceList == null)
@@ -987,34 +1295,268 @@ if (rawText.length() < 10)
         continue;
       }
 
-      allWords.add(SS_DELIM + tokens[0]); // awful hack for sentences starts
+      window.add(SS_DELIM + tokens[0]); // awful hack for sentences starts
+
+      for (int j = 1; j < tokens.length; j++)
+        window.add(tokens[j]);
 
-      int j = 1;
-      for (; j < tokens.length; j++)
-        allWords.add(tokens[j]);
+      wordsPerFile += tokens.length;
     }
+    window.finish();
 
-    // ------------------------------------------------
+    // System.out.println("Starts: "+sentenceStarts);
+    // System.out.println("[INFO] Processing complete: "+wordsPerFile+" words.");
+
+    return this;
+  }
+
+  /**
+   * Loads the sentences from the cursor into the model, as loadSentences() does,
+   * but tokenizing each in place (as offsets into the text). A String is only
+   * created for a sentence when duplicates are being checked (as the sentence
+   * must then be kept), or when it has quotation marks to be removed.
+   */
+  protected RiMarkov loadSentences(Splitter.SentenceCursor sentences, int multiplier)
+  {
+    if (sentenceStarts == null)
+      sentenceStarts = new ArrayList();
 
-    String[] words, toAdd;
-    wordsPerFile += allWords.size();
-    words = (String[]) allWords.toArray(new String[allWords.size()]);
-    for (int i = 0; i < words.length; i++)
+    Window window = new Window(multiplier, true);
+    PennWordTokenizer.Spans tokens = null;
+    while (sentences.next())
     {
-      toAdd = new String[nFactor]; // use arraycopy?
-      for (int j = 0; j < nFactor; j++)
+      boolean quoted = removeQuotations() && hasQuotations(sentences);
+      String sentence = (quoted || !allowDuplicates) ? clean(sentences.sentence()) : null;
+      if (!allowDuplicates)
+      {
+        if (sentenceList == null)
+          sentenceList = new HashSet();
+        sentenceList.add(sentence);
+      }
+
+      String[] words = null;
+      if (quoted)
+        words = RiTa.tokenize(sentence);
+      else
+        tokens = sentences.tokens(tokens);
+
+      int size = quoted ? words.length : tokens.size();
+      if (size < 1) continue;
+      
+      tokenCount += size;
+      String first = quoted ? words[0] : tokens.token(0);
+      if (!validSentenceStart(first))
       {
-        if ((i + j) < words.length)
-          toAdd[j] = words[i + j];
+        if (printIgnoredText)
+          System.out.println("[WARN] Skipping (bad sentence start): "
+              + RiTa.asList(quoted ? words : tokens.tokens()));
+        continue;
       }
 
-      // hack to deal with multiplier...
+      window.add(SS_DELIM + first); // awful hack for sentences starts
+
+      for (int j = 1; j < size; j++)
+        window.add(quoted ? words[j] : tokens.token(j));
+
+      wordsPerFile += size;
+    }
+    window.finish();
+
+    return this;
+  }
+
+  /*
+   * Returns true if clean() may remove quotation marks from the current
+   * sentence: if it has a double quote, or a single quote (or back-tick) that
+   * is not between two letters or digits, as in "don't"
+   */
+  private static boolean hasQuotations(Splitter.SentenceCursor sentence)
+  {
+    CharSequence text = sentence.text();
+    int start = sentence.start(), end = sentence.end();
+    for (int i = start; i < end; i++)
+    {
+      char c = text.charAt(i);
+      if (c == '"' || c == '\uFFFD')
+        return true;
+      if ((c == '\'' || c == '`') && (i == start || i == end - 1 
+          || !Character.isLetterOrDigit(text.charAt(i - 1))
+          || !Character.isLetterOrDigit(text.charAt(i + 1))))
+        return true;
+    }
+    return false;
+  }
+
+  /*
+   * A sliding window over the last n words, which adds each n-gram to the model
+   * (multiplier times) as soon as it is complete, then the trailing (shorter)
+   * ones on finish()
+   */
+  class Window
+  {
+    final String[] words = new String[nFactor];
+    final int multiplier;
+    final boolean sentences;
+    int size;
+
+    Window(int multiplier, boolean sentences)
+    {
+      this.multiplier = Math.max(multiplier, 1);
+      this.sentences = sentences;
+    }
+
+    void add(String word)
+    {
+      words[size++] = word;
+      if (size == words.length)
+        shift();
+    }
+
+    void finish()
+    {
+      while (size > 0)
+        shift();
+    }
+
+    private void shift()
+    {
+      String[] toAdd = new String[nFactor];
+      System.arraycopy(words, 0, toAdd, 0, size);
+
       for (int j = 0; j < multiplier; j++)
-        addSentenceSequence(toAdd);
+      {
+        if (sentences)
+          addSentenceSequence(toAdd);
+        else
+          addSequence(toAdd);
+      }
+
+      System.arraycopy(words, 1, words, 0, --size);
+      words[size] = null;
     }
+  }
 
-    // System.out.println("Starts: "+sentenceStarts);
-    // System.out.println("[INFO] Processing complete: "+wordsPerFile+" words.");
+  /**
+   * Loads text from the reader into the model incrementally, splitting it into
+   * sentences (or tokens) as it is read, so that the text never needs to be
+   * held in memory as a whole; this can also be used to append new text to a
+   * model that is already in use. The reader is closed when exhausted.
+   * <p>
+   * Note: unlike loadText(), a stream in which no sentences are found is not
+   * re-parsed as tokens.
+   */
+  public RiMarkov loadStream(Reader reader)
+  {
+    return loadStream(reader, 1, null);
+  }
+
+  /**
+   * Loads text from the reader into the model incrementally, tokenizing with
+   * the specified regex.
+   * 
+   * @param multiplier
+   *          Weighting for tokens in the stream
+   * @see #loadStream(Reader)
+   */
+  public RiMarkov loadStream(Reader reader, int multiplier, String regex)
+  {
+    if (sentenceAware)
+      return loadSentences(Splitter.getInstance().sentenceIterator(reader), multiplier, regex);
+
+    BufferedReader br = (reader instanceof BufferedReader) ? (BufferedReader) reader
+        : new BufferedReader(reader);
+    try
+    {
+      final BufferedReader in = br;
+      return loadTokens(new Iterator<String>()
+      {
+        String line = in.readLine();
+
+        public boolean hasNext()
+        {
+          return line != null;
+        }
+
+        public String next()
+        {
+          String s = line;
+          try
+          {
+            line = in.readLine();
+          }
+          catch (IOException e)
+          {
+            throw new RiTaException(e);
+          }
+          return s;
+        }
+
+        public void remove()
+        {
+          throw new UnsupportedOperationException();
+        }
+      }, multiplier, regex);
+    }
+    catch (IOException e)
+    {
+      throw new RiTaException(e);
+    }
+    finally
+    {
+      try
+      {
+        br.close();
+      }
+      catch (IOException e)
+      {
+        // ignore
+      }
+    }
+  }
+
+  /**
+   * Loads lines of text into the model incrementally, as they are returned by
+   * the iterator (e.g., from a file larger than the heap)
+   * 
+   * @see #loadStream(Reader)
+   */
+  public RiMarkov loadLines(Iterator<String> lines)
+  {
+    return loadLines(lines, 1, null);
+  }
+
+  /**
+   * Loads lines of text into the model incrementally, tokenizing with the
+   * specified regex.
+   * 
+   * @param multiplier
+   *          Weighting for tokens in the lines
+   * @see #loadStream(Reader)
+   */
+  public RiMarkov loadLines(Iterator<String> lines, int multiplier, String regex)
+  {
+    if (sentenceAware)
+      return loadSentences(Splitter.getInstance().sentenceIterator(lines), multiplier, regex);
+
+    return loadTokens(lines, multiplier, regex);
+  }
+
+  /*
+   * Tokenizes each line and adds its tokens to the model as in loadTokens()
+   */
+  protected RiMarkov loadTokens(Iterator<String> lines, int multiplier, String regex)
+  {
+    multiplier = Math.max(multiplier, 1);
+
+    Window window = new Window(multiplier, false);
+    while (lines.hasNext())
+    {
+      String[] tokens = RiTa.tokenize(lines.next(), regex);
+      tokenCount += tokens.length * multiplier;
+      for (int i = 0; i < tokens.length; i++)
+        window.add(tokens[i]);
+    }
+    window.finish();
 
     return this;
   }
@@ -1238,34 +1780,19 @@ if (rawText.length() < 10)
   protected TextNode nextNodeForNode(TextNode current)
   {
     int attempts = 0;
-    double selector, pTotal = 0;
-    Collection nodes = current.childNodes();
+    double selector;
+    
+    // at the root, only sentence-starts may be selected
+    boolean sentenceStart = current.isRoot() && sentenceAware;
     
     while (true)
     {
-      pTotal = 0;
       selector = Math.random();
       
-      // System.out.println("current="+current+", selector="+selector);
-      for (Iterator it = nodes.iterator(); it.hasNext();)
-      {
-        TextNode child = (TextNode) it.next();
-        // System.out.println("child="+child);
-        pTotal += child.probability();
-        // System.out.println("pTotal="+pTotal);
+      TextNode child = current.selectChild(selector, sentenceStart);
+      if (child != null)
+        return child;
         
-        if (current.isRoot() && (sentenceAware && !child.isSentenceStart()))
-        {
-          // System.out.println("continuing...");
-          continue;
-        }
-        if (selector < pTotal)
-        {
-          // System.out.println("returning "+child+"\n====================");
-          return child;
-        }
-        // System.out.println("selector >= pTotal\n====================");
-      }
       attempts++;
       
       System.err.println("[WARN] Prob. miss (#" + attempts + ") in RiMarkov.nextNode()."
@@ -1274,7 +1801,7 @@ if (rawText.length() < 10)
       
       if (attempts == MAX_PROB_MISSES)
         throw new RuntimeException // should never happen
-        ("PROB. MISS" + current + " total=" + pTotal + " selector=" + selector);
+        ("PROB. MISS" + current + " total=" + current.childTotal() + " selector=" + selector);
     }
   }
 
@@ -10,8 +10,11 @@ public class RiString implements FeaturedIF, Constants
 {
   static { RiTa.init(); }
   
+  static final Pattern WS_PATT = Pattern.compile("\\s+");
+  
   protected String delegate;
   protected Map<String,String> features;
+  protected boolean partial; // only some features have been computed
 
   public RiString(String string)
   {
@@ -55,15 +58,29 @@ public class RiString implements FeaturedIF, Constants
   
   public RiString analyze()
   {  
+    if (features == null || features.size() < 1) 
+      initFeatureMap();
+
+    analyzePhones();
+    analyzePos();
+    partial = false;
+        
+    return this;
+  }
+
+  /*
+   * Computes only the tokens, phonemes, syllables and stresses (which share one
+   * pass over the words), leaving the part-of-speech tags until needed
+   */
+  protected void analyzePhones()
+  {
     LetterToSound lts = LetterToSound.getInstance();
     JSONLexicon lex = JSONLexicon.getInstance();
 
     String[] words = RiTa.tokenize(delegate.toLowerCase());
 
-    if (features == null || features.size() < 1) 
-      initFeatureMap();
-
-    String phonemes = E, syllables = E, stresses = E;
+    StringBuilder phonemes = new StringBuilder(), syllables = new StringBuilder();
+    StringBuilder stresses = new StringBuilder();
     
     for (int i = 0; i < words.length; i++)
     {
@@ -89,10 +106,16 @@ public class RiString implements FeaturedIF, Constants
         }
       }
       
-      //System.out.println(i+") '"+ phones+"'");
-
-      phonemes += phones.replaceAll("[0-2]", E).replace(SP, DASH) + SP;
-      syllables += phones.replaceAll("[0-2]", E).replace(SP, FS) + SP;
+      // the phones without stresses, syllables separated by '-' or '/'
+      for (int j = 0; j < phones.length(); j++)
+      {
+        char c = phones.charAt(j);
+        if (c >= '0' && c <= '2') continue;
+        phonemes.append(c == ' ' ? '-' : c);
+        syllables.append(c == ' ' ? '/' : c);
+      }
+      phonemes.append(' ');
+      syllables.append(' ');
 
       if (!useRaw) {
         
@@ -105,30 +128,35 @@ public class RiString implements FeaturedIF, Constants
           if (stressyls[j].length() < 1)
             continue;
   
-          stresses += (stressyls[j].indexOf(RiTa.STRESSED) > -1) ? RiTa.STRESSED : RiTa.UNSTRESSED;
+          stresses.append((stressyls[j].indexOf(RiTa.STRESSED) > -1) ? RiTa.STRESSED : RiTa.UNSTRESSED);
   
           if (j < stressyls.length - 1)
-            stresses += FS;
+            stresses.append(FS);
         }
       }
       else {
         
         // no phones, just use raw word (punct)
          
-        stresses += words[i];
+        stresses.append(words[i]);
       }
       
-      if (!stresses.endsWith(SP))
-        stresses += SP;
+      if (stresses.length() < 1 || stresses.charAt(stresses.length() - 1) != ' ')
+        stresses.append(' ');
     }
 
     this.features.put(TOKENS, RiTa.join(words));
-    this.features.put(STRESSES, stresses.trim());
-    this.features.put(PHONEMES, phonemes.trim().replaceAll("\\s+", SP));
-    this.features.put(SYLLABLES, syllables.trim().replaceAll("\\s+", SP));
+    this.features.put(STRESSES, stresses.toString().trim());
+    this.features.put(PHONEMES, WS_PATT.matcher(phonemes.toString().trim()).replaceAll(SP));
+    this.features.put(SYLLABLES, WS_PATT.matcher(syllables.toString().trim()).replaceAll(SP));
+  }
+
+  /*
+   * Computes only the part-of-speech tags
+   */
+  protected void analyzePos()
+  {
     this.features.put(POS, RiTa.join(RiTa.getPosTags(this.delegate)));
-        
-    return this;
   }
 
   void initFeatureMap()
@@ -141,6 +169,7 @@ public class RiString implements FeaturedIF, Constants
     
     //this.features.put(MUTABLE, "true");
     this.features.put(TEXT, delegate);
+    this.partial = false;
   }
 
   private void clearFeatures()
@@ -179,7 +208,20 @@ public class RiString implements FeaturedIF, Constants
     if (features == null) this.initFeatureMap();
     String s = features.get(featureName);
     if (s == null && !features.containsKey(featureName)) {
-      this.analyze();
+      
+      // compute only what is needed for the feature requested
+      if (featureName.equals(POS)) {
+        analyzePos();
+        partial = true;
+      }
+      else if (featureName.equals(PHONEMES) || featureName.equals(STRESSES)
+          || featureName.equals(SYLLABLES) || featureName.equals(TOKENS)) {
+        analyzePhones();
+        partial = true;
+      }
+      else 
+        this.analyze();
+      
       s = features.get(featureName);
     }
     return s;
@@ -189,6 +231,14 @@ public class RiString implements FeaturedIF, Constants
   {
     if (features == null)
       this.analyze(); 
+    else if (partial)
+    {
+      if (!features.containsKey(PHONEMES))
+        analyzePhones();
+      if (!features.containsKey(POS))
+        analyzePos();
+      partial = false;
+    }
     
     return features;
   }
@@ -579,6 +629,7 @@ public class RiString implements FeaturedIF, Constants
         String key = (String) it.next();
         rs.features.put(key, feats.get(key));
       }
+      rs.partial = partial;
     }
     return rs;
   }
@@ -40,7 +40,7 @@ public class RiTa implements Constants
   public static String stem(String s)                 { return Stemmer.getInstance().stem(s); }
   public static String stem(String s, String stemmerType) { return Stemmer.getInstance(stemmerType).stem(s); }
 
-  public static String conjugate(String s, Map args)  { return getConjugator().handleArgs(args).conjugate(s); }
+  public static String conjugate(String s, Map args)  { return new Conjugator().handleArgs(args).conjugate(s); }
   public static String getPastParticiple(String s)    { return getConjugator().getPastParticiple(s); }
   public static String getPresentParticiple(String s) { return getConjugator().getPresentParticiple(s); }
   
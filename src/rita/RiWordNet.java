@@ -10,7 +10,6 @@ import rita.wordnet.jwnl.dictionary.*;
 import rita.wordnet.jwnl.dictionary.Dictionary;
 import rita.wordnet.jwnl.wndata.*;
 import rita.wordnet.jwnl.wndata.list.*;
-import rita.wordnet.jwnl.wndata.relationship.*;
 
 public class RiWordNet
 {
@@ -56,11 +55,34 @@ public class RiWordNet
   public static String wordNetHome;
   public static boolean useMorphologicalProcessor;
 
+  /**
+   * If non-null, a directory into which the built-in WordNet archive is
+   * extracted on first use, so that later starts map its files from disk
+   * rather than inflating the whole archive into memory (defaults to the
+   * 'rita.wordnet.cache' system property)
+   * 
+   * @invisible
+   */
+  public static String archiveCacheDir = System.getProperty("rita.wordnet.cache");
+
+  /**
+   * If non-null, the path of a binary file holding all of WordNet in compact
+   * form (see CompactDictionary), from which the dictionary is loaded into
+   * memory if it exists, or else built from the text files and written there
+   * for the next start (defaults to the 'rita.wordnet.compact' system
+   * property)
+   * 
+   * @invisible
+   */
+  public static String compactDictionary = System.getProperty("rita.wordnet.compact");
+
   /** @invisible */
   public Dictionary jwnlDict;
 
   public static RiZipReader zipReader;
   protected WordnetFilters filters;
+  protected Map hypernymIndexes = new HashMap(); // POS -> HypernymIndex
+  protected Map closures = new HashMap(); // PointerType+POS -> SynsetClosure
   protected int maxCharsPerWord = 10;
 
   protected boolean ignoreCompoundWords = false;
@@ -123,6 +145,18 @@ public class RiWordNet
 
     if (this.jwnlDict == null)
       this.jwnlDict = Dictionary.getInstance();
+
+    if (compactDictionary != null && !(jwnlDict instanceof CompactDictionary))
+    {
+      try
+      {
+        this.jwnlDict = CompactDictionary.open(jwnlDict, new File(compactDictionary));
+      }
+      catch (JWNLException e)
+      {
+        throw new RiWordNetError(this, e);
+      }
+    }
   }
 
   private static String getDefaultConfFile()
@@ -1078,25 +1112,21 @@ public class RiWordNet
     if (syn1 == null)
       return notFound;
     Synset syn2 = getSynsetAtId(id2);
-    if (syn2 == null)
+    if (syn2 == null || !syn1.getPOS().equals(syn2.getPOS()))
       return notFound;
     
-    RelationshipList list;
+    int parent;
     try
     {
-      list = RelationshipFinder.getInstance().findRelationships(syn1, syn2, PointerType.HYPERNYM);
+      parent = hypernymIndex(syn1.getPOS()).commonParent((int) syn1.getOffset(), (int) syn2.getOffset());
     }
     catch (JWNLException e)
     {
       // no relationship found
       return notFound;
     }
-
-    AsymmetricRelationship ar = (AsymmetricRelationship) list.get(0); 
-    PointerTargetNodeList nl = ar.getNodeList();
-    PointerTargetNode ptn = (PointerTargetNode) nl.get(ar.getCommonParentIndex());
  
-    return toId(ptn.getSynset());
+    return parent < 0 ? notFound : toId(syn1.getPOS(), parent);
   }
 
   private int toId(Synset synset)
@@ -1136,31 +1166,51 @@ public class RiWordNet
 
   private Synset getCommonParent(IndexWord start, IndexWord end) throws JWNLException  // returns null if not found
   {
-    if (start == null || end == null)
+    if (start == null || end == null || start.getSenseCount() < 1 || end.getSenseCount() < 1)
       return null;
 
-    RelationshipList list = null;
-    try
+    POS pos = start.getPOS();
+    if (!pos.equals(end.getPOS()))
+      return null;
+
+    int parent = hypernymIndex(pos).commonParent
+      ((int) start.getSynsetOffsets()[0], (int) end.getSynsetOffsets()[0]);
+
+    return parent < 0 ? null : jwnlDict.getSynsetAt(pos, parent);
+  }
+
+  /*
+   * Returns the (shared) hypernym index for the pos, which, when the built-in
+   * archive is extracted to the cache directory, is stored alongside it
+   */
+  HypernymIndex hypernymIndex(POS pos)
+  {
+    synchronized (hypernymIndexes)
     {
-      list = RelationshipFinder.getInstance().findRelationships(start.getSense(1), end.getSense(1), PointerType.HYPERNYM);
+      HypernymIndex idx = (HypernymIndex) hypernymIndexes.get(pos);
+      if (idx == null)
+      {
+        idx = HypernymIndex.open(jwnlDict, pos, hypernymIndexFile(pos));
+        hypernymIndexes.put(pos, idx);
+      }
+      return idx;
     }
-    catch (NullPointerException e)
+  }
+
+  private File hypernymIndexFile(POS pos)
+  {
+    if (archiveCacheDir == null || wordNetHome != null)
+      return null;
+    try
     {
-      // ignore jwnl bug
+      File dir = RiZipReader.extractTo(new File(archiveCacheDir), WORDNET_ARCHIVE,
+        WordnetUtil.getResourceURL(RiWordNet.class, WORDNET_ARCHIVE));
+      return new File(dir, "hypernyms." + pos.getKey() + ".idx");
     }
-    
-    if (list == null || list.size()<1)
+    catch (Exception e)
+    {
       return null;
-    
-    // System.out.println("Hypernym relationship between \"" + start.getLemma()
-    // + "\" and \"" + end.getLemma() + "\":");
-    AsymmetricRelationship ar = (AsymmetricRelationship) list.get(0);
-    PointerTargetNodeList nl = ar.getNodeList();
-    
-    // System.out.println("Common Parent Index: "+ar.getCommonParentIndex());
-    PointerTargetNode ptn = (PointerTargetNode) nl.get(ar.getCommonParentIndex());
-    
-    return ptn == null ? null : ptn.getSynset();
+    }
   }
 
   // SYNSETS
@@ -1540,44 +1590,19 @@ public class RiWordNet
 
   private List getHypernymTree(Synset synset) throws JWNLException // returns null
   {
-    // System.err.println("RiWordNet.getHypernymTree("+word+","+synset+")");
     if (synset == null) return null;
 
-    PointerTargetTree ptt = null;
-    try
-    {
-      ptt = PointerUtils.getInstance().getHypernymTree(synset);
-
-    }
-    catch (NullPointerException e)
-    {
-      // ignore bad jwnl bug here
-    }
-
-    if (ptt == null) return null;
-
-    List pointerTargetNodeLists = ptt.toList();
-
-    // System.err.println("#PTNLS -> "+pointerTargetNodeLists.size());
-    
-    List l = new ArrayList();
-    for (Iterator i = pointerTargetNodeLists.iterator(); i.hasNext();)
+    Collection l = new LinkedHashSet(); // no dups
+    int[] offsets = closure(synset.getPOS(), PointerType.HYPERNYM).closure((int) synset.getOffset());
+    for (int i = 0; i < offsets.length; i++)
     {
-      PointerTargetNodeList ptnl = (PointerTargetNodeList) i.next();
-      List strs = this.getLemmaStrings(ptnl, SYNSET_DELIM, false);
-      // System.err.println("  STRS -> "+strs);
-      for (Iterator it = strs.iterator(); it.hasNext();)
-      {
-        String lemma = (String) it.next();
-        if (lemma.length() > 0 && !l.contains(lemma))// &&
-                                                     // !lemma.equalsIgnoreCase(word))
-          l.add(lemma);
-      }
+      Synset syn = jwnlDict.getSynsetAt(synset.getPOS(), offsets[i]);
+      String lemma = syn == null ? null : toLemmaString(syn.getWords(), SYNSET_DELIM, false);
+      if (lemma != null && lemma.length() > 0)
+        l.add(lemma);
     }
-    
-    l.remove(synset); // ignore the current synset (is this ok??)
 
-    return l.size() < 1 ? null : l;
+    return l.size() < 1 ? null : new ArrayList(l);
   }
 
   // HYPONYMS (direct)
@@ -1718,7 +1743,7 @@ public class RiWordNet
     if (synsets == null || synsets.length <= 0)
       return null;
 
-    List l = new LinkedList();
+    Collection l = new LinkedHashSet(); // no dups
     for (int i = 0; i < synsets.length; i++)
     {
       try
@@ -1734,7 +1759,7 @@ public class RiWordNet
     // for (Iterator i = l.iterator(); i.hasNext();)
     // System.err.println(i.next());
 
-    return l.size() < 1 ? null : l;
+    return l.size() < 1 ? null : new ArrayList(l);
   }
 
   /**
@@ -1765,61 +1790,52 @@ public class RiWordNet
     if (synset == null)
       return null;
 
-    PointerTargetTree ptt = null;
-    try
-    {
-      ptt = PointerUtils.getInstance().getHyponymTree(synset);
-    }
-    catch (NullPointerException e)
-    {
-      // ignore bad jwnl bug here
-    }
-
-    if (ptt == null)
-      return null;
-
-    List pointerTargetNodeLists = ptt.toList();
+    // skip the synsets that share a lemma with the current one (rethink?)
+    Set syns = new HashSet();
+    addLemmas(synset.getWords(), syns);
 
-    // 1 element per unique path to a leaf
-    List l = new ArrayList();
-    for (Iterator i = pointerTargetNodeLists.iterator(); i.hasNext();)
+    Collection l = new LinkedHashSet(); // no dups
+    List lemmas = new ArrayList();
+    int[] offsets = closure(synset.getPOS(), PointerType.HYPONYM).closure((int) synset.getOffset());
+    OUTER: for (int i = 0; i < offsets.length; i++)
     {
-      PointerTargetNodeList ptnl = (PointerTargetNodeList) i.next();
-      List tmp = this.getLemmaStrings(ptnl, SYNSET_DELIM, true);
+      Synset syn = jwnlDict.getSynsetAt(synset.getPOS(), offsets[i]);
+      if (syn == null || syn.getWords() == null || syn.getWords().length == 0)
+        continue;
+
+      lemmas.clear();
+      addLemmas(syn.getWords(), lemmas);
+      String lemma = RiTa.join(lemmas, SYNSET_DELIM);
+      if (lemma.length() < 2)
+        continue;
 
-      // 1 element per synset (comma-delimited)
-      for (Iterator it = tmp.iterator(); it.hasNext();)
+      for (Iterator j = lemmas.iterator(); j.hasNext();)
       {
-        String syn = (String) it.next();
-        syn = trimFirstandLastChars(syn);
-        if (syn.length() < 2)// || syn.equalsIgnoreCase(word)) // not the
-                             // original
-          continue;
-        if (!l.contains(syn)) // no-dups
-          l.add(syn);
+        if (syns.contains(j.next()))
+          continue OUTER;
       }
+      l.add(lemma);
     }
 
-    // remove all the entries from the current synset (rethink?)
-    Set syns = new TreeSet();
-    addLemmas(synset.getWords(), syns);
+    return new ArrayList(l);
+  }
 
-    OUTER: for (Iterator iter = l.iterator(); iter.hasNext();)
+  /*
+   * Returns the (cached) closure of the pointer type over the synsets for the pos
+   */
+  SynsetClosure closure(POS pos, PointerType type)
+  {
+    synchronized (closures)
     {
-      String syn = (SYNSET_DELIM + (String) iter.next() + SYNSET_DELIM); // yuck
-      for (Iterator j = syns.iterator(); j.hasNext();)
+      String key = type.getKey() + pos.getKey();
+      SynsetClosure closure = (SynsetClosure) closures.get(key);
+      if (closure == null)
       {
-        String lemma = (SYNSET_DELIM + j.next() + SYNSET_DELIM);
-        if (syn.indexOf(lemma) > -1)
-        {
-          // System.err.println("removing: "+syn);
-          iter.remove();
-          continue OUTER;
-        }
+        closure = new SynsetClosure(jwnlDict, pos, type);
+        closures.put(key, closure);
       }
+      return closure;
     }
-
-    return l;
   }
 
   // -------------------------- AUX METHODS ----------------------------
@@ -2076,38 +2092,6 @@ public class RiWordNet
     }
   }
 
-  private List getLemmaStrings(PointerTargetNodeList source, String delim, boolean addStartAndEndDelims)
-  {
-    List l = new ArrayList();
-    for (Iterator i = source.iterator(); i.hasNext();)
-    {
-      PointerTargetNode targetNode = (PointerTargetNode) i.next();
-      if (!targetNode.isLexical())
-      {
-        Synset syn = targetNode.getSynset();
-        if (syn != null)
-        {
-          String s = toLemmaString(syn.getWords(), delim, addStartAndEndDelims);
-          l.add(s);
-        }
-      }
-      else
-      { // Never called???
-        List dest = new ArrayList();
-        addLemma(targetNode.getWord(), dest);
-        System.err.println("ILLEGAL CALL TO TARGET: " + targetNode.getWord());
-      }
-    }
-    return l == null || l.size() < 1 ? null : l;
-  }
-
-  private static String trimFirstandLastChars(String s)
-  {
-    if (s.length() < 2)
-      throw new IllegalArgumentException("Invalid length String: '" + s + "'");
-    return s.substring(1, s.length() - 1);
-  }
-
 /*  private String cleanLemma(String lemma)
   {
     if (lemma.endsWith(")")) 
@@ -2657,90 +2641,73 @@ public class RiWordNet
     return smallestD;
   }
 
-  // get distance between words that are the same POS
-  private float getWordDistance(IndexWord start, IndexWord end) throws JWNLException, NullPointerException // on
-                                                                                                           // //
-                                                                                                           // bug
-  {
-    RelationshipList relList;
-    AsymmetricRelationship rel;
-    int cpIndex, relLength, depth, depthRootCp, depthCpLeaf;
-    float distance, newDistance;
-    PointerTargetNode cpNode;
-    Synset cpSynset;
-    List cpHypListList;
-    distance = 1.0f;
-
-    int senseCount1 = start.getSenseCount();
-    int senseCount2 = end.getSenseCount();
+  /**
+   * Returns the distances (as returned by getDistance()) between each pair of
+   * the lemmas with the specified pos, where result[i][j] is the distance
+   * from lemmas[i] to lemmas[j], or 1.0 if either is not found.
+   */
+  public float[][] getDistances(String[] lemmas, String pos)
+  {
+    POS p = convertPos(pos);
+    IndexWord[] words = new IndexWord[lemmas.length];
+    for (int i = 0; i < lemmas.length; i++)
+    {
+      try
+      {
+        IndexWordSet set = jwnlDict.lookupAllIndexWords(lemmas[i]);
+        if (set.isValidPOS(p))
+          words[i] = set.getIndexWord(p);
+      }
+      catch (JWNLException e)
+      {
+        System.err.println("[WARN] Error obtaining distance: " + e);
+      }
+    }
 
-    // for each pairing of word senses...
-    for (int i = 1; i <= senseCount1; i++)
+    float[][] result = new float[lemmas.length][lemmas.length];
+    for (int i = 0; i < lemmas.length; i++)
     {
-      for (int j = 1; j <= senseCount2; j++)
+      for (int j = 0; j < lemmas.length; j++)
       {
-        // get list of relationships between words (usually only one)
-        try
+        result[i][j] = 1.0f;
+        if (lemmas[i].equals(lemmas[j]))
         {
-          // System.out.println(i+","+j+": "+start.getSense(i)+","+end.getSense(j));
-          relList = RelationshipFinder.getInstance().findRelationships(start.getSense(i), end.getSense(j), PointerType.HYPERNYM);
+          result[i][j] = 0.0f;
         }
-        catch (Exception e)
-        {
-          // System.out.println("RiWordNet.getWordDistance().exception="+e.getMessage());
-          continue;
-        }
-
-        // calculate distance for each one
-        for (Iterator relListItr = relList.iterator(); relListItr.hasNext();)
+        else if (words[i] != null && words[j] != null)
         {
-          rel = (AsymmetricRelationship) relListItr.next();
-          cpIndex = rel.getCommonParentIndex();
-          relLength = rel.getDepth();
-
-          // distance between items going through the CP
-          // (depth of furthest word from CP)
-          depthCpLeaf = Math.max(relLength - cpIndex, cpIndex);
-
-          // get the CPI node
-          cpNode = (PointerTargetNode) rel.getNodeList().get(cpIndex);
-          // get the synset of the CPI node
-          cpSynset = cpNode.getSynset();
-          // get all the hypernyms of the CPI synset
-          // returns a list of hypernym chains.
-          // probably always one chain, but better to be safe...
-          cpHypListList = (PointerUtils.getInstance().getHypernymTree(cpSynset)).toList();
-
-          // System.out.println("PARENT: "+cpSynset);
-
-          // get shortest depth from root to CP
-          depthRootCp = -1;
-          for (Iterator cpHypListListItr = cpHypListList.iterator(); cpHypListListItr.hasNext();)
+          try
           {
-            depth = ((List) cpHypListListItr.next()).size();
-            if (depthRootCp == -1)
-            {
-              depthRootCp = depth;
-            }
-            else
-            {
-              if (depth < depthRootCp)
-              {
-
-                depthRootCp = depth;
-              }
-            }
+            result[i][j] = getWordDistance(words[i], words[j]);
           }
-
-          // normalize the distance
-          newDistance = (float) depthCpLeaf / (depthRootCp + depthCpLeaf);
-          if (newDistance < distance)
+          catch (JWNLException e)
           {
-            distance = newDistance;
+            System.err.println("[WARN] Error obtaining distance: " + e);
           }
         }
       }
     }
+    return result;
+  }
+
+  // get distance between words that are the same POS
+  private float getWordDistance(IndexWord start, IndexWord end) throws JWNLException
+  {
+    HypernymIndex index = hypernymIndex(start.getPOS());
+    long[] senses1 = start.getSynsetOffsets();
+    long[] senses2 = end.getSynsetOffsets();
+    float distance = 1.0f;
+
+    // for each pairing of word senses...
+    for (int i = 0; i < senses1.length; i++)
+    {
+      for (int j = 0; j < senses2.length; j++)
+      {
+        float d = index.distance((int) senses1[i], (int) senses2[j]);
+        if (d < distance)
+          distance = d;
+      }
+    }
     return distance;
   }
 
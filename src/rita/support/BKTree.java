@@ -0,0 +1,222 @@
+package rita.support;
+
+import java.util.*;
+
+/**
+ * A Burkhard-Keller tree over the words in the lexicon, keyed either by their
+ * letters or by their phonemes (each phoneme encoded as a single char), and
+ * searched with the min-edit-distance metric. Since the metric obeys the
+ * triangle inequality, nearest-neighbour queries only need to compute the
+ * distance to a small fraction of the dictionary.
+ * <p>
+ * Note: this is a support class, public access is provided through
+ * rita.RiLexicon (similarByLetter/similarBySound).
+ */
+public class BKTree extends LexiconIndex
+{
+  /**
+   * Decides whether a candidate word may be added to the result
+   */
+  public static interface Filter
+  {
+    public boolean accept(String candidate);
+  }
+
+  static class Node
+  {
+    final String key;
+    String[] words;
+    Node[] children;
+
+    Node(String key, String word)
+    {
+      this.key = key;
+      this.words = new String[] { word };
+    }
+
+    void addWord(String word)
+    {
+      String[] tmp = new String[words.length + 1];
+      System.arraycopy(words, 0, tmp, 0, words.length);
+      tmp[words.length] = word;
+      words = tmp;
+    }
+
+    Node child(int dist)
+    {
+      return (children != null && dist < children.length) ? children[dist] : null;
+    }
+
+    void setChild(int dist, Node node)
+    {
+      if (children == null || dist >= children.length)
+      {
+        Node[] tmp = new Node[dist + 1];
+        if (children != null)
+          System.arraycopy(children, 0, tmp, 0, children.length);
+        children = tmp;
+      }
+      children[dist] = node;
+    }
+  }
+
+  protected Node root;
+  protected int size;
+  protected MinEditDist med = new MinEditDist();
+  protected Map<String, Character> phoneCodes; // only for phoneme trees
+  private boolean built;
+
+  private BKTree(JSONLexicon lexicon, boolean byPhonemes)
+  {
+    super(lexicon);
+
+    if (byPhonemes)
+      phoneCodes = new HashMap<String, Character>();
+
+    for (Iterator<String> it = lexicon.iterator(); it.hasNext();)
+    {
+      String word = it.next();
+      add(byPhonemes ? encode(lexicon.getPhonemeArr(word, false)) : word, word);
+    }
+    built = true;
+  }
+
+  /**
+   * Builds a tree over the letters of each word in the lexicon
+   */
+  public static BKTree byLetter(JSONLexicon lexicon)
+  {
+    return new BKTree(lexicon, false);
+  }
+
+  /**
+   * Builds a tree over the phonemes of each word in the lexicon
+   */
+  public static BKTree bySound(JSONLexicon lexicon)
+  {
+    return new BKTree(lexicon, true);
+  }
+
+  /**
+   * Returns the number of words in the tree
+   */
+  public int size()
+  {
+    return size;
+  }
+
+  /**
+   * Encodes a phoneme array as a String (one char per phoneme) to be used as a
+   * query against a phoneme tree; phonemes not found in the lexicon are given
+   * distinct codes of their own.
+   */
+  public String encode(String[] phones)
+  {
+    if (phones == null) return E;
+
+    StringBuilder sb = new StringBuilder(phones.length);
+    List<String> unknown = null;
+    for (int i = 0; i < phones.length; i++)
+    {
+      Character c = phoneCodes.get(phones[i]);
+      if (c == null)
+      {
+        if (built) // querying: don't modify the codes
+        {
+          if (unknown == null) unknown = new ArrayList<String>();
+          int idx = unknown.indexOf(phones[i]);
+          if (idx < 0)
+          {
+            idx = unknown.size();
+            unknown.add(phones[i]);
+          }
+          c = (char) (Character.MAX_VALUE - idx);
+        }
+        else
+        {
+          c = (char) ('A' + phoneCodes.size());
+          phoneCodes.put(phones[i], c);
+        }
+      }
+      sb.append(c.charValue());
+    }
+    return sb.toString();
+  }
+
+  private void add(String key, String word)
+  {
+    size++;
+
+    if (root == null)
+    {
+      root = new Node(key, word);
+      return;
+    }
+
+    Node node = root;
+    while (true)
+    {
+      int dist = med.computeRaw(node.key, key);
+      if (dist == 0)
+      {
+        node.addWord(word);
+        return;
+      }
+      Node next = node.child(dist);
+      if (next == null)
+      {
+        node.setChild(dist, new Node(key, word));
+        return;
+      }
+      node = next;
+    }
+  }
+
+  /**
+   * Finds the smallest distance (at least <code>minDist</code>, and never 0)
+   * from the query to an accepted word, adding all accepted words at that
+   * distance to <code>result</code>.
+   *
+   * @return the distance found, or Integer.MAX_VALUE if none
+   */
+  public int nearest(String query, int minDist, Collection result, Filter filter)
+  {
+    int[] best = { Integer.MAX_VALUE };
+    if (root != null)
+      search(root, query, Math.max(1, minDist), best, result, filter);
+    return best[0];
+  }
+
+  private void search(Node node, String query, int minDist, int[] best, Collection result, Filter filter)
+  {
+    int dist = med.computeRaw(node.key, query);
+
+    if (dist >= minDist && dist <= best[0])
+    {
+      for (int i = 0; i < node.words.length; i++)
+      {
+        String cand = node.words[i];
+        if (!filter.accept(cand)) continue;
+
+        if (dist < best[0])
+        {
+          best[0] = dist;
+          result.clear();
+        }
+        result.add(cand);
+      }
+    }
+
+    if (node.children == null) return;
+
+    // children at distance k can only be within [|k-dist|, k+dist] of the query
+    for (int k = 1; k < node.children.length; k++)
+    {
+      if (k + dist < minDist || (best[0] != Integer.MAX_VALUE && Math.abs(k - dist) > best[0]))
+        continue;
+      Node child = node.children[k];
+      if (child != null)
+        search(child, query, minDist, best, result, filter);
+    }
+  }
+}
@@ -1,6 +1,7 @@
 package rita.support;
 
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.regex.Pattern;
 
 import rita.*;
@@ -81,8 +82,12 @@ public class BrillPosTagger implements Constants
   
   static final Pattern number = Pattern.compile("[0-9\\.][0-9\\.]*");
   
+  private static final CompiledRules NULL_PLURAL_RULES = 
+    new CompiledRules(new RegexRule[] { NULL_PLURALS });
+  
   private static JSONLexicon lexicon;
   private static BrillPosTagger instance;
+  private volatile PosTagTable table;
   
   public static BrillPosTagger getInstance() {
     if (instance == null)
@@ -106,18 +111,23 @@ public class BrillPosTagger implements Constants
    */
   public String[] tagFile(String fileName, Object pApplet) {
     
-    List result = new ArrayList();
     String text = RiTa.loadString(fileName, pApplet);
     
     String[] sents = RiTa.splitSentences(text);
-    for (int i = 0; i < sents.length; i++) {
-      //System.out.println("BrillPosTagger: "+sen);
-      String[] words = RiTa.tokenize(sents[i]);
-      tag(words, result);
-    }
+    String[][] words = new String[sents.length][];
+    for (int i = 0; i < sents.length; i++)
+      words[i] = RiTa.tokenize(sents[i]);
+    
+    String[][] tags = tag(words);
     
-    String[] tmp = new String[result.size()];
-    return (String[])result.toArray(tmp);
+    int total = 0;
+    for (int i = 0; i < tags.length; i++)
+      total += tags[i].length;
+    
+    String[] result = new String[total];
+    for (int i = 0, k = 0; i < tags.length; k += tags[i++].length)
+      System.arraycopy(tags[i], 0, result, k, tags[i].length);
+    return result;
   }
   
   /**
@@ -170,44 +180,133 @@ public class BrillPosTagger implements Constants
    */
   public String[] tag(String[] words)
   {
-    if (DBUG) System.out.println("BrillPosTagger.tag("+RiTa.asList(words)+")");
-
-    String[] result = new String[words.length];
-    String[][] choices = new String[words.length][];
-    for (int i = 0, size = words.length; i < size; i++)
+    PosTagTable tab = table();
+    int[] ids = tagIds(words, tab);
+    String[] result = new String[ids.length];
+    for (int i = 0; i < ids.length; i++)
+      result[i] = ids[i] == PosTagTable.LITERAL ? words[i] : tab.tag(ids[i]);
+    return result;
+  }
+  
+  /**
+   * Returns an array of parts-of-speech from the Penn tagset for
+   * each of the sentences (arrays of words) in the input.
+   * @param sentences String[][]
+   * @return String[][]
+   */
+  public String[][] tag(String[][] sentences)
+  {
+    String[][] result = new String[sentences.length][];
+    tag(sentences, result, 0, sentences.length, table());
+    return result;
+  }
+  
+  /**
+   * Returns an array of parts-of-speech from the Penn tagset for
+   * each of the sentences (arrays of words) in the input, dividing
+   * the sentences between the tasks run on <code>pool</code>.
+   * @param sentences String[][]
+   * @param pool ExecutorService
+   * @return String[][]
+   */
+  public String[][] tag(final String[][] sentences, ExecutorService pool)
+  {
+    final String[][] result = new String[sentences.length][];
+    final PosTagTable tab = table();
+    
+    int numTasks = Math.min(sentences.length, Runtime.getRuntime().availableProcessors() * 4);
+    List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(numTasks);
+    for (int i = 0; i < numTasks; i++) 
+    {
+      final int from = (int) ((long) sentences.length * i / numTasks);
+      final int to = (int) ((long) sentences.length * (i + 1) / numTasks);
+      tasks.add(new Callable<Object>() {
+        public Object call() {
+          tag(sentences, result, from, to, tab);
+          return null;
+        }
+      });
+    }
+    
+    try {
+      List<Future<Object>> futures = pool.invokeAll(tasks);
+      for (int i = 0; i < futures.size(); i++)
+        futures.get(i).get();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RiTaException(e);
+    }
+    catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      throw (cause instanceof RuntimeException) ? (RuntimeException) cause : new RiTaException(cause);
+    }
+    
+    return result;
+  }
+  
+  private void tag(String[][] sentences, String[][] result, int from, int to, PosTagTable tab)
+  {
+    for (int i = from; i < to; i++) 
+    {
+      String[] words = sentences[i];
+      int[] ids = tagIds(words, tab);
+      String[] tags = new String[ids.length];
+      for (int j = 0; j < ids.length; j++)
+        tags[j] = ids[j] == PosTagTable.LITERAL ? words[j] : tab.tag(ids[j]);
+      result[i] = tags;
+    }
+  }
+  
+  /*
+   * Returns the (shared) tag table, (re)building it if the lexicon has changed
+   */
+  PosTagTable table()
+  {
+    PosTagTable tab = table;
+    if (tab == null || tab.isStale(lexicon))
+      table = tab = new PosTagTable(lexicon);
+    return tab;
+  }
+  
+  /**
+   * Returns the ids (from the table) of the most probable tags for the words, 
+   * with PosTagTable.LITERAL for single-char words that are their own tag.
+   */
+  protected int[] tagIds(String[] words, PosTagTable tab)
+  {
+    int[] result = new int[words.length];
+    int[][] choices = new int[words.length][];
+    for (int i = 0; i < words.length; i++)
     {
       String word = words[i];
       if (word.length() < 1) {
-        result[i] = E;
-        choices[i] = null;
+        result[i] = PosTagTable.EMPTY;
         continue;
       }
       
-      String[] data = lookup(word);
-      
-      if (DBUG) System.out.println(words[i]+" -> "+RiTa.asList(data)+" "+data.length);
+      if (word.contains(SP))
+        throw new RiTaException("Only single words allowed");
       
+      int[] data = tab.choices(word);
       if (data == null || data.length == 0) {
-        if (word.length() == 1) {
-          result[i] = Character.isDigit(word.charAt(0)) ? "cd" : word;             
-        }
+        if (word.length() == 1) 
+          result[i] = Character.isDigit(word.charAt(0)) ? PosTagTable.CD : PosTagTable.LITERAL;
         else
-          result[i] = "nn";
-        choices[i] = null;
+          result[i] = PosTagTable.NN;
       }
       else {
         result[i] = data[0];
         choices[i] = data;
       }
-      
     }
     
     // adjust pos according to transformation rules
-    this.applyContext(words, result, choices);
+    this.applyContext(words, result, choices, tab);
     
     return result;
   }
-
+  
   public String[] lookup(String word)
   {
     String[] posArr = lexicon.getPosArr(word);
@@ -217,118 +316,97 @@ public class BrillPosTagger implements Constants
   }
   
   /**
-   * Applies a customized subset of the Brill transformations
+   * Applies a customized subset of the Brill transformations to tag ids,
+   * testing the flags precomputed for each tag rather than Strings
    */
-  protected void applyContext(String[] words, String[] result, String[][] choices)
+  protected void applyContext(String[] words, int[] result, int[][] choices, PosTagTable tab)
   {    
-    if (DBUG) System.out.println("RiPosTagger.applyContext("+Arrays.asList(words)+","+Arrays.asList(result)+")");
-    
-    // Apply transformations  
     for (int i = 0; i < words.length; i++)
     {
-      if (DBUG) System.out.println(i+") preTransform: "+words[i]+" -> "+result[i]);
-      //if (i>0) System.out.println("previous="+result[i-1]);
+      String word = words[i];
+      int flags = flags(result[i], word, tab);
       
       // transform 1: DT, {VBD | VBP | VB} --> DT, NN
-      if (i > 0 && result[i - 1].equals("dt"))
-      {
-        if (result[i].startsWith("vb")) {
-          
-          if (PRINT_CUSTOM_TAGS) System.out.println("BrillPosTagger: changing verb to noun: "+words[i]);
-          
-          result[i] = "nn";
-        }
-        
-        // transform 1: DT, {RB | RBR | RBS} --> DT, {JJ | JJR | JJS}
-        else if (result[i].startsWith("rb"))   {// added -dch
-          
-          if (PRINT_CUSTOM_TAGS || DBUG)
-            System.out.print("BrillPosTagger:  custom tagged '"+words[i]+"', "+result[i]);                    
-          result[i] = "jj";
-          
-          if (result[i].length()>2)  
-            result[i] += result[i].charAt(2);
-          
-          if (PRINT_CUSTOM_TAGS || DBUG) System.out.println(" -> "+result[i]);
-        }
-      }
-      // transform 2: convert a noun to a number (cd)
-      // if it is all digits and/or a decimal "." 
-      if (result[i].startsWith("n") && choices[i] == null)
+      //              DT, {RB | RBR | RBS} --> DT, JJ
+      if (i > 0 && (flags(result[i - 1], words[i - 1], tab) & PosTagTable.IS_DT) != 0)
       {
-        if (isNum(words[i])) result[i] = "cd"; // mods: dch (add choice check above)
+        if ((flags & PosTagTable.STARTS_VB) != 0)
+          flags = flags(result[i] = PosTagTable.NN, word, tab);
+        else if ((flags & PosTagTable.STARTS_RB) != 0)
+          flags = flags(result[i] = PosTagTable.JJ, word, tab);
       }
+      
+      // transform 2: convert a noun to a number (cd) if it is all digits and/or a decimal "." 
+      if ((flags & PosTagTable.STARTS_N) != 0 && choices[i] == null && isNum(word))
+        flags = flags(result[i] = PosTagTable.CD, word, tab);
         
-      // transform 3: convert a noun to a past participle if words[i] ends with "ed"
-      if (result[i].startsWith("n") && words[i].endsWith("ed"))
-        result[i] = "vbn";
+      // transform 3: convert a noun to a past participle if word ends with "ed"
+      if ((flags & PosTagTable.STARTS_N) != 0 && word.endsWith("ed"))
+        flags = flags(result[i] = PosTagTable.VBN, word, tab);
       
       // transform 4: convert any type to adverb if it ends in "ly";
-      if (words[i].endsWith("ly"))
-        result[i] = "rb";
+      if (word.endsWith("ly"))
+        flags = flags(result[i] = PosTagTable.RB, word, tab);
       
       // transform 5: convert a common noun (NN or NNS) to a adjective if it ends with "al"
-      if (result[i].startsWith("nn") && words[i].endsWith("al") && !words[i].equals("mammal")) 
-        result[i] = "jj";      // special-case for mammal
+      if ((flags & PosTagTable.STARTS_NN) != 0 && word.endsWith("al") && !word.equals("mammal"))
+        flags = flags(result[i] = PosTagTable.JJ, word, tab);
       
       // transform 6: convert a noun to a verb if the preceding word is "would"
-      if (i > 0 && result[i].startsWith("nn")
-          && words[i - 1].equalsIgnoreCase("would"))
-        result[i] = "vb";
+      if (i > 0 && (flags & PosTagTable.STARTS_NN) != 0 && words[i - 1].equalsIgnoreCase("would"))
+        flags = flags(result[i] = PosTagTable.VB, word, tab);
       
       // transform 7: if a word has been categorized as a common noun and it ends
       // with "s", then set its type to plural common noun (NNS)
-      if (result[i].equals("nn") && words[i].matches(".*[^s]s$")) { // added dch
-        if (!NULL_PLURALS.applies(words[i]))  // added dch
-          result[i] = "nns";
-      }
+      if ((flags & PosTagTable.IS_NN) != 0 && endsWithSingleS(word) && NULL_PLURAL_RULES.match(word) < 0)
+        flags = flags(result[i] = PosTagTable.NNS, word, tab);
         
       // transform 8: convert a common noun to a present participle verb (i.e., a gerund)
-      if (result[i].startsWith("nn") && words[i].endsWith("ing")) {
-        
-        // DH: fix here -- added check on choices for any verb: eg 'morning'
-        if (hasTag(choices[i], "vb"))
-          result[i] = "vbg";
-        else if (PRINT_CUSTOM_TAGS  || DBUG)
-          System.out.println("[INFO] Custom tagged '"+words[i]+"' as "+result[i]);
-      }
+      if ((flags & PosTagTable.STARTS_NN) != 0 && word.endsWith("ing") 
+          && (choiceFlags(choices[i], tab) & PosTagTable.HAS_VB) != 0)
+        flags = flags(result[i] = PosTagTable.VBG, word, tab);
 
-      // transform 9(dch): convert plural nouns (which are also 3sg-verbs) to 
+      // transform 9: convert plural nouns (which are also 3sg-verbs) to 
       // 3sg-verbs when following a singular noun (the boy jumps, the dog dances) 
-      if (i>0 && result[i].equals("nns") && hasTag(choices[i], "vbz") 
-          && (result[i-1].equals("nn") || result[i-1].equals("prp") || result[i-1].equals("nnp"))) 
-      {
-        if (DBUG) System.out.print("CUSTOM_TAG_TRANSFORM: "+result[i]);
-        
-        result[i] = "vbz";
-        
-        if (DBUG) System.out.println(" -> "+result[i]);
-      }
-      
-      // transform 10 (dch): convert common nouns to proper nouns when they start w' a capital (?and are not a sentence start?)
-      if (/*i > 0 && */result[i].startsWith("nn") && Character.isUpperCase(words[i].charAt(0))) {
-        
-        if (DBUG)
-          System.out.print("[INFO] Custom tagged '"+words[i]+"', "+result[i]);
-        
-        result[i] = result[i].endsWith("s") ? "nnps" : "nnp";
-        
-        if (DBUG) System.out.println(" -> "+result[i]);
-      }
-            
-      // DISABLED: transform 12(dch): convert plural nouns (which are also 3sg-verbs) to 3sg-verbs when followed by an adverb (jumps, dances) 
-      // NO-TEST-CASE FOR THIS
-      if (false && i < result.length-1 && result[i].equals("nns") && result[i+1].startsWith("rb") && hasTag(choices[i], "vbz")) {
-        
-        if (DBUG);System.out.print("CUSTOM_TAG_TRANSFORM: "+result[i]);
-        
-        result[i] = "vbz";
-        
-        if (DBUG); System.out.println(" -> "+result[i]);
-      }
-      
+      if (i > 0 && (flags & PosTagTable.IS_NNS) != 0 
+          && (choiceFlags(choices[i], tab) & PosTagTable.HAS_VBZ) != 0
+          && (flags(result[i - 1], words[i - 1], tab) 
+            & (PosTagTable.IS_NN | PosTagTable.IS_PRP | PosTagTable.IS_NNP)) != 0) 
+        flags = flags(result[i] = PosTagTable.VBZ, word, tab);
       
+      // transform 10: convert common nouns to proper nouns when they start w' a capital
+      if ((flags & PosTagTable.STARTS_NN) != 0 && Character.isUpperCase(word.charAt(0)))
+        result[i] = (flags & PosTagTable.ENDS_S) != 0 ? PosTagTable.NNPS : PosTagTable.NNP;
+    }
+  }
+  
+  private static int flags(int id, String word, PosTagTable tab) 
+  {
+    return id == PosTagTable.LITERAL ? PosTagTable.computeFlags(word) : tab.flags(id);
+  }
+  
+  private static int choiceFlags(int[] choices, PosTagTable tab) 
+  {
+    int flags = 0;
+    if (choices != null) {
+      for (int j = 0; j < choices.length; j++)
+        flags |= tab.flags(choices[j]);
     }
+    return flags;
+  }
+  
+  // same as word.matches(".*[^s]s$")
+  private static boolean endsWithSingleS(String word) 
+  {
+    int n = word.length();
+    if (n < 2 || word.charAt(n - 1) != 's' || word.charAt(n - 2) == 's') 
+      return false;
+    for (int j = 0; j < n - 2; j++) {
+      char c = word.charAt(j);
+      if (c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029')
+        return false;
+    }
+    return true;
   }
 
   private static boolean isNum(String word) 
@@ -342,15 +420,6 @@ public class BrillPosTagger implements Constants
     return true;
   }
   
-  private boolean hasTag(/*String word, */String[] choices, String tag)
-  {    
-    String choiceStr = RiTa.join(choices);
-    //System.err.println("RiPosTagger.canBeVerb("+word+","+choiceStr+")");
-    boolean hasTag = choiceStr.indexOf(tag)>-1;
-    //System.err.println("VERB! "+verb);
-    return hasTag;
-  }
-
   /*public static void mainXX(String[] args)
   {
     RiLexicon lex = new RiLexicon();
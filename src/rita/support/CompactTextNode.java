@@ -0,0 +1,170 @@
+package rita.support;
+
+import java.util.*;
+
+import rita.RiTaException;
+
+/**
+ * A lightweight view of a single node in an NgramStore, so that the compact
+ * store can be navigated (and modified) via the TextNode API. Views are created
+ * on demand and hold no state besides the store and the index of their node.
+ */
+public class CompactTextNode extends TextNode
+{
+  protected final NgramStore store;
+  protected final int index;
+
+  public static TextNode createRoot(boolean ignoreCase)
+  {
+    return new NgramStore(ignoreCase).root();
+  }
+
+  CompactTextNode(NgramStore store, int index)
+  {
+    super(null, null);
+    this.store = store;
+    this.index = index;
+  }
+
+  /**
+   * Returns the store containing this node
+   */
+  public NgramStore store()
+  {
+    return store;
+  }
+
+  public TextNode addChild(String newToken, int initialCount)
+  {
+    return store.node(store.addChild(index, newToken, initialCount));
+  }
+
+  public String token()
+  {
+    return isRoot() ? "ROOT" : store.token(index);
+  }
+
+  public int count()
+  {
+    return store.count(index);
+  }
+
+  public int increment(int amount)
+  {
+    return store.increment(index, amount);
+  }
+
+  public boolean isRoot()
+  {
+    return index == NgramStore.ROOT;
+  }
+
+  public TextNode parent()
+  {
+    return store.node(store.parent(index));
+  }
+
+  public int childTotal()
+  {
+    return store.childTotal(index);
+  }
+
+  public int size()
+  {
+    return store.numChildren(index);
+  }
+
+  public boolean isLeaf()
+  {
+    return !hasChildren();
+  }
+
+  public boolean hasChildren()
+  {
+    return store.firstChild(index) != NgramStore.NONE;
+  }
+
+  public TextNode lookup(String tokenToLookup)
+  {
+    if (tokenToLookup == null || tokenToLookup.length() < 1)
+      return null;
+    return store.node(store.child(index, store.tokenId(tokenToLookup)));
+  }
+
+  public TextNode lookup(TextNode tokenToLookup)
+  {
+    if (tokenToLookup == null) return null;
+    return store.node(store.child(index, store.tokenId(tokenToLookup.token())));
+  }
+
+  public Iterator childIterator()
+  {
+    return childList().iterator();
+  }
+
+  public Collection childNodes()
+  {
+    return hasChildren() ? childList() : null;
+  }
+
+  public Map childMap()
+  {
+    Map m = new LinkedHashMap();
+    for (int c = store.firstChild(index); c != NgramStore.NONE; c = store.nextSibling(c))
+      m.put(store.token(c), store.node(c));
+    return m;
+  }
+
+  private List childList()
+  {
+    List l = new ArrayList();
+    for (int c = store.firstChild(index); c != NgramStore.NONE; c = store.nextSibling(c))
+      l.add(store.node(c));
+    return l;
+  }
+
+  public TextNode selectChild(double selector, boolean sentenceStart)
+  {
+    return store.node(store.select(index, selector, sentenceStart));
+  }
+
+  public boolean isSentenceStart()
+  {
+    return store.isSentenceStart(index);
+  }
+
+  public void isSentenceStart(boolean isSentenceStart)
+  {
+    store.setSentenceStart(index, isSentenceStart);
+  }
+
+  /**
+   * Sets whether tokens are case-folded, which may only be changed while the
+   * store is empty, as the tokens already interned would otherwise be
+   * unreachable
+   */
+  public void ignoresCase(boolean b)
+  {
+    super.ignoresCase(b);
+    if (b != store.ignoreCase && store.tokenCount() > 0)
+      throw new RiTaException("Illegal to change the ignore-case flag once the store holds n-grams");
+    store.ignoreCase = b;
+  }
+
+  public boolean ignoresCase()
+  {
+    return store.ignoreCase;
+  }
+
+  public boolean equals(Object o)
+  {
+    if (!(o instanceof CompactTextNode)) return false;
+    CompactTextNode tn = (CompactTextNode) o;
+    return tn.store == store && tn.index == index;
+  }
+
+  public int hashCode()
+  {
+    return index;
+  }
+}
@@ -0,0 +1,227 @@
+package rita.support;
+
+import java.util.*;
+
+/**
+ * A RiGrammar compiled for expansion: each production is parsed once into a
+ * sequence of literal segments and (resolved) rule ids, and each rule keeps
+ * the cumulative weights of its productions, so that an expansion is a single
+ * walk of the tree, written into one StringBuilder, rather than repeated
+ * searches and rebuilds of the whole working string.
+ * <p>
+ * As in RiGrammar.expandRule(), any occurrence of a rule name in a production
+ * is a reference to that rule (where names overlap, the longest is used).
+ * <p>
+ * Note: this is a support class, public access is provided through
+ * rita.RiGrammar.
+ */
+public class CompiledGrammar
+{
+  protected String[] names;
+  protected Map<String, Integer> ids;
+  protected Object[][][] productions; // rule -> production -> segments
+  protected float[][] cumulative; // rule -> cumulative weights
+  protected Map<Character, String[]> namesByFirstChar;
+
+  /**
+   * Compiles the rules (name -> (production -> weight))
+   */
+  public CompiledGrammar(Map<String, Map<String, Float>> rules)
+  {
+    int num = rules.size();
+    names = new String[num];
+    ids = new HashMap<String, Integer>(num * 2);
+    productions = new Object[num][][];
+    cumulative = new float[num][];
+
+    int id = 0;
+    for (Iterator<String> it = rules.keySet().iterator(); it.hasNext(); id++)
+    {
+      names[id] = it.next();
+      ids.put(names[id], id);
+    }
+
+    // names are tried longest first, keyed by their first char
+    Map<Character, List<String>> tmp = new HashMap<Character, List<String>>();
+    for (int i = 0; i < num; i++)
+    {
+      if (names[i].length() < 1) continue;
+      Character c = names[i].charAt(0);
+      List<String> l = tmp.get(c);
+      if (l == null)
+        tmp.put(c, l = new ArrayList<String>());
+      l.add(names[i]);
+    }
+    namesByFirstChar = new HashMap<Character, String[]>(tmp.size() * 2);
+    for (Iterator<Character> it = tmp.keySet().iterator(); it.hasNext();)
+    {
+      Character c = it.next();
+      String[] arr = tmp.get(c).toArray(new String[0]);
+      Arrays.sort(arr, new Comparator<String>()
+      {
+        public int compare(String a, String b)
+        {
+          return b.length() - a.length();
+        }
+      });
+      namesByFirstChar.put(c, arr);
+    }
+
+    for (int i = 0; i < num; i++)
+    {
+      Map<String, Float> choices = rules.get(names[i]);
+      productions[i] = new Object[choices.size()][];
+      cumulative[i] = new float[choices.size()];
+
+      int j = 0;
+      float total = 0;
+      for (Iterator<Map.Entry<String, Float>> it = choices.entrySet().iterator(); it.hasNext(); j++)
+      {
+        Map.Entry<String, Float> entry = it.next();
+        productions[i][j] = parse(entry.getKey());
+        cumulative[i][j] = (total += entry.getValue());
+      }
+    }
+  }
+
+  /**
+   * Parses the text into literal (String) and rule (Integer) segments
+   */
+  public Object[] parse(String text)
+  {
+    List<Object> segments = new ArrayList<Object>();
+    int start = 0, i = 0;
+    while (i < text.length())
+    {
+      String name = nameAt(text, i);
+      if (name == null)
+      {
+        i++;
+        continue;
+      }
+      if (i > start)
+        segments.add(text.substring(start, i));
+      segments.add(ids.get(name));
+      i = start = i + name.length();
+    }
+    if (start < text.length())
+      segments.add(text.substring(start));
+
+    return segments.toArray();
+  }
+
+  /**
+   * Returns true if any rule name occurs in the text
+   */
+  public boolean containsRule(CharSequence text)
+  {
+    for (int i = 0; i < text.length(); i++)
+    {
+      if (nameAt(text, i) != null)
+        return true;
+    }
+    return false;
+  }
+
+  private String nameAt(CharSequence text, int idx)
+  {
+    String[] candidates = namesByFirstChar.get(text.charAt(idx));
+    if (candidates == null) return null;
+
+    outer: for (int k = 0; k < candidates.length; k++)
+    {
+      String name = candidates[k];
+      if (idx + name.length() > text.length()) continue;
+      for (int j = 1; j < name.length(); j++)
+      {
+        if (text.charAt(idx + j) != name.charAt(j))
+          continue outer;
+      }
+      return name;
+    }
+    return null;
+  }
+
+  /**
+   * Returns the id of the rule, or -1 if it does not exist
+   */
+  public int ruleId(String name)
+  {
+    Integer id = ids.get(name);
+    return id == null ? -1 : id.intValue();
+  }
+
+  /**
+   * Chooses one of the productions for the rule, according to their weights
+   */
+  protected Object[] choose(int rule)
+  {
+    Object[][] prods = productions[rule];
+    if (prods.length == 1) return prods[0];
+
+    float[] cum = cumulative[rule];
+    double p = Math.random() * cum[cum.length - 1];
+
+    int lo = 0, hi = cum.length - 1;
+    while (lo < hi)
+    {
+      int mid = (lo + hi) >>> 1;
+      if (p < cum[mid])
+        hi = mid;
+      else
+        lo = mid + 1;
+    }
+    return prods[lo];
+  }
+
+  /**
+   * Expands all rules in the text, depth-first, using at most
+   * <code>budget[0]</code> rule expansions (which is decremented); any rules
+   * left when the budget is exhausted are output as is.
+   */
+  public String expand(String text, int[] budget)
+  {
+    StringBuilder sb = new StringBuilder();
+
+    // explicit stack of (segments, next index) to avoid deep recursion
+    Object[][] stack = new Object[16][];
+    int[] index = new int[16];
+    int top = 0;
+    stack[0] = parse(text);
+
+    while (top >= 0)
+    {
+      Object[] segs = stack[top];
+      if (index[top] == segs.length)
+      {
+        index[top--] = 0;
+        continue;
+      }
+
+      Object seg = segs[index[top]++];
+      if (seg instanceof String)
+      {
+        sb.append((String) seg);
+        continue;
+      }
+
+      int rule = ((Integer) seg).intValue();
+      if (budget[0] <= 0)
+      {
+        sb.append(names[rule]);
+        continue;
+      }
+      budget[0]--;
+
+      if (++top == stack.length)
+      {
+        stack = Arrays.copyOf(stack, top * 2);
+        index = Arrays.copyOf(index, top * 2);
+      }
+      stack[top] = choose(rule);
+      index[top] = 0;
+    }
+
+    return sb.toString();
+  }
+}
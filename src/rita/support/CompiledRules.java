@@ -0,0 +1,588 @@
+package rita.support;
+
+import java.util.*;
+
+/**
+ * An ordered list of RegexRules compiled for lookup: rules (or alternatives
+ * within a rule) that match a finite set of whole words are kept in a hash
+ * table, those matching a finite set of endings (optionally preceded by a
+ * repeated char-class, e.g. '^[a-z]+osis$') or beginnings in a trie, and only
+ * the remaining rules are tried as regular expressions. The rule returned is
+ * always the first in the list that applies, exactly as for a linear scan with
+ * RegexRule.applies().
+ * <p>
+ * Note: this is a support class, public access is provided through
+ * rita.RiTa (pluralize/conjugate).
+ */
+public class CompiledRules
+{
+  private static final int NONE = Integer.MAX_VALUE, MAX_EXPANSION = 20000;
+  private static final int WORD = 0, SUFFIX = 1, PREFIX = 2, INFIX = 3;
+
+  // the chars of a word that passed isStem(), case-folded
+  private static final String ALPHABET = "abcdefghijklmnopqrstuvwxyz0123456789_- \t\n\u000B\f\r";
+
+  static class Node
+  {
+    char[] keys = new char[0];
+    Node[] kids = new Node[0];
+    int rule = NONE;
+    Guard[] guards;
+
+    Node child(char c)
+    {
+      int idx = Arrays.binarySearch(keys, c);
+      return idx < 0 ? null : kids[idx];
+    }
+
+    Node addChild(char c)
+    {
+      int idx = Arrays.binarySearch(keys, c);
+      if (idx >= 0) return kids[idx];
+
+      idx = -idx - 1;
+      char[] k = new char[keys.length + 1];
+      Node[] n = new Node[kids.length + 1];
+      System.arraycopy(keys, 0, k, 0, idx);
+      System.arraycopy(kids, 0, n, 0, idx);
+      System.arraycopy(keys, idx, k, idx + 1, keys.length - idx);
+      System.arraycopy(kids, idx, n, idx + 1, kids.length - idx);
+      k[idx] = c;
+      n[idx] = new Node();
+      keys = k;
+      kids = n;
+      return n[idx];
+    }
+  }
+
+  /** A suffix that only applies if all preceding chars (at least 'min') are in 'chars' */
+  static class Guard
+  {
+    final BitSet chars;
+    final int min, rule;
+
+    Guard(BitSet chars, int min, int rule)
+    {
+      this.chars = chars;
+      this.min = min;
+      this.rule = rule;
+    }
+
+    boolean accepts(String word, int end)
+    {
+      if (end < min) return false;
+      for (int i = 0; i < end; i++)
+      {
+        if (!chars.get(word.charAt(i)))
+          return false;
+      }
+      return true;
+    }
+  }
+
+  // a single element of a parsed regex
+  static class Atom
+  {
+    static final int START = 0, END = 1, CHARS = 2, REPEAT = 3;
+
+    final int type, min;
+    final BitSet chars;
+
+    Atom(int type, BitSet chars, int min)
+    {
+      this.type = type;
+      this.chars = chars;
+      this.min = min;
+    }
+  }
+
+  protected final RegexRule[] rules;
+  protected final Map<String, Integer> words = new HashMap<String, Integer>();
+  protected final Node suffixes = new Node(), prefixes = new Node();
+  protected String[] infixes = new String[0];
+  protected int[] infixRules = new int[0];
+  protected int[] regexRules; // indexes of rules that could not be compiled
+
+  public CompiledRules(RegexRule[] rules)
+  {
+    this.rules = rules;
+
+    List<Integer> regex = new ArrayList<Integer>();
+    for (int i = 0; i < rules.length; i++)
+    {
+      if (!compile(rules[i].getLeftHandSide(), i))
+        regex.add(i);
+    }
+
+    regexRules = new int[regex.size()];
+    for (int i = 0; i < regexRules.length; i++)
+      regexRules[i] = regex.get(i);
+  }
+
+  /**
+   * Returns the rule at the specified index
+   */
+  public RegexRule rule(int idx)
+  {
+    return rules[idx];
+  }
+
+  /**
+   * Returns the number of rules that are matched via their regular expression
+   * (rather than a table lookup)
+   */
+  public int numRegexRules()
+  {
+    return regexRules.length;
+  }
+
+  /**
+   * Returns the index of the first rule that applies to the word, or -1 if none
+   * does
+   */
+  public int match(String word)
+  {
+    word = word.trim();
+    if (!isStem(word)) return matchRegex(word);
+
+    String w = fold(word);
+    int n = w.length(), best = NONE;
+
+    Integer exact = words.get(w);
+    if (exact != null) best = exact;
+
+    Node node = suffixes;
+    for (int i = n; node != null; node = (--i >= 0) ? node.child(w.charAt(i)) : null)
+    {
+      if (node.rule < best) best = node.rule;
+      if (node.guards != null)
+      {
+        for (int j = 0; j < node.guards.length; j++)
+        {
+          Guard g = node.guards[j];
+          if (g.rule < best && g.accepts(w, i))
+            best = g.rule;
+        }
+      }
+    }
+
+    node = prefixes;
+    for (int i = 0; node != null; node = (i < n) ? node.child(w.charAt(i++)) : null)
+    {
+      if (node.rule < best) best = node.rule;
+    }
+
+    for (int i = 0; i < infixes.length; i++)
+    {
+      if (infixRules[i] < best && w.indexOf(infixes[i]) > -1)
+        best = infixRules[i];
+    }
+
+    for (int i = 0; i < regexRules.length && regexRules[i] < best; i++)
+    {
+      if (rules[regexRules[i]].applies(word))
+      {
+        best = regexRules[i];
+        break;
+      }
+    }
+
+    return best == NONE ? -1 : best;
+  }
+
+  /**
+   * Returns the index of the first rule that applies to the word, trying each
+   * regular expression in turn
+   */
+  public int matchRegex(String word)
+  {
+    for (int i = 0; i < rules.length; i++)
+    {
+      if (rules[i].applies(word))
+        return i;
+    }
+    return -1;
+  }
+
+  /**
+   * Returns true if the word is one or more (hyphenated) words separated by
+   * single spaces, i.e., matches Constants.ANY_STEM
+   */
+  public static boolean isStem(String s)
+  {
+    int n = s.length();
+    if (n < 1) return false;
+
+    boolean lastWasWordChar = false;
+    for (int i = 0; i < n; i++)
+    {
+      char c = s.charAt(i);
+      if (isWordChar(c))
+        lastWasWordChar = true;
+      else if (lastWasWordChar && (c == '-' || isSpace(c)))
+        lastWasWordChar = false;
+      else
+        return false;
+    }
+    return lastWasWordChar;
+  }
+
+  private static boolean isWordChar(char c)
+  {
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+  }
+
+  private static boolean isSpace(char c)
+  {
+    return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+  }
+
+  // US-ASCII only, as for Pattern.CASE_INSENSITIVE
+  private static char fold(char c)
+  {
+    return (c >= 'A' && c <= 'Z') ? (char) (c + 32) : c;
+  }
+
+  private static String fold(String s)
+  {
+    for (int i = 0; i < s.length(); i++)
+    {
+      char c = s.charAt(i);
+      if (c >= 'A' && c <= 'Z')
+      {
+        char[] chars = s.toCharArray();
+        for (int j = i; j < chars.length; j++)
+          chars[j] = fold(chars[j]);
+        return new String(chars);
+      }
+    }
+    return s;
+  }
+
+  // Compiling --------------------------------------------------------
+
+  /*
+   * Adds each alternative of the regex to the tables, returning false (and
+   * adding nothing) if any cannot be represented there
+   */
+  private boolean compile(String regex, int rule)
+  {
+    List<List<Atom>> paths;
+    try
+    {
+      int[] pos = { 0 };
+      paths = alternation(regex, pos);
+      if (pos[0] != regex.length())
+        return false;
+    }
+    catch (IllegalArgumentException e)
+    {
+      return false;
+    }
+
+    List<Object[]> entries = new ArrayList<Object[]>();
+    for (int i = 0; i < paths.size(); i++)
+    {
+      Object[] entry = classify(paths.get(i));
+      if (entry == null) return false;
+      entries.add(entry);
+    }
+
+    for (int i = 0; i < entries.size(); i++)
+      add(entries.get(i), rule);
+
+    return true;
+  }
+
+  /*
+   * Returns { kind, strings, guard }, with kind one of WORD, SUFFIX, PREFIX or
+   * INFIX (or an empty list of strings if the path can never
+   * match), or null if the path is not supported
+   */
+  private Object[] classify(List<Atom> path)
+  {
+    int i = 0, j = path.size();
+    boolean start = false, end = false;
+
+    while (i < j && path.get(i).type == Atom.START)
+    {
+      start = true;
+      i++;
+    }
+    while (j > i && path.get(j - 1).type == Atom.END)
+    {
+      end = true;
+      j--;
+    }
+
+    Atom guard = null;
+    if (start && end && i < j && path.get(i).type == Atom.REPEAT)
+      guard = path.get(i++);
+
+    List<BitSet> sets = new ArrayList<BitSet>();
+    for (int k = i; k < j; k++)
+    {
+      Atom a = path.get(k);
+      if (a.type != Atom.CHARS) return null;
+      sets.add(a.chars);
+    }
+
+    List<String> strings = expand(sets);
+    if (strings == null) return null;
+
+    int kind = start ? (end ? (guard == null ? WORD : SUFFIX) : PREFIX) : (end ? SUFFIX : INFIX);
+    return new Object[] { kind, strings, guard };
+  }
+
+  private void add(Object[] entry, int rule)
+  {
+    int kind = (Integer) entry[0];
+    List<String> strings = (List<String>) entry[1];
+    Atom guard = (Atom) entry[2];
+
+    for (int i = 0; i < strings.size(); i++)
+    {
+      String s = strings.get(i);
+      if (kind == WORD)
+      {
+        Integer old = words.get(s);
+        if (old == null || old > rule)
+          words.put(s, rule);
+      }
+      else if (kind == INFIX)
+      {
+        infixes = Arrays.copyOf(infixes, infixes.length + 1);
+        infixRules = Arrays.copyOf(infixRules, infixRules.length + 1);
+        infixes[infixes.length - 1] = s;
+        infixRules[infixRules.length - 1] = rule;
+      }
+      else
+      {
+        boolean reverse = kind == SUFFIX;
+        Node node = reverse ? suffixes : prefixes;
+        for (int k = 0; k < s.length(); k++)
+          node = node.addChild(s.charAt(reverse ? s.length() - 1 - k : k));
+
+        if (guard == null)
+        {
+          node.rule = Math.min(node.rule, rule);
+        }
+        else
+        {
+          Guard g = new Guard(guard.chars, guard.min, rule);
+          node.guards = node.guards == null ? new Guard[] { g } : Arrays.copyOf(node.guards, node.guards.length + 1);
+          node.guards[node.guards.length - 1] = g;
+        }
+      }
+    }
+  }
+
+  /*
+   * Returns all strings (over ALPHABET) matching the sequence of char-sets, or
+   * null if there are too many
+   */
+  private static List<String> expand(List<BitSet> sets)
+  {
+    List<String> result = new ArrayList<String>();
+    result.add("");
+    for (int i = 0; i < sets.size(); i++)
+    {
+      BitSet set = sets.get(i);
+      List<String> next = new ArrayList<String>();
+      for (int k = 0; k < ALPHABET.length(); k++)
+      {
+        char c = ALPHABET.charAt(k);
+        if (!set.get(c)) continue;
+        for (int j = 0; j < result.size(); j++)
+          next.add(result.get(j) + c);
+      }
+      if (next.size() > MAX_EXPANSION) return null;
+      result = next;
+    }
+    return result;
+  }
+
+  // Parsing (a small subset of java.util.regex) ----------------------
+
+  private static List<List<Atom>> alternation(String re, int[] pos)
+  {
+    List<List<Atom>> paths = sequence(re, pos);
+    while (pos[0] < re.length() && re.charAt(pos[0]) == '|')
+    {
+      pos[0]++;
+      paths.addAll(sequence(re, pos));
+    }
+    return paths;
+  }
+
+  private static List<List<Atom>> sequence(String re, int[] pos)
+  {
+    List<List<Atom>> paths = new ArrayList<List<Atom>>();
+    paths.add(new ArrayList<Atom>());
+
+    while (pos[0] < re.length() && re.charAt(pos[0]) != '|' && re.charAt(pos[0]) != ')')
+    {
+      List<List<Atom>> alts = quantified(re, pos);
+      if (paths.size() * alts.size() > MAX_EXPANSION)
+        throw new IllegalArgumentException(re);
+
+      List<List<Atom>> next = new ArrayList<List<Atom>>();
+      for (int i = 0; i < paths.size(); i++)
+      {
+        for (int j = 0; j < alts.size(); j++)
+        {
+          List<Atom> path = new ArrayList<Atom>(paths.get(i));
+          path.addAll(alts.get(j));
+          next.add(path);
+        }
+      }
+      paths = next;
+    }
+    return paths;
+  }
+
+  private static List<List<Atom>> quantified(String re, int[] pos)
+  {
+    List<List<Atom>> alts = atom(re, pos);
+    if (pos[0] == re.length()) return alts;
+
+    char q = re.charAt(pos[0]);
+    if (q != '?' && q != '*' && q != '+') return alts;
+
+    pos[0]++;
+    if (pos[0] < re.length() && "?+*{".indexOf(re.charAt(pos[0])) > -1)
+      throw new IllegalArgumentException(re); // lazy/possessive
+
+    if (q == '?')
+    {
+      alts.add(new ArrayList<Atom>());
+      return alts;
+    }
+
+    // only a single char-set may be repeated
+    if (alts.size() != 1 || alts.get(0).size() != 1 || alts.get(0).get(0).type != Atom.CHARS)
+      throw new IllegalArgumentException(re);
+
+    BitSet chars = alts.get(0).get(0).chars;
+    return single(new Atom(Atom.REPEAT, chars, q == '+' ? 1 : 0));
+  }
+
+  private static List<List<Atom>> atom(String re, int[] pos)
+  {
+    char c = re.charAt(pos[0]++);
+    switch (c)
+    {
+      case '(':
+        if (pos[0] < re.length() && re.charAt(pos[0]) == '?')
+          throw new IllegalArgumentException(re);
+        List<List<Atom>> alts = alternation(re, pos);
+        if (pos[0] >= re.length() || re.charAt(pos[0]++) != ')')
+          throw new IllegalArgumentException(re);
+        return alts;
+      case '[':
+        return single(new Atom(Atom.CHARS, charClass(re, pos), 0));
+      case '.':
+        BitSet any = new BitSet(128);
+        any.set(0, 128);
+        any.clear('\n');
+        any.clear('\r');
+        return single(new Atom(Atom.CHARS, any, 0));
+      case '^':
+        return single(new Atom(Atom.START, null, 0));
+      case '$':
+        return single(new Atom(Atom.END, null, 0));
+      default:
+        if ("\\{}*+?)|]".indexOf(c) > -1)
+          throw new IllegalArgumentException(re);
+        BitSet lit = new BitSet(128);
+        if (c < 128)
+          lit.set(fold(c));
+        return single(new Atom(Atom.CHARS, lit, 0));
+    }
+  }
+
+  // a class such as [^ie] or [a-z], case-insensitive, over folded ASCII chars
+  private static BitSet charClass(String re, int[] pos)
+  {
+    boolean negate = pos[0] < re.length() && re.charAt(pos[0]) == '^';
+    if (negate) pos[0]++;
+
+    BitSet raw = new BitSet(128);
+    boolean first = true;
+    while (true)
+    {
+      if (pos[0] >= re.length())
+        throw new IllegalArgumentException(re);
+
+      char c = re.charAt(pos[0]++);
+      if (c == ']' && !first) break;
+      if (c == '[' || c == '\\' || c == '&')
+        throw new IllegalArgumentException(re);
+
+      char to = c;
+      if (pos[0] + 1 < re.length() && re.charAt(pos[0]) == '-' && re.charAt(pos[0] + 1) != ']')
+      {
+        to = re.charAt(pos[0] + 1);
+        pos[0] += 2;
+      }
+      for (int k = c; k <= to && k < 128; k++)
+        raw.set(k);
+      first = false;
+    }
+
+    BitSet result = new BitSet(128);
+    for (char k = 0; k < 128; k++)
+    {
+      boolean in = raw.get(k) || raw.get(Character.toUpperCase(k)) || raw.get(Character.toLowerCase(k));
+      if (in != negate)
+        result.set(fold(k));
+    }
+    return result;
+  }
+
+  private static List<List<Atom>> single(Atom a)
+  {
+    List<Atom> path = new ArrayList<Atom>(1);
+    path.add(a);
+    List<List<Atom>> paths = new ArrayList<List<Atom>>(1);
+    paths.add(path);
+    return paths;
+  }
+
+  /**
+   * Checks the compiled rules for pluralization and conjugation against their
+   * regular expressions, for all words in the lexicon, and compares timings
+   */
+  public static void main(String[] args)
+  {
+    List<String> words = new ArrayList<String>();
+    for (Iterator<String> it = JSONLexicon.getInstance().iterator(); it.hasNext();)
+      words.add(it.next());
+
+    List<CompiledRules> sets = new ArrayList<CompiledRules>();
+    sets.add(new CompiledRules(Constants.PLURAL_RULES));
+    for (Iterator it = Conjugator.RULE_MAP.values().iterator(); it.hasNext();)
+      sets.add(((Conjugator.Rule) it.next()).rules);
+
+    for (int i = 0; i < sets.size(); i++)
+    {
+      CompiledRules cr = sets.get(i);
+      int diffs = 0;
+      long compiled = 0, regex = 0;
+      for (int j = 0; j < words.size(); j++)
+      {
+        String word = words.get(j);
+        long t = System.nanoTime();
+        int a = cr.match(word);
+        compiled += System.nanoTime() - t;
+        t = System.nanoTime();
+        int b = cr.matchRegex(word);
+        regex += System.nanoTime() - t;
+        if (a != b) diffs++;
+      }
+      System.out.println(cr.rules.length + " rules (" + cr.numRegexRules() + " regex): " + diffs
+          + " differences, compiled=" + compiled / 1000000 + "ms, regex=" + regex / 1000000 + "ms");
+    }
+  }
+
+}// end
@@ -1,8 +1,6 @@
 package rita.support;
 
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import rita.RiTa;
 import rita.RiTaException;
@@ -43,40 +41,38 @@ public class Conjugator implements Constants
   private static final String ANY_STEM = "^((\\w+)(-\\w+)*)(\\s((\\w+)(-\\w+)*))*$";
   private static final String VERBAL_PREFIX = "((be|with|pre|un|over|re|mis|under|out|up|fore|for|counter|co|sub)(-?))";
 
-  private Map ruleMap;
   private boolean perfect, progressive, passive, allowsTense, interrogative;   
   private int tense=PRESENT_TENSE, person=FIRST_PERSON, number=SINGULAR;
   private String particle, modal; // modal, eg "must"
   private int form = NORMAL; // other forms??  GERUND, INFINITIVE
-  private Matcher matcher;
 
   public Conjugator() {
 
     allowsTense = true;
-    matcher = Pattern.compile(ANY_STEM).matcher("");
-    this.createRuleMap();
   }
   
-  private void createRuleMap() {
-    ruleMap = new HashMap();
+  // the rules are immutable, and shared by all instances
+  private static Map createRuleMap() {
+    Map ruleMap = new HashMap();
     ruleMap.put(PAST_TENSE_RULE, new Rule("PAST_TENSE", DEFAULT_PAST_RULE, PAST_TENSE_RULES));
     ruleMap.put(PRESENT_TENSE_RULE, new Rule("PRESENT_TENSE", DEFAULT_PRESENT_TENSE, PRESENT_TENSE_RULES));
     ruleMap.put(PAST_PARTICIPLE_RULE, new Rule("PAST_PARTICIPLE", DEFAULT_PP_RULE, PAST_PARTICIPLE_RULES));
     ruleMap.put(PRESENT_PARTICIPLE_RULE, new Rule("ING_FORM", DEFAULT_ING_RULE, ING_FORM_RULES));
+    return ruleMap;
   }
   
 
-  class Rule {
+  static class Rule {
     
     public RegexRule defaultRule;
-    public RegexRule[] rules;
+    public CompiledRules rules;
     public String name;
     public boolean doubling = true;
     
     public Rule(String name, RegexRule defaultRule, RegexRule[] rules) {
       
       this.defaultRule = defaultRule;
-      this.rules = rules;
+      this.rules = new CompiledRules(rules);
       //Arrays.sort(rules);
       this.name = name;
       if (name.equals("PRESENT_TENSE"))
@@ -94,7 +90,7 @@ public class Conjugator implements Constants
   }
       
   private Rule getRule(String name) {    
-    return (Rule)ruleMap.get(name);
+    return (Rule)RULE_MAP.get(name);
   }
   
   private String render(String morphForm) {
@@ -161,9 +157,7 @@ public class Conjugator implements Constants
     
     String baseForm = getBaseForm(verb);
     
-    matcher.reset(baseForm);
-
-    if (!matcher.matches())
+    if (!CompiledRules.isStem(baseForm))
       return baseForm;
 
     if (MODALS.contains(baseForm))
@@ -174,21 +168,17 @@ public class Conjugator implements Constants
     if (dbug)System.out.println("RULE: "+rule);
     
     RegexRule _defaultRule = rule.defaultRule;
-    RegexRule[] _rules = rule.rules;
     
-    for (int i = 0; i < _rules.length; i++) {
+    if (dbug)System.out.println("  '"+baseForm+"'");
+    
+    int i = rule.rules.match(baseForm);
+    if (i > -1) {
       
-      RegexRule currentRule = _rules[i];
+      RegexRule currentRule = rule.rules.rule(i);
       
-      if (dbug)System.out.println("  '"+baseForm+"'\n  checking: "+currentRule);
+      if (dbug)System.out.println("  HIT: "+currentRule);        
       
-      if (currentRule.applies(baseForm)) {
-        
-        if (dbug)System.out.println("  HIT: "+currentRule);        
-        
-        result = currentRule.fire(baseForm);
-        break;
-      }
+      result = currentRule.fire(baseForm);
     }
 
     if ((result == null) && (_defaultRule != null)) 
@@ -758,6 +748,8 @@ public class Conjugator implements Constants
 			new RegexRule(CONS + "y$", 1, "ies", 1),
 			new RegexRule("^be$", 2, "is"),
 			new RegexRule("([zsx]|ch|sh)$", 0, "es", 1) };
+
+	static final Map RULE_MAP = createRuleMap();
 /*
 	*//** The IN g_ form. *//*
 	private static final InflectionRule ING_FORM = new InflectionRule(
@@ -782,7 +774,7 @@ public class Conjugator implements Constants
 
  static List AUXILIARIES = Arrays.asList(new String[] { "do", "have", "be" });
   
-  static List VERB_CONS_DOUBLING = Arrays.asList(new String[] {
+  static Set VERB_CONS_DOUBLING = new HashSet(Arrays.asList(new String[] {
       "abat", "abet", "abhor", "abut", "accur", "acquit", "adlib",
       "admit", "aerobat", "aerosol", "agendaset", "allot", "alot",
       "anagram", "annul", "appal", "apparel", "armbar", "aver",
@@ -954,7 +946,7 @@ public class Conjugator implements Constants
       "wit", "woodchop", "woodcut", "wor", "worship", "wrap", "wiretap",
       "yen", "yak", "yap", "yarnspin", "yip", "yodel", "zag", "zap",
       "zig", "zig-zag", "zigzag", "zip", "ztrip", "hand-bag", "hocus",
-      "hocus-pocus" });
+      "hocus-pocus" }));
 
   static List MODALS = Arrays.asList(new String[] { "shall",
       "would", "may", "might", "ought", "should" });
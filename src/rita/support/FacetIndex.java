@@ -0,0 +1,145 @@
+package rita.support;
+
+import java.util.*;
+
+import rita.RiTa;
+
+/**
+ * An index from facets of the words in the lexicon (the first part-of-speech
+ * listed, the syllable count and the length) to the ids of the words with
+ * them, so that a random word with any combination of facets can be drawn
+ * from a precomputed array, without scanning or re-parsing the lexicon.
+ * <p>
+ * Ids are positions in the lexicon's iteration order, and each array is in
+ * that order.
+ * <p>
+ * Note: this is a support class, public access is provided through
+ * rita.RiLexicon.
+ */
+public class FacetIndex extends LexiconIndex
+{
+  /** Matches any value of a facet */
+  public static final int ANY = -1;
+
+  private static final int[] NONE = new int[0];
+
+  protected String[] words;
+  protected Map<String, Integer> posIds; // tag -> id (0 is any)
+  protected Map<Long, int[]> facets;
+
+  /**
+   * Builds the index over all words in the lexicon
+   */
+  public FacetIndex(JSONLexicon lexicon)
+  {
+    super(lexicon);
+
+    Map<String, String> data = lexicon.getLexicalData();
+    List<String> wordList = new ArrayList<String>(data.size());
+    List<long[]> keyList = new ArrayList<long[]>(data.size());
+    Map<Long, int[]> counts = new HashMap<Long, int[]>();
+    posIds = new HashMap<String, Integer>();
+
+    for (Iterator<Map.Entry<String, String>> it = data.entrySet().iterator(); it.hasNext();)
+    {
+      Map.Entry<String, String> entry = it.next();
+      String word = entry.getKey(), raw = entry.getValue();
+      if (raw == null) continue;
+
+      int idx = raw.indexOf('|');
+      String phones = (idx < 0 ? raw : raw.substring(0, idx)).trim();
+      int pos = 0;
+      if (idx > -1)
+      {
+        String tags = raw.substring(idx + 1);
+        int end = tags.indexOf('|');
+        if (end > -1) tags = tags.substring(0, end);
+        if (tags.length() > 0) pos = posId(tags.split(SP)[0], true);
+      }
+
+      long[] keys = keys(pos, phones.split(SP).length, word.length());
+      for (int i = 0; i < keys.length; i++)
+      {
+        int[] count = counts.get(keys[i]);
+        if (count == null)
+          counts.put(keys[i], count = new int[1]);
+        count[0]++;
+      }
+      wordList.add(word);
+      keyList.add(keys);
+    }
+
+    words = wordList.toArray(new String[wordList.size()]);
+    facets = new HashMap<Long, int[]>(counts.size() * 2);
+    for (Iterator<Map.Entry<Long, int[]>> it = counts.entrySet().iterator(); it.hasNext();)
+    {
+      Map.Entry<Long, int[]> entry = it.next();
+      facets.put(entry.getKey(), new int[entry.getValue()[0]]);
+      entry.getValue()[0] = 0; // now the next free slot
+    }
+    for (int id = 0; id < words.length; id++)
+    {
+      long[] keys = keyList.get(id);
+      for (int i = 0; i < keys.length; i++)
+        facets.get(keys[i])[counts.get(keys[i])[0]++] = id;
+    }
+  }
+
+  private int posId(String tag, boolean add)
+  {
+    Integer id = posIds.get(tag);
+    if (id == null)
+    {
+      if (!add) return ANY;
+      posIds.put(tag, id = posIds.size() + 1);
+    }
+    return id;
+  }
+
+  // each combination of the word's facets and ANY (a word without a
+  // part-of-speech has only those in which it is ANY)
+  private static long[] keys(int pos, int syllables, int length)
+  {
+    long[] keys = new long[pos == 0 ? 4 : 8];
+    for (int i = 0; i < keys.length; i++)
+      keys[i] = key((i & 4) != 0 ? pos : 0, (i & 1) != 0 ? syllables : ANY, (i & 2) != 0 ? length : ANY);
+    return keys;
+  }
+
+  private static long key(int pos, int syllables, int length)
+  {
+    return ((long) pos << 42) | ((long) (syllables + 1) << 21) | (length + 1);
+  }
+
+  /**
+   * Returns the ids, in lexicon order, of the words with the (first)
+   * part-of-speech, syllable count and length, where null or ANY matches any
+   * value (the returned array should not be modified)
+   */
+  public int[] ids(String pos, int syllables, int length)
+  {
+    int posId = 0;
+    if (pos != null && (posId = posId(pos, false)) == ANY)
+      return NONE;
+    int[] ids = facets.get(key(posId, syllables < 0 ? ANY : syllables, length < 0 ? ANY : length));
+    return ids == null ? NONE : ids;
+  }
+
+  /**
+   * Returns a random word with the (first) part-of-speech, syllable count and
+   * length, where null or ANY matches any value, or null if there is none
+   */
+  public String randomWord(String pos, int syllables, int length)
+  {
+    int[] ids = ids(pos, syllables, length);
+    return ids.length < 1 ? null : words[ids[RiTa.random(ids.length)]];
+  }
+
+  /**
+   * Returns the word with the id
+   */
+  public String word(int id)
+  {
+    return words[id];
+  }
+}
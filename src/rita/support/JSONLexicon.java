@@ -5,6 +5,7 @@ import java.net.*;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
 
 import rita.*;
@@ -24,14 +25,17 @@ import rita.*;
 public class JSONLexicon implements Constants
 {
   public static boolean USE_NIO = false;
-  static boolean DBUG_CACHE = false;
+  
+  /** If true, load from the precompiled (memory-mapped) image when one exists */
+  public static boolean USE_IMAGE = false;
   static int MAP_SIZE = 40000; 
 
   // statics ====================================
 
   protected static JSONLexicon instance;
+
+  /** @deprecated has no effect, as entries are always decoded once and kept */
   public static boolean cacheEnabled = false;
-  protected static Map featureCache;
 
   // members ====================================
 
@@ -39,6 +43,11 @@ public class JSONLexicon implements Constants
   protected Map<String,String> lexicalData;
   protected boolean loaded, lazyLoadLTS;
   protected LetterToSound letterToSound;
+  protected int modCount;
+  protected Map<String,LexiconEntry> entries = new ConcurrentHashMap<String,LexiconEntry>();
+  private Map<String,String> entriesData; // the data (and size, modCount) entries were decoded from
+  private int entriesSize, entriesModCount;
+  protected volatile FacetIndex facetIndex;
 
   public static JSONLexicon reload()
   {
@@ -108,6 +117,19 @@ public class JSONLexicon implements Constants
   public void setLexicalData(Map<String,String> lexicalData)
   {
     this.lexicalData = lexicalData;
+    entries.clear();
+    modCount++;
+  }
+
+  /**
+   * Returns the number of modifications made through the lexicon's methods,
+   * used (together with the Map identity and size) to detect stale indexes
+   * 
+   * @see LexiconIndex
+   */
+  public int getModCount()
+  {
+    return modCount;
   }
 
   /**
@@ -132,15 +154,21 @@ public class JSONLexicon implements Constants
 
   public void load() 
   {
-    String[] lines = loadJSON(this.dictionaryFile);
-    lexicalData = new LinkedHashMap<String,String>(MAP_SIZE);
+    if (USE_IMAGE)
+      lexicalData = loadImage(this.dictionaryFile);
     
-    for (int i = 1; i < lines.length-1; i++) // ignore JSON prefix/suffix
+    if (lexicalData == null) 
     {
-      String[] parts = lines[i].split(LEXICON_DELIM);
-      if (parts == null || parts.length != 2)
-        throw new RiTaException("Illegal entry: " + lines[i]);
-      lexicalData.put(parts[0], parts[1].trim());
+      String[] lines = loadJSON(this.dictionaryFile);
+      lexicalData = new LinkedHashMap<String,String>(MAP_SIZE);
+      
+      for (int i = 1; i < lines.length-1; i++) // ignore JSON prefix/suffix
+      {
+        String[] parts = lines[i].split(LEXICON_DELIM);
+        if (parts == null || parts.length != 2)
+          throw new RiTaException("Illegal entry: " + lines[i]);
+        lexicalData.put(parts[0], parts[1].trim());
+      }
     }
        
     if (LOAD_USER_ADDENDA)
@@ -151,6 +179,24 @@ public class JSONLexicon implements Constants
     if (!lazyLoadLTS) getLTSEngine();
   }
 
+  /**
+   * Returns a lazily-decoded Map over the binary image for the dictionary file 
+   * (see LexiconImage), or null if no image has been compiled for it
+   */
+  protected static Map<String,String> loadImage(String file)
+  {
+    LexiconImage image = LexiconImage.load(LexiconImage.imagePath(file));
+    
+    if (image == null) 
+    {
+      if (!RiTa.SILENT)
+        System.out.println("[WARN] No lexicon image for " + file + ", loading JSON");
+      return null;
+    }
+    
+    return image.asMap();
+  }
+
   public static String[] loadJSON(String file)
   {
     if (file == null)
@@ -161,6 +207,11 @@ public class JSONLexicon implements Constants
     if (data == null)
       throw new RiTaException("Unable to load lexicon from: " + file);
     
+    return parseJSON(data);
+  }
+
+  static String[] parseJSON(String data)
+  {
     // clean out the JSON formatting (TODO: optimize)
     String clean = data.replaceAll("['\\[\\]]",E).replaceAll(",","|");
     
@@ -319,14 +370,9 @@ public class JSONLexicon implements Constants
    */
   public String[] getPhonemeArr(String word, boolean useLTS)
   {
-    Map<String,String> m = getFeatures(word);
-
-    if (m != null) // check the lexicon first
-    { 
-      String s = m.get(PHONEMES);
-      if (s != null)
-        return s.split(PHONEME_BOUNDARY);
-    }
+    LexiconEntry e = getValidEntry(word);
+    if (e != null) // check the lexicon first
+      return e.phonemeArr();
     
     return useLTS ? getLTSEngine().getPhones(word, null) : null;
   }
@@ -340,13 +386,12 @@ public class JSONLexicon implements Constants
   protected String[] getPhones(String word, boolean useLTS)
   {
     // System.out.println("RiTaLexicon.getPhones("+word+") -> "+lookupRaw(word));
-    String raw = lookupRaw(word);
-    if (raw != null)
+    LexiconEntry e = getEntry(word);
+    if (e != null)
     {
-      String[] o = raw.split(DATA_DELIM);
-      if (o.length != 2)
-        throw new RiTaException("Invalid lexicon entry: " + raw);
-      return o[0].trim().split(PHONE_DELIM); 
+      if (!e.isValid())
+        throw new RiTaException("Invalid lexicon entry: " + e.raw());
+      return e.rawPhones().split(PHONE_DELIM); 
     }
 
     return useLTS ? getLTSEngine().getPhones(word, null) : null;
@@ -393,6 +438,8 @@ public class JSONLexicon implements Constants
   public void removeAddendum(String word, String partOfSpeech)
   {
     lexicalData.remove(word);// + fixPartOfSpeech(partOfSpeech));
+    entries.remove(word);
+    modCount++;
   }
 
   public int size()
@@ -415,7 +462,61 @@ public class JSONLexicon implements Constants
    */
   public String lookupRaw(String word)
   {
-    return lexicalData.get(word.toLowerCase());
+    return lexicalData.get(toLowerCase(word));
+  }
+
+  /**
+   * Returns the decoded entry for the word (decoding it on first use), or null
+   * if not found. Decoded entries are dropped whenever the data changes, as
+   * for a LexiconIndex; values replaced directly through the Map returned by
+   * getLexicalData() are not detected.
+   */
+  public LexiconEntry getEntry(String word)
+  {
+    checkEntries();
+    String key = toLowerCase(word);
+    LexiconEntry e = entries.get(key);
+    if (e == null)
+    {
+      String raw = lexicalData.get(key);
+      if (raw == null) return null;
+      e = new LexiconEntry(raw);
+      entries.put(key, e);
+    }
+    return e;
+  }
+
+  // drops the decoded entries if the data has changed since they were decoded
+  private void checkEntries()
+  {
+    Map<String,String> data = lexicalData;
+    if (data != entriesData || data.size() != entriesSize || modCount != entriesModCount)
+    {
+      entries.clear();
+      entriesData = data;
+      entriesSize = data.size();
+      entriesModCount = modCount;
+    }
+  }
+
+  private LexiconEntry getValidEntry(String word)
+  {
+    LexiconEntry e = getEntry(word);
+    if (e != null && !e.isValid())
+      throw new RiTaException("Invalid lexicon entry: "+word+" -> '"+e.raw()+"'");
+    return e;
+  }
+
+  // as String.toLowerCase(), but without a copy for lower-case ascii
+  static String toLowerCase(String word)
+  {
+    for (int i = 0; i < word.length(); i++)
+    {
+      char c = word.charAt(i);
+      if (c >= 128 || (c >= 'A' && c <= 'Z'))
+        return word.toLowerCase();
+    }
+    return word;
   }
   
   public boolean contains(String word)
@@ -428,15 +529,9 @@ public class JSONLexicon implements Constants
     return lexicalData.keySet().iterator();
   }
 
-  RandomIterator randomIterator = null;
-
   public Iterator<String> randomIterator()
   {
-    if (randomIterator == null)
-      randomIterator = new RandomIterator(lexicalData.keySet());
-    else
-      randomIterator.reset();
-    return randomIterator;
+    return new RandomIterator(lexicalData.keySet());
   }
 
   public Iterator<String> randomPosIterator(String pos)
@@ -476,102 +571,47 @@ public class JSONLexicon implements Constants
       throw new RiTaException("Pos '" + pos + "' is not a known part-of-speech tag." 
           + " Check the list at http://rednoise.org/rita/reference/PennTags.html");
     
+    FacetIndex idx = facetIndex();
+    int[] ids = idx.ids(pos, FacetIndex.ANY, FacetIndex.ANY);
     Set s = new TreeSet();
-    String posSpc = pos + " ";
-    for (Iterator<String> iter = iterator(); iter.hasNext();)
-    {
-      String str = iter.next(), allpos = getPosStr(str);
-      if (allpos.startsWith(posSpc) || allpos.equals(pos))
-        s.add(str);
-    }
+    for (int i = 0; i < ids.length; i++)
+      s.add(idx.word(ids[i]));
     return s;
   }
 
-  protected void addToFeatureCache(String word, Map m)
+  /**
+   * Returns a random word where 'pos' is the first (or only) tag listed, with
+   * the syllable count and length, where a null pos, or a negative count or
+   * length, matches any value, or null if there is no such word
+   */
+  public String randomWord(String pos, int syllableCount, int length)
   {
-    if (featureCache == null)
-      featureCache = new HashMap<String,String>();
+    if (pos != null && !RiPos.isPennTag(pos))
+      throw new RiTaException("Pos '" + pos + "' is not a known part-of-speech tag." 
+          + " Check the list at http://rednoise.org/rita/reference/PennTags.html");
     
-    if (DBUG_CACHE)
-      System.out.println("Caching " + word+": "+m);
-
-    featureCache.put(word, m);
+    return facetIndex().randomWord(pos, syllableCount, length);
   }
 
-  protected Map checkFeatureCache(String word)
+  /*
+   * Returns the (shared) facet index, (re)building it if the lexicon has changed
+   */
+  FacetIndex facetIndex()
   {
-    if (featureCache == null)
-      return null;
-    
-    Map<String,String> m = (Map<String,String>) featureCache.get(word);
-    
-    if (DBUG_CACHE && m != null)
-      System.out.println("Using cache for: " + word);
-    
-    return m;
+    FacetIndex idx = facetIndex;
+    if (idx == null || idx.isStale(this))
+      facetIndex = idx = new FacetIndex(this);
+    return idx;
   }
 
+  /**
+   * Returns a new Map with the syllables, phonemes, stresses and pos-list for
+   * the word, or an empty Map if it is not in the lexicon
+   */
   public Map<String,String> getFeatures(String word)
   {
-    Map<String,String> m = null;
-    
-    if (cacheEnabled) {
-      m = checkFeatureCache(word);
-      if (m != null) return m; // return cache hit
-    }
-
-    String dataStr = lookupRaw(word);
-    if (dataStr == null) 
-      return new HashMap<String,String>();
-
-    String[] data = dataStr.split(DATA_DELIM);
-    if (data == null || data.length != 2)
-      throw new RiTaException("Invalid lexicon entry: "+word+" -> '"+dataStr+"'");
-
-    StringBuilder phones = new StringBuilder();
-    StringBuilder stresses = new StringBuilder();
-    StringBuilder syllables = new StringBuilder();
-    String[] phonesAndStresses = data[0].split(SP);
-    for (int i = 0; i < phonesAndStresses.length; i++)
-    {
-      String syl = phonesAndStresses[i];
-      boolean stressed = false;
-      for (int j = 0; j < syl.length(); j++)
-      {
-        char c = syl.charAt(j);
-        if (c == '1')
-        {
-          stressed = true;
-        }
-        else
-        {
-          // add phones and syls
-          phones.append(c);
-          syllables.append(c);
-        }
-      }
-
-      // add the stress for each syllable
-      stresses.append(stressed ? STRESSED : UNSTRESSED);
-
-      if (i < phonesAndStresses.length - 1)
-      {
-        phones.append(PHONEME_BOUNDARY);
-        syllables.append(SYLLABLE_BOUNDARY);
-        stresses.append(SYLLABLE_BOUNDARY);
-      }
-    }
-
-    m = new HashMap<String,String>(8); // create feature-map
-    m.put(SYLLABLES, syllables.toString());
-    m.put(POSLIST, data[1].trim());
-    m.put(PHONEMES, phones.toString());
-    m.put(STRESSES, stresses.toString());
-
-    if (cacheEnabled) // add to cache
-      addToFeatureCache(word, m);
-
-    return m;
+    LexiconEntry e = getValidEntry(word);
+    return e != null ? e.features() : new HashMap<String,String>();
   }
 
 
@@ -641,17 +681,20 @@ public class JSONLexicon implements Constants
     return ib;
   }
 
+  /** @deprecated has no effect, as entries are always decoded once and kept */
   public static boolean isCaching()
   {
     return cacheEnabled;
   }
 
+  /**
+   * Decodes all entries up front, rather than on first use
+   */
   public void preloadFeatures()
   {
-    cacheEnabled = true; 
     long start = System.currentTimeMillis();
     for (Iterator<String> it = iterator(); it.hasNext();)
-      getFeatures(it.next());
+      getEntry(it.next());
     if (!RiTa.SILENT)
       System.out.println("[INFO] Created and cached features... in "+ (System.currentTimeMillis()-start) + "ms");
   }
@@ -666,9 +709,9 @@ public class JSONLexicon implements Constants
     if (word == null || word.length() < 1)
       return E;
     
-    String data = lookupRaw(word);
+    LexiconEntry e = getEntry(word);
     
-    if (data == null && useLTS)
+    if (e == null && useLTS)
     {
       if (!RiTa.SILENT && !RiLexicon.SILENCE_LTS) 
         System.out.println("[RiTa] Using letter-to-sound rules for: " + word);
@@ -679,14 +722,16 @@ public class JSONLexicon implements Constants
         return RiString.syllabify(phones);
     }
 
-    return data == null ? E : data.split(DATA_DELIM)[0].trim();
+    return e == null ? E : e.rawPhones();
   }
 
   public String getPosStr(String word)
   { 
-    String data = lookupRaw(word);
-    if (data == null) return E;
-    return data.split(DATA_DELIM)[1];
+    LexiconEntry e = getEntry(word);
+    if (e == null) return E;
+    if (e.posStr() == null)
+      throw new RiTaException("Invalid lexicon entry: "+word+" -> '"+e.raw()+"'");
+    return e.posStr();
   }
   
   public String getBestPos(String word)
@@ -699,15 +744,17 @@ public class JSONLexicon implements Constants
   {
     if (word.contains(SP))
       throw new RiTaException("Only single words allowed");
-    String pl = getPosStr(word);
-    if (pl == null)
-      throw new RuntimeException("null pl");
-    return (pl == null || pl.length() < 1) ? EMPTY : pl.split(SP);
+    LexiconEntry e = getEntry(word);
+    if (e == null) return EMPTY;
+    if (e.posStr() == null)
+      throw new RiTaException("Invalid lexicon entry: "+word+" -> '"+e.raw()+"'");
+    return e.posArr();
   }
 
   public int addWord(String s, String t, String u) 
   {  
     lexicalData.put(s, t+"|"+u);
+    modCount++;
     return lexicalData.size();
   }
   
@@ -728,6 +775,14 @@ public class JSONLexicon implements Constants
       new JSONLexicon(DEFAULT_LEXICON).load();
     }
     System.out.println("\nAVG TIME(NIO="+USE_NIO+")="+(System.currentTimeMillis()-ts)/(float)numTests);
+    ts = System.currentTimeMillis();
+    USE_NIO = false;
+    USE_IMAGE = true;
+    for (int i = 0; i < numTests; i++) {
+      System.out.print(".");
+      new JSONLexicon(DEFAULT_LEXICON).load();
+    }
+    System.out.println("\nAVG TIME(IMAGE="+USE_IMAGE+")="+(System.currentTimeMillis()-ts)/(float)numTests);
   }
     
   public static void main(String[] args)
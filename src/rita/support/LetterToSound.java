@@ -2,13 +2,16 @@ package rita.support;
 
 /**
  * Portions Copyright 2001 Sun Microsystems, Inc.
- * Portions Copyright 1999-2001 Language Technologies Institute, 
+ * Portions Copyright 1999-2001 Language Technologies Institute,
  * Carnegie Mellon University.
  * All Rights Reserved.  Use is subject to license terms.
  */
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
 
 import rita.RiTa;
 import rita.RiTaException;
@@ -18,18 +21,75 @@ import rita.RiTaException;
  * which are based on the Black, Lenzo, and Pagel paper, "Issues in Building
  * General Letter-to-Sound Rules." Proceedings of ECSA Workshop on Speech
  * Synthesis, pages 77-80, Australia, 1998.
+ * <p>
+ * The state machine is compiled into parallel primitive arrays (one entry per
+ * state) and is never modified once loaded. Results are memoized in a bounded
+ * concurrent map (see setCacheSize()), and each lookup keeps its own context
+ * window, so getPhones() may be called from several threads at once.
  */
 public class LetterToSound
 {
-  static LetterToSound instance;
+  /**
+   * If non-null, a file holding the compiled (binary) rules, which are loaded
+   * from there if it exists and was compiled from the current text rules, or
+   * else compiled from the text rules and written there for the next start
+   * (defaults to the 'rita.lts.binary' system property)
+   */
+  public static String binaryRules = System.getProperty("rita.lts.binary");
+
+  /**
+   * The default maximum number of words whose phones are cached
+   */
+  public static int DEFAULT_CACHE_SIZE = 1000;
+
+  static volatile LetterToSound instance;
 
   public static LetterToSound getInstance()
   {
     if (instance == null)
-      instance = new LetterToSound();
+    {
+      synchronized (LetterToSound.class)
+      {
+        if (instance == null)
+          instance = load();
+      }
+    }
     return instance;
   }
 
+  private static LetterToSound load()
+  {
+    File file = binaryRules == null ? null : new File(binaryRules);
+    if (file != null && file.exists())
+    {
+      try
+      {
+        LetterToSound lts = loadBinary(new FileInputStream(file));
+        if (lts.checksum == textChecksum())
+          return lts;
+        // else compiled from older rules, so rebuild it
+      }
+      catch (Exception e)
+      {
+        System.err.println("[WARN] Unable to load LTS rules from " + file + ": " + e.getMessage());
+      }
+    }
+
+    LetterToSound lts = new LetterToSound();
+    if (file != null)
+    {
+      try
+      {
+        lts.writeBinary(file);
+      }
+      catch (IOException e)
+      {
+        System.err.println("[WARN] Unable to write LTS rules to " + file + ": " + e.getMessage());
+      }
+    }
+    return lts;
+  }
+
   /**
    * Entry in file represents the total number of states in the file. This
    * should be at the top of the file. The format should be "TOTAL n" where n is
@@ -59,19 +119,6 @@ public class LetterToSound
    */
   final static String PHONE = "PHONE";
 
-  /**
-   * If true, the state string is tokenized when it is first read. The side
-   * effects of this are quicker lookups, but more memory usage and a longer
-   * startup time.
-   */
-  protected boolean tokenizeOnLoad = true;
-
-  /**
-   * If true, the state string is tokenized the first time it is referenced. The
-   * side effects of this are quicker lookups, but more memory usage.
-   */
-  protected boolean tokenizeOnLookup = false;
-
   /**
    * Magic number for binary LTS files.
    */
@@ -80,42 +127,48 @@ public class LetterToSound
   /**
    * Current binary file version.
    */
-  private final static int VERSION = 1;
+  private final static int VERSION = 3;
 
   /**
-   * The LTS state machine. Entries can be String or State. An ArrayList could
-   * be used here -- I chose not to because I thought it might be quicker to
-   * avoid dealing with the dynamic resizing.
+   * The 'window size' of the LTS rules.
    */
-  private Object[] stateMachine = null;
+  private final static int WINDOW_SIZE = 4;
 
   /**
-   * The number of states in the state machine.
+   * The value of stateIndex[] for a final state.
    */
-  private int numStates = 0;
+  private final static int FINAL = -1;
+
+  private final static String[] NO_PHONES = new String[0];
 
   /**
-   * The 'window size' of the LTS rules.
+   * The state machine, as parallel arrays: for a decision state, the position
+   * in the context window to check, the char to match there, and the states to
+   * go to on a match or not; for a final state (whose stateIndex is FINAL), the
+   * id of its phone list.
    */
-  private final static int WINDOW_SIZE = 4;
+  private int numStates;
+  private byte[] stateIndex;
+  private char[] stateChar;
+  private int[] qtrue, qfalse, phoneId;
 
   /**
-   * An array of characters to hold a string for checking against a rule. This
-   * will be reused over and over again, so the goal was just to have a single
-   * area instead of new'ing up a new one for every word. The name choice is to
-   * match that in Flite's <code>cst_lts.c</code>.
+   * The distinct phone lists of the final states (an empty list for epsilon).
    */
-  private char[] fval_buff = new char[WINDOW_SIZE * 2];
+  private String[][] phoneLists;
 
   /**
-   * The indices of the starting points for letters in the state machine.
+   * The starting state for each letter, indexed by char (-1 for none).
    */
-  protected HashMap letterIndex;
+  private int[] letterStart;
 
   /**
-   * The list of phones that can be returned by the LTS rules.
+   * The CRC-32 of the text rules from which the state machine was compiled.
    */
-  static private List phonemeTable;
+  private long checksum;
+
+  private volatile Map<String, String[]> cache;
+  private volatile int cacheSize;
 
   private LetterToSound()
   {
@@ -124,601 +177,457 @@ public class LetterToSound
     {
       if (is == null)
         throw new Exception("No LTS rules found");
-      loadText(is).close();
+      CheckedInputStream cis = new CheckedInputStream(is, new CRC32());
+      loadText(cis).close();
+      checksum = cis.getChecksum().getValue();
     }
     catch (Exception e)
     {
       throw new RiTaException(e);
     }
+    setCacheSize(DEFAULT_CACHE_SIZE);
   }
 
-  /**
-   * Loads the LTS rules from the given text input stream. The stream is not
-   * closed after the rules are read.
-   * 
-   * @param is
-   *          the input stream
-   * 
-   * @throws IOException
-   *           if an error occurs on input.
-   */
-  private InputStream loadText(InputStream is) throws IOException
+  private LetterToSound(DataInputStream dis) throws IOException
   {
-    BufferedReader reader;
-    String line;
-
-    letterIndex = new HashMap();
-
-    reader = new BufferedReader(new InputStreamReader(is));
-    line = reader.readLine();
-    while (line != null)
+    if (dis.readInt() != MAGIC)
+      throw new IOException("Not an LTS rules file");
+    if (dis.readInt() != VERSION)
+      throw new IOException("Unsupported LTS rules version");
+    checksum = dis.readLong();
+
+    phoneLists = new String[checkRange(dis.readInt(), 0, Short.MAX_VALUE)][];
+    for (int i = 0; i < phoneLists.length; i++)
     {
-      if (!line.startsWith("***"))
-        parseAndAdd(line);
-      line = reader.readLine();
+      phoneLists[i] = new String[checkRange(dis.readInt(), 0, 2)];
+      for (int j = 0; j < phoneLists[i].length; j++)
+        phoneLists[i][j] = dis.readUTF().intern();
     }
 
-    return is;
-    // System.out.println("Init complete: "+this.stateMachine[3260].getClass()+" / "+this.stateMachine[3260]);
-  }
+    letterStart = new int[checkRange(dis.readInt(), 0, Character.MAX_VALUE + 1)];
+    for (int i = 0; i < letterStart.length; i++)
+      letterStart[i] = dis.readInt();
 
-  /**
-   * Creates a word from the given input line and add it to the state machine.
-   * It expects the TOTAL line to come before any of the states.
-   * 
-   * @param line
-   *          the line of text from the input file
-   */
-  protected void parseAndAdd(String line)
-  {
-    line = line.replaceAll("(^'|',?)","");
-    StringTokenizer tokenizer = new StringTokenizer(line, " ");
-    String type = tokenizer.nextToken();
+    allocate(checkRange(dis.readInt(), 0, Integer.MAX_VALUE));
+    for (int i = 0; i < numStates; i++)
+    {
+      stateIndex[i] = dis.readByte();
+      stateChar[i] = dis.readChar();
+      qtrue[i] = dis.readInt();
+      qfalse[i] = dis.readInt();
+      phoneId[i] = dis.readInt();
+    }
 
-    if (type.equals(STATE) || type.equals(PHONE))
+    // so that a damaged file fails here, rather than in getPhones()
+    for (int i = 0; i < letterStart.length; i++)
+      checkRange(letterStart[i], -1, numStates - 1);
+    for (int i = 0; i < numStates; i++)
     {
-      if (tokenizeOnLoad)
+      if (stateIndex[i] == FINAL)
       {
-        stateMachine[numStates] = getState(type, tokenizer);
+        checkRange(phoneId[i], 0, phoneLists.length - 1);
       }
       else
       {
-        stateMachine[numStates] = line;
+        checkRange(stateIndex[i], 0, 2 * WINDOW_SIZE - 1);
+        checkRange(qtrue[i], 0, numStates - 1);
+        checkRange(qfalse[i], 0, numStates - 1);
       }
-      numStates++;
-    }
-    else if (type.equals(INDEX))
-    {
-      Integer index = new Integer(tokenizer.nextToken());
-      if (index.intValue() != numStates)
-      {
-        throw new Error("Bad INDEX in file.");
-      }
-
-      String c = tokenizer.nextToken();
-      letterIndex.put(c, index);
-    }
-    else if (type.equals(TOTAL))
-    {
-      stateMachine = new Object[Integer.parseInt(tokenizer.nextToken())];
     }
+    setCacheSize(DEFAULT_CACHE_SIZE);
   }
 
-  private List findPhonemes() //  for documentation
+  private static int checkRange(int value, int min, int max) throws IOException
   {
-    Set set = new HashSet();
-    for (int i = 0; i < stateMachine.length; i++)
-    {
-      if (stateMachine[i] instanceof FinalState)
-      {
-        FinalState fstate = (FinalState) stateMachine[i];
-        if (fstate.phoneList != null)
-        {
-          for (int j = 0; j < fstate.phoneList.length; j++)
-          {
-            set.add(fstate.phoneList[j]);
-          }
-        }
-      }
-    }
-    return new ArrayList(set);
+    if (value < min || value > max)
+      throw new IOException("Bad value in LTS rules file: " + value);
+    return value;
   }
 
   /**
-   * Gets the <code>State</code> at the given index. This may replace a
-   * <code>String</code> at the current spot with an actual <code>State</code>
-   * instance.
-   * 
-   * @param i
-   *          the index into the state machine
-   * 
-   * @return the <code>State</code> at the given index.
+   * Returns the CRC-32 of the text rules
    */
-  protected State getState(int i)
+  private static long textChecksum() throws IOException
   {
-    State state = null;
-    if (stateMachine[i] instanceof String)
+    InputStream is = RiTa.class.getResourceAsStream(Constants.DEFAULT_LTS);
+    if (is == null)
+      throw new IOException("No LTS rules found");
+
+    CRC32 crc = new CRC32();
+    try
     {
-      state = getState((String) stateMachine[i]);
-      if (tokenizeOnLookup)
-      {
-        stateMachine[i] = state;
-      }
+      byte[] buf = new byte[8192];
+      for (int n; (n = is.read(buf)) > 0;)
+        crc.update(buf, 0, n);
     }
-    else
+    finally
     {
-      state = (State) stateMachine[i];
+      is.close();
     }
-    return state;
+    return crc.getValue();
   }
 
   /**
-   * Gets the <code>State</code> based upon the <code>String</code>.
-   * 
-   * @param s
-   *          the string to parse
-   * 
-   * @return the parsed <code>State</code>
+   * Compiles a new instance from the text rules, rather than returning the
+   * shared one, as getInstance() does
    */
-  protected State getState(String s)
+  public static LetterToSound compile()
   {
-    StringTokenizer tokenizer = new StringTokenizer(s, " ");
-    return getState(tokenizer.nextToken(), tokenizer);
+    return new LetterToSound();
+  }
+
+  private void allocate(int total)
+  {
+    numStates = total;
+    stateIndex = new byte[total];
+    stateChar = new char[total];
+    qtrue = new int[total];
+    qfalse = new int[total];
+    phoneId = new int[total];
   }
 
   /**
-   * Gets the <code>State</code> based upon the <code>type</code> and
-   * <code>tokenizer<code>.
-   * 
-   * @param type
-   *          one of <code>STATE</code> or <code>PHONE</code>
-   * @param tokenizer
-   *          a <code>StringTokenizer</code> containing the <code>State</code>
-   * 
-   * @return the parsed <code>State</code>
+   * Loads compiled LTS rules, as written by writeBinary(), from the stream,
+   * which is closed after the rules are read.
+   *
+   * @param is
+   *          the input stream
+   *
+   * @throws IOException
+   *           if an error occurs on input, or the stream does not hold
+   *           compiled rules.
    */
-  protected State getState(String type, StringTokenizer tokenizer)
+  public static LetterToSound loadBinary(InputStream is) throws IOException
   {
-    if (type.equals(STATE))
+    DataInputStream dis = new DataInputStream(new BufferedInputStream(is));
+    try
     {
-      int index = Integer.parseInt(tokenizer.nextToken());
-      String c = tokenizer.nextToken();
-      int qtrue = Integer.parseInt(tokenizer.nextToken());
-      int qfalse = Integer.parseInt(tokenizer.nextToken());
-      return new DecisionState(index, c.charAt(0), qtrue, qfalse);
+      return new LetterToSound(dis);
     }
-    else if (type.equals(PHONE))
+    finally
     {
-      return new FinalState(tokenizer.nextToken());
+      dis.close();
     }
-    return null;
   }
 
   /**
-   * Makes a character array that looks like "000#word#000".
-   * 
-   * @param word
-   *          the original word
-   * 
-   * @return the padded word
+   * Writes the compiled LTS rules to the stream (which is not closed), in the
+   * form read by loadBinary().
+   *
+   * @param os
+   *          the output stream
+   *
+   * @throws IOException
+   *           if an error occurs on output.
    */
-  protected char[] getFullBuff(String word)
+  public void writeBinary(OutputStream os) throws IOException
   {
-    char[] full_buff = new char[word.length() + (2 * WINDOW_SIZE)];
+    DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(os));
+    dos.writeInt(MAGIC);
+    dos.writeInt(VERSION);
+    dos.writeLong(checksum);
 
-    // Make full_buff look like "000#word#000"
-    //
-    for (int i = 0; i < (WINDOW_SIZE - 1); i++)
+    dos.writeInt(phoneLists.length);
+    for (int i = 0; i < phoneLists.length; i++)
     {
-      full_buff[i] = '0';
+      dos.writeInt(phoneLists[i].length);
+      for (int j = 0; j < phoneLists[i].length; j++)
+        dos.writeUTF(phoneLists[i][j]);
     }
-    full_buff[WINDOW_SIZE - 1] = '#';
-    word.getChars(0, word.length(), full_buff, WINDOW_SIZE);
-    for (int i = 0; i < (WINDOW_SIZE - 1); i++)
+
+    dos.writeInt(letterStart.length);
+    for (int i = 0; i < letterStart.length; i++)
+      dos.writeInt(letterStart[i]);
+
+    dos.writeInt(numStates);
+    for (int i = 0; i < numStates; i++)
     {
-      full_buff[full_buff.length - i - 1] = '0';
+      dos.writeByte(stateIndex[i]);
+      dos.writeChar(stateChar[i]);
+      dos.writeInt(qtrue[i]);
+      dos.writeInt(qfalse[i]);
+      dos.writeInt(phoneId[i]);
     }
-    full_buff[full_buff.length - WINDOW_SIZE] = '#';
-    return full_buff;
+    dos.flush();
   }
 
-  public String[] getPhones(String word)
+  private void writeBinary(File file) throws IOException
   {
-    return getPhones(word, null);
+    File tmp = new File(file.getPath() + ".tmp");
+    OutputStream os = new FileOutputStream(tmp);
+    try
+    {
+      writeBinary(os);
+    }
+    finally
+    {
+      os.close();
+    }
+    if (!tmp.renameTo(file) && !(file.delete() && tmp.renameTo(file)))
+    {
+      tmp.delete();
+      throw new IOException("Unable to rename " + tmp);
+    }
   }
 
   /**
-   * Calculates the phone list for a given word. If a phone list cannot be
-   * determined, <code>null</code> is returned. This particular implementation
-   * ignores the part of speech.
-   * 
-   * @param word
-   *          the word to find
-   * @param partOfSpeech
-   *          the part of speech.
-   * 
-   * @return the list of phones for word or <code>null</code>
+   * Loads the LTS rules from the given text input stream. The stream is not
+   * closed after the rules are read.
+   *
+   * @param is
+   *          the input stream
+   *
+   * @throws IOException
+   *           if an error occurs on input.
    */
-  public String[] getPhones(String word, String partOfSpeech)
+  private InputStream loadText(InputStream is) throws IOException
   {
-    if (RiTa.PRINT_LTS_INFO && !RiTa.SILENT)
-      System.out.println("[INFO] Using LTS for '" + word + "'");
-
-    List phoneList = new ArrayList();
-    State currentState;
-    Integer startIndex;
-    int stateIndex;
-    char c;
-
-    // Create "000#word#000"
-    char[] full_buff = getFullBuff(word);
-
-    // For each character in the word, create a WINDOW_SIZE
-    // context on each size of the character, and then ask the
-    // state machine what's next. Its magic
-    for (int pos = 0; pos < word.length(); pos++)
+    Map<String, Integer> letterIndex = new HashMap<String, Integer>();
+    Map<String, Integer> phoneIds = new HashMap<String, Integer>();
+    List<String[]> phones = new ArrayList<String[]>();
+    int maxLetter = -1;
+
+    BufferedReader reader = new BufferedReader(new InputStreamReader(is));
+    int state = 0;
+    String line = reader.readLine();
+    while (line != null)
     {
-      for (int i = 0; i < WINDOW_SIZE; i++)
-      {
-        fval_buff[i] = full_buff[pos + i];
-        fval_buff[i + WINDOW_SIZE] = full_buff[i + pos + 1 + WINDOW_SIZE];
-      }
-      c = word.charAt(pos);
-      startIndex = (Integer) letterIndex.get(Character.toString(c));
-      if (startIndex == null)
+      if (!line.startsWith("***"))
       {
-        continue;
-      }
+        line = line.replaceAll("(^'|',?)", "");
+        StringTokenizer tokenizer = new StringTokenizer(line, " ");
+        String type = tokenizer.hasMoreTokens() ? tokenizer.nextToken() : "";
 
-      stateIndex = startIndex.intValue();
-      currentState = getState(stateIndex);
-      while (!(currentState instanceof FinalState))
-      {
-        stateIndex = ((DecisionState) currentState).getNextState(fval_buff);
-        currentState = getState(stateIndex);
+        if (type.equals(STATE))
+        {
+          stateIndex[state] = Byte.parseByte(tokenizer.nextToken());
+          stateChar[state] = tokenizer.nextToken().charAt(0);
+          qtrue[state] = Integer.parseInt(tokenizer.nextToken());
+          qfalse[state] = Integer.parseInt(tokenizer.nextToken());
+          state++;
+        }
+        else if (type.equals(PHONE))
+        {
+          String p = tokenizer.nextToken();
+          Integer id = phoneIds.get(p);
+          if (id == null)
+          {
+            phoneIds.put(p, id = phones.size());
+            phones.add(parsePhones(p));
+          }
+          stateIndex[state] = FINAL;
+          phoneId[state] = id;
+          state++;
+        }
+        else if (type.equals(INDEX))
+        {
+          if (Integer.parseInt(tokenizer.nextToken()) != state)
+            throw new Error("Bad INDEX in file.");
+
+          String c = tokenizer.nextToken();
+          letterIndex.put(c, state);
+          maxLetter = Math.max(maxLetter, c.charAt(0));
+        }
+        else if (type.equals(TOTAL))
+        {
+          allocate(Integer.parseInt(tokenizer.nextToken()));
+        }
       }
+      line = reader.readLine();
+    }
 
-      ((FinalState) currentState).append((ArrayList) phoneList);
-//RiTa.out("phoneList: "+phoneList);      
+    phoneLists = phones.toArray(new String[phones.size()][]);
+
+    letterStart = new int[maxLetter + 1];
+    Arrays.fill(letterStart, -1);
+    for (Iterator<Map.Entry<String, Integer>> it = letterIndex.entrySet().iterator(); it.hasNext();)
+    {
+      Map.Entry<String, Integer> entry = it.next();
+      if (entry.getKey().length() == 1) // only single chars are ever looked up
+        letterStart[entry.getKey().charAt(0)] = entry.getValue();
     }
-    
-    return (String[]) phoneList.toArray(new String[0]);
+
+    return is;
   }
 
   /**
-   * Compares this LTS to another for debugging purposes.
-   * 
-   * @param other
-   *          the other LTS to compare to
-   * 
-   * @return <code>true</code> if these are equivalent
+   * Parses the phones of a final state, where "epsilon" indicates an empty
+   * list, and "p1-p2" a pair of phones.
    */
-  public boolean compare(LetterToSound other)
+  private static String[] parsePhones(String phones)
   {
+    if (phones.equals("epsilon"))
+      return NO_PHONES;
 
-    // compare letter index table
-    //
-    for (Iterator i = letterIndex.keySet().iterator(); i.hasNext();)
-    {
-      String key = (String) i.next();
-      Integer thisIndex = (Integer) letterIndex.get(key);
-      Integer otherIndex = (Integer) other.letterIndex.get(key);
-      if (!thisIndex.equals(otherIndex))
-      {
-        if (RiTa.PRINT_LTS_INFO)
-          System.err.println("[WARN] LTSengine -> Bad index: " + key);
-        return false;
-      }
-    }
+    int i = phones.indexOf('-');
+    if (i != -1)
+      return new String[] { phones.substring(0, i).intern(), phones.substring(i + 1).intern() };
 
-    // compare states
-    //
-    for (int i = 0; i < stateMachine.length; i++)
-    {
-      State state = getState(i);
-      State otherState = other.getState(i);
-      if (!state.compare(otherState))
-      {
-        if (RiTa.PRINT_LTS_INFO)
-          System.err.println("[WARN] LTSengine -> Bad state: " + i);
-        return false;
-      }
-    }
+    return new String[] { phones.intern() };
+  }
 
-    return true;
+  private List findPhonemes() //  for documentation
+  {
+    Set set = new HashSet();
+    for (int i = 0; i < phoneLists.length; i++)
+      set.addAll(Arrays.asList(phoneLists[i]));
+    return new ArrayList(set);
   }
 
   /**
-   * A marker interface for the states in the LTS state machine.
-   * 
-   * @see DecisionState
-   * @see FinalState
+   * Sets the maximum number of words whose phones are cached (0 for none),
+   * clearing the cache
    */
-  static interface State
+  public void setCacheSize(int size)
   {
-    public void writeBinary(DataOutputStream dos) throws IOException;
-
-    public boolean compare(State other);
+    cacheSize = size;
+    cache = size > 0 ? new ConcurrentHashMap<String, String[]>() : null;
   }
 
   /**
-   * A <code>State</code> that represents a decision to be made.
-   * 
-   * @see FinalState
+   * Returns the maximum number of words whose phones are cached
    */
-  static class DecisionState implements State
+  public int getCacheSize()
   {
-    final static int TYPE = 1;
-
-    int index;
-
-    char c;
+    return cacheSize;
+  }
 
-    int qtrue;
+  public String[] getPhones(String word)
+  {
+    return getPhones(word, null);
+  }
 
-    int qfalse;
+  /**
+   * Calculates the phone list for a given word. If a phone list cannot be
+   * determined, <code>null</code> is returned. This particular implementation
+   * ignores the part of speech.
+   *
+   * @param word
+   *          the word to find
+   * @param partOfSpeech
+   *          the part of speech.
+   *
+   * @return the list of phones for word or <code>null</code>
+   */
+  public String[] getPhones(String word, String partOfSpeech)
+  {
+    if (RiTa.PRINT_LTS_INFO && !RiTa.SILENT)
+      System.out.println("[INFO] Using LTS for '" + word + "'");
 
-    /**
-     * Class constructor.
-     * 
-     * @param index
-     *          the index into a string for comparison to c
-     * @param c
-     *          the character to match in a string at index
-     * @param qtrue
-     *          the state to go to in the state machine on a match
-     * @param qfalse
-     *          the state to go to in the state machine on no match
-     */
-    public DecisionState(int index, char c, int qtrue, int qfalse)
+    Map<String, String[]> memo = cache;
+    if (memo != null)
     {
-      this.index = index;
-      this.c = c;
-      this.qtrue = qtrue;
-      this.qfalse = qfalse;
+      String[] phones = memo.get(word);
+      if (phones == null)
+      {
+        phones = computePhones(word);
+        if (memo.size() >= cacheSize) // full, so start over
+          memo.clear();
+        memo.put(word, phones);
+      }
+      return phones.length < 1 ? phones : phones.clone();
     }
 
-    /**
-     * Gets the next state to go to based upon the given character sequence.
-     * 
-     * @param chars
-     *          the characters for comparison
-     * 
-     * @ret an index into the state machine.
-     */
-    public int getNextState(char[] chars)
-    {
-      return (chars[index] == c) ? qtrue : qfalse;
-    }
+    return computePhones(word);
+  }
 
-    /**
-     * Outputs this <code>State</code> as though it came from the text input
-     * file.
-     * 
-     * @return a <code>String</code> describing this <code>State</code>.
-     */
-    public String toString()
-    {
-      return STATE + " " + Integer.toString(index) + " " + Character.toString(c) + " "
-          + Integer.toString(qtrue) + " " + Integer.toString(qfalse);
-    }
+  /*
+   * For each character in the word, looks at a WINDOW_SIZE context on each side
+   * of it in "000#word#000" and asks the state machine what's next. Its magic
+   */
+  private String[] computePhones(String word)
+  {
+    int len = word.length();
+    if (len < 1) return NO_PHONES;
 
-    /**
-     * Writes this <code>State</code> to the given output stream.
-     * 
-     * @param dos
-     *          the data output stream
-     * 
-     * @throws IOException
-     *           if an error occurs
-     */
-    public void writeBinary(DataOutputStream dos) throws IOException
+    // Create "000#word#000"
+    char[] full_buff = new char[len + (2 * WINDOW_SIZE)];
+    for (int i = 0; i < (WINDOW_SIZE - 1); i++)
     {
-      dos.writeInt(TYPE);
-      dos.writeInt(index);
-      dos.writeChar(c);
-      dos.writeInt(qtrue);
-      dos.writeInt(qfalse);
+      full_buff[i] = '0';
+      full_buff[full_buff.length - i - 1] = '0';
     }
+    full_buff[WINDOW_SIZE - 1] = '#';
+    full_buff[full_buff.length - WINDOW_SIZE] = '#';
+    word.getChars(0, len, full_buff, WINDOW_SIZE);
 
-    /**
-     * Loads a <code>DecisionState</code> object from the given input stream.
-     * 
-     * @param dis
-     *          the data input stream
-     * @return a newly constructed decision state
-     * 
-     * @throws IOException
-     *           if an error occurs
-     */
-    public static State loadBinary(DataInputStream dis) throws IOException
+    String[] result = new String[len * 2]; // at most 2 phones per letter
+    int count = 0;
+    for (int pos = 0; pos < len; pos++)
     {
-      int index = dis.readInt();
-      char c = dis.readChar();
-      int qtrue = dis.readInt();
-      int qfalse = dis.readInt();
-      return new DecisionState(index, c, qtrue, qfalse);
-    }
+      char c = full_buff[pos + WINDOW_SIZE];
+      int state = c < letterStart.length ? letterStart[c] : -1;
+      if (state < 0)
+        continue;
 
-    /**
-     * Compares this state to another state for debugging purposes.
-     * 
-     * @param other
-     *          the other state to compare against
-     * 
-     * @return true if the states are equivalent
-     */
-    public boolean compare(State other)
-    {
-      if (other instanceof DecisionState)
+      int idx;
+      while ((idx = stateIndex[state]) != FINAL)
       {
-        DecisionState otherState = (DecisionState) other;
-        return index == otherState.index && c == otherState.c
-            && qtrue == otherState.qtrue && qfalse == otherState.qfalse;
+        // the window is the WINDOW_SIZE chars before c, then those after it
+        char w = full_buff[pos + idx + (idx < WINDOW_SIZE ? 0 : 1)];
+        state = (w == stateChar[state]) ? qtrue[state] : qfalse[state];
       }
-      return false;
+
+      String[] phones = phoneLists[phoneId[state]];
+      for (int i = 0; i < phones.length; i++)
+        result[count++] = phones[i];
     }
+
+    return count < 1 ? NO_PHONES : Arrays.copyOf(result, count);
   }
 
   /**
-   * A <code>State</code> that represents a final state in the state machine. It
-   * contains one or more phones from the phone table.
-   * 
-   * @see DecisionState
+   * Compares this LTS to another for debugging purposes.
+   *
+   * @param other
+   *          the other LTS to compare to
+   *
+   * @return <code>true</code> if these are equivalent
    */
-  static class FinalState implements State
+  public boolean compare(LetterToSound other)
   {
-    final static int TYPE = 2;
-
-    String[] phoneList;
-
-    /**
-     * Class constructor. The string "epsilon" is used to indicate an empty
-     * list.
-     * 
-     * @param phones
-     *          the phones for this state
-     */
-    public FinalState(String phones)
-    {
-      if (phones.equals("epsilon"))
-      {
-        phoneList = null;
-      }
-      else
-      {
-        int i = phones.indexOf('-');
-        if (i != -1)
-        {
-          phoneList = new String[2];
-          phoneList[0] = phones.substring(0, i);
-          phoneList[1] = phones.substring(i + 1);
-        }
-        else
-        {
-          phoneList = new String[1];
-          phoneList[0] = phones;
-        }
-      }
-    }
-
-    /**
-     * Class constructor.
-     * 
-     * @param phones
-     *          an array of phones for this state
-     */
-    public FinalState(String[] phones)
-    {
-      phoneList = phones;
-    }
-
-    /**
-     * Appends the phone list for this state to the given <code>ArrayList</code>
-     * .
-     * 
-     * @param al
-     *          the list to append to
-     */
-    public void append(ArrayList al)
-    {
-      if (phoneList == null)
-      {
-        return;
-      }
-      else
-      {
-        for (int i = 0; i < phoneList.length; i++)
-        {
-          al.add(phoneList[i]);
-        }
-      }
-    }
-
-    /**
-     * Outputs this <code>State</code> as though it came from the text input
-     * file. The string "epsilon" is used to indicate an empty list.
-     * 
-     * @return a <code>String</code> describing this <code>State</code>
-     */
-    public String toString()
+    // compare letter index table
+    //
+    if (!Arrays.equals(letterStart, other.letterStart))
     {
-      if (phoneList == null)
-      {
-        return PHONE + " epsilon";
-      }
-      else if (phoneList.length == 1)
-      {
-        return PHONE + " " + phoneList[0];
-      }
-      else
-      {
-        return PHONE + " " + phoneList[0] + "-" + phoneList[1];
-      }
+      if (RiTa.PRINT_LTS_INFO)
+        System.err.println("[WARN] LTSengine -> Bad index");
+      return false;
     }
 
-    /**
-     * Compares this state to another state for debugging purposes.
-     * 
-     * @param other
-     *          the other state to compare against
-     * 
-     * @return <code>true</code> if the states are equivalent
-     */
-    public boolean compare(State other)
-    {
-      if (other instanceof FinalState)
-      {
-        FinalState otherState = (FinalState) other;
-        if (phoneList == null)
-        {
-          return otherState.phoneList == null;
-        }
-        else
-        {
-          for (int i = 0; i < phoneList.length; i++)
-          {
-            if (!phoneList[i].equals(otherState.phoneList[i]))
-            {
-              return false;
-            }
-          }
-          return true;
-        }
-      }
+    // compare states
+    //
+    if (numStates != other.numStates)
       return false;
-    }
 
-    /**
-     * Writes this state to the given output stream.
-     * 
-     * @param dos
-     *          the data output stream
-     * 
-     * @throws IOException
-     *           if an error occurs
-     */
-    public void writeBinary(DataOutputStream dos) throws IOException
+    for (int i = 0; i < numStates; i++)
     {
-      dos.writeInt(TYPE);
-      if (phoneList == null)
+      boolean same = stateIndex[i] == other.stateIndex[i];
+      if (same && stateIndex[i] == FINAL)
+        same = Arrays.equals(phoneLists[phoneId[i]], other.phoneLists[other.phoneId[i]]);
+      else if (same)
+        same = stateChar[i] == other.stateChar[i] && qtrue[i] == other.qtrue[i]
+            && qfalse[i] == other.qfalse[i];
+
+      if (!same)
       {
-        dos.writeInt(0);
-      }
-      else
-      {
-        dos.writeInt(phoneList.length);
-        for (int i = 0; i < phoneList.length; i++)
-        {
-          dos.writeInt(phonemeTable.indexOf(phoneList[i]));
-        }
+        if (RiTa.PRINT_LTS_INFO)
+          System.err.println("[WARN] LTSengine -> Bad state: " + i);
+        return false;
       }
     }
+
+    return true;
   }
-  
-  public static void main(String[] args)
+
+  public static void main(String[] args) throws IOException
   {
     LetterToSound text = LetterToSound.getInstance();
+    if (args.length > 0) // compile the rules to a binary file
+    {
+      text.writeBinary(new File(args[0]));
+      return;
+    }
     System.out.println(Arrays.asList(text.getPhones("laggin", "n")));
     System.out.println(Arrays.asList(text.getPhones("dragon", "n")));
     System.out.println(Arrays.asList(text.getPhones("hello", "n")));
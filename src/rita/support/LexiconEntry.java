@@ -0,0 +1,155 @@
+package rita.support;
+
+import java.util.*;
+
+/**
+ * An immutable, pre-decoded lexicon entry: the raw 'phones|pos' String is
+ * parsed once, into the features returned by JSONLexicon (phonemes, syllables,
+ * stresses, pos-list) and the arrays behind getPhonemeArr() and getPosArr(),
+ * so that these can be served without splitting or rebuilding the entry on
+ * each call. Phonemes are shared with Phoneme.TTS_PHONEMES where possible.
+ * <p>
+ * Note: this is a support class, public access is provided through
+ * rita.RiLexicon.
+ */
+public class LexiconEntry implements Constants
+{
+  private static final Map<String, String> PHONES = new HashMap<String, String>();
+
+  static
+  {
+    for (int i = 0; i < Phoneme.TTS_PHONEMES.length; i++)
+      PHONES.put(Phoneme.TTS_PHONEMES[i], Phoneme.TTS_PHONEMES[i]);
+  }
+
+  protected final String raw, rawPhones, posStr;
+  protected final String phonemes, syllables, stresses, posList;
+  protected final String[] phoneArr, posArr;
+
+  public LexiconEntry(String raw)
+  {
+    this.raw = raw;
+
+    String[] data = raw.split(DATA_DELIM);
+    this.rawPhones = data[0].trim();
+    this.posStr = data.length > 1 ? data[1] : null;
+    this.posArr = posStr == null ? null : (posStr.length() < 1 ? EMPTY : posStr.split(SP));
+
+    if (data.length != 2) // invalid, see isValid()
+    {
+      phonemes = syllables = stresses = posList = null;
+      phoneArr = null;
+      return;
+    }
+
+    StringBuilder phones = new StringBuilder();
+    StringBuilder stress = new StringBuilder();
+    StringBuilder syls = new StringBuilder();
+    String[] phonesAndStresses = data[0].split(SP);
+    for (int i = 0; i < phonesAndStresses.length; i++)
+    {
+      String syl = phonesAndStresses[i];
+      boolean stressed = false;
+      for (int j = 0; j < syl.length(); j++)
+      {
+        char c = syl.charAt(j);
+        if (c == '1')
+        {
+          stressed = true;
+        }
+        else
+        {
+          phones.append(c);
+          syls.append(c);
+        }
+      }
+
+      stress.append(stressed ? STRESSED : UNSTRESSED);
+
+      if (i < phonesAndStresses.length - 1)
+      {
+        phones.append(PHONEME_BOUNDARY);
+        syls.append(SYLLABLE_BOUNDARY);
+        stress.append(SYLLABLE_BOUNDARY);
+      }
+    }
+
+    this.phonemes = phones.toString();
+    this.syllables = syls.toString();
+    this.stresses = stress.toString();
+    this.posList = data[1].trim();
+
+    String[] arr = phonemes.split(PHONEME_BOUNDARY);
+    for (int i = 0; i < arr.length; i++)
+    {
+      String shared = PHONES.get(arr[i]);
+      if (shared != null) arr[i] = shared;
+    }
+    this.phoneArr = arr;
+  }
+
+  /**
+   * Returns false if the raw entry was not of the form 'phones|pos'
+   */
+  public boolean isValid()
+  {
+    return phonemes != null;
+  }
+
+  /**
+   * Returns the raw entry
+   */
+  public String raw()
+  {
+    return raw;
+  }
+
+  /**
+   * Returns the phones with syllables and stresses, e.g., 'ae1-p ax-l'
+   */
+  public String rawPhones()
+  {
+    return rawPhones;
+  }
+
+  /**
+   * Returns the parts-of-speech as listed, e.g., 'nn vb', or null for an
+   * invalid entry
+   */
+  public String posStr()
+  {
+    return posStr;
+  }
+
+  /**
+   * Returns a new Map with the syllables, phonemes, stresses and pos-list for
+   * the entry (as returned by JSONLexicon.getFeatures())
+   */
+  public Map<String, String> features()
+  {
+    Map<String, String> m = new HashMap<String, String>(8);
+    m.put(SYLLABLES, syllables);
+    m.put(POSLIST, posList);
+    m.put(PHONEMES, phonemes);
+    m.put(STRESSES, stresses);
+    return m;
+  }
+
+  /**
+   * Returns a copy of the phonemes (without stresses) for the entry
+   */
+  public String[] phonemeArr()
+  {
+    return phoneArr.clone();
+  }
+
+  /**
+   * Returns a copy of the parts-of-speech for the entry, or null for an invalid
+   * entry
+   */
+  public String[] posArr()
+  {
+    if (posArr == null) return null;
+    return posArr.length < 1 ? EMPTY : posArr.clone();
+  }
+}
@@ -0,0 +1,677 @@
+package rita.support;
+
+import java.io.*;
+import java.net.URI;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+import rita.RiLexicon;
+import rita.RiTaException;
+
+/**
+ * A compact, read-only binary image of the lexicon, produced at build-time
+ * from <code>rita_dict.js</code> (see {@link #main(String[])}) and loaded via
+ * <code>FileChannel.map()</code> so that no parsing happens at startup and
+ * entries are only decoded when they are actually requested.
+ * <p>
+ * Layout (all ints big-endian):
+ *
+ * <pre>
+ *   header:   MAGIC, VERSION, count
+ *   tables:   phone-table, pos-table (each: n, then [len,bytes]*n)
+ *   offsets:  words[count+1], entries[count+1], sorted[count]
+ *   blobs:    word bytes (UTF-8), entry bytes
+ * </pre>
+ *
+ * Words are stored in their original (file) order, with a sorted permutation
+ * used for binary-search lookups. Each entry is either packed (one byte per
+ * phone: 6-bit phone id, a stress bit and a syllable-start bit, followed by
+ * one byte per pos-tag id) or, when it cannot be packed losslessly, the raw
+ * UTF-8 entry string prefixed with a zero byte.
+ * <p>
+ * Note: this is a support class, enabled via JSONLexicon.USE_IMAGE
+ */
+public class LexiconImage implements Constants
+{
+  /** Magic number for binary lexicon files ('RiTL') */
+  final static int MAGIC = 0x5269544C;
+
+  /** Current binary file version */
+  final static int VERSION = 1;
+
+  final static int PHONE_MASK = 0x3f, STRESS_BIT = 0x40, SYLLABLE_BIT = 0x80;
+
+  final static char SYL_DELIM = ' ', PHONE_DELIM = '-', POS_DELIM = ' ', FIELD_DELIM = '|';
+
+  protected ByteBuffer buffer;
+  protected String[] phones, tags;
+  protected int count, wordOffsets, entryOffsets, sortedIdx, wordBase, entryBase;
+
+  /**
+   * Wraps (without copying) an image previously written by
+   * {@link #compile(String[], OutputStream)}
+   */
+  public LexiconImage(ByteBuffer bb)
+  {
+    this.buffer = bb;
+
+    if (bb.getInt(0) != MAGIC)
+      throw new RiTaException("Not a lexicon image (bad magic number)");
+
+    int version = bb.getInt(4);
+    if (version != VERSION)
+      throw new RiTaException("Unsupported lexicon image version: " + version);
+
+    this.count = bb.getInt(8);
+
+    int[] pos = { 12 };
+    this.phones = readTable(bb, pos);
+    this.tags = readTable(bb, pos);
+
+    this.wordOffsets = pos[0];
+    this.entryOffsets = wordOffsets + (count + 1) * 4;
+    this.sortedIdx = entryOffsets + (count + 1) * 4;
+    this.wordBase = sortedIdx + count * 4;
+    this.entryBase = wordBase + bb.getInt(wordOffsets + count * 4);
+  }
+
+  /**
+   * Returns the path of the image corresponding to the given dictionary file,
+   * e.g., 'rita_dict.js' -> 'rita_dict.bin'
+   */
+  public static String imagePath(String dictionaryFile)
+  {
+    int idx = dictionaryFile.lastIndexOf('.');
+    return (idx > 0 ? dictionaryFile.substring(0, idx) : dictionaryFile) + ".bin";
+  }
+
+  /**
+   * Loads the image for the specified resource (relative to RiLexicon),
+   * memory-mapping it when it lives on the file system, or returns null if no
+   * such image exists.
+   */
+  public static LexiconImage load(String resource)
+  {
+    URL url = RiLexicon.class.getResource(resource);
+    if (url == null) return null;
+
+    try
+    {
+      if ("file".equals(url.getProtocol()))
+        return map(new File(new URI(url.toString())));
+
+      return read(url.openStream());
+    }
+    catch (Exception e)
+    {
+      throw new RiTaException(e);
+    }
+  }
+
+  /**
+   * Memory-maps (read-only) the image in the specified file
+   */
+  public static LexiconImage map(File file) throws IOException
+  {
+    FileInputStream fis = new FileInputStream(file);
+    try
+    {
+      FileChannel channel = fis.getChannel();
+      return new LexiconImage(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+    }
+    finally
+    {
+      fis.close(); // the mapping remains valid
+    }
+  }
+
+  /**
+   * Reads the image from a stream (e.g., from inside a jar) into a heap buffer
+   */
+  public static LexiconImage read(InputStream is) throws IOException
+  {
+    try
+    {
+      ByteArrayOutputStream bos = new ByteArrayOutputStream(1 << 20);
+      byte[] buf = new byte[8192];
+      int read;
+      while ((read = is.read(buf, 0, buf.length)) > 0)
+        bos.write(buf, 0, read);
+
+      return new LexiconImage(ByteBuffer.wrap(bos.toByteArray()));
+    }
+    finally
+    {
+      is.close();
+    }
+  }
+
+  /** Returns the number of entries in the image */
+  public int size()
+  {
+    return count;
+  }
+
+  /** Returns the word at index <code>idx</code> (in original order) */
+  public String word(int idx)
+  {
+    int start = buffer.getInt(wordOffsets + idx * 4);
+    int end = buffer.getInt(wordOffsets + (idx + 1) * 4);
+    return string(wordBase + start, end - start);
+  }
+
+  /**
+   * Decodes and returns the raw entry (e.g., 'ax-b ae1-k|rb') for the word at
+   * index <code>idx</code>
+   */
+  public String entry(int idx)
+  {
+    int start = entryBase + buffer.getInt(entryOffsets + idx * 4);
+    int end = entryBase + buffer.getInt(entryOffsets + (idx + 1) * 4);
+
+    int numPhones = buffer.get(start) & 0xff;
+    if (numPhones == 0) // raw entry
+      return string(start + 1, end - start - 1);
+
+    StringBuilder sb = new StringBuilder(32);
+    int p = start + 1;
+    for (int i = 0; i < numPhones; i++, p++)
+    {
+      int b = buffer.get(p) & 0xff;
+      if (i > 0)
+        sb.append((b & SYLLABLE_BIT) != 0 ? SYL_DELIM : PHONE_DELIM);
+      sb.append(phones[b & PHONE_MASK]);
+      if ((b & STRESS_BIT) != 0)
+        sb.append(STRESSED);
+    }
+    sb.append(FIELD_DELIM);
+    for (int i = 0; p < end; i++, p++)
+    {
+      if (i > 0) sb.append(POS_DELIM);
+      sb.append(tags[buffer.get(p) & 0xff]);
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Returns the (original-order) index of the word, or -1 if it is not in the
+   * image
+   */
+  public int indexOf(String word)
+  {
+    byte[] key = utf8(word);
+    int lo = 0, hi = count - 1;
+    while (lo <= hi)
+    {
+      int mid = (lo + hi) >>> 1;
+      int idx = buffer.getInt(sortedIdx + mid * 4);
+      int cmp = compare(idx, key);
+      if (cmp < 0)
+        lo = mid + 1;
+      else if (cmp > 0)
+        hi = mid - 1;
+      else
+        return idx;
+    }
+    return -1;
+  }
+
+  /**
+   * Returns a mutable Map view of the image: entries are decoded lazily on
+   * access, and modifications are kept in a (small) overlay on the heap.
+   */
+  public Map<String, String> asMap()
+  {
+    return new DataMap(this);
+  }
+
+  // compares the stored word at idx with key (as unsigned bytes)
+  private int compare(int idx, byte[] key)
+  {
+    int start = wordBase + buffer.getInt(wordOffsets + idx * 4);
+    int len = wordBase + buffer.getInt(wordOffsets + (idx + 1) * 4) - start;
+    int n = Math.min(len, key.length);
+    for (int i = 0; i < n; i++)
+    {
+      int a = buffer.get(start + i) & 0xff, b = key[i] & 0xff;
+      if (a != b) return a - b;
+    }
+    return len - key.length;
+  }
+
+  private String string(int offset, int length)
+  {
+    byte[] b = new byte[length];
+    for (int i = 0; i < length; i++)
+      b[i] = buffer.get(offset + i);
+    return new String(b, 0, length, UTF8_CHARSET);
+  }
+
+  private static String[] readTable(ByteBuffer bb, int[] pos)
+  {
+    int p = pos[0], n = bb.getInt(p);
+    p += 4;
+    String[] table = new String[n];
+    for (int i = 0; i < n; i++)
+    {
+      int len = bb.get(p++) & 0xff;
+      byte[] b = new byte[len];
+      for (int j = 0; j < len; j++)
+        b[j] = bb.get(p++);
+      table[i] = new String(b, UTF8_CHARSET);
+    }
+    pos[0] = p;
+    return table;
+  }
+
+  private static byte[] utf8(String s)
+  {
+    return s.getBytes(UTF8_CHARSET);
+  }
+
+  final static java.nio.charset.Charset UTF8_CHARSET = java.nio.charset.Charset.forName(UTF8);
+
+  // compiler ====================================
+
+  private static String readFile(File file) throws IOException
+  {
+    FileInputStream fis = new FileInputStream(file);
+    try
+    {
+      FileChannel channel = fis.getChannel();
+      ByteBuffer bb = ByteBuffer.allocate((int) channel.size());
+      while (bb.hasRemaining() && channel.read(bb) > 0);
+      return new String(bb.array(), UTF8_CHARSET);
+    }
+    finally
+    {
+      fis.close();
+    }
+  }
+
+  /**
+   * Compiles the lexicon lines (as returned by JSONLexicon.loadJSON()) into a
+   * binary image written to <code>out</code>
+   */
+  public static void compile(String[] lines, OutputStream out) throws IOException
+  {
+    List<String> words = new ArrayList<String>(lines.length);
+    List<String> entries = new ArrayList<String>(lines.length);
+    for (int i = 1; i < lines.length - 1; i++) // ignore JSON prefix/suffix
+    {
+      String[] parts = lines[i].split(LEXICON_DELIM);
+      if (parts == null || parts.length != 2)
+        throw new RiTaException("Illegal entry: " + lines[i]);
+      words.add(parts[0]);
+      entries.add(parts[1].trim());
+    }
+    compile(words, entries, out);
+  }
+
+  /**
+   * Compiles the (parallel) lists of words and raw entries into a binary image
+   * written to <code>out</code>
+   */
+  public static void compile(List<String> words, List<String> entries, OutputStream out) throws IOException
+  {
+    int count = words.size();
+    Map<String, Integer> phoneIds = new LinkedHashMap<String, Integer>();
+    Map<String, Integer> tagIds = new LinkedHashMap<String, Integer>();
+
+    ByteArrayOutputStream wordBlob = new ByteArrayOutputStream(count * 8);
+    ByteArrayOutputStream entryBlob = new ByteArrayOutputStream(count * 12);
+    int[] wordOffs = new int[count + 1], entryOffs = new int[count + 1];
+    final byte[][] keys = new byte[count][];
+
+    for (int i = 0; i < count; i++)
+    {
+      keys[i] = utf8(words.get(i));
+      wordOffs[i] = wordBlob.size();
+      wordBlob.write(keys[i]);
+
+      entryOffs[i] = entryBlob.size();
+      entryBlob.write(pack(entries.get(i), phoneIds, tagIds));
+    }
+    wordOffs[count] = wordBlob.size();
+    entryOffs[count] = entryBlob.size();
+
+    Integer[] sorted = new Integer[count];
+    for (int i = 0; i < count; i++)
+      sorted[i] = i;
+    Arrays.sort(sorted, new Comparator<Integer>()
+    {
+      public int compare(Integer a, Integer b)
+      {
+        return compareBytes(keys[a], keys[b]);
+      }
+    });
+
+    DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(out));
+    dos.writeInt(MAGIC);
+    dos.writeInt(VERSION);
+    dos.writeInt(count);
+    writeTable(dos, phoneIds.keySet());
+    writeTable(dos, tagIds.keySet());
+    for (int i = 0; i < wordOffs.length; i++)
+      dos.writeInt(wordOffs[i]);
+    for (int i = 0; i < entryOffs.length; i++)
+      dos.writeInt(entryOffs[i]);
+    for (int i = 0; i < sorted.length; i++)
+      dos.writeInt(sorted[i]);
+    wordBlob.writeTo(dos);
+    entryBlob.writeTo(dos);
+    dos.flush();
+  }
+
+  /*
+   * Packs an entry like 'ax-b ae1-k|rb', falling back to the raw string when
+   * the entry doesn't round-trip exactly
+   */
+  private static byte[] pack(String entry, Map<String, Integer> phoneIds, Map<String, Integer> tagIds)
+  {
+    byte[] packed = tryPack(entry, phoneIds, tagIds);
+    if (packed != null) return packed;
+
+    byte[] raw = utf8(entry);
+    byte[] result = new byte[raw.length + 1];
+    System.arraycopy(raw, 0, result, 1, raw.length);
+    return result;
+  }
+
+  private static byte[] tryPack(String entry, Map<String, Integer> phoneIds, Map<String, Integer> tagIds)
+  {
+    int bar = entry.indexOf(FIELD_DELIM);
+    if (bar < 1 || bar != entry.lastIndexOf(FIELD_DELIM) || bar == entry.length() - 1)
+      return null;
+
+    ByteArrayOutputStream bos = new ByteArrayOutputStream(16);
+    bos.write(0); // placeholder for phone count
+
+    String[] syls = entry.substring(0, bar).split(SP, -1);
+    int numPhones = 0;
+    for (int i = 0; i < syls.length; i++)
+    {
+      String[] phs = syls[i].split(DASH, -1);
+      for (int j = 0; j < phs.length; j++)
+      {
+        String ph = phs[j];
+        int flags = (i > 0 && j == 0) ? SYLLABLE_BIT : 0;
+        if (ph.length() > 1 && ph.charAt(ph.length() - 1) == STRESSED)
+        {
+          ph = ph.substring(0, ph.length() - 1);
+          flags |= STRESS_BIT;
+        }
+        int id = id(ph, phoneIds, PHONE_MASK);
+        if (id < 0) return null;
+        bos.write(id | flags);
+        numPhones++;
+      }
+    }
+    if (numPhones > 0xff) return null;
+
+    String[] pos = entry.substring(bar + 1).split(SP, -1);
+    for (int i = 0; i < pos.length; i++)
+    {
+      int id = id(pos[i], tagIds, 0xff);
+      if (id < 0) return null;
+      bos.write(id);
+    }
+
+    byte[] result = bos.toByteArray();
+    result[0] = (byte) numPhones;
+    return result;
+  }
+
+  // returns the id for the symbol, adding it if there is room, else -1
+  private static int id(String sym, Map<String, Integer> ids, int max)
+  {
+    if (sym.length() < 1 || sym.length() > 0xff || sym.indexOf(STRESSED) > -1)
+      return -1;
+    Integer id = ids.get(sym);
+    if (id == null)
+    {
+      if (ids.size() > max) return -1;
+      id = ids.size();
+      ids.put(sym, id);
+    }
+    return id;
+  }
+
+  private static void writeTable(DataOutputStream dos, Collection<String> syms) throws IOException
+  {
+    dos.writeInt(syms.size());
+    for (Iterator<String> it = syms.iterator(); it.hasNext();)
+    {
+      byte[] b = utf8(it.next());
+      dos.writeByte(b.length);
+      dos.write(b);
+    }
+  }
+
+  static int compareBytes(byte[] a, byte[] b)
+  {
+    int n = Math.min(a.length, b.length);
+    for (int i = 0; i < n; i++)
+    {
+      int x = a[i] & 0xff, y = b[i] & 0xff;
+      if (x != y) return x - y;
+    }
+    return a.length - b.length;
+  }
+
+  // map view ====================================
+
+  /*
+   * A Map over the image that decodes lazily; puts/removes go to an overlay
+   * so that the image itself is never modified.
+   */
+  static class DataMap extends AbstractMap<String, String>
+  {
+    final LexiconImage image;
+    final Map<String, String> overlay = new LinkedHashMap<String, String>();
+    final BitSet removed = new BitSet();
+    int size;
+
+    DataMap(LexiconImage image)
+    {
+      this.image = image;
+      this.size = image.size();
+    }
+
+    public int size()
+    {
+      return size;
+    }
+
+    public boolean containsKey(Object key)
+    {
+      if (!(key instanceof String)) return false;
+      if (overlay.containsKey(key)) return true;
+      int idx = image.indexOf((String) key);
+      return idx > -1 && !removed.get(idx);
+    }
+
+    public String get(Object key)
+    {
+      if (!(key instanceof String)) return null;
+      if (overlay.containsKey(key)) return overlay.get(key);
+      int idx = image.indexOf((String) key);
+      return (idx < 0 || removed.get(idx)) ? null : image.entry(idx);
+    }
+
+    public String put(String key, String value)
+    {
+      String old = get(key);
+      if (!containsKey(key)) size++;
+      overlay.put(key, value);
+      int idx = image.indexOf(key);
+      if (idx > -1) removed.clear(idx); // iterated in place, with the new value
+      return old;
+    }
+
+    public String remove(Object key)
+    {
+      if (!containsKey(key)) return null;
+      String old = get(key);
+      overlay.remove(key);
+      int idx = image.indexOf((String) key);
+      if (idx > -1) removed.set(idx);
+      size--;
+      return old;
+    }
+
+    public void clear()
+    {
+      overlay.clear();
+      removed.set(0, image.size());
+      size = 0;
+    }
+
+    public Set<Map.Entry<String, String>> entrySet()
+    {
+      return new AbstractSet<Map.Entry<String, String>>()
+      {
+        public int size()
+        {
+          return size;
+        }
+
+        public Iterator<Map.Entry<String, String>> iterator()
+        {
+          return new EntryIterator();
+        }
+      };
+    }
+
+    /*
+     * Iterates the image entries (in original order, with overlay values
+     * replacing image values), then any overlay entries not in the image
+     */
+    class EntryIterator implements Iterator<Map.Entry<String, String>>
+    {
+      int next = -1;
+      Iterator<String> extras;
+      String lastKey;
+
+      EntryIterator()
+      {
+        advance();
+      }
+
+      private void advance()
+      {
+        if (extras != null) return;
+
+        next = removed.nextClearBit(next + 1);
+        if (next < image.size()) return;
+
+        // snapshot, so that remove() can't break the iteration
+        List<String> keys = new ArrayList<String>();
+        for (Iterator<String> it = overlay.keySet().iterator(); it.hasNext();)
+        {
+          String key = it.next();
+          if (image.indexOf(key) < 0) keys.add(key);
+        }
+        extras = keys.iterator();
+      }
+
+      public boolean hasNext()
+      {
+        return extras == null || extras.hasNext();
+      }
+
+      public Map.Entry<String, String> next()
+      {
+        if (!hasNext()) throw new NoSuchElementException();
+
+        lastKey = (extras == null) ? image.word(next) : extras.next();
+        advance();
+        return new LazyEntry(lastKey);
+      }
+
+      public void remove()
+      {
+        if (lastKey == null) throw new IllegalStateException();
+        DataMap.this.remove(lastKey);
+        lastKey = null;
+      }
+    }
+
+    /* An entry whose value is only decoded when requested */
+    class LazyEntry implements Map.Entry<String, String>
+    {
+      final String key;
+
+      LazyEntry(String key)
+      {
+        this.key = key;
+      }
+
+      public String getKey()
+      {
+        return key;
+      }
+
+      public String getValue()
+      {
+        return DataMap.this.get(key);
+      }
+
+      public String setValue(String value)
+      {
+        return DataMap.this.put(key, value);
+      }
+
+      public boolean equals(Object o)
+      {
+        if (!(o instanceof Map.Entry)) return false;
+        Map.Entry e = (Map.Entry) o;
+        Object v = getValue();
+        return key.equals(e.getKey()) && (v == null ? e.getValue() == null : v.equals(e.getValue()));
+      }
+
+      public int hashCode()
+      {
+        Object v = getValue();
+        return key.hashCode() ^ (v == null ? 0 : v.hashCode());
+      }
+
+      public String toString()
+      {
+        return key + "=" + getValue();
+      }
+    }
+  }
+
+  /**
+   * Compiles the lexicon to a binary image, e.g., 'rita_dict.js' to
+   * 'rita_dict.bin'
+   * <p>
+   * Usage: <code>LexiconImage [input] [output]</code>
+   */
+  public static void main(String[] args) throws IOException
+  {
+    String input = args.length > 0 ? args[0] : DEFAULT_LEXICON;
+    String output = args.length > 1 ? args[1] : imagePath(input);
+
+    long start = System.currentTimeMillis();
+    File file = new File(input);
+    String[] lines = file.exists() ? JSONLexicon.parseJSON(readFile(file))
+        : JSONLexicon.loadJSON(input);
+    OutputStream os = new FileOutputStream(output);
+    try
+    {
+      compile(lines, os);
+    }
+    finally
+    {
+      os.close();
+    }
+
+    LexiconImage image = map(new File(output));
+    System.out.println("[INFO] Compiled " + image.size() + " entries to " + output
+        + " in " + (System.currentTimeMillis() - start) + " ms");
+  }
+}
@@ -0,0 +1,34 @@
+package rita.support;
+
+import java.util.Map;
+
+/**
+ * Base class for indexes derived from the lexical data (rhymes, similarity,
+ * etc.) which are built once, then rebuilt only when the data changes.
+ * <p>
+ * An index is considered stale when the lexicon's Map has been replaced, its
+ * size has changed, or it has been modified via the JSONLexicon methods (see
+ * {@link JSONLexicon#getModCount()}). Note: values replaced directly through
+ * the Map returned by getLexicalData() are not detected.
+ */
+public abstract class LexiconIndex implements Constants
+{
+  private Map data;
+  private int size, modCount;
+
+  protected LexiconIndex(JSONLexicon lexicon)
+  {
+    this.data = lexicon.getLexicalData();
+    this.size = data.size();
+    this.modCount = lexicon.getModCount();
+  }
+
+  /**
+   * Returns true if the lexicon has changed since this index was built
+   */
+  public boolean isStale(JSONLexicon lexicon)
+  {
+    Map current = lexicon.getLexicalData();
+    return current != data || current.size() != size || lexicon.getModCount() != modCount;
+  }
+}
@@ -56,9 +56,7 @@ public class MinEditDist
    */ 
   public int computeRaw(String source, String target)
   {
-    int matrix[][]; // matrix
-    char sI; // ith character of s
-    char tJ; // jth character of t
+    int sI; // ith character of s
     int cost; // cost
 
     // Step 1 ----------------------------------------------
@@ -69,43 +67,40 @@ public class MinEditDist
     
     if (targetLength == 0) return sourceLength;
     
-    matrix = new int[sourceLength + 1][targetLength + 1];
+    // only the previous row of the matrix is needed
+    int[] prev = new int[targetLength + 1];
+    int[] curr = new int[targetLength + 1];
 
     // Step 2 ----------------------------------------------
 
-    for (int i = 0; i <= sourceLength; i++)
-      matrix[i][0] = i;
-
     for (int j = 0; j <= targetLength; j++)    
-      matrix[0][j] = j;
+      prev[j] = j;
 
     // Step 3 ----------------------------------------------
 
     for (int i = 1; i <= sourceLength; i++)
     {
-
       sI = source.charAt(i - 1);
+      curr[0] = i;
 
       // Step 4 --------------------------------------------
 
       for (int j = 1; j <= targetLength; j++)
       {
-        tJ = target.charAt(j - 1);
-
         // Step 5 ------------------------------------------
 
-        cost = (sI == tJ) ? 0 : 1;
+        cost = (sI == target.charAt(j - 1)) ? 0 : 1;
         
         // Step 6 ------------------------------------------
-        matrix[i][j] = min (matrix[i - 1][j] + 1, 
-                            matrix[i][j - 1] + 1, 
-                            matrix[i - 1][j - 1] + cost);
+        curr[j] = min (prev[j] + 1, curr[j - 1] + 1, prev[j - 1] + cost);
       }
+      
+      int[] tmp = prev; prev = curr; curr = tmp;
     }
 
     // Step 7 ----------------------------------------------
     
-    return matrix[sourceLength][targetLength];
+    return prev[targetLength];
   }
   
   /**
@@ -140,9 +135,7 @@ public class MinEditDist
   public int compute(String[] src, String[] target)
   {
     //System.out.println(Arrays.asList(source)+" "+Arrays.asList(target));
-    int matrix[][]; // matrix
     String sI; // ith element of s
-    String tJ; // jth element of t
     int cost; // cost
 
     // Step 1 ----------------------------------------------
@@ -154,15 +147,14 @@ public class MinEditDist
     
     if (target == null || target.length == 0) return src.length;
     
-    matrix = new int[src.length + 1][target.length + 1];
+    // only the previous row of the matrix is needed
+    int[] prev = new int[target.length + 1];
+    int[] curr = new int[target.length + 1];
 
     // Step 2 ----------------------------------------------
 
-    for (int i = 0; i <= src.length; i++)
-      matrix[i][0] = i;
-
     for (int j = 0; j <= target.length; j++)    
-      matrix[0][j] = j;
+      prev[j] = j;
 
     // Step 3 ----------------------------------------------
 
@@ -170,6 +162,7 @@ public class MinEditDist
     for (int i = 1; i <= src.length; i++)
     {
       sI = src[i - 1];
+      curr[0] = i;
       
       // CMU Specific -- should not be here!
       //sI = stripStressMarks(sI);
@@ -178,22 +171,20 @@ public class MinEditDist
 
       for (int j = 1; j <= target.length; j++)
       {
-        tJ = target[j - 1];
-
         // Step 5 ------------------------------------------
 
-        cost = (sI.equals(tJ)) ? 0 : 1;
+        cost = (sI.equals(target[j - 1])) ? 0 : 1;
         
         // Step 6 ------------------------------------------
-        matrix[i][j] = min (matrix[i - 1][j] + 1, 
-                            matrix[i][j - 1] + 1, 
-                            matrix[i - 1][j - 1] + cost);
+        curr[j] = min (prev[j] + 1, curr[j - 1] + 1, prev[j - 1] + cost);
       }
+      
+      int[] tmp = prev; prev = curr; curr = tmp;
     }
 
     // Step 7 ----------------------------------------------
     
-    return matrix[src.length][target.length];
+    return prev[target.length];
   }
   
 
@@ -0,0 +1,644 @@
+package rita.support;
+
+import java.io.*;
+import java.net.URI;
+import java.net.URL;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+import rita.RiTa;
+import rita.RiTaException;
+
+/**
+ * A compact n-gram trie for RiMarkov. Tokens are interned to int ids, and each
+ * node of the trie is an index into a set of parallel primitive arrays (token,
+ * count, parent, child-total, first/last-child and next-sibling). Children are
+ * found via a single open-addressing hash table mapping (parent,token) pairs,
+ * packed into a long, to the index of the child node.
+ * <p>
+ * Compared to a tree of TextNodes (each with its own HashMap of children), this
+ * uses a fraction of the memory for large models. Nodes are exposed to RiMarkov
+ * as lightweight CompactTextNode views, created on demand.
+ * <p>
+ * The arrays are held in int/long buffers so that a store written with write()
+ * can be used in place from a read-only memory-mapped file (shared between
+ * processes); the buffers are only copied to the heap if the store is
+ * subsequently modified.
+ * <p>
+ * Note: this is a support class, public access is provided through
+ * rita.RiMarkov.useCompactStore() and rita.RiMarkov.saveModel().
+ */
+public class NgramStore
+{
+  static final int ROOT = 0, NONE = -1, NULL_TOKEN = 0;
+
+  // cumulative counts are only cached for nodes with more children than this
+  static final int MIN_CACHED_CHILDREN = 16;
+
+  protected boolean ignoreCase;
+
+  // interned tokens (id 0 is reserved for null)
+  protected Map<String, Integer> tokenIds;
+  protected String[] tokens;
+  protected int numTokens;
+
+  // per-node data
+  protected IntBuffer tokenOf, counts, parents, childTotals, firstChild, lastChild, nextSibling;
+  protected BitSet sentenceStarts;
+  protected int numNodes;
+
+  // (parent << 32 | token) -> child index + 1, 0 for empty slots
+  protected LongBuffer keys;
+  protected IntBuffer values;
+  protected int mask;
+
+  // cumulative counts for nodes with many children, cleared on modification
+  protected Map<Integer, int[][]> samplers;
+
+  public NgramStore(boolean ignoreCase)
+  {
+    this.ignoreCase = ignoreCase;
+
+    tokenIds = new HashMap<String, Integer>();
+    tokens = new String[64];
+    numTokens = 1; // null
+
+    int cap = 1024;
+    tokenOf = IntBuffer.allocate(cap);
+    counts = IntBuffer.allocate(cap);
+    parents = IntBuffer.allocate(cap);
+    childTotals = IntBuffer.allocate(cap);
+    firstChild = IntBuffer.allocate(cap);
+    lastChild = IntBuffer.allocate(cap);
+    nextSibling = IntBuffer.allocate(cap);
+    sentenceStarts = new BitSet();
+
+    keys = LongBuffer.allocate(cap * 2);
+    values = IntBuffer.allocate(cap * 2);
+    mask = cap * 2 - 1;
+
+    samplers = new HashMap<Integer, int[][]>();
+
+    // the root
+    parents.put(ROOT, NONE);
+    firstChild.put(ROOT, NONE);
+    lastChild.put(ROOT, NONE);
+    nextSibling.put(ROOT, NONE);
+    numNodes = 1;
+  }
+
+  private NgramStore()
+  {
+    samplers = new HashMap<Integer, int[][]>();
+  }
+
+  /**
+   * Creates a store containing the same nodes (with the same counts and
+   * sentence-starts) as the tree of TextNodes below <code>root</code>
+   */
+  public static NgramStore fromTree(TextNode root)
+  {
+    NgramStore store = new NgramStore(root.ignoresCase());
+
+    LinkedList<TextNode> nodes = new LinkedList<TextNode>();
+    LinkedList<Integer> indexes = new LinkedList<Integer>();
+    nodes.add(root);
+    indexes.add(ROOT);
+    while (!nodes.isEmpty())
+    {
+      TextNode node = nodes.removeFirst();
+      int idx = indexes.removeFirst();
+      if (!node.hasChildren()) continue;
+
+      for (Iterator it = node.childIterator(); it.hasNext();)
+      {
+        TextNode child = (TextNode) it.next();
+        int c = store.addChild(idx, child.token(), child.count());
+        if (child.isSentenceStart())
+          store.setSentenceStart(c, true);
+        nodes.add(child);
+        indexes.add(c);
+      }
+    }
+    return store;
+  }
+
+  /**
+   * Returns a view of the root node
+   */
+  public CompactTextNode root()
+  {
+    return node(ROOT);
+  }
+
+  /**
+   * Returns the number of nodes in the trie (including the root)
+   */
+  public int size()
+  {
+    return numNodes;
+  }
+
+  /**
+   * Returns the number of distinct tokens in the trie
+   */
+  public int tokenCount()
+  {
+    return numTokens - 1;
+  }
+
+  /**
+   * Returns true if the store is backed by a read-only (e.g., memory-mapped)
+   * buffer, which will be copied to the heap on the first modification
+   */
+  public boolean isMapped()
+  {
+    return counts.isReadOnly();
+  }
+
+  CompactTextNode node(int idx)
+  {
+    return idx == NONE ? null : new CompactTextNode(this, idx);
+  }
+
+  int count(int node)
+  {
+    return counts.get(node);
+  }
+
+  int parent(int node)
+  {
+    return parents.get(node);
+  }
+
+  int childTotal(int node)
+  {
+    return childTotals.get(node);
+  }
+
+  int firstChild(int node)
+  {
+    return firstChild.get(node);
+  }
+
+  int nextSibling(int node)
+  {
+    return nextSibling.get(node);
+  }
+
+  // tokens -----------------------------------------------------------------
+
+  String lookupKey(String token)
+  {
+    return (ignoreCase && token != null) ? token.toLowerCase() : token;
+  }
+
+  /*
+   * Returns the id for the token, or NONE if it has not been interned
+   */
+  int tokenId(String token)
+  {
+    if (token == null) return NULL_TOKEN;
+    Integer id = tokenIds.get(lookupKey(token));
+    return id == null ? NONE : id.intValue();
+  }
+
+  int intern(String token)
+  {
+    if (token == null) return NULL_TOKEN;
+
+    String key = lookupKey(token);
+    Integer id = tokenIds.get(key);
+    if (id != null) return id.intValue();
+
+    if (numTokens == tokens.length)
+      tokens = Arrays.copyOf(tokens, tokens.length * 2);
+    tokens[numTokens] = key;
+    tokenIds.put(key, numTokens);
+    return numTokens++;
+  }
+
+  String token(int node)
+  {
+    return tokens[tokenOf.get(node)];
+  }
+
+  // trie -------------------------------------------------------------------
+
+  /*
+   * Returns the index of the child of <code>parent</code> with the specified
+   * token id, or NONE
+   */
+  int child(int parent, int tokenId)
+  {
+    if (tokenId < 0) return NONE;
+
+    long key = pack(parent, tokenId);
+    for (int i = slot(key);; i = (i + 1) & mask)
+    {
+      int v = values.get(i);
+      if (v == 0) return NONE;
+      if (keys.get(i) == key) return v - 1;
+    }
+  }
+
+  /*
+   * Adds the token as a child of <code>parent</code>, with the initial count,
+   * or increments the count of the existing child
+   */
+  int addChild(int parent, String token, int initialCount)
+  {
+    int tokenId = intern(token);
+    int idx = child(parent, tokenId);
+
+    if (idx != NONE)
+    {
+      increment(idx, 1);
+      return idx;
+    }
+
+    if (isMapped() || numNodes == counts.capacity())
+      growNodes();
+
+    idx = numNodes++;
+    tokenOf.put(idx, tokenId);
+    counts.put(idx, initialCount);
+    parents.put(idx, parent);
+    firstChild.put(idx, NONE);
+    lastChild.put(idx, NONE);
+    nextSibling.put(idx, NONE);
+    if (firstChild.get(parent) == NONE) // children are kept in insertion order
+      firstChild.put(parent, idx);
+    else
+      nextSibling.put(lastChild.get(parent), idx);
+    lastChild.put(parent, idx);
+    childTotals.put(parent, childTotals.get(parent) + initialCount);
+    put(pack(parent, tokenId), idx);
+    modified(parent);
+
+    return idx;
+  }
+
+  int increment(int node, int amount)
+  {
+    if (isMapped()) growNodes();
+
+    TextNode.totalTokens += amount;
+    int parent = parents.get(node);
+    if (parent != NONE)
+    {
+      childTotals.put(parent, childTotals.get(parent) + amount);
+      modified(parent);
+    }
+    int count = counts.get(node) + amount;
+    counts.put(node, count);
+    return count;
+  }
+
+  void setSentenceStart(int node, boolean b)
+  {
+    sentenceStarts.set(node, b);
+    if (parents.get(node) != NONE)
+      modified(parents.get(node));
+  }
+
+  boolean isSentenceStart(int node)
+  {
+    return sentenceStarts.get(node);
+  }
+
+  int numChildren(int node)
+  {
+    int n = 0;
+    for (int c = firstChild.get(node); c != NONE; c = nextSibling.get(c))
+      n++;
+    return n;
+  }
+
+  /*
+   * Selects a child with probability proportional to its count; see
+   * TextNode.selectChild(double, boolean)
+   */
+  int select(int node, double selector, boolean sentenceStart)
+  {
+    if (firstChild.get(node) == NONE) return NONE;
+
+    double target = selector * childTotals.get(node);
+
+    int[][] cached = samplers.isEmpty() ? null : samplers.get(node);
+    if (cached == null && numChildren(node) > MIN_CACHED_CHILDREN)
+      samplers.put(node, cached = cumulative(node));
+
+    if (cached == null) // a short list: just walk it
+    {
+      int sum = 0, c = firstChild.get(node);
+      for (; c != NONE; c = nextSibling.get(c))
+      {
+        sum += counts.get(c);
+        if (target < sum) break;
+      }
+      if (c == NONE) return NONE;
+      if (sentenceStart)
+      {
+        while (c != NONE && !sentenceStarts.get(c))
+          c = nextSibling.get(c);
+      }
+      return c;
+    }
+
+    int[] kids = cached[0], cum = cached[1];
+    int lo = 0, hi = cum.length - 1;
+    while (lo < hi)
+    {
+      int mid = (lo + hi) >>> 1;
+      if (target < cum[mid])
+        hi = mid;
+      else
+        lo = mid + 1;
+    }
+    if (!sentenceStart) return kids[lo];
+
+    for (int i = lo; i < kids.length; i++)
+    {
+      if (sentenceStarts.get(kids[i]))
+        return kids[i];
+    }
+    return NONE;
+  }
+
+  private int[][] cumulative(int node)
+  {
+    int n = numChildren(node);
+    int[] kids = new int[n], cum = new int[n];
+    int i = 0, sum = 0;
+    for (int c = firstChild.get(node); c != NONE; c = nextSibling.get(c), i++)
+    {
+      kids[i] = c;
+      cum[i] = (sum += counts.get(c));
+    }
+    return new int[][] { kids, cum };
+  }
+
+  private void modified(int node)
+  {
+    if (!samplers.isEmpty())
+      samplers.remove(node);
+  }
+
+  /*
+   * Grows the node arrays (copying them to the heap if they were mapped)
+   */
+  private void growNodes()
+  {
+    int cap = numNodes + (numNodes >> 1) + 1;
+    tokenOf = copy(tokenOf, numNodes, cap);
+    counts = copy(counts, numNodes, cap);
+    parents = copy(parents, numNodes, cap);
+    childTotals = copy(childTotals, numNodes, cap);
+    firstChild = copy(firstChild, numNodes, cap);
+    lastChild = copy(lastChild, numNodes, cap);
+    nextSibling = copy(nextSibling, numNodes, cap);
+
+    if (keys.isReadOnly())
+      rehash(keys.capacity());
+  }
+
+  private static IntBuffer copy(IntBuffer src, int size, int cap)
+  {
+    int[] dst = new int[cap];
+    for (int i = 0; i < size; i++)
+      dst[i] = src.get(i);
+    return IntBuffer.wrap(dst);
+  }
+
+  // hash table -------------------------------------------------------------
+
+  private static long pack(int parent, int tokenId)
+  {
+    return ((long) parent << 32) | (tokenId & 0xffffffffL);
+  }
+
+  private int slot(long key)
+  {
+    key ^= key >>> 33;
+    key *= 0xff51afd7ed558ccdL;
+    key ^= key >>> 33;
+    return (int) key & mask;
+  }
+
+  private void put(long key, int idx)
+  {
+    // each node but the root has exactly one entry; keep the load under 2/3
+    if ((numNodes - 1) * 3 > keys.capacity() * 2)
+      rehash(keys.capacity() * 2);
+
+    int i = slot(key);
+    while (values.get(i) != 0)
+      i = (i + 1) & mask;
+    keys.put(i, key);
+    values.put(i, idx + 1);
+  }
+
+  private void rehash(int cap)
+  {
+    LongBuffer oldKeys = keys;
+    IntBuffer oldValues = values;
+
+    keys = LongBuffer.allocate(cap);
+    values = IntBuffer.allocate(cap);
+    mask = cap - 1;
+
+    for (int j = 0; j < oldKeys.capacity(); j++)
+    {
+      if (oldValues.get(j) == 0) continue;
+      int i = slot(oldKeys.get(j));
+      while (values.get(i) != 0)
+        i = (i + 1) & mask;
+      keys.put(i, oldKeys.get(j));
+      values.put(i, oldValues.get(j));
+    }
+  }
+
+  // serialization ----------------------------------------------------------
+
+  /**
+   * Writes the store such that it can be used in place (via read()) from a
+   * memory-mapped file; the node arrays and hash table are 8-byte aligned
+   * relative to the start of the stream.
+   */
+  public void write(DataOutputStream dos) throws IOException
+  {
+    dos.writeBoolean(ignoreCase);
+    dos.writeInt(numTokens);
+    for (int i = 1; i < numTokens; i++)
+      writeString(dos, tokens[i]);
+
+    long[] bits = sentenceStarts.toLongArray();
+    dos.writeInt(numNodes);
+    dos.writeInt(keys.capacity());
+    dos.writeInt(bits.length);
+    while ((dos.size() & 7) != 0)
+      dos.writeByte(0);
+
+    for (int i = 0; i < keys.capacity(); i++)
+      dos.writeLong(keys.get(i));
+    for (int i = 0; i < bits.length; i++)
+      dos.writeLong(bits[i]);
+
+    IntBuffer[] arrays = { tokenOf, counts, parents, childTotals, firstChild, lastChild, nextSibling };
+    for (int j = 0; j < arrays.length; j++)
+    {
+      for (int i = 0; i < numNodes; i++)
+        dos.writeInt(arrays[j].get(i));
+    }
+    for (int i = 0; i < values.capacity(); i++)
+      dos.writeInt(values.get(i));
+  }
+
+  /**
+   * Reads a store written with write() from the buffer, starting at
+   * <code>pos[0]</code> (which is updated), without copying the node arrays or
+   * hash table.
+   */
+  public static NgramStore read(ByteBuffer bb, int[] pos)
+  {
+    NgramStore store = new NgramStore();
+    store.ignoreCase = bb.get(pos[0]++) != 0;
+
+    store.numTokens = readInt(bb, pos);
+    store.tokens = new String[store.numTokens];
+    store.tokenIds = new HashMap<String, Integer>(store.numTokens * 2);
+    for (int i = 1; i < store.numTokens; i++)
+    {
+      store.tokens[i] = readString(bb, pos);
+      store.tokenIds.put(store.tokens[i], i);
+    }
+
+    int numNodes = store.numNodes = readInt(bb, pos);
+    int cap = readInt(bb, pos), numBits = readInt(bb, pos);
+    pos[0] = (pos[0] + 7) & ~7;
+
+    store.keys = slice(bb, pos, cap * 8).asLongBuffer();
+    store.mask = cap - 1;
+    long[] bits = new long[numBits];
+    slice(bb, pos, numBits * 8).asLongBuffer().get(bits);
+    store.sentenceStarts = BitSet.valueOf(bits);
+
+    store.tokenOf = slice(bb, pos, numNodes * 4).asIntBuffer();
+    store.counts = slice(bb, pos, numNodes * 4).asIntBuffer();
+    store.parents = slice(bb, pos, numNodes * 4).asIntBuffer();
+    store.childTotals = slice(bb, pos, numNodes * 4).asIntBuffer();
+    store.firstChild = slice(bb, pos, numNodes * 4).asIntBuffer();
+    store.lastChild = slice(bb, pos, numNodes * 4).asIntBuffer();
+    store.nextSibling = slice(bb, pos, numNodes * 4).asIntBuffer();
+    store.values = slice(bb, pos, cap * 4).asIntBuffer();
+
+    return store;
+  }
+
+  /**
+   * Returns the contents of the file, memory-mapped (read-only) if it is a
+   * local file, otherwise (e.g., for a URL or a resource in a jar) read into
+   * the heap
+   */
+  public static ByteBuffer open(String fileName)
+  {
+    try
+    {
+      File file = new File(fileName);
+      if (!file.exists())
+      {
+        URL url = NgramStore.class.getResource(fileName.startsWith("/") ? fileName : "/" + fileName);
+        if (url != null && "file".equals(url.getProtocol()))
+          file = new File(new URI(url.toString()));
+      }
+
+      if (file.exists())
+      {
+        FileInputStream fis = new FileInputStream(file);
+        try
+        {
+          FileChannel channel = fis.getChannel();
+          return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        finally
+        {
+          fis.close(); // the mapping remains valid
+        }
+      }
+
+      InputStream is = RiTa.openStream(fileName);
+      try
+      {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(1 << 20);
+        byte[] buf = new byte[8192];
+        int read;
+        while ((read = is.read(buf, 0, buf.length)) > 0)
+          bos.write(buf, 0, read);
+        return ByteBuffer.wrap(bos.toByteArray());
+      }
+      finally
+      {
+        is.close();
+      }
+    }
+    catch (Exception e)
+    {
+      throw new RiTaException(e);
+    }
+  }
+
+  /**
+   * Writes a length-prefixed UTF-8 String (or -1 for null)
+   */
+  public static void writeString(DataOutputStream dos, String s) throws IOException
+  {
+    if (s == null)
+    {
+      dos.writeInt(-1);
+      return;
+    }
+    byte[] b = s.getBytes(UTF8);
+    dos.writeInt(b.length);
+    dos.write(b);
+  }
+
+  /**
+   * Reads a String written by writeString(), starting at <code>pos[0]</code>
+   * (which is updated)
+   */
+  public static String readString(ByteBuffer bb, int[] pos)
+  {
+    int len = readInt(bb, pos);
+    if (len < 0) return null;
+
+    byte[] b = new byte[len];
+    for (int i = 0; i < len; i++)
+      b[i] = bb.get(pos[0] + i);
+    pos[0] += len;
+    return new String(b, UTF8);
+  }
+
+  /**
+   * Reads an int starting at <code>pos[0]</code> (which is updated)
+   */
+  public static int readInt(ByteBuffer bb, int[] pos)
+  {
+    int i = bb.getInt(pos[0]);
+    pos[0] += 4;
+    return i;
+  }
+
+  // Note: the Buffer casts keep these calls binary-compatible with Java 7/8
+  private static ByteBuffer slice(ByteBuffer bb, int[] pos, int len)
+  {
+    ByteBuffer dup = bb.duplicate();
+    ((Buffer) dup).limit(pos[0] + len);
+    ((Buffer) dup).position(pos[0]);
+    pos[0] += len;
+    return dup.slice();
+  }
+
+  static final java.nio.charset.Charset UTF8 = java.nio.charset.Charset.forName("UTF-8");
+}
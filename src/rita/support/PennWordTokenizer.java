@@ -1,5 +1,6 @@
 package rita.support;
 
+import java.util.Arrays;
 import java.util.List;
 
 // TODO:
@@ -7,8 +8,6 @@ import java.util.List;
 //    Doesn't handle decimal numbers correctly! 
 //    e.g., "5 cookies divided by 2 is 2.5 cookies."
 
-// Should all these regexs should be compiled?
-
 /**
  * Simple word tokenizer that tokenizes according to the Penn Treebank conventions.
  */
@@ -64,74 +63,389 @@ public final class PennWordTokenizer implements TokenizerIF, Constants
       result.add(tokens[i]);
   }
   
-	/**
-	 * Tokenizes the String according to the Penn Treebank conventions.
-	 */
-	public String[] tokenize(String words) 
-  {
-	  
-	  // these should all be compiled!!!!
-		words = words.replaceAll("``", "`` ");
-		words = words.replaceAll("''", "  ''");		
-		
-		words = words.replaceAll("([\\?!\"\\.,;:@#$%&])", " $1 ");
-			
-		//String last = words;
-		//words = words.replaceAll("([0-9][0-9]*[\\.]{0,1}[0-9][0-9]*)", " $1 ");		
-		//words = words.replaceAll("([\\.])", " $1 ");
-		
-		words = words.replaceAll("\\.\\.\\.", " ... ");
-		words = words.replaceAll("\\s+", SP);
-
-		words = words.replaceAll(",([^0-9])", " , $1");
-
-		words = words.replaceAll("([^.])([.])([\\])}>\"']*)\\s*$", "$1 $2$3 ");
-
-		words = words.replaceAll("([\\[\\](){}<>])", " $1 ");
-		words = words.replaceAll("--", " -- ");
-
-		words = words.replaceAll("$", SP);
-		words = words.replaceAll("^", SP);
-
-		//str = str.replaceAll("\"", " '' ");
-		words = words.replaceAll("([^'])' ", "$1 ' ");
-    
+  /**
+   * Tokenizes the String according to the Penn Treebank conventions.
+   */
+  public String[] tokenize(String words) 
+  {
+    Spans spans = tokenizeSpans(words, null);
+    if (spans.size == 0) 
+      return new String[] { E };
+    return spans.tokens();
+  }
+
+  /**
+   * Tokenizes the String according to the Penn Treebank conventions, storing
+   * the offsets of each token in <code>spans</code> (which is cleared first,
+   * and may be reused across calls), or in a new Spans object if null.
+   * <p>
+   * This is a single scan over the characters which produces the same tokens
+   * as the chain of regular expressions it replaced, including its quirks,
+   * e.g., that only every other one of "gonna gonna" is split, or that "I."
+   * is only kept together when it is not the last token.
+   */
+  public Spans tokenizeSpans(String words, Spans spans) 
+  {
+    return tokenizeSpans(words, 0, words.length(), spans);
+  }
+
+  /**
+   * Tokenizes the chars of <code>words</code> from <code>from</code> (inclusive)
+   * to <code>to</code> (exclusive), exactly as if they were a separate String,
+   * storing offsets (into <code>words</code>) in <code>spans</code>, so that
+   * the substring need not be created.
+   * 
+   * @see #tokenizeSpans(String, Spans)
+   */
+  public Spans tokenizeSpans(CharSequence words, int from, int to, Spans spans) 
+  {
+    if (spans == null) 
+      spans = new Spans();
+    spans.clear(words);
+
+    int n = to;
+
+    // a final '.' gets an extra space before it (and so is never joined below)
+    int end = (n > from && isFinalTerminator(words.charAt(n - 1))) ? n - 1 : n;
+    int finalDot = end - 1;
+    while (finalDot >= from && isSpace(words.charAt(finalDot)))
+      finalDot--;
+    if (finalDot >= from && words.charAt(finalDot) != '.') 
+      finalDot = -1;
+
+    // first: break into tokens, counting the spaces between them
+    int prev = -1, tokStart = -1, tokGap = 0;
+    int prevRun = 0, run = 0; // offset of a char in its run of the same char
+    boolean space = false;
+    for (int i = from; i < n; i++)
+    {
+      char c = words.charAt(i);
+      if (isSpace(c))
+      {
+        space = true;
+        continue;
+      }
+
+      run = (prev >= 0 && prev == i - 1 && words.charAt(prev) == c) ? prevRun + 1 : 0;
+
+      int gap = 1;
+      if (prev >= 0)
+      {
+        char p = words.charAt(prev);
+        boolean pairNext = i + 1 < n && words.charAt(i + 1) == c && run % 2 == 0;
+
+        gap = (space || isPunct(c) || isPunct(p) 
+            || (p == '`' && prevRun % 2 == 1) || (c == '\'' && pairNext)) ? 1 : 0;
+        
+        if (c == ',') gap++;
+        if (p == ',') gap++;
+        if (i == finalDot) gap++;
+        if (isBracket(c)) gap++;
+        if (isBracket(p)) gap++;
+        if (c == '-' && pairNext) gap++;
+        if (p == '-' && prevRun % 2 == 1) gap++;
+        if (i == n - 1 && isFinalTerminator(c)) gap++;
+      }
+
+      if (gap > 0)
+      {
+        if (tokStart >= 0) 
+          addToken(spans, tokStart, prev + 1, tokGap);
+        tokStart = i;
+        tokGap = gap;
+      }
+
+      prev = i;
+      prevRun = run;
+      space = false;
+    }
+    if (tokStart >= 0)
+      addToken(spans, tokStart, prev + 1, tokGap);
+
+    return spans;
+  }
+
+  private static final String[] CONTRACTIONS = { "'ll", "'re", "'ve", "n't", "'LL", "'RE", "'VE", "N'T" };
+
+  // " ([Cc])annot " -> " $1an not ", etc.
+  private static final char[] WORD_FIRSTS = { 'c', 'd', 'g', 'g', 'g', 'l', 'm', 't', 't', 'w' };
+  private static final String[] WORD_RESTS = { "annot", "'ye", "imme", "onna", "otta", "emme", "ore'n", "is", "was", "anna" };
+  private static final int[] WORD_SPLITS = { 3, 2, 3, 3, 3, 3, 4, 2, 2, 3 };
+
+  /*
+   * Adds a token (which contains no spaces), then applies the remaining rules,
+   * in order, to it and to the pieces it is split into
+   */
+  private void addToken(Spans spans, int start, int end, int gap)
+  {
+    CharSequence s = spans.source;
+    int first = spans.size;
     
-		//words = words.replaceAll("'([sSmMdD]) ", " '$1 ");
+    spans.add(start, end, gap);
+
+    // "([^'])' " -> "$1 ' "
+    int len = end - start;
+    boolean quoted = false;
+    if (len > 1 && s.charAt(end - 1) == '\'' && s.charAt(end - 2) != '\'') 
+    {
+      spans.split(first, end - 1);
+      quoted = true;
+    }
+    else if (len == 1 && s.charAt(start) == '\'' && !(spans.lastQuoted && gap == 1)) 
+    {
+      spans.gaps[first]++;
+      quoted = true;
+    }
+    spans.lastQuoted = quoted;
+
+    // "'([SMD]) " -> " '$1 "
+    for (int i = first; i < spans.size; i++)
+    {
+      int b = spans.starts[i], e = spans.ends[i];
+      if (e - b > 1 && s.charAt(e - 2) == '\'' && "SMD".indexOf(s.charAt(e - 1)) > -1)
+        i += splitSuffix(spans, i, 2);
+    }
     
-    // DCH!! (changed from ^, only on a proper name(starting cap)?)
-    words = words.replaceAll("'([SMD]) ", " '$1 "); 
-            
-    if (splitContractions) {
-  		words = words.replaceAll("'ll ", " 'll ");
-  		words = words.replaceAll("'re ", " 're ");
-  		words = words.replaceAll("'ve ", " 've ");
-  		words = words.replaceAll("n't ", " n't ");
-  		words = words.replaceAll("'LL ", " 'LL ");
-  		words = words.replaceAll("'RE ", " 'RE ");
-  		words = words.replaceAll("'VE ", " 'VE ");
-  		words = words.replaceAll("N'T ", " N'T ");
-    }
-
-		words = words.replaceAll(" ([Cc])annot ", " $1an not ");
-		words = words.replaceAll(" ([Dd])'ye ", " $1' ye ");
-		words = words.replaceAll(" ([Gg])imme ", " $1im me ");
-		words = words.replaceAll(" ([Gg])onna ", " $1on na ");
-		words = words.replaceAll(" ([Gg])otta ", " $1ot ta ");
-		words = words.replaceAll(" ([Ll])emme ", " $1em me ");
-		words = words.replaceAll(" ([Mm])ore'n ", " $1ore 'n ");
-		words = words.replaceAll(" '([Tt])is ", " $1 is ");
-		words = words.replaceAll(" '([Tt])was ", " $1 was ");
-		words = words.replaceAll(" ([Ww])anna ", " $1an na ");
-
-		// "Nicole I. Kidman" gets tokenized as "Nicole I . Kidman"
-		words = words.replaceAll(" ([A-Z]) \\.", " $1. ");
-		words = words.replaceAll("\\s+", SP);
-		words = words.replaceAll("^\\s+", "");           
-
-		String[] result = words.split(SP);
-    return result; 
-	}
+    if (splitContractions) 
+    {
+      for (int k = 0; k < CONTRACTIONS.length; k++)
+      {
+        String con = CONTRACTIONS[k];
+        for (int i = first; i < spans.size; i++)
+        {
+          int b = spans.starts[i], e = spans.ends[i];
+          if (e - b >= con.length() && regionMatches(s, e - con.length(), con))
+            i += splitSuffix(spans, i, con.length());
+        }
+      }
+    }
+
+    // " ([Cc])annot " -> " $1an not ", etc. 
+    for (int i = first; i < spans.size; i++)
+    {
+      int rule = wordRule(s, spans.starts[i], spans.ends[i]);
+      if (rule < 0 || (rule == spans.lastWordRule && spans.gaps[i] == 1)) {
+        spans.lastWordRule = -1; // the regex would have consumed the space
+        continue;
+      }
+      
+      int b = spans.starts[i];
+      spans.split(i, b + WORD_SPLITS[rule]);
+      if (WORD_FIRSTS[rule] == 't') // drop the quote from 'tis and 'twas
+        spans.texts[i] = String.valueOf(s.charAt(b + 1));
+      spans.lastWordRule = rule;
+      i++;
+    }
+
+    // " ([A-Z]) \\." -> " $1. "
+    for (int i = Math.max(1, first); i < spans.size; i++)
+    {
+      int b = spans.starts[i - 1];
+      if (spans.gaps[i] == 1 && spans.texts[i - 1] == null && spans.ends[i - 1] - b == 1
+          && s.charAt(b) >= 'A' && s.charAt(b) <= 'Z' && s.charAt(spans.starts[i]) == '.')
+      {
+        spans.join(i - 1);
+        i--;
+      }
+    }
+  }
+
+  /*
+   * Splits the last <code>length</code> chars into a new token, or, if that
+   * is the whole token, adds a space before it; returns the number of tokens added
+   */
+  private static int splitSuffix(Spans spans, int idx, int length)
+  {
+    int at = spans.ends[idx] - length;
+    if (at == spans.starts[idx]) {
+      spans.gaps[idx]++;
+      return 0;
+    }
+    spans.split(idx, at);
+    return 1;
+  }
+
+  private static int wordRule(CharSequence s, int start, int end)
+  {
+    char c = s.charAt(start);
+    boolean quoted = c == '\'';
+    if (quoted && end - start > 1) 
+      c = s.charAt(start + 1);
+
+    for (int k = 0; k < WORD_FIRSTS.length; k++)
+    {
+      boolean needsQuote = WORD_FIRSTS[k] == 't';
+      String rest = WORD_RESTS[k];
+      if (quoted == needsQuote && end - start == rest.length() + (quoted ? 2 : 1)
+          && (c == WORD_FIRSTS[k] || c == Character.toUpperCase(WORD_FIRSTS[k]))
+          && regionMatches(s, end - rest.length(), rest))
+        return k;
+    }
+    return -1;
+  }
+
+  private static boolean regionMatches(CharSequence s, int offset, String other)
+  {
+    for (int i = 0; i < other.length(); i++)
+    {
+      if (s.charAt(offset + i) != other.charAt(i))
+        return false;
+    }
+    return true;
+  }
+
+  private static boolean isSpace(char c)
+  {
+    return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+  }
+
+  private static boolean isFinalTerminator(char c)
+  {
+    // line terminators that are not whitespace (see Pattern's '$')
+    return c == '\u0085' || c == '\u2028' || c == '\u2029';
+  }
+
+  private static boolean isPunct(char c)
+  {
+    switch (c) {
+      case '?': case '!': case '"': case '.': case ',': case ';': 
+      case ':': case '@': case '#': case '$': case '%': case '&':
+        return true;
+    }
+    return false;
+  }
+
+  private static boolean isBracket(char c)
+  {
+    switch (c) {
+      case '[': case ']': case '(': case ')': 
+      case '{': case '}': case '<': case '>':
+        return true;
+    }
+    return false;
+  }
+
+  /**
+   * The tokens found by a call to tokenizeSpans(), each given by its
+   * start and end offsets in the source string. A few tokens differ from the
+   * source chars they span (e.g., "t" for the "'t" of "'tis", or "A." when
+   * written as "A ."); for these, token(i) returns the actual text.
+   */
+  public static class Spans
+  {
+    protected CharSequence source;
+    protected int size;
+    protected int[] starts = new int[16], ends = new int[16], gaps = new int[16];
+    protected String[] texts = new String[16];
+
+    boolean lastQuoted; // whether the last token was split by the quote rule
+    int lastWordRule; // the word rule applied to the last token, or -1
+
+    /**
+     * Returns the number of tokens
+     */
+    public int size()
+    {
+      return size;
+    }
+
+    /**
+     * Returns the offset (in the source string) of the first char of the token
+     */
+    public int start(int idx)
+    {
+      return starts[idx];
+    }
+
+    /**
+     * Returns the offset (in the source string) after the last char of the token
+     */
+    public int end(int idx)
+    {
+      return ends[idx];
+    }
+
+    /**
+     * Returns the text of the token
+     */
+    public String token(int idx)
+    {
+      return texts[idx] != null ? texts[idx] : source.subSequence(starts[idx], ends[idx]).toString();
+    }
+
+    /**
+     * Returns the text of all tokens
+     */
+    public String[] tokens()
+    {
+      String[] result = new String[size];
+      for (int i = 0; i < size; i++)
+        result[i] = token(i);
+      return result;
+    }
+
+    /**
+     * Returns the text that was tokenized
+     */
+    public CharSequence source()
+    {
+      return source;
+    }
+
+    void clear(CharSequence src)
+    {
+      Arrays.fill(texts, 0, size, null);
+      source = src;
+      size = 0;
+      lastQuoted = false;
+      lastWordRule = -1;
+    }
+
+    void add(int start, int end, int gap)
+    {
+      if (size == starts.length)
+      {
+        starts = Arrays.copyOf(starts, size * 2);
+        ends = Arrays.copyOf(ends, size * 2);
+        gaps = Arrays.copyOf(gaps, size * 2);
+        texts = Arrays.copyOf(texts, size * 2);
+      }
+      starts[size] = start;
+      ends[size] = end;
+      gaps[size] = gap;
+      texts[size++] = null;
+    }
+
+    // splits token idx into [start,at) and [at,end), separated by one space 
+    void split(int idx, int at)
+    {
+      add(0, 0, 0);
+      int num = size - idx - 2;
+      System.arraycopy(starts, idx + 1, starts, idx + 2, num);
+      System.arraycopy(ends, idx + 1, ends, idx + 2, num);
+      System.arraycopy(gaps, idx + 1, gaps, idx + 2, num);
+      System.arraycopy(texts, idx + 1, texts, idx + 2, num);
+      starts[idx + 1] = at;
+      ends[idx + 1] = ends[idx];
+      gaps[idx + 1] = 1;
+      texts[idx + 1] = null;
+      ends[idx] = at;
+    }
+
+    // joins token idx with the next one 
+    void join(int idx)
+    {
+      if (starts[idx + 1] != ends[idx])
+        texts[idx] = token(idx) + token(idx + 1);
+      ends[idx] = ends[idx + 1];
+      int num = size - idx - 2;
+      System.arraycopy(starts, idx + 2, starts, idx + 1, num);
+      System.arraycopy(ends, idx + 2, ends, idx + 1, num);
+      System.arraycopy(gaps, idx + 2, gaps, idx + 1, num);
+      System.arraycopy(texts, idx + 2, texts, idx + 1, num);
+      texts[--size] = null;
+    }
+  }
   
   public boolean isSplittingContractions()
   {
@@ -130,7 +130,7 @@ public abstract class Phoneme
    *    otherwise <code>false</code>. 
    */
   static public boolean isVowel(String phone) {
-      return VOWELS.indexOf(phone.substring(0,1)) != -1;
+      return VOWELS.indexOf(phone.charAt(0)) != -1;
   }
 
     /**
@@ -204,11 +204,11 @@ public abstract class Phoneme
   {
     if (isVowel(phone) || isSilence(phone)) {
         return 5;
-    } else if (GLIDES_LIQUIDS.indexOf(phone.substring(0,1)) != -1) {
+    } else if (GLIDES_LIQUIDS.indexOf(phone.charAt(0)) != -1) {
         return 4; 
-    } else if (NASALS.indexOf(phone.substring(0,1)) != -1) {
+    } else if (NASALS.indexOf(phone.charAt(0)) != -1) {
         return 3;
-    } else if (VOICED_OBSTRUENTS.indexOf(phone.substring(0,1)) != -1) {
+    } else if (VOICED_OBSTRUENTS.indexOf(phone.charAt(0)) != -1) {
         return 2;
     } else {
         return 1;
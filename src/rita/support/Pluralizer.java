@@ -1,8 +1,5 @@
 package rita.support;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
 import rita.RiTa;
 
 /**
@@ -18,7 +15,7 @@ import rita.RiTa;
 public class Pluralizer implements Constants 
 {    
   // privates --------------------
-  private final static Matcher wordMatcher = Pattern.compile(ANY_STEM).matcher(E);
+  private final static CompiledRules rules = new CompiledRules(PLURAL_RULES);
   private final static RegexRule defaultRule = DEFAULT_PLURAL_RULE;
   
 	/**
@@ -30,25 +27,19 @@ public class Pluralizer implements Constants
     
     String result = null;
     
-    wordMatcher.reset(noun);
-
-    if (!wordMatcher.matches() || MODALS.contains(noun))
+    if (!CompiledRules.isStem(noun) || MODALS.contains(noun))
       return noun;
     
-    for (int i = 0; i < PLURAL_RULES.length; i++) {        
+    int i = rules.match(noun);
+    if (i > -1) {
+      
+      RegexRule currentRule = rules.rule(i);
+      
+      if (dbug)System.out.print("applying rule "+i+" -> ");
       
-      RegexRule currentRule = PLURAL_RULES[i];
+      result = currentRule.fire(noun);
       
-      if (currentRule.applies(noun)) {
-        
-        if (dbug)System.out.print("applying rule "+i+" -> ");
-        
-        result = currentRule.fire(noun);
-        
-        if (dbug)System.out.println(result+"\n"+currentRule);
-        
-        break;
-      }
+      if (dbug)System.out.println(result+"\n"+currentRule);
     }
 
     if ((result == null) && (defaultRule != null)) {
@@ -0,0 +1,151 @@
+package rita.support;
+
+import java.util.*;
+
+/**
+ * A precomputed table from each word in the lexicon to its possible
+ * parts-of-speech (most probable first) as int ids into a tag vocabulary,
+ * which starts with the Penn tags (any other tags found in the lexicon are
+ * appended), so that tagging needs neither String splits nor comparisons.
+ * <p>
+ * Each tag also has a set of precomputed flags for the tests made by the
+ * transformation rules (e.g., whether it starts with 'nn').
+ * <p>
+ * Note: this is a support class, public access is provided through
+ * rita.RiTa (getPosTags).
+ */
+public class PosTagTable extends LexiconIndex
+{
+  public static final String[] PENN_TAGS = { "", "cc", "cd", "dt", "ex", "fw", "in", "jj",
+      "jjr", "jjs", "ls", "md", "nn", "nns", "nnp", "nnps", "pdt", "pos", "prp", "prp$", "rb",
+      "rbr", "rbs", "rp", "sym", "to", "uh", "vb", "vbd", "vbg", "vbn", "vbp", "vbz", "wdt",
+      "wp", "wp$", "wrb" };
+
+  /** The id of a tag that is the (single-char) word itself */
+  public static final int LITERAL = -1;
+
+  public static final int EMPTY = id(""), CD = id("cd"), DT = id("dt"), JJ = id("jj"),
+      NN = id("nn"), NNS = id("nns"), NNP = id("nnp"), NNPS = id("nnps"), PRP = id("prp"),
+      RB = id("rb"), VB = id("vb"), VBG = id("vbg"), VBN = id("vbn"), VBZ = id("vbz");
+
+  public static final int IS_DT = 1, IS_NN = 1 << 1, IS_NNS = 1 << 2, IS_NNP = 1 << 3,
+      IS_PRP = 1 << 4, STARTS_N = 1 << 5, STARTS_NN = 1 << 6, STARTS_RB = 1 << 7,
+      STARTS_VB = 1 << 8, ENDS_S = 1 << 9, HAS_VB = 1 << 10, HAS_VBZ = 1 << 11;
+
+  private static final int[] NONE = new int[0];
+
+  protected String[] tags;
+  protected int[] flags;
+  protected Map<String, int[]> choices;
+
+  /**
+   * Builds the table over all words in the lexicon
+   */
+  public PosTagTable(JSONLexicon lexicon)
+  {
+    super(lexicon);
+
+    List<String> vocab = new ArrayList<String>(Arrays.asList(PENN_TAGS));
+    Map<String, Integer> ids = new HashMap<String, Integer>();
+    for (int i = 0; i < PENN_TAGS.length; i++)
+      ids.put(PENN_TAGS[i], i);
+
+    Map<String, String> data = lexicon.getLexicalData();
+    choices = new HashMap<String, int[]>(data.size() * 2);
+    for (Iterator<Map.Entry<String, String>> it = data.entrySet().iterator(); it.hasNext();)
+    {
+      Map.Entry<String, String> entry = it.next();
+      String raw = entry.getValue();
+      int idx = raw.indexOf('|');
+      if (idx < 0) continue;
+
+      String pos = raw.substring(idx + 1);
+      int end = pos.indexOf('|');
+      if (end > -1) pos = pos.substring(0, end);
+      if (pos.length() < 1)
+      {
+        choices.put(entry.getKey(), NONE);
+        continue;
+      }
+
+      String[] parts = pos.split(SP);
+      int[] arr = new int[parts.length];
+      for (int i = 0; i < parts.length; i++)
+      {
+        Integer id = ids.get(parts[i]);
+        if (id == null)
+        {
+          id = vocab.size();
+          vocab.add(parts[i]);
+          ids.put(parts[i], id);
+        }
+        arr[i] = id;
+      }
+      choices.put(entry.getKey(), arr);
+    }
+
+    tags = vocab.toArray(new String[vocab.size()]);
+    flags = new int[tags.length];
+    for (int i = 0; i < tags.length; i++)
+      flags[i] = computeFlags(tags[i]);
+  }
+
+  private static int id(String tag)
+  {
+    return Arrays.asList(PENN_TAGS).indexOf(tag);
+  }
+
+  /**
+   * Returns the flags for a tag String
+   */
+  public static int computeFlags(String tag)
+  {
+    int f = 0;
+    if (tag.equals("dt")) f |= IS_DT;
+    if (tag.equals("nn")) f |= IS_NN;
+    if (tag.equals("nns")) f |= IS_NNS;
+    if (tag.equals("nnp")) f |= IS_NNP;
+    if (tag.equals("prp")) f |= IS_PRP;
+    if (tag.startsWith("n")) f |= STARTS_N;
+    if (tag.startsWith("nn")) f |= STARTS_NN;
+    if (tag.startsWith("rb")) f |= STARTS_RB;
+    if (tag.startsWith("vb")) f |= STARTS_VB;
+    if (tag.endsWith("s")) f |= ENDS_S;
+    if (tag.indexOf("vb") > -1) f |= HAS_VB;
+    if (tag.indexOf("vbz") > -1) f |= HAS_VBZ;
+    return f;
+  }
+
+  /**
+   * Returns the ids of the possible tags for the word (case-insensitive), an
+   * empty array if it has none, or null if it is not in the lexicon
+   */
+  public int[] choices(String word)
+  {
+    return choices.get(JSONLexicon.toLowerCase(word));
+  }
+
+  /**
+   * Returns the tag for the id
+   */
+  public String tag(int id)
+  {
+    return tags[id];
+  }
+
+  /**
+   * Returns the flags for the tag id
+   */
+  public int flags(int id)
+  {
+    return flags[id];
+  }
+
+  /**
+   * Returns the number of distinct tags in the table
+   */
+  public int numTags()
+  {
+    return tags.length;
+  }
+}
@@ -12,7 +12,6 @@
 
 package rita.support;
 
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
@@ -29,8 +28,8 @@ public class RegexRule //implements Comparable
 	/** The Constant DEFAULT. */
 	public static final int DEFAULT = 2;
 
-	/** The left hand side. */
-	private Matcher leftHandSide;
+	/** The left hand side (a Pattern, with a new Matcher per call to applies()). */
+	private Pattern leftHandSide;
 
 	/** The left hand string. */
 	private String leftHandString;
@@ -67,7 +66,7 @@ public class RegexRule //implements Comparable
    *            the suff
    */
 	public RegexRule(String regex, int truncate, String suff) {
-  	leftHandSide = Pattern.compile(regex, Pattern.CASE_INSENSITIVE).matcher("\\w+");
+  	leftHandSide = Pattern.compile(regex, Pattern.CASE_INSENSITIVE);
     leftHandString = regex;
     offset = truncate;
     suffix = suff;
@@ -95,9 +94,7 @@ public class RegexRule //implements Comparable
 	 * @return true, if successful
 	 */
 	public boolean applies(String word) {
-		word = word.trim();
-		leftHandSide = leftHandSide.reset(word);
-		return leftHandSide.find();
+		return leftHandSide.matcher(word.trim()).find();
 	}
 
 	/**
@@ -146,14 +143,7 @@ public class RegexRule //implements Comparable
 			return word;
 		}
 
-		StringBuffer buffer = new StringBuffer(word);
-		int i = 1;
-		while (i <= offset) {
-			buffer.deleteCharAt(buffer.length() - 1);
-			i++;
-		}
-
-		return buffer.toString();
+		return word.substring(0, word.length() - offset);
 	}
 
 }
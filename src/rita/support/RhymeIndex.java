@@ -0,0 +1,101 @@
+package rita.support;
+
+import java.util.*;
+
+/**
+ * An index from the last stressed phone (through the end of the word) to the
+ * words in the lexicon, so that rhymes can be found without scanning and
+ * re-parsing every entry.
+ * <p>
+ * Keys are stored reversed and sorted, so that all words whose phones end with
+ * a given suffix (the semantics of RiLexicon.rhymes()) are found via a single
+ * prefix-range lookup, even when a key is longer than the suffix queried.
+ * <p>
+ * Note: this is a support class, public access is provided through
+ * rita.RiLexicon.
+ */
+public class RhymeIndex extends LexiconIndex
+{
+  protected TreeMap<String, List<String>> index;
+
+  /**
+   * Builds the index over all words in the lexicon
+   */
+  public RhymeIndex(JSONLexicon lexicon)
+  {
+    super(lexicon);
+
+    index = new TreeMap<String, List<String>>();
+    Map<String, String> data = lexicon.getLexicalData();
+    for (Iterator<String> it = data.keySet().iterator(); it.hasNext();)
+    {
+      String word = it.next();
+      String key = lastStressedPhoneToEnd(lexicon.getRawPhones(word));
+      if (key == null) continue;
+
+      key = reverse(key);
+      List<String> words = index.get(key);
+      if (words == null)
+      {
+        words = new ArrayList<String>(4);
+        index.put(key, words);
+      }
+      words.add(word);
+    }
+  }
+
+  /**
+   * Adds to <code>result</code> each word (other than <code>input</code>) whose
+   * phones end with the specified suffix (e.g., 'ae1-p ax-l')
+   */
+  public void lookup(String suffix, String input, Collection result)
+  {
+    String rev = reverse(suffix);
+    SortedMap<String, List<String>> matches = index.subMap(rev, rev + Character.MAX_VALUE);
+    for (Iterator<List<String>> it = matches.values().iterator(); it.hasNext();)
+    {
+      List<String> words = it.next();
+      for (int i = 0; i < words.size(); i++)
+      {
+        String cand = words.get(i);
+        if (!cand.equals(input))
+          result.add(cand);
+      }
+    }
+  }
+
+  /**
+   * Returns the number of distinct rhyme keys
+   */
+  public int size()
+  {
+    return index.size();
+  }
+
+  /**
+   * Returns the last stressed syllable and all subsequent phonemes, e.g., 'ae1-p
+   * ax-l' for 'ae1-p ax-l' or 'ey1-t' for 'w-ey1-t', or null if the raw phones
+   * contain no stress.
+   */
+  public static String lastStressedPhoneToEnd(String raw)
+  {
+    if (raw == null) return null;
+
+    int idx = raw.lastIndexOf(STRESSED);
+    if (idx < 0) return null;
+
+    while (--idx >= 0)
+    {
+      char c = raw.charAt(idx);
+      if (c == '-' || c == ' ')
+        return raw.substring(idx + 1);
+    }
+
+    return raw; // single-stressed syllable
+  }
+
+  private static String reverse(String s)
+  {
+    return new StringBuilder(s).reverse().toString();
+  }
+}
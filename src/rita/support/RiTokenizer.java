@@ -82,4 +82,27 @@ public class RiTokenizer implements TokenizerIF, Constants
     delegate.tokenize(sentence, result);
   }
 
+  /**
+   * Tokenizes the chars of <code>text</code> from <code>start</code> to
+   * <code>end</code> into words (as by tokenize()) without creating the
+   * substring, storing their offsets in <code>spans</code> (which may be null,
+   * or reused across calls). Only supported by the Penn tokenizer.
+   * 
+   * @see #supportsSpans()
+   */
+  public PennWordTokenizer.Spans tokenizeSpans(CharSequence text, int start, int end, PennWordTokenizer.Spans spans)
+  {
+    if (!supportsSpans())
+      throw new RiTaException("Token spans are only supported by the Penn tokenizer");
+    return ((PennWordTokenizer) delegate).tokenizeSpans(text, start, end, spans);
+  }
+
+  /**
+   * Returns true if this tokenizer can return token spans
+   */
+  public boolean supportsSpans()
+  {
+    return delegate instanceof PennWordTokenizer;
+  }
+
 }// end
@@ -2,10 +2,11 @@
 
 package rita.support;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.io.*;
+import java.util.*;
 
 import rita.RiTa;
+import rita.RiTaException;
 
 /**
  * A simple interface for different sentence splitters.<P>
@@ -111,6 +112,349 @@ public class Splitter implements Constants
   }
 
   private int rejectCount = 0;
+
+  /**
+   * Returns a cursor over the sentences in <code>text</code>, which are split
+   * (and filtered) exactly as by splitSentences(), but given as offsets into
+   * the text, so that the sentences (and their words) can be iterated over
+   * without creating a String for each.
+   */
+  public SentenceCursor sentenceCursor(CharSequence text)
+  {
+    return new SentenceCursor(text);
+  }
+
+  /**
+   * A reusable position in a text, moved from sentence to sentence by next()
+   */
+  public class SentenceCursor
+  {
+    protected CharSequence text;
+    protected int start, end; // the current sentence (trimmed)
+    protected int rawStart, rawEnd; // ...and with surrounding whitespace
+    protected int count;
+    protected boolean whole; // no sentences found, so the whole text is one
+    
+    private int cursor, length, sentenceStart, tokenCount, tokenStart = -1, tokenEnd;
+    private boolean startOfSentence = true, finished;
+
+    SentenceCursor(CharSequence text)
+    {
+      this.text = text;
+      this.length = text == null ? 0 : text.length();
+
+      while ((cursor < length) && Character.isWhitespace(text.charAt(cursor)))
+        cursor++;
+
+      if (length > 0 && cursor >= length)
+        System.out.println("WARN: Null or empty argument: <" + text + ">");
+    }
+
+    /**
+     * Moves to the next sentence, returning false if there are none left
+     */
+    public boolean next()
+    {
+      while (cursor < length)
+      {
+        int nextTokenStart = cursor;
+        while ((cursor < length) && !Character.isWhitespace(text.charAt(cursor)))
+          cursor++;
+        int nextTokenEnd = cursor;
+        tokenCount++;
+
+        while ((cursor < length) && Character.isWhitespace(text.charAt(cursor)))
+          cursor++;
+
+        boolean isEnd = isSentenceEnd(nextTokenStart, nextTokenEnd) || (tokenStart >= 0 
+            && tokenEnd - tokenStart == 1 && text.charAt(tokenStart) == '_' && tokenCount <= 5);
+
+        int from = sentenceStart;
+        if (isEnd)
+          sentenceStart = nextTokenStart;
+        startOfSentence = isEnd;
+        tokenStart = nextTokenStart;
+        tokenEnd = nextTokenEnd;
+
+        if (isEnd && accept(from, nextTokenStart))
+          return true;
+      }
+
+      if (!finished)
+      {
+        finished = true;
+        if (sentenceStart != length && accept(sentenceStart, length))
+          return true;
+
+        if (count < 1 && length > 0) // as in splitSentences()
+        {
+          whole = true;
+          set(0, length);
+          return true;
+        }
+      }
+      
+      whole = false;
+      return false;
+    }
+
+    private boolean isSentenceEnd(int nextTokenStart, int nextTokenEnd)
+    {
+      if (tokenStart < 0) return false;
+
+      // only a token ending with one of these can end a sentence
+      if ("?!.\"'}>)".indexOf(text.charAt(tokenEnd - 1)) < 0) return false;
+
+      return Splitter.isSentenceEnd(text.subSequence(tokenStart, tokenEnd).toString(), 
+          text.subSequence(nextTokenStart, nextTokenEnd).toString(), startOfSentence);
+    }
+
+    private boolean accept(int from, int to)
+    {
+      int len = to - from;
+      if (len > MAX_CHARS_PERS_SENTENCE || len < MIN_CHARS_PERS_SENTENCE)
+      {
+        rejectCount++;
+        return false;
+      }
+      count++;
+      set(from, to);
+      return true;
+    }
+
+    private void set(int from, int to)
+    {
+      rawStart = from;
+      rawEnd = to;
+      while (from < to && text.charAt(from) <= ' ')
+        from++;
+      while (to > from && text.charAt(to - 1) <= ' ')
+        to--;
+      start = from;
+      end = to;
+    }
+
+    /**
+     * Returns the text being split
+     */
+    public CharSequence text()
+    {
+      return text;
+    }
+
+    /**
+     * Returns the offset of the first char of the current sentence
+     */
+    public int start()
+    {
+      return start;
+    }
+
+    /**
+     * Returns the offset after the last char of the current sentence
+     */
+    public int end()
+    {
+      return end;
+    }
+
+    /**
+     * Returns the current sentence as a String, exactly as returned by
+     * splitSentences() (with whitespace normalized, etc.)
+     */
+    public String sentence()
+    {
+      if (whole) return text.toString();
+      return clean(text.subSequence(rawStart, rawEnd).toString()).trim();
+    }
+
+    /**
+     * Tokenizes the current sentence into words, as by
+     * RiTa.tokenize(sentence()), storing their offsets in <code>spans</code>
+     * (which may be null, or reused across calls). When quotations are being
+     * removed, the offsets are into sentence() rather than into the text.
+     */
+    public PennWordTokenizer.Spans tokens(PennWordTokenizer.Spans spans)
+    {
+      RiTokenizer tokenizer = RiTokenizer.getInstance();
+      if (removeQuotations)
+      {
+        String s = sentence();
+        return tokenizer.tokenizeSpans(s, 0, s.length(), spans);
+      }
+      return tokenizer.tokenizeSpans(text, start, end, spans);
+    }
+  }
+
+  /**
+   * Returns an iterator over the sentences in the stream, which is read and
+   * split incrementally (one token at a time), so that the text as a whole is
+   * never held in memory. Sentences are split (and filtered) exactly as by
+   * splitSentences(), and the stream is closed when it is exhausted.
+   */
+  public Iterator<String> sentenceIterator(Reader reader)
+  {
+    return new SentenceIterator(reader);
+  }
+
+  /**
+   * Returns an iterator over the sentences in the lines (joined by line-breaks,
+   * as by RiTa.loadString()), which are consumed incrementally
+   * 
+   * @see #sentenceIterator(Reader)
+   */
+  public Iterator<String> sentenceIterator(Iterator<String> lines)
+  {
+    return new SentenceIterator(new LineReader(lines));
+  }
+
+  /*
+   * Performs the same scan as splitSentences(List, String), but over a stream:
+   * 'pending' holds the text from the start of the current sentence to the
+   * start of the next token, but only until it is too long to be accepted
+   */
+  class SentenceIterator implements Iterator<String>
+  {
+    Reader in;
+    String next, currentToken;
+    StringBuilder pending = new StringBuilder(), token = new StringBuilder();
+    int pendingLength, tokenCount, c = -2; // the next unread char
+    boolean startOfSentence = true;
+
+    SentenceIterator(Reader reader)
+    {
+      this.in = (reader instanceof BufferedReader) ? reader : new BufferedReader(reader);
+    }
+
+    public boolean hasNext()
+    {
+      while (next == null && in != null)
+        advance();
+      return next != null;
+    }
+
+    public String next()
+    {
+      if (!hasNext()) throw new NoSuchElementException();
+      String s = next;
+      next = null;
+      return s;
+    }
+
+    public void remove()
+    {
+      throw new UnsupportedOperationException();
+    }
+
+    private void advance()
+    {
+      try
+      {
+        if (c == -2) // leading whitespace
+        {
+          c = in.read();
+          while (c >= 0 && Character.isWhitespace(c))
+            append((char) c);
+        }
+
+        if (c < 0) // end of stream
+        {
+          if (pendingLength > 0)
+            emit();
+          in.close();
+          in = null;
+          return;
+        }
+
+        token.setLength(0);
+        while (c >= 0 && !Character.isWhitespace(c))
+        {
+          token.append((char) c);
+          c = in.read();
+        }
+        String nextToken = token.toString();
+        tokenCount++;
+
+        if (isSentenceEnd(currentToken, nextToken, startOfSentence)
+            || isDatelineEnd(currentToken, tokenCount))
+        {
+          emit();
+          startOfSentence = true;
+        }
+        else
+          startOfSentence = false;
+
+        currentToken = nextToken;
+
+        append(nextToken);
+        while (c >= 0 && Character.isWhitespace(c))
+          append((char) c);
+      }
+      catch (IOException e)
+      {
+        throw new RiTaException(e);
+      }
+    }
+
+    private void append(CharSequence cs) throws IOException
+    {
+      pendingLength += cs.length();
+      if (pendingLength <= MAX_CHARS_PERS_SENTENCE)
+        pending.append(cs);
+    }
+
+    private void append(char ch) throws IOException
+    {
+      if (++pendingLength <= MAX_CHARS_PERS_SENTENCE)
+        pending.append(ch);
+      c = in.read();
+    }
+
+    private void emit()
+    {
+      if (pendingLength > MAX_CHARS_PERS_SENTENCE || pendingLength < MIN_CHARS_PERS_SENTENCE)
+        rejectCount++;
+      else
+        next = clean(pending.toString()).trim();
+
+      pending.setLength(0);
+      pendingLength = 0;
+    }
+  }
+
+  /*
+   * A Reader over an iterator of lines, joined by line-breaks
+   */
+  static class LineReader extends Reader
+  {
+    Iterator<String> lines;
+    String line;
+    int pos;
+
+    LineReader(Iterator<String> lines)
+    {
+      this.lines = lines;
+    }
+
+    public int read(char[] cbuf, int off, int len)
+    {
+      if (len == 0) return 0;
+
+      while (line == null || pos == line.length())
+      {
+        if (!lines.hasNext()) return -1;
+        line = (line == null) ? lines.next() : BN + lines.next();
+        pos = 0;
+      }
+
+      int n = Math.min(len, line.length() - pos);
+      line.getChars(pos, pos + n, cbuf, off);
+      pos += n;
+      return n;
+    }
+
+    public void close() {}
+  }
   
 /*  public static boolean isAbbreviation(String token)
   {
@@ -18,7 +18,8 @@ public class TextNode implements Comparable, RiProbable
   /** the # of tokens processed */
   public static int totalTokens;
   
-  private int count=0;  
+  private int count=0, childTotal=0;  
+  private Sampler sampler;
   protected Map children;
   protected TextNode parent;
   protected String token, lookup;
@@ -70,6 +71,8 @@ public class TextNode implements Comparable, RiProbable
       String key = getLookupKey(newToken);
       children.put(key, node = new TextNode(this, newToken));  
       node.count = initialCount;
+      childTotal += initialCount;
+      sampler = null;
     }
     else {         
       node.increment(); // up the frequency
@@ -90,8 +93,21 @@ public class TextNode implements Comparable, RiProbable
 
   public int increment()
   {
-    totalTokens++;
-    count = count + 1;
+    return increment(1);
+  }
+
+  /**
+   * Adds <code>amount</code> to the count for this node (and to the total for
+   * its parent), returning the new count
+   */
+  public int increment(int amount)
+  {
+    totalTokens += amount;
+    count = count + amount;
+    if (parent != null) {
+      parent.childTotal += amount;
+      parent.sampler = null;
+    }
     return count;
   }
 
@@ -99,7 +115,7 @@ public class TextNode implements Comparable, RiProbable
   {
     String result = "["+token();
     if (!isRoot()) { 
-      result += " (" + count + "," + 
+      result += " (" + count() + "," + 
         formatter.format(probability()) + "%)"; 
     }
     return result +"]";    
@@ -109,6 +125,14 @@ public class TextNode implements Comparable, RiProbable
   {
     return parent == null;
   }
+
+  /**
+   * Returns the parent of this node, or null for the root
+   */
+  public TextNode parent()
+  {
+    return parent;
+  }
   
   
   public int depth()
@@ -117,7 +141,7 @@ public class TextNode implements Comparable, RiProbable
     TextNode mn = this;
     while (true) {
       if (mn.isRoot()) return count;
-      mn = (TextNode)mn.parent;
+      mn = mn.parent();
       count++;
     }   
   }
@@ -164,7 +188,7 @@ public class TextNode implements Comparable, RiProbable
     
     TextNode mn = this;
     while (true) {
-      mn = (TextNode)mn.parent;
+      mn = mn.parent();
       if (mn.isRoot()) break;
       l.add(mn.token());  
                 
@@ -206,7 +230,7 @@ public class TextNode implements Comparable, RiProbable
     while (true) {
       if (mn.isRoot()) break;
       result.push(mn.token());      
-      mn = (TextNode)mn.parent;          
+      mn = mn.parent();          
     }   
   }
   
@@ -215,15 +239,13 @@ public class TextNode implements Comparable, RiProbable
     TextNode mn = this;
     while (true) {
       if (mn.isRoot()) return mn;
-      mn = (TextNode)mn.parent;          
+      mn = mn.parent();          
     }   
   }
 
   public int uniqueCount()
   {
-    if (children == null)
-      return 0;
-    return children.size();
+    return size();
   }
 
   //   total count for all children at this level    
@@ -234,19 +256,22 @@ public class TextNode implements Comparable, RiProbable
       return 1;
     }
     
-    if (parent == null)
-      throw new RuntimeException("Null parent for: "+token);
+    if (parent() == null)
+      throw new RuntimeException("Null parent for: "+token());
     
-    int sum = 0;
-    for (Iterator i = parent.childIterator(); i.hasNext();) {
-      TextNode node = (TextNode)i.next();
-      if (node != null) sum += node.count();
-    } 
-    return sum;
+    return parent().childTotal();
+  }
+  
+  /**
+   * Returns the total count for all children of this node
+   */
+  public int childTotal()
+  {
+    return childTotal;
   }
 
   public float probability() {
-    return count/(float)siblingCount();
+    return count()/(float)siblingCount();
   }
   
   public Iterator childIterator()
@@ -269,7 +294,7 @@ public class TextNode implements Comparable, RiProbable
     float nf1 = count();
     float nf2 = ((TextNode) o).count();
     if (nf1 == nf2) // return lex-order on ties (?)
-      return token.compareTo(((TextNode) o).token());
+      return token().compareTo(((TextNode) o).token());
     return nf1 < nf2 ? 1 : -1;
   }
 
@@ -354,7 +379,7 @@ public class TextNode implements Comparable, RiProbable
   private String childrenToString
     (TextNode mn, String str, int depth, boolean sort) 
   {
-    List l = new ArrayList(mn.children.values());
+    List l = new ArrayList(mn.childNodes());
     
     if (l.size() < 1) return str;
     
@@ -386,11 +411,11 @@ public class TextNode implements Comparable, RiProbable
       
       str += indent +"'"+tok+"'";
       
-      if (node.count == 0) 
-        throw new Error("ILLEGAL FREQ: "+node.count+" -> "+mn.token+","+node.token);
+      if (node.count() == 0) 
+        throw new Error("ILLEGAL FREQ: "+node.count()+" -> "+mn.token()+","+node.token());
       
       if (!node.isRoot())
-        str += " ["+node.count + ",p=" +formatter.format(node.probability()) + "]->{";
+        str += " ["+node.count() + ",p=" +formatter.format(node.probability()) + "]->{";
       
       //if (node.isSentenceStart) str += "[START]";
       
@@ -417,7 +442,7 @@ public class TextNode implements Comparable, RiProbable
   {
     String s = token()+" ";
     if (!isRoot()) 
-      s+= "("+count+")->"; 
+      s+= "("+count()+")->"; 
     s += "{";
     if (!isLeaf())
       return childrenToString(this, s, 1, sort);
@@ -453,8 +478,10 @@ public class TextNode implements Comparable, RiProbable
   }
   
   public TextNode selectChild(String regex, boolean probabalisticSelect) {
-    if (children == null) return null;
-    Collection c = (regex != null) ? childNodes(regex) : children.values();
+    if (childNodes() == null) return null;
+    if (regex == null && probabalisticSelect)
+      return selectChild(Math.random(), false);
+    Collection c = (regex != null) ? childNodes(regex) : childNodes();
     return selectChild(c, probabalisticSelect);
   }
   
@@ -463,11 +490,79 @@ public class TextNode implements Comparable, RiProbable
     return (TextNode)select(c, probabalisticSelect);
   }
 
+  /**
+   * Selects a child with probability proportional to its count, in O(log k)
+   * for k children, where <code>selector</code> is in [0,1). If
+   * <code>sentenceStart</code> is true, the first sentence-start at or after the
+   * selected child (in iteration order) is returned instead, or null if there
+   * is none.
+   */
+  public TextNode selectChild(double selector, boolean sentenceStart)
+  {
+    if (children == null || children.size() == 0) 
+      return null;
+    
+    Sampler s = sampler;
+    if (s == null) 
+      sampler = s = new Sampler(children.values());
+    
+    return s.select(selector, sentenceStart);
+  }
+
+  /*
+   * Cumulative counts for the children (in the iteration order of the child
+   * map), rebuilt lazily after any child is added or incremented
+   */
+  static class Sampler
+  {
+    final TextNode[] nodes;
+    final int[] cumulative;
+    int[] nextStart; // index of next sentence-start at or after i, or -1
+
+    Sampler(Collection c)
+    {
+      nodes = (TextNode[]) c.toArray(new TextNode[c.size()]);
+      cumulative = new int[nodes.length];
+      int sum = 0;
+      for (int i = 0; i < nodes.length; i++)
+        cumulative[i] = (sum += nodes[i].count);
+    }
+
+    TextNode select(double selector, boolean sentenceStart)
+    {
+      double target = selector * cumulative[cumulative.length - 1];
+      
+      // find the first i where target < cumulative[i]
+      int lo = 0, hi = cumulative.length - 1;
+      while (lo < hi)
+      {
+        int mid = (lo + hi) >>> 1;
+        if (target < cumulative[mid])
+          hi = mid;
+        else
+          lo = mid + 1;
+      }
+      
+      if (!sentenceStart) return nodes[lo];
+      
+      int[] ns = nextStart;
+      if (ns == null)
+      {
+        ns = new int[nodes.length];
+        int next = -1;
+        for (int i = nodes.length - 1; i >= 0; i--)
+          ns[i] = next = (nodes[i].isSentenceStart ? i : next);
+        nextStart = ns;
+      }
+      return ns[lo] < 0 ? null : nodes[ns[lo]];
+    }
+  }
+
   public Collection childNodes(String regex)
   {
     Matcher m = null;
     List tmp = null;
-    if (children == null || children.size()==0)
+    if (!hasChildren())
       return null;
     Pattern p = Pattern.compile(regex);    
     for (Iterator i = childIterator(); i.hasNext();)
@@ -506,6 +601,8 @@ public class TextNode implements Comparable, RiProbable
   public void isSentenceStart(boolean isSentenceStart)
   {
     this.isSentenceStart = isSentenceStart;
+    if (parent != null) 
+      parent.sampler = null;
   }
 
   /**
@@ -530,6 +530,58 @@ public class RiGrammarTest
     }
   }
   
+  @Test
+  public void testCompiledExpansion()
+  {
+    RiGrammar rg = new RiGrammar();
+    rg.addRule("<start>", "<a><b> and <ab>", 1);
+    rg.addRule("<a>", "x", 1);
+    rg.addRule("<b>", "<a>y", 1);
+    rg.addRule("<ab>", "[<b>]", 1);
+    equal(rg.expand(), "xxy and [xy]");
+
+    // rules changed after a previous expansion
+    rg.removeRule("<a>");
+    rg.addRule("<a>", "z", 1);
+    equal(rg.expand(), "zzy and [zy]");
+    rg.removeRule("<ab>");
+    equal(rg.expand(), "zzy and <ab>");
+
+    // weights: a zero-weighted choice is never selected
+    rg.reset();
+    rg.addRule("<start>", "a [0] | b [1] | c [0]", 1);
+    for (int i = 0; i < 20; i++)
+      equal(rg.expand(), "b");
+
+    // names formed across expansions are still expanded
+    rg.reset();
+    rg.addRule("<start>", "<<c>", 1);
+    rg.addRule("<c>", "d>", 1);
+    rg.addRule("<d>", "done", 1);
+    equal(rg.expand(), "done");
+
+    // infinite recursion stops at maxIterations
+    rg.reset();
+    rg.addRule("<start>", "a <start>", 1);
+    rg.maxIterations = 50;
+    boolean silent = RiTa.SILENT;
+    RiTa.SILENT = true;
+    String res = rg.expand();
+    RiTa.SILENT = silent;
+    ok(res.startsWith("a a a"));
+    ok(res.endsWith("<start>"));
+    equal(res.split("a ").length, 50);
+
+    // deep (non-infinite) recursion
+    rg.reset();
+    rg.maxIterations = 1000;
+    rg.addRule("<start>", "<r0>", 1);
+    for (int i = 0; i < 500; i++)
+      rg.addRule("<r" + i + ">", "<r" + (i + 1) + ">", 1);
+    rg.addRule("<r500>", "end", 1);
+    equal(rg.expand(), "end");
+  }
+
   @Test
   public void testMultilinesYAML()
   {
@@ -928,6 +980,43 @@ public class RiGrammarTest
   boolean adj(boolean num) { return true; }
   float getFloat() { return (float) Math.random(); }
   
+  static class Counter {
+    int calls;
+    String next(int step, String name) { calls += step; return name + calls; }
+    void touch() { calls++; }
+    static String fixed() { return "fixed"; }
+  }
+
+  @Test
+  public void testExecCached() {
+
+    Counter c1 = new Counter(), c2 = new Counter();
+    RiGrammar rg = new RiGrammar();
+    rg.execDisabled = false;
+    rg.addRule("<start>", "`next(2,'n')` `touch()``fixed()`", 1);
+
+    for (int i = 1; i <= 5; i++)
+      equal(rg.expand(c1), "n" + (i * 3 - 1) + " fixed");
+    equal(c1.calls, 15);
+
+    // same calls, different callee
+    equal(rg.expand(c2), "n2 fixed");
+    equal(c2.calls, 3);
+    equal(c1.calls, 15);
+
+    // arguments from rule expansions
+    rg.reset();
+    rg.addRule("<start>", "`next(<num>,'n')`", 1);
+    rg.addRule("<num>", "1 | 3", 1);
+    for (int i = 0; i < 10; i++)
+    {
+      int before = c1.calls;
+      String res = rg.expand(c1);
+      ok(c1.calls == before + 1 || c1.calls == before + 3);
+      equal(res, "n" + c1.calls);
+    }
+  }
+
   @Test
   public void testExecArgs2() { 
     
@@ -4,13 +4,27 @@ import static rita.support.QUnitStubs.deepEqual;
 import static rita.support.QUnitStubs.equal;
 import static rita.support.QUnitStubs.ok;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Set;
 
 import org.junit.Test;
 
 import rita.RiLexicon;
 import rita.RiTa;
+import rita.support.JSONLexicon;
+import rita.support.LetterToSound;
+import rita.support.LexiconImage;
+import rita.support.MinEditDist;
 
 public class RiLexiconTest
 { 
@@ -219,7 +233,142 @@ public class RiLexiconTest
 		lex.reload(); // necessary for other tests
 	}
 	
-	
+	@Test
+	public void testLexiconImage() throws Exception
+	{
+		File tmp = File.createTempFile("rita_dict", ".bin");
+		tmp.deleteOnExit();
+		
+		String[] lines = JSONLexicon.loadJSON(JSONLexicon.DEFAULT_LEXICON);
+		FileOutputStream fos = new FileOutputStream(tmp);
+		LexiconImage.compile(lines, fos);
+		fos.close();
+		
+		Map json = new LinkedHashMap();
+		for (int i = 1; i < lines.length - 1; i++)
+		{
+			String[] parts = lines[i].split(":");
+			json.put(parts[0], parts[1].trim());
+		}
+		
+		Map image = LexiconImage.map(tmp).asMap();
+		equal(image.size(), json.size());
+		
+		Iterator it = json.keySet().iterator(), it2 = image.keySet().iterator();
+		while (it.hasNext()) 
+		{
+			String word = (String) it.next();
+			equal(it2.next(), word); // same order
+			equal(image.get(word), json.get(word));
+		}
+		ok(!it2.hasNext());
+		
+		ok(image.get("cated") == null);
+		equal(image.get("aback"), "ax-b ae1-k|rb");
+		
+		image.put("bananana", "b-ax-n ae1-n ax ax|nn");
+		equal(image.get("bananana"), "b-ax-n ae1-n ax ax|nn");
+		equal(image.size(), json.size() + 1);
+		
+		image.remove("banana");
+		ok(!image.containsKey("banana"));
+		equal(image.size(), json.size());
+		
+		image.put("hello", null);
+		ok(image.containsKey("hello"));
+		ok(image.get("hello") == null);
+		
+		image.put("banana", "b-ax-n ae1-n ax|nn");
+		equal(image.get("banana"), "b-ax-n ae1-n ax|nn");
+		equal(image.size(), json.size() + 1);
+		equal(countEntries(image), image.size());
+		ok(image.keySet().contains("banana"));
+
+		image.clear();
+		equal(image.size(), 0);
+		ok(!image.keySet().iterator().hasNext());
+
+		image.put("apple", "ae1-p ax-l|nn");
+		equal(image.size(), 1);
+		equal(countEntries(image), 1);
+		equal(image.keySet().iterator().next(), "apple");
+	}
+
+	private static int countEntries(Map map)
+	{
+		int count = 0;
+		for (Iterator it = map.entrySet().iterator(); it.hasNext(); it.next())
+			count++;
+		return count;
+	}
+
+	@Test
+	public void testLetterToSound() throws Exception
+	{
+		final LetterToSound lts = LetterToSound.getInstance();
+
+		deepEqual(lts.getPhones("dragon"), new String[] { "d", "r", "ae1", "g", "aa1", "n" });
+		deepEqual(lts.getPhones(""), new String[] {});
+		deepEqual(lts.getPhones("#0"), new String[] {});
+
+		String[] phones = lts.getPhones("laggin");
+		phones[0] = "xx"; // results are copies
+		ok(!lts.getPhones("laggin")[0].equals("xx"));
+
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		lts.writeBinary(bos);
+		LetterToSound binary = LetterToSound.loadBinary(new ByteArrayInputStream(bos.toByteArray()));
+		ok(binary.compare(lts));
+		binary.setCacheSize(0);
+
+		byte[] damaged = bos.toByteArray();
+		damaged[damaged.length - 15] = 100; // the window index of the last state
+		try {
+			LetterToSound.loadBinary(new ByteArrayInputStream(damaged));
+			ok(false);
+		}
+		catch (IOException e) {
+			ok(e);
+		}
+
+		final LetterToSound fresh = LetterToSound.compile();
+		ok(fresh != lts);
+		ok(fresh.compare(lts));
+		fresh.setCacheSize(0);
+
+		final String[] words = { "laggin", "dragon", "hello", "antelope", "blorple", "snarkify" };
+		final String[][] expected = new String[2000][];
+		for (int k = 0; k < expected.length; k++)
+		{
+			expected[k] = fresh.getPhones(words[k % words.length] + k);
+			if (k < words.length)
+				deepEqual(binary.getPhones(words[k]), fresh.getPhones(words[k]));
+		}
+
+		final boolean[] failed = new boolean[1];
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++)
+		{
+			threads[t] = new Thread()
+			{
+				public void run()
+				{
+					for (int k = 0; k < expected.length; k++)
+					{
+						int i = k % words.length;
+						if (!Arrays.equals(lts.getPhones(words[i] + k), expected[k])
+							|| !Arrays.equals(lts.getPhones(words[i]), fresh.getPhones(words[i])))
+							failed[0] = true;
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (int t = 0; t < threads.length; t++)
+			threads[t].join();
+		ok(!failed[0]);
+	}
+
 	@Test
 	public void testRandomWord()
 	{
@@ -309,6 +458,48 @@ public class RiLexiconTest
 		ok(result == "");
 	}
 
+	@Test
+	public void testRandomWordFacets()
+	{
+		RiLexicon lex = new RiLexicon();
+		JSONLexicon lexImpl = lex.lexImpl;
+
+		deepEqual(lexImpl.getWordsWithPos("wp").toArray(), new String[] { "what", "who", "whoever", "whom", "whosoever" });
+
+		for (int i = 0; i < 20; i++)
+		{
+			String result = lexImpl.randomWord("nns", 2, 7);
+			equal(lexImpl.getBestPos(result), "nns");
+			equal(result.length(), 7);
+			equal(RiTa.getSyllables(result).split(RiTa.SYLLABLE_BOUNDARY).length, 2);
+		}
+		ok(lexImpl.randomWord("wp", 1, 30) == null);
+
+		lex.addWord("whomsoe", "hh-uw1-m s-ow", "wp"); // index is rebuilt
+		ok(lexImpl.getWordsWithPos("wp").contains("whomsoe"));
+		equal(lexImpl.randomWord("wp", 2, 7), "whomsoe");
+
+		lex.reload();
+		ok(!lex.lexImpl.getWordsWithPos("wp").contains("whomsoe"));
+	}
+
+	@Test
+	public void testRhymesModifiedLexicon()
+	{
+		RiLexicon lex = new RiLexicon();
+		ok(Arrays.asList(lex.rhymes("bible")).contains("tribal"));
+
+		lex.addWord("scribal", "s-k-r-ay1-b ax-l", "jj");
+		ok(Arrays.asList(lex.rhymes("bible")).contains("scribal"));
+
+		lex.removeWord("tribal");
+		ok(!Arrays.asList(lex.rhymes("bible")).contains("tribal"));
+
+		lex.reload();
+		ok(Arrays.asList(lex.rhymes("bible")).contains("tribal"));
+		ok(!Arrays.asList(lex.rhymes("bible")).contains("scribal"));
+	}
+
 	@Test
 	public void testRhymesString()
 	{
@@ -751,6 +942,46 @@ public class RiLexiconTest
     // equal(s,"m-eh1-l ow"); Note: moved to KnownIssues    
 	}
 
+	@Test
+	public void testDecodedEntries()
+	{
+		JSONLexicon lex = new RiLexicon().lexImpl;
+
+		Map<String, String> features = lex.getFeatures("dragging");
+		equal(features.get("phonemes"), "d-r-ae-g-ih-ng");
+		equal(features.get("syllables"), "d-r-ae-g/ih-ng");
+		equal(features.get("stresses"), "1/0");
+		equal(lex.getFeatures("Dragging"), features);
+		ok(lex.getFeatures("dragging") != features); // a new Map each time
+
+		// returned arrays are copies
+		String[] phones = lex.getPhonemeArr("dragging", false);
+		deepEqual(phones, new String[] { "d", "r", "ae", "g", "ih", "ng" });
+		phones[0] = "x";
+		equal(lex.getPhonemeArr("dragging", false)[0], "d");
+		String[] pos = lex.getPosArr("dragging");
+		pos[0] = "x";
+		ok(!lex.getPosArr("dragging")[0].equals("x"));
+
+		// entries are re-decoded when the data changes
+		String[] raw = lex.lookupRaw("dragging").split("\\|");
+		try
+		{
+			lex.addWord("dragging", "d-r-ae1-g", "nn");
+			equal(lex.getRawPhones("dragging"), "d-r-ae1-g");
+			deepEqual(lex.getPosArr("dragging"), new String[] { "nn" });
+
+			new RiLexicon().removeWord("Dragging");
+			equal(lex.getEntry("dragging"), null);
+		}
+		finally
+		{
+			lex.addWord("dragging", raw[0], raw[1]);
+		}
+		equal(lex.getRawPhones("dragging"), "d-r-ae1-g ih-ng");
+		equal(lex.getFeatures("nosuchword"), new HashMap());
+	}
+
 	@Test
 	public void testIsRhymeStringString()
 	{
@@ -1033,6 +1264,85 @@ public class RiLexiconTest
 	}
 	
 	
+	@Test
+	public void testSimilarByIndex()
+	{
+		// the indexed searches find the same words as a scan of the lexicon
+		RiLexicon lex = new RiLexicon();
+		String[] words = { "banana", "tornado", "ice", "happier", "try", "cat", "daddy", "worngword" };
+		for (int i = 0; i < words.length; i++)
+		{
+			for (int minDist = 0; minDist < 3; minDist++)
+			{
+				equal(asSet(lex.similarByLetter(words[i], minDist, false)),
+						scanByLetter(lex, words[i], minDist, false));
+				equal(asSet(lex.similarByLetter(words[i], minDist, true)),
+						scanByLetter(lex, words[i], minDist, true));
+				equal(asSet(lex.similarBySound(words[i], minDist)),
+						scanBySound(lex, words[i], minDist));
+			}
+		}
+	}
+
+	private static Set asSet(String[] words)
+	{
+		return new HashSet(Arrays.asList(words));
+	}
+
+	// the closest words by min-edit distance over letters, as in a linear scan
+	private static Set scanByLetter(RiLexicon lex, String input, int minDist, boolean preserveLength)
+	{
+		MinEditDist med = new MinEditDist();
+		Set result = new HashSet();
+		int best = Integer.MAX_VALUE;
+		for (Iterator it = lex.iterator(); it.hasNext();)
+		{
+			String word = (String) it.next();
+			if ((preserveLength && word.length() != input.length()) || word.equalsIgnoreCase(input)
+					|| !similarCandidate(input, word, 2))
+				continue;
+			int dist = med.computeRaw(word, input);
+			if (dist == 0 || dist < minDist || dist > best)
+				continue;
+			if (dist < best)
+				result.clear();
+			best = dist;
+			result.add(word);
+		}
+		return result;
+	}
+
+	// the closest words by min-edit distance over phonemes, as in a linear scan
+	private static Set scanBySound(RiLexicon lex, String input, int minDist)
+	{
+		MinEditDist med = new MinEditDist();
+		Set result = new HashSet();
+		String[] target = lex.lexImpl.getPhonemeArr(input, true);
+		if (target == null)
+			return result;
+		int best = Integer.MAX_VALUE;
+		for (Iterator it = lex.iterator(); it.hasNext();)
+		{
+			String word = (String) it.next();
+			if (!similarCandidate(input, word, 3))
+				continue;
+			int dist = med.computeRaw(lex.lexImpl.getPhonemeArr(word, false), target);
+			if (dist == 0 || dist < minDist || dist > best)
+				continue;
+			if (dist < best)
+				result.clear();
+			best = dist;
+			result.add(word);
+		}
+		return result;
+	}
+
+	private static boolean similarCandidate(String input, String word, int minLength)
+	{
+		return word.length() >= minLength && !word.equals(input) && !word.equals(input + "s")
+				&& !word.equals(input + "es");
+	}
+
 	@Test
 	public void testSimilarBySoundAndLetterString()
 	{
@@ -8,6 +8,7 @@ import static rita.support.QUnitStubs.ok;
 import java.io.*;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -15,6 +16,8 @@ import org.junit.Test;
 
 import rita.RiMarkov;
 import rita.RiTa;
+import rita.support.CompactTextNode;
+import rita.support.TextNode;
 
 
 /*
@@ -95,6 +98,68 @@ public class RiMarkovTest
     }
   }
 
+  @Test
+  public void testParallelLoading()
+  {
+    String[] files = { "kafka.txt", "wittgenstein.txt" };
+
+    RiMarkov rm1 = new RiMarkov(3);
+    ok(!rm1.parallelLoading());
+    for (int i = 0; i < files.length; i++)
+      rm1.loadText(RiTa.loadString(files[i]), 2);
+
+    RiMarkov rm2 = new RiMarkov(3).parallelLoading(true);
+    ok(rm2.parallelLoading());
+    rm2.loadFrom(files, 2);
+
+    equal(rm2.size(), rm1.size());
+    equal(rm2.root().childTotal(), rm1.root().childTotal());
+    equal(rm2.root().size(), rm1.root().size());
+    equal(rm2.getProbability("the"), rm1.getProbability("the"));
+    deepEqual(rm2.getProbabilities(new String[] { "the" }),
+        rm1.getProbabilities(new String[] { "the" }));
+    deepEqual(rm2.getCompletions(new String[] { "of", "the" }),
+        rm1.getCompletions(new String[] { "of", "the" }));
+
+    String[] sents = rm2.generateSentences(3);
+    equal(sents.length, 3);
+  }
+
+  @Test
+  public void testLoadStream()
+  {
+    String text = RiTa.loadString("kafka.txt");
+
+    RiMarkov rm1 = new RiMarkov(3).loadText(text, 2);
+    RiMarkov rm2 = new RiMarkov(3).loadStream(new StringReader(text), 2, null);
+    RiMarkov rm3 = new RiMarkov(3).loadLines(Arrays.asList(text.split("\n")).iterator(), 2, null);
+
+    RiMarkov[] rms = { rm2, rm3 };
+    for (int i = 0; i < rms.length; i++)
+    {
+      equal(rms[i].size(), rm1.size());
+      equal(rms[i].root().childTotal(), rm1.root().childTotal());
+      equal(rms[i].getProbability("the"), rm1.getProbability("the"));
+      deepEqual(rms[i].getProbabilities(new String[] { "the" }),
+          rm1.getProbabilities(new String[] { "the" }));
+      deepEqual(rms[i].getCompletions(new String[] { "of", "the" }),
+          rm1.getCompletions(new String[] { "of", "the" }));
+    }
+
+    // append to a model in use
+    ok(rm2.generateSentences(2));
+    rm2.loadStream(new StringReader(sample));
+    equal(rm2.size(), rm1.size() + RiTa.tokenize(sample).length);
+    ok(rm2.getProbability("girlfriend") > 0);
+
+    // tokens
+    rm1 = new RiMarkov(3, false).loadText(sample);
+    rm2 = new RiMarkov(3, false).loadStream(new StringReader(sample));
+    equal(rm2.size(), rm1.size());
+    deepEqual(rm2.getProbabilities(new String[] { "my" }),
+        rm1.getProbabilities(new String[] { "my" }));
+  }
+
   @Test
   public void testLoadFromUrl()
   {
@@ -421,6 +486,180 @@ public class RiMarkovTest
 
   }
 
+  @Test
+  public void testSelectChild()
+  {
+    RiMarkov rm = new RiMarkov(2, false);
+    rm.loadTokens("a a a b".split(" "));
+    
+    TextNode root = rm.root();
+    equal(root.childTotal(), 4);
+    equal(root.lookup("a").probability(), 0.75f);
+    
+    int count = 0;
+    for (int i = 0; i < 100; i++)
+    {
+      if (root.selectChild(i / 100d, false).token().equals("a")) 
+        count++;
+    }
+    equal(count, 75);
+
+    rm.loadTokens("b b".split(" ")); // counts must be updated
+    equal(root.childTotal(), 6);
+    equal(root.lookup("b").probability(), 0.5f);
+    
+    count = 0;
+    for (int i = 0; i < 100; i++)
+    {
+      if (root.selectChild(i / 100d, false).token().equals("a")) 
+        count++;
+    }
+    equal(count, 50);
+    
+    ok(root.lookup("b").selectChild(0, true) == null); // no sentence-starts
+  }
+
+  @Test
+  public void testUseCompactStore()
+  {
+    RiMarkov rm = new RiMarkov(3);
+    ok(!rm.useCompactStore());
+    rm.useCompactStore(true);
+    ok(rm.useCompactStore());
+
+    RiMarkov rm2 = new RiMarkov(3);
+    rm.loadText(sample);
+    rm2.loadText(sample);
+
+    equal(rm.size(), rm2.size());
+    equal(rm.root().childTotal(), rm2.root().childTotal());
+    equal(rm.root().size(), rm2.root().size());
+    equal(rm.getProbability("power"), rm2.getProbability("power"));
+    equal(rm.getProbability(new String[] { "personal", "power" }),
+        rm2.getProbability(new String[] { "personal", "power" }));
+    deepEqual(rm.getProbabilities(new String[] { "the" }),
+        rm2.getProbabilities(new String[] { "the" }));
+    deepEqual(rm.getCompletions(new String[] { "I", "did" }),
+        rm2.getCompletions(new String[] { "I", "did" }));
+    deepEqual(rm.getCompletions(new String[] { "my" }, new String[] { "date" }),
+        rm2.getCompletions(new String[] { "my" }, new String[] { "date" }));
+    equal(rm.print(new PrintStream(new ByteArrayOutputStream()), true), rm);
+
+    String[] sents = rm.generateSentences(3);
+    equal(sents.length, 3);
+    for (int i = 0; i < sents.length; i++)
+      ok(sents[i].matches("^[A-Z].*[!?.]$"));
+
+    try { rm.useCompactStore(false); ok(false); } catch (Exception e) { ok(e); }
+
+    rm = new RiMarkov(2, false).useCompactStore(true);
+    rm.loadTokens("a a a b".split(" "));
+    TextNode root = rm.root();
+    equal(root.childTotal(), 4);
+    equal(root.lookup("a").probability(), 0.75f);
+    int count = 0;
+    for (int i = 0; i < 100; i++)
+    {
+      if (root.selectChild(i / 100d, false).token().equals("a")) 
+        count++;
+    }
+    equal(count, 75);
+  }
+
+  @Test
+  public void testCompactIgnoresCase()
+  {
+    TextNode root = CompactTextNode.createRoot(true);
+    root.ignoresCase(false);
+    ok(!root.ignoresCase());
+
+    root.addChild("The", 1);
+    ok(root.lookup("The") != null);
+    ok(root.lookup("the") == null);
+
+    root.addChild("the", 1);
+    equal(root.size(), 2);
+
+    // can't be changed once tokens are interned
+    try { root.ignoresCase(true); ok(false); } catch (Exception e) { ok(e); }
+    ok(!root.ignoresCase());
+    ok(root.lookup("The") != null);
+
+    root = CompactTextNode.createRoot(false);
+    root.ignoresCase(true);
+    ok(root.ignoresCase());
+    root.addChild("The", 1);
+    equal(root.lookup("THE").token(), "the");
+  }
+
+  @Test
+  public void testLoadTextQuotations()
+  {
+    String text = "\"Hello,\" she said. 'Tis the season, isn't it? He said 'no' and "
+        + "left the room. The dogs' bones were 'big' and old. Don't go there!";
+
+    for (int k = 0; k < 4; k++)
+    {
+      RiMarkov rm1 = new RiMarkov(3, true, k < 2), rm2 = new RiMarkov(3, true, k < 2);
+      rm1.removeQuotations(k % 2 == 0);
+      rm2.removeQuotations(k % 2 == 0);
+      rm1.loadText(text); // tokenized in place, where there are no quotations to remove
+      rm2.loadSentences(RiTa.splitSentences(text));
+
+      equal(rm1.size(), rm2.size());
+      equal(rm1.root().childTotal(), rm2.root().childTotal());
+      equal(rm1.getProbability("\""), rm2.getProbability("\""));
+      equal(rm1.getProbability("isn't"), rm2.getProbability("isn't"));
+      deepEqual(rm1.getProbabilities(new String[] { "the" }),
+          rm2.getProbabilities(new String[] { "the" }));
+      deepEqual(rm1.getCompletions(new String[] { "He", "said" }),
+          rm2.getCompletions(new String[] { "He", "said" }));
+      ok(rm1.getProbability("\"") == 0 || k % 2 == 1);
+    }
+  }
+
+  @Test
+  public void testSaveModel() throws IOException
+  {
+    File file = File.createTempFile("rimarkov", ".bin");
+    file.deleteOnExit();
+
+    for (int k = 0; k < 2; k++)
+    {
+      RiMarkov rm = new RiMarkov(3, true, false).useCompactStore(k == 1);
+      rm.loadText(sample);
+      rm.saveModel(file.getAbsolutePath());
+
+      RiMarkov rm2 = RiMarkov.loadModel(file.getAbsolutePath());
+      ok(rm2.useCompactStore());
+      ok(((CompactTextNode) rm2.root()).store().isMapped());
+      equal(rm2.getN(), 3);
+      equal(rm2.size(), rm.size());
+      equal(rm2.sentenceAware(), true);
+      equal(rm2.allowDuplicates(), false);
+      equal(rm2.root().childTotal(), rm.root().childTotal());
+      equal(rm2.getProbability("power"), rm.getProbability("power"));
+      deepEqual(rm2.getProbabilities(new String[] { "the" }),
+          rm.getProbabilities(new String[] { "the" }));
+      deepEqual(rm2.getCompletions(new String[] { "I", "did" }),
+          rm.getCompletions(new String[] { "I", "did" }));
+
+      String[] sents = rm2.generateSentences(3);
+      equal(sents.length, 3);
+      for (int i = 0; i < sents.length; i++)
+        ok(sents[i].matches("^[A-Z].*[!?.]$"));
+
+      // a loaded model can still be trained
+      rm2.loadText(sample);
+      rm.loadText(sample);
+      ok(!((CompactTextNode) rm2.root()).store().isMapped());
+      equal(rm2.root().childTotal(), rm.root().childTotal());
+      equal(rm2.getProbability("power"), rm.getProbability("power"));
+    }
+
+    try { RiMarkov.loadModel("kafka.txt"); ok(false); } catch (Exception e) { ok(e); }
+  }
+
   @Test
   public void testGetProbability()
   {
@@ -336,6 +336,32 @@ public class RiStringTest implements Constants
     ok(rs.get(RiTa.POS));
   }
 
+  @Test
+  public void testLazyFeatures()
+  {
+    final int[] posCalls = { 0 };
+    RiString rs = new RiString("Mom & Dad, waiting for the car, ate a steak.") {
+      protected void analyzePos() {
+        posCalls[0]++;
+        super.analyzePos();
+      }
+    };
+
+    equal(rs.get(RiTa.STRESSES), "1 & 1 , 1/0 1 0 1 , 1 1 1 .");
+    equal(rs.get(RiTa.PHONEMES), "m-aa-m & d-ae-d , w-ey-t-ih-ng f-ao-r dh-ax k-aa-r , ey-t ey s-t-ey-k .");
+    equal(posCalls[0], 0);
+
+    // all features are there when asked for
+    Map<String, String> features = rs.features();
+    equal(posCalls[0], 1);
+    ok(features.containsKey(RiTa.POS));
+    ok(features.containsKey(RiTa.SYLLABLES));
+    equal(features.get(RiTa.POS), new RiString(rs.text()).analyze().features().get(RiTa.POS));
+
+    equal(RiTa.getStresses("Mom & Dad"), "1 & 1");
+    equal(RiTa.getSyllables("waiting"), "w-ey-t/ih-ng");
+  }
+
   @Test
   public void testIndexOf()
   {
@@ -8,11 +8,18 @@ import static rita.support.QUnitStubs.ok;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.junit.Test;
 
 import processing.core.PApplet;
 import rita.*;
+import rita.support.BrillPosTagger;
+import rita.support.CompiledRules;
+import rita.support.Constants;
+import rita.support.PennWordTokenizer;
+import rita.support.Splitter;
 
 public class RiTaTest
 {  
@@ -324,6 +331,43 @@ public class RiTaTest
   }
 
 
+  @Test
+  public void testSentenceCursor()
+  {
+    String[] texts = { RiTa.loadString("kafka.txt"), RiTa.loadString("wittgenstein.txt"),
+        "Mr. Jones went to the U.S. last week.  He said, \"Hi!\"  Then he left.",
+        "The dog ran", "   \n\t   " };
+
+    for (int k = 0; k < texts.length; k++)
+    {
+      String[] expected = RiTa.splitSentences(texts[k]);
+      Splitter.SentenceCursor cursor = Splitter.getInstance().sentenceCursor(texts[k]);
+      PennWordTokenizer.Spans spans = null;
+
+      int i = 0;
+      while (cursor.next())
+      {
+        equal(cursor.sentence(), expected[i]);
+        spans = cursor.tokens(spans);
+        String sentence = expected[i].trim();
+        deepEqual(spans.tokens(), sentence.length() > 0 ? RiTa.tokenize(sentence) : new String[0]);
+        for (int j = 0; j < spans.size(); j++)
+          equal(texts[k].substring(spans.start(j), spans.end(j)), spans.token(j));
+        i++;
+      }
+      equal(i, expected.length);
+    }
+
+    Splitter.SentenceCursor cursor = Splitter.getInstance().sentenceCursor("He said hi. Then he left.");
+    ok(cursor.next());
+    equal(cursor.start(), 0);
+    equal(cursor.end(), 11);
+    ok(cursor.next());
+    equal(cursor.start(), 12);
+    equal(cursor.end(), 25);
+    ok(!cursor.next());
+  }
+
   @Test
   public void testSplitSentences()
   {
@@ -514,6 +558,85 @@ public class RiTaTest
     deepEqual(output, expected);
   }
 
+  @Test
+  public void testPennTokenizerScanner()
+  {
+    String[] inputs = { "He cannot cannot cannot go, 'Tis gonna be... fine!",
+        "Nicole I. Kidman met J. R. R. Tolkien at I.", "``Quoted'' and ''more'' --- ---- (yes)[no]{<>}",
+        "JOHN'S dog didn't say D'ye wanna go? y'all'", "  \t\n ", "" };
+
+    for (int k = 0; k < 2; k++)
+    {
+      PennWordTokenizer pwt = new PennWordTokenizer(k == 1);
+      for (int i = 0; i < inputs.length; i++)
+        deepEqual(pwt.tokenize(inputs[i]), tokenizeRegex(inputs[i], k == 1));
+
+      String[] lines = RiTa.loadString("kafka.txt").split("\n");
+      for (int i = 0; i < lines.length; i++)
+        deepEqual(pwt.tokenize(lines[i]), tokenizeRegex(lines[i], k == 1));
+    }
+
+    // offsets into the source, in a reusable buffer
+    String input = "They're gonna go, Mr. Smith.";
+    PennWordTokenizer.Spans spans = new PennWordTokenizer().tokenizeSpans(input, null);
+    String[] expected = { "They're", "gon", "na", "go", ",", "Mr", ".", "Smith", "." };
+    equal(spans.size(), expected.length);
+    for (int i = 0; i < spans.size(); i++)
+    {
+      equal(spans.token(i), expected[i]);
+      equal(input.substring(spans.start(i), spans.end(i)), expected[i]);
+    }
+    ok(new PennWordTokenizer().tokenizeSpans("A b.", spans) == spans);
+    equal(spans.size(), 3);
+    equal(spans.token(2), ".");
+  }
+
+  // the regex-based tokenizer replaced by PennWordTokenizer's scanner
+  private static String[] tokenizeRegex(String words, boolean splitContractions)
+  {
+    words = words.replaceAll("``", "`` ");
+    words = words.replaceAll("''", "  ''");
+    words = words.replaceAll("([\\?!\"\\.,;:@#$%&])", " $1 ");
+    words = words.replaceAll("\\.\\.\\.", " ... ");
+    words = words.replaceAll("\\s+", " ");
+    words = words.replaceAll(",([^0-9])", " , $1");
+    words = words.replaceAll("([^.])([.])([\\])}>\"']*)\\s*$", "$1 $2$3 ");
+    words = words.replaceAll("([\\[\\](){}<>])", " $1 ");
+    words = words.replaceAll("--", " -- ");
+    words = words.replaceAll("$", " ");
+    words = words.replaceAll("^", " ");
+    words = words.replaceAll("([^'])' ", "$1 ' ");
+    words = words.replaceAll("'([SMD]) ", " '$1 ");
+
+    if (splitContractions)
+    {
+      words = words.replaceAll("'ll ", " 'll ");
+      words = words.replaceAll("'re ", " 're ");
+      words = words.replaceAll("'ve ", " 've ");
+      words = words.replaceAll("n't ", " n't ");
+      words = words.replaceAll("'LL ", " 'LL ");
+      words = words.replaceAll("'RE ", " 'RE ");
+      words = words.replaceAll("'VE ", " 'VE ");
+      words = words.replaceAll("N'T ", " N'T ");
+    }
+
+    words = words.replaceAll(" ([Cc])annot ", " $1an not ");
+    words = words.replaceAll(" ([Dd])'ye ", " $1' ye ");
+    words = words.replaceAll(" ([Gg])imme ", " $1im me ");
+    words = words.replaceAll(" ([Gg])onna ", " $1on na ");
+    words = words.replaceAll(" ([Gg])otta ", " $1ot ta ");
+    words = words.replaceAll(" ([Ll])emme ", " $1em me ");
+    words = words.replaceAll(" ([Mm])ore'n ", " $1ore 'n ");
+    words = words.replaceAll(" '([Tt])is ", " $1 is ");
+    words = words.replaceAll(" '([Tt])was ", " $1 was ");
+    words = words.replaceAll(" ([Ww])anna ", " $1an na ");
+    words = words.replaceAll(" ([A-Z]) \\.", " $1. ");
+    words = words.replaceAll("\\s+", " ");
+    words = words.replaceAll("^\\s+", "");
+
+    return words.split(" ");
+  }
+
   @Test
   public void testUntokenize()
   {
@@ -962,6 +1085,52 @@ public class RiTaTest
     deepEqual(RiTa.getPosTagsInline(txtArr), RiTa.getPosTagsInline(s));
   }
 
+  @Test
+  public void testGetPosTagsBulk() throws Exception
+  {
+    BrillPosTagger tagger = BrillPosTagger.getInstance();
+    String[] sents = RiTa.splitSentences(RiTa.loadString("kafka.txt"));
+    String[][] words = new String[sents.length + 2][];
+    for (int i = 0; i < sents.length; i++)
+      words[i] = RiTa.tokenize(sents[i]);
+    words[sents.length] = new String[] { "The", "3", "N", "x", "", "mammal", "Dogs", "would", "runs" };
+    words[sents.length + 1] = new String[0];
+
+    String[][] tags = tagger.tag(words);
+    for (int i = 0; i < words.length; i++)
+      deepEqual(tags[i], tagger.tag(words[i]));
+    deepEqual(tags[sents.length], new String[] { "dt", "cd", "nnp", "nn", "", "nn", "vbz", "md", "vbz" });
+    equal(tags[sents.length + 1].length, 0);
+
+    // each of the transformation rules
+    String[][] expected = {
+      { "The run was fast and the quickly walk ended .",
+        "dt nn vbd rb cc dt rb vb vbd ." },
+      { "I would dog the cats in the morning .",
+        "nnp md vb dt nns in dt nn ." },
+      { "The boy jumps and the dog dances while Dogs watched .",
+        "dt nn vbz cc dt nn vbz in nnps vbd ." },
+      { "The national animal is a mammal, not a Bus .",
+        "dt jj jj vbz dt nn , rb dt nnps ." },
+      { "She is running and he hopes the results are final .",
+        "prp vbz vbg cc prp vbz dt nns vbp jj ." },
+    };
+    for (int i = 0; i < expected.length; i++)
+      equal(RiTa.join(tagger.tag(RiTa.tokenize(expected[i][0]))), expected[i][1]);
+
+    ExecutorService pool = Executors.newFixedThreadPool(3);
+    try
+    {
+      String[][] parallel = tagger.tag(words, pool);
+      for (int i = 0; i < words.length; i++)
+        deepEqual(parallel[i], tags[i]);
+    }
+    finally
+    {
+      pool.shutdown();
+    }
+  }
+
   @Test
   public void testGetPosTagsStringBoolean()
   {
@@ -1530,6 +1699,71 @@ public class RiTaTest
     equal("corpora", RiTa.pluralize("corpus"));
   }
 
+  @Test
+  public void testCompiledMorphology() throws Exception
+  {
+    String[] words = new RiLexicon().words();
+    CompiledRules rules = new CompiledRules(Constants.PLURAL_RULES);
+    ok(rules.numRegexRules() == 0);
+
+    String[] extra = { "", " ", "OX", "Mouse", "under-feed", "ice cream", "a--b", "zz-Top", "apex", "cortex", "x1_" };
+    for (int i = 0; i < extra.length; i++)
+      equal(rules.match(extra[i]), rules.matchRegex(extra[i]));
+    for (int i = 0; i < words.length; i++)
+    {
+      equal(rules.match(words[i]), rules.matchRegex(words[i]));
+      equal(rules.match(words[i].toUpperCase()), rules.matchRegex(words[i].toUpperCase()));
+    }
+
+    // shared rules and conjugators give the same results when used concurrently
+    final String[] verbs = new String[2000];
+    System.arraycopy(words, 0, verbs, 0, verbs.length);
+    final Map args = new HashMap();
+    args.put("tense", RiTa.PAST_TENSE);
+    args.put("person", RiTa.THIRD_PERSON);
+    args.put("perfect", true);
+
+    final String[] expected = new String[verbs.length * 3];
+    for (int i = 0; i < verbs.length; i++)
+    {
+      expected[i * 3] = RiTa.pluralize(verbs[i]);
+      expected[i * 3 + 1] = RiTa.getPresentParticiple(verbs[i]);
+      expected[i * 3 + 2] = RiTa.conjugate(verbs[i], args);
+    }
+
+    final int[] failures = new int[1];
+    Thread[] threads = new Thread[4];
+    for (int t = 0; t < threads.length; t++)
+    {
+      final Map targs = new HashMap();
+      targs.put("tense", t % 2 == 0 ? RiTa.PAST_TENSE : RiTa.FUTURE_TENSE);
+      threads[t] = new Thread()
+      {
+        public void run()
+        {
+          for (int i = 0; i < verbs.length; i++)
+          {
+            RiTa.conjugate(verbs[i], targs);
+            if (!RiTa.pluralize(verbs[i]).equals(expected[i * 3])
+                || !RiTa.getPresentParticiple(verbs[i]).equals(expected[i * 3 + 1])
+                || !RiTa.conjugate(verbs[i], args).equals(expected[i * 3 + 2]))
+            {
+              synchronized (failures)
+              {
+                failures[0]++;
+              }
+            }
+          }
+        }
+      };
+      threads[t].start();
+    }
+    for (int t = 0; t < threads.length; t++)
+      threads[t].join();
+
+    equal(failures[0], 0);
+  }
+
   @Test
   public void testSingularize()
   {
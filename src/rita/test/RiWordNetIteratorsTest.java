@@ -10,6 +10,8 @@ import org.junit.Test;
 
 import rita.RiTa;
 import rita.RiWordNet;
+import rita.wordnet.LemmaIndex;
+import rita.wordnet.RiFilter;
 import rita.wordnet.WordnetUtil;
 
 /*
@@ -1763,6 +1765,49 @@ public class RiWordNetIteratorsTest
 
   // ////////////////////////////// Helpers ///////////////////////////////////
 
+  @Test
+  public void testLemmaIndex()
+  {
+    String[] lemmas = { "table", "bleat", "stable", "tablet", "tale", "timetable", "able",
+        "vegetable", "round table", "Table Mountain", "ablate", "tab" };
+    LemmaIndex index = new LemmaIndex(Arrays.asList(lemmas));
+    equal(index.size(), lemmas.length);
+
+    deepEqual(index.startsWith("tab"), new int[] { 0, 3, 11 });
+    deepEqual(index.endsWith("able"), new int[] { 0, 2, 5, 6, 7, 8 });
+    deepEqual(index.startsWith("zz"), new int[0]);
+    deepEqual(index.anagramsOf("table"), new int[] { 0, 1 });
+    deepEqual(LemmaIndex.union(new int[] { 1, 4 }, new int[] { 0, 4, 9 }), new int[] { 0, 1, 4, 9 });
+    equal(LemmaIndex.union(new int[] { 1 }, null), null);
+
+    // candidates + filter must give the same lemmas, in order, as a scan
+    int[] flags = { RiWordNet.STARTS_WITH, RiWordNet.ENDS_WITH, RiWordNet.CONTAINS,
+        RiWordNet.ANAGRAMS, RiWordNet.WILDCARD_MATCH, RiWordNet.SOUNDS_LIKE };
+    String[] terms = { "table", "tab", "able", "ab", "t?b*", "*ble", "*a?l*", "ta*e", "a", "" };
+    for (int i = 0; i < flags.length; i++)
+    {
+      for (int j = 0; j < terms.length; j++)
+      {
+        RiFilter filter = RiFilter.create(flags[i], terms[j]);
+        List expected = new ArrayList(), result = new ArrayList();
+        for (int k = 0; k < lemmas.length; k++)
+        {
+          if (filter.accept(lemmas[k]))
+            expected.add(lemmas[k]);
+        }
+        int[] ids = index.candidates(filter);
+        int num = ids == null ? index.size() : ids.length;
+        for (int k = 0; k < num; k++)
+        {
+          String lemma = index.lemma(ids == null ? k : ids[k]);
+          if (filter.accept(lemma))
+            result.add(lemma);
+        }
+        deepEqual(result, expected);
+      }
+    }
+  }
+
   private static String[] removeUpperCaseWords(String[] s)
   {
     ArrayList<String> al = new ArrayList<String>();
@@ -4,13 +4,36 @@ import static org.junit.Assert.assertEquals;
 import static rita.support.QUnitStubs.*;
 
 import java.lang.reflect.Method;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 import org.junit.Test;
 
 import rita.RiTa;
 import rita.RiWordNet;
+import rita.wordnet.HypernymIndex;
+import rita.wordnet.RandomAccessByteArray;
+import rita.wordnet.RiZipReader;
+import rita.wordnet.SynsetClosure;
 import rita.wordnet.WordnetUtil;
+import rita.wordnet.jwnl.dictionary.CompactDictionary;
+import rita.wordnet.jwnl.dictionary.Dictionary;
+import rita.wordnet.jwnl.princeton.wndata.PrincetonWN17FileDictionaryElementFactory;
+import rita.wordnet.jwnl.util.cache.ConcurrentCache;
+import rita.wordnet.jwnl.wndata.Exc;
+import rita.wordnet.jwnl.wndata.FileDictionaryElementFactory;
+import rita.wordnet.jwnl.wndata.IndexWord;
+import rita.wordnet.jwnl.wndata.POS;
+import rita.wordnet.jwnl.wndata.PointerType;
+import rita.wordnet.jwnl.wndata.Synset;
 
 /*
  * Compare results to: http://wordnetweb.princeton.edu/perl/webwn
@@ -3283,6 +3306,327 @@ public class RiWordNetTest
 		}
 	}
 
+	@Test
+	public void testRandomAccessByteArray() throws Exception
+	{
+		String data = "  1 license\napple n 1\r\nbanana n 2\n\ncherry n 3";
+		final RandomAccessByteArray rab = new RandomAccessByteArray("test", data.getBytes("ISO-8859-1"));
+		equal(rab.length(), (long) data.length());
+
+		// position-independent reads agree with seek/readLine
+		for (int i = 0; i <= data.length(); i++) {
+			rab.seek(i);
+			String line = rab.readLine();
+			equal(rab.readLineAt(i), line);
+			equal(rab.lineEnd(i), rab.getFilePointer());
+		}
+		equal(rab.readLineAt(data.length()), null);
+
+		long apple = rab.lineEnd(0), banana = rab.lineEnd(apple);
+		equal(rab.readWordAt(apple), "apple");
+		equal(rab.readWordAt(banana), "banana");
+		equal(rab.wordEnd(apple), apple + 6);
+
+		String[] targets = { "apple", "appl", "apples", "banana", "b", "", "zebra", "applf" };
+		for (int i = 0; i < targets.length; i++) {
+			equal(rab.compareWordAt(apple, targets[i]), "apple".compareTo(targets[i]));
+			equal(rab.compareWordAt(data.indexOf("cherry"), targets[i]), "cherry".compareTo(targets[i]));
+		}
+
+		// and may be shared between threads
+		final String expected = rab.readLineAt(banana);
+		final long offset = banana;
+		ExecutorService pool = Executors.newFixedThreadPool(4);
+		List<Callable<Boolean>> tasks = new ArrayList<Callable<Boolean>>();
+		for (int i = 0; i < 8; i++) {
+			tasks.add(new Callable<Boolean>() {
+				public Boolean call() {
+					for (int j = 0; j < 10000; j++) {
+						if (!expected.equals(rab.readLineAt(offset)))
+							return false;
+					}
+					return true;
+				}
+			});
+		}
+		for (Future<Boolean> f : pool.invokeAll(tasks))
+			ok(f.get());
+		pool.shutdown();
+	}
+
+	@Test
+	public void testExtractArchive() throws Exception
+	{
+		File root = new File(System.getProperty("java.io.tmpdir"), "rita-test-" + System.nanoTime());
+		File zip = new File(root, "test.zip");
+		root.mkdirs();
+
+		String[] names = { "index.noun", "data.noun" };
+		String[] contents = { "  1 license\napple n 1\n", "00001 apple|a fruit\n" };
+		ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(zip));
+		for (int i = 0; i < names.length; i++) {
+			zos.putNextEntry(new ZipEntry(names[i]));
+			zos.write(contents[i].getBytes("UTF-8"));
+			zos.closeEntry();
+		}
+		zos.close();
+
+		File cache = new File(root, "cache");
+		File dir = RiZipReader.extractTo(cache, "test.zip", zip.toURI().toURL());
+		ok(dir.isDirectory());
+		ok(new File(dir, "MANIFEST").isFile());
+		for (int i = 0; i < names.length; i++) {
+			RandomAccessByteArray rab = RandomAccessByteArray.map(new File(dir, names[i]));
+			equal(rab.readLineAt(0), contents[i].substring(0, contents[i].indexOf('\n')));
+		}
+
+		// re-used, not re-extracted
+		long modified = new File(dir, names[0]).lastModified();
+		equal(RiZipReader.extractTo(cache, "test.zip", zip.toURI().toURL()), dir);
+		equal(new File(dir, names[0]).lastModified(), modified);
+		equal(cache.list().length, 1);
+
+		// a damaged cache is extracted again
+		new FileOutputStream(new File(dir, names[1])).close();
+		File dir2 = RiZipReader.extractTo(cache, "test.zip", zip.toURI().toURL());
+		equal(new File(dir2, names[1]).length(), (long) contents[1].length());
+
+		// a failed extraction leaves nothing behind
+		Random rand = new Random(42);
+		StringBuilder big = new StringBuilder();
+		for (int i = 0; i < 20000; i++)
+			big.append((char) ('a' + rand.nextInt(26)));
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		zos = new ZipOutputStream(bos);
+		zos.putNextEntry(new ZipEntry(names[0]));
+		zos.write(contents[0].getBytes("UTF-8"));
+		zos.closeEntry();
+		zos.putNextEntry(new ZipEntry(names[1]));
+		zos.write(big.toString().getBytes("UTF-8"));
+		zos.closeEntry();
+		zos.close();
+		File bad = new File(root, "bad.zip");
+		FileOutputStream fos = new FileOutputStream(bad);
+		fos.write(bos.toByteArray(), 0, bos.size() / 2); // truncated in the 2nd entry
+		fos.close();
+
+		File badCache = new File(root, "bad-cache");
+		for (int k = 0; k < 2; k++) {
+			try {
+				RiZipReader.extractTo(badCache, "bad.zip", bad.toURI().toURL());
+				ok(false);
+			}
+			catch (IOException e) {
+				ok(e);
+			}
+			equal(badCache.list().length, 0);
+		}
+
+		deleteAll(root);
+	}
+
+	@Test
+	public void testConcurrentCache() throws Exception
+	{
+		final List removed = Collections.synchronizedList(new ArrayList());
+		ConcurrentCache cache = new ConcurrentCache(8, 2) {
+			protected void onRemove(Object key, Object value) {
+				removed.add(key);
+			}
+		};
+		equal(cache.getCapacity(), 8);
+
+		for (int i = 0; i < 100; i++)
+			cache.put(i, "v" + i);
+		ok(cache.getSize() <= 8);
+		equal(cache.getEvictionCount(), (long) (100 - cache.getSize()));
+		equal(removed.size(), 100 - cache.getSize());
+
+		equal(cache.get(99), "v99");
+		equal(cache.get(0), null);
+		equal(cache.getHitCount(), 1L);
+		equal(cache.getMissCount(), 1L);
+
+		equal(cache.remove(99), "v99");
+		equal(cache.get(99), null);
+
+		cache.setCapacity(2);
+		ok(cache.getSize() <= 2);
+		cache.clear();
+		equal(cache.getSize(), 0);
+
+		// more segments than elements
+		ConcurrentCache small = new ConcurrentCache(3, 16);
+		for (int i = 0; i < 100; i++)
+			small.put(i, "v" + i);
+		equal(small.getSize(), 3);
+		equal(small.get(99), "v99");
+
+		// shared between threads
+		final ConcurrentCache shared = new ConcurrentCache(500);
+		ExecutorService pool = Executors.newFixedThreadPool(4);
+		List<Callable<Boolean>> tasks = new ArrayList<Callable<Boolean>>();
+		for (int t = 0; t < 8; t++) {
+			final int seed = t;
+			tasks.add(new Callable<Boolean>() {
+				public Boolean call() {
+					Random r = new Random(seed);
+					for (int j = 0; j < 20000; j++) {
+						Integer key = r.nextInt(1000);
+						Object value = shared.get(key);
+						if (value == null)
+							shared.put(key, "v" + key);
+						else if (!value.equals("v" + key))
+							return false;
+					}
+					return true;
+				}
+			});
+		}
+		for (Future<Boolean> f : pool.invokeAll(tasks))
+			ok(f.get());
+		pool.shutdown();
+		ok(shared.getSize() <= shared.getCapacity());
+		equal(shared.getHitCount() + shared.getMissCount(), 8 * 20000L);
+	}
+
+	@Test
+	public void testHypernymIndex() throws Exception
+	{
+		// 1 <- 2 <- 3, 2 <- 4, 1 <- 5, and 6 under both 3 and 5
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		DataOutputStream dos = new DataOutputStream(bos);
+		int[][] graph = { { 1 }, { 2, 1 }, { 3, 2 }, { 4, 2 }, { 5, 1 }, { 6, 3, 5 } };
+		dos.writeInt(0x48594e31);
+		dos.writeInt(graph.length);
+		for (int i = 0; i < graph.length; i++) {
+			dos.writeInt(graph[i][0]);
+			dos.writeInt(graph[i].length - 1);
+			for (int j = 1; j < graph[i].length; j++)
+				dos.writeInt(graph[i][j]);
+		}
+
+		HypernymIndex index = new HypernymIndex(null, POS.NOUN);
+		index.read(new ByteArrayInputStream(bos.toByteArray()));
+
+		deepEqual(index.paths(6)[0], new int[] { 1, 2, 3, 6 });
+		deepEqual(index.paths(6)[1], new int[] { 1, 5, 6 });
+		equal(index.depth(6), 3);
+
+		equal(index.commonParent(3, 4), 2);
+		equal(index.commonParent(6, 4), 2);
+		equal(index.commonParent(6, 5), 1); // from the first relationship
+		equal(index.commonParent(1, 3), -1); // a lone root, as in RelationshipFinder
+
+		equal(index.distance(3, 4), 1 / 3f);
+		equal(index.distance(2, 3), 1 / 3f);
+		equal(index.distance(6, 4), 0.5f);
+		equal(index.distance(6, 5), 1 / 3f);
+		equal(index.distance(6, 6), 0f);
+		equal(index.distance(1, 3), 1f);
+
+		bos.reset();
+		index.write(bos);
+		HypernymIndex copy = new HypernymIndex(null, POS.NOUN);
+		copy.read(new ByteArrayInputStream(bos.toByteArray()));
+		deepEqual(copy.hypernyms(6), new int[] { 3, 5 });
+		equal(copy.distance(6, 4), 0.5f);
+	}
+
+	@Test
+	public void testSynsetClosure() throws Exception
+	{
+		// 1 -> 2 -> 3, 2 -> 4, 1 -> 5, and 6 under both 3 and 5
+		final int[][] graph = { {}, { 2, 5 }, { 3, 4 }, { 6 }, {}, { 6 }, {} };
+		SynsetClosure closure = new SynsetClosure(null, POS.NOUN, PointerType.HYPONYM, 2) {
+			public int[] targets(int offset) {
+				return graph[offset];
+			}
+		};
+
+		deepEqual(closure.closure(1), new int[] { 1, 2, 3, 6, 4, 5 });
+		deepEqual(closure.closure(5), new int[] { 5, 6 });
+		deepEqual(closure.closure(4), new int[] { 4 });
+		ok(closure.closure(1) == closure.closure(1)); // cached
+		ok(closure.getCacheSize() <= 2);
+
+		closure.clearCache();
+		equal(closure.getCacheSize(), 0);
+		deepEqual(closure.closure(2), new int[] { 2, 3, 6, 4 });
+	}
+
+	@Test
+	public void testCompactDictionary() throws Exception
+	{
+		final FileDictionaryElementFactory factory = new PrincetonWN17FileDictionaryElementFactory();
+		final String[] data = {
+			"00001740 03 n 01 entity 0 001 ~ 00002137 n 0000 | that which exists",
+			"00002137 03 n 02 abstraction 0 abstract_entity 0 001 @ 00001740 n 0000 | a general concept",
+		};
+		Dictionary source = new Dictionary() {
+			public Iterator getSynsetIterator(POS pos) {
+				List l = new ArrayList();
+				for (int i = 0; pos == POS.NOUN && i < data.length; i++)
+					l.add(factory.createSynset(pos, data[i]));
+				return l.iterator();
+			}
+			public Iterator getIndexWordIterator(POS pos) {
+				List l = new ArrayList();
+				if (pos == POS.NOUN) {
+					l.add(factory.createIndexWord(pos, "abstract_entity n 1 1 @ 1 0 00002137"));
+					l.add(factory.createIndexWord(pos, "entity n 1 1 ~ 1 0 00001740"));
+				}
+				return l.iterator();
+			}
+			public Iterator getExceptionIterator(POS pos) {
+				List l = new ArrayList();
+				if (pos == POS.NOUN) l.add(factory.createExc(pos, "entities entity"));
+				return l.iterator();
+			}
+			public Iterator getIndexWordIterator(POS pos, String substring) { return null; }
+			public IndexWord getIndexWord(POS pos, String lemma) { return null; }
+			public IndexWord getRandomIndexWord(POS pos) { return null; }
+			public Synset getSynsetAt(POS pos, long offset) { return null; }
+			public Exc getException(POS pos, String derivation) { return null; }
+			public void close() {}
+			public void install(Map params) {}
+		};
+
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		CompactDictionary.build(source, null).write(bos);
+		CompactDictionary dict = CompactDictionary.load(new ByteArrayInputStream(bos.toByteArray()), null);
+
+		Synset syn = dict.getSynsetAt(POS.NOUN, 2137);
+		equal(syn.getGloss(), "a general concept");
+		equal(syn.getWords().length, 2);
+		equal(syn.getWord(1).getLemma(), "abstract_entity");
+		equal(syn.getPointers().length, 1);
+		ok(syn.getPointers()[0].getType() == PointerType.HYPERNYM);
+		equal(syn.getPointers()[0].getTargetOffset(), 1740L);
+		ok(dict.getSynsetAt(POS.NOUN, 2138) == null);
+		ok(dict.getSynsetAt(POS.VERB, 2137) == null);
+
+		IndexWord word = dict.getIndexWord(POS.NOUN, "abstract entity");
+		equal(word.getLemma(), "abstract_entity");
+		equal(word.getSynsetOffsets().length, 1);
+		equal(word.getSynsetOffsets()[0], 2137L);
+		ok(dict.getIndexWord(POS.NOUN, "entities") == null);
+		equal(dict.getException(POS.NOUN, "Entities").getException(0), "entity");
+
+		int count = 0;
+		for (Iterator it = dict.getSynsetIterator(POS.NOUN); it.hasNext(); it.next())
+			count++;
+		equal(count, 2);
+	}
+
+	private static void deleteAll(File f)
+	{
+		File[] files = f.listFiles();
+		for (int i = 0; files != null && i < files.length; i++)
+			deleteAll(files[i]);
+		f.delete();
+	}
+
 	/////////////////////////////  Dynamics ///////////////////////////////
 
 	void setContainsMulti(String[] expected, String methodNm, int id, int count) {
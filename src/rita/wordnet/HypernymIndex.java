@@ -0,0 +1,323 @@
+package rita.wordnet;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+import rita.wordnet.jwnl.JWNLException;
+import rita.wordnet.jwnl.dictionary.Dictionary;
+import rita.wordnet.jwnl.wndata.*;
+
+/**
+ * An index over the hypernym graph of one part-of-speech, with which the
+ * distance and common parent of two synsets are found from int arrays rather
+ * than by building (and reversing) a PointerTargetTree for each synset on each
+ * query, as RelationshipFinder does.
+ * <p>
+ * Synsets are identified by their offsets. For each, the index holds the
+ * offsets of its hypernyms (read from the dictionary on first use, or all at
+ * once by build() or read()), and, once computed, its paths to the root(s) of
+ * the hierarchy, each ordered from the root down to the synset itself, in the
+ * order of RelationshipFinder's reversed trees, so that results (including
+ * which common parent is returned first) are the same.
+ * <p>
+ * The hypernyms and paths are memoized in concurrent maps, so the query
+ * methods may be called from several threads at once, provided the dictionary
+ * may be too (e.g., when its caches are ConcurrentCaches, or after build()).
+ *
+ * @invisible
+ * @author dhowe
+ */
+public class HypernymIndex
+{
+  private static final int MAGIC = 0x48594e31; // "HYN1"
+  private static final int[] NONE = new int[0];
+
+  protected final Dictionary dict;
+  protected final POS pos;
+  protected final Map parents = new ConcurrentHashMap(); // Integer -> int[]
+  protected final Map paths = new ConcurrentHashMap(); // Integer -> int[][]
+  protected volatile boolean complete; // all hypernyms loaded
+
+  /**
+   * Creates an (empty) index over the dictionary's synsets for the pos
+   */
+  public HypernymIndex(Dictionary dict, POS pos)
+  {
+    this.dict = dict;
+    this.pos = pos;
+  }
+
+  /**
+   * Returns an index for the pos, read from the file if it exists, or else
+   * built from the dictionary and written to the file (if non-null) for the
+   * next time
+   */
+  public static HypernymIndex open(Dictionary dict, POS pos, File file)
+  {
+    HypernymIndex index = new HypernymIndex(dict, pos);
+    if (file == null)
+      return index;
+
+    try
+    {
+      if (file.exists())
+      {
+        InputStream is = new BufferedInputStream(new FileInputStream(file));
+        try
+        {
+          index.read(is);
+        }
+        finally
+        {
+          is.close();
+        }
+      }
+      else
+      {
+        index.build();
+        File tmp = new File(file.getPath() + ".tmp");
+        OutputStream os = new BufferedOutputStream(new FileOutputStream(tmp));
+        try
+        {
+          index.write(os);
+        }
+        finally
+        {
+          os.close();
+        }
+        if (!tmp.renameTo(file))
+          tmp.delete();
+      }
+    }
+    catch (Exception e)
+    {
+      System.err.println("[WARN] Unable to use hypernym index at " + file + ": " + e);
+      index = new HypernymIndex(dict, pos);
+    }
+    return index;
+  }
+
+  /**
+   * Loads the hypernyms of every synset for the pos
+   */
+  public void build() throws JWNLException
+  {
+    for (Iterator it = dict.getSynsetIterator(pos); it.hasNext();)
+    {
+      Synset syn = (Synset) it.next();
+      parents.put(new Integer((int) syn.getOffset()), hypernymsOf(syn));
+    }
+    complete = true;
+  }
+
+  /**
+   * Writes the hypernyms of each synset loaded so far, in the form read by
+   * read()
+   */
+  public void write(OutputStream os) throws IOException
+  {
+    DataOutputStream dos = new DataOutputStream(os);
+    Map snapshot = new HashMap(parents);
+    dos.writeInt(MAGIC);
+    dos.writeInt(snapshot.size());
+    for (Iterator it = snapshot.entrySet().iterator(); it.hasNext();)
+    {
+      Map.Entry entry = (Map.Entry) it.next();
+      int[] hypernyms = (int[]) entry.getValue();
+      dos.writeInt(((Integer) entry.getKey()).intValue());
+      dos.writeInt(hypernyms.length);
+      for (int i = 0; i < hypernyms.length; i++)
+        dos.writeInt(hypernyms[i]);
+    }
+    dos.flush();
+  }
+
+  /**
+   * Reads the hypernyms of each synset, as written by write(), after which
+   * the dictionary is no longer consulted
+   */
+  public void read(InputStream is) throws IOException
+  {
+    DataInputStream dis = new DataInputStream(is);
+    if (dis.readInt() != MAGIC)
+      throw new IOException("Not a hypernym index");
+    int n = dis.readInt();
+    for (int i = 0; i < n; i++)
+    {
+      Integer offset = new Integer(dis.readInt());
+      int[] hypernyms = new int[dis.readInt()];
+      for (int j = 0; j < hypernyms.length; j++)
+        hypernyms[j] = dis.readInt();
+      parents.put(offset, hypernyms);
+    }
+    complete = true;
+  }
+
+  /**
+   * Returns the offsets of the direct hypernyms of the synset (in pointer
+   * order), or an empty array if it has none or is not found
+   */
+  public int[] hypernyms(int offset) throws JWNLException
+  {
+    Integer key = new Integer(offset);
+    int[] result = (int[]) parents.get(key);
+    if (result == null)
+    {
+      if (complete) return NONE;
+      Synset syn = dict.getSynsetAt(pos, offset);
+      result = syn == null ? NONE : hypernymsOf(syn);
+      parents.put(key, result);
+    }
+    return result;
+  }
+
+  private int[] hypernymsOf(Synset syn)
+  {
+    Pointer[] ptrs = syn.getPointers(PointerType.HYPERNYM);
+    int[] result = new int[ptrs.length];
+    int n = 0;
+    for (int i = 0; i < ptrs.length; i++)
+    {
+      if (pos.equals(ptrs[i].getTargetPOS())) // always, in WordNet
+        result[n++] = (int) ptrs[i].getTargetOffset();
+    }
+    return n == result.length ? result : Arrays.copyOf(result, n);
+  }
+
+  /**
+   * Returns each path from a root of the hierarchy to the synset (inclusive)
+   * as an array of offsets; the returned arrays should not be modified
+   */
+  public int[][] paths(int offset) throws JWNLException
+  {
+    return paths(offset, new HashSet());
+  }
+
+  private int[][] paths(int offset, Set visiting) throws JWNLException
+  {
+    Integer key = new Integer(offset);
+    int[][] result = (int[][]) paths.get(key);
+    if (result != null)
+      return result;
+
+    int[] hypernyms = hypernyms(offset);
+    if (hypernyms.length < 1)
+    {
+      result = new int[][] { { offset } };
+    }
+    else
+    {
+      visiting.add(key);
+      List list = new ArrayList();
+      for (int i = 0; i < hypernyms.length; i++)
+      {
+        if (visiting.contains(new Integer(hypernyms[i])))
+          continue; // a cycle, in a damaged database
+        int[][] above = paths(hypernyms[i], visiting);
+        for (int j = 0; j < above.length; j++)
+        {
+          int[] path = Arrays.copyOf(above[j], above[j].length + 1);
+          path[above[j].length] = offset;
+          list.add(path);
+        }
+      }
+      visiting.remove(key);
+      result = list.isEmpty() ? new int[][] { { offset } }
+          : (int[][]) list.toArray(new int[list.size()][]);
+    }
+    paths.put(key, result);
+    return result;
+  }
+
+  /**
+   * Returns the number of synsets on the shortest path from a root of the
+   * hierarchy to the synset, inclusive
+   */
+  public int depth(int offset) throws JWNLException
+  {
+    int[][] p = paths(offset);
+    int depth = Integer.MAX_VALUE;
+    for (int i = 0; i < p.length; i++)
+      depth = Math.min(depth, p[i].length);
+    return depth;
+  }
+
+  /**
+   * Returns the offset of the common parent of the two synsets in the first
+   * relationship found between them, or -1 if they have none
+   */
+  public int commonParent(int source, int target) throws JWNLException
+  {
+    int[][] sources = paths(source), targets = paths(target);
+    for (int i = 0; i < sources.length; i++)
+    {
+      for (int j = 0; j < targets.length; j++)
+      {
+        int k = commonIndex(sources[i], targets[j]);
+        if (k > -1)
+          return sources[i][k];
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Returns the smallest normalized distance (see RiWordNet.getDistance()) over
+   * the relationships between the two synsets, or 1 if they have none
+   */
+  public float distance(int source, int target) throws JWNLException
+  {
+    float distance = 1.0f;
+    int[][] sources = paths(source), targets = paths(target);
+    for (int i = 0; i < sources.length; i++)
+    {
+      int[] s = sources[i];
+      for (int j = 0; j < targets.length; j++)
+      {
+        int[] t = targets[j];
+        int k = commonIndex(s, t);
+        if (k < 0) continue;
+
+        int toSource = s.length - 1 - k; // RelationshipFinder's commonParentIndex
+        int toTarget = t.length - 1 - indexOf(t, s[k]);
+        int depthCpLeaf = Math.max(toTarget, toSource);
+        int depthRootCp = depth(s[k]);
+
+        float d = (float) depthCpLeaf / (depthRootCp + depthCpLeaf);
+        if (d < distance)
+          distance = d;
+      }
+    }
+    return distance;
+  }
+
+  /*
+   * Returns the index in the source path of the common parent (the synset
+   * nearest the source that is also on the target path), or -1 if the paths
+   * are unrelated, i.e., have different roots (where, as in RelationshipFinder,
+   * a lone root never matches the root of a longer path)
+   */
+  private static int commonIndex(int[] source, int[] target)
+  {
+    if (source[0] != target[0] || (source.length == 1) != (target.length == 1))
+      return -1;
+
+    for (int k = source.length - 1; k > 0; k--)
+    {
+      if (indexOf(target, source[k]) > -1)
+        return k;
+    }
+    return 0;
+  }
+
+  private static int indexOf(int[] path, int offset)
+  {
+    for (int i = 0; i < path.length; i++)
+    {
+      if (path[i] == offset)
+        return i;
+    }
+    return -1;
+  }
+}
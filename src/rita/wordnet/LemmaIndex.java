@@ -0,0 +1,320 @@
+package rita.wordnet;
+
+import java.util.*;
+
+import rita.wordnet.jawbone.*;
+
+/**
+ * An index over the lemmas of one part-of-speech, kept in dictionary (index
+ * file) order, with which a filter can be run over only those lemmas that
+ * could match, rather than over all of them: the ids of the lemmas are sorted
+ * both by lemma and by reversed lemma, so that those with a given prefix or
+ * suffix form a contiguous range (found by binary search, acting as prefix
+ * and suffix tries), and lemmas are indexed by their anagram signature and
+ * (lazily, on first use) by the character pairs they contain.
+ * <p>
+ * Candidates are always returned in dictionary order, so filters return the
+ * same results, in the same order, as a full scan. The lazy indexes are built
+ * in full before being published through volatile fields (two threads racing
+ * may each build an equal one), so lookups may be made from several threads
+ * at once.
+ *
+ * @invisible
+ * @author dhowe
+ */
+public class LemmaIndex
+{
+  protected final String[] lemmas;
+  protected final int[] byLemma, byReversed;
+  protected volatile Map anagrams, pairs; // String|Integer -> int[]
+
+  /**
+   * Builds the index over the lemmas, given in dictionary order
+   */
+  public LemmaIndex(List lemmaList)
+  {
+    this.lemmas = (String[]) lemmaList.toArray(new String[lemmaList.size()]);
+    this.byLemma = sortedIds(lemmas);
+
+    String[] reversed = new String[lemmas.length];
+    for (int i = 0; i < reversed.length; i++)
+      reversed[i] = new StringBuilder(lemmas[i]).reverse().toString();
+    this.byReversed = sortedIds(reversed);
+  }
+
+  private static int[] sortedIds(final String[] keys)
+  {
+    Integer[] ids = new Integer[keys.length];
+    for (int i = 0; i < ids.length; i++)
+      ids[i] = i;
+    Arrays.sort(ids, new Comparator<Integer>()
+    {
+      public int compare(Integer a, Integer b)
+      {
+        return keys[a].compareTo(keys[b]);
+      }
+    });
+    int[] result = new int[ids.length];
+    for (int i = 0; i < ids.length; i++)
+      result[i] = ids[i];
+    return result;
+  }
+
+  /**
+   * Returns the number of lemmas in the index
+   */
+  public int size()
+  {
+    return lemmas.length;
+  }
+
+  /**
+   * Returns the lemma with the id (its position in dictionary order)
+   */
+  public String lemma(int id)
+  {
+    return lemmas[id];
+  }
+
+  /**
+   * Returns a read-only list of all the lemmas, in dictionary order
+   */
+  public List lemmas()
+  {
+    return Collections.unmodifiableList(Arrays.asList(lemmas));
+  }
+
+  /**
+   * Returns the ids of the lemmas starting with the prefix
+   */
+  public int[] startsWith(String prefix)
+  {
+    return range(byLemma, prefix, false);
+  }
+
+  /**
+   * Returns the ids of the lemmas ending with the suffix
+   */
+  public int[] endsWith(String suffix)
+  {
+    return range(byReversed, suffix, true);
+  }
+
+  /**
+   * Returns the ids of the lemmas with the same (case-sensitive) anagram
+   * signature as the word, including the word itself
+   */
+  public int[] anagramsOf(String word)
+  {
+    Map m = anagrams;
+    if (m == null)
+    {
+      m = new HashMap(lemmas.length * 2);
+      Map lists = new HashMap(lemmas.length * 2);
+      for (int i = 0; i < lemmas.length; i++)
+        addTo(lists, AnagramFilter.buildData(lemmas[i], false), i);
+      toArrays(lists, m);
+      anagrams = m;
+    }
+    int[] ids = (int[]) m.get(AnagramFilter.buildData(word, false));
+    return ids == null ? new int[0] : ids;
+  }
+
+  /**
+   * Returns the ids of the lemmas that contain the first two chars of the
+   * text (which must have at least two), a superset of those containing the
+   * text; the rarest pair in the text should be passed for the fewest
+   * candidates
+   */
+  public int[] containsPair(String text)
+  {
+    Map m = pairs;
+    if (m == null)
+    {
+      m = new HashMap();
+      Map lists = new HashMap();
+      Set seen = new HashSet();
+      for (int i = 0; i < lemmas.length; i++)
+      {
+        seen.clear();
+        for (int j = 0; j < lemmas[i].length() - 1; j++)
+        {
+          Integer key = pairKey(lemmas[i], j);
+          if (seen.add(key))
+            addTo(lists, key, i);
+        }
+      }
+      toArrays(lists, m);
+      pairs = m;
+    }
+    int[] ids = (int[]) m.get(pairKey(text, 0));
+    return ids == null ? new int[0] : ids;
+  }
+
+  /**
+   * Returns the ids, in dictionary order, of the lemmas that might be accepted
+   * by the filter (a superset of those that will be), or null if the filter
+   * must be run over all lemmas
+   */
+  public int[] candidates(RiFilter filter)
+  {
+    String term = filter.term;
+    if (RiFilter.ignoreCase || term == null)
+      return null;
+
+    if (filter instanceof StartsWithFilter)
+      return startsWith(term);
+
+    if (filter instanceof EndsWithFilter)
+      return endsWith(term);
+
+    if (filter instanceof AnagramFilter)
+      return anagramsOf(term);
+
+    if (filter instanceof ContainsFilter)
+      return term.length() < 2 ? null : rarestPair(new String[] { term });
+
+    if (filter instanceof WildcardFilter)
+      return wildcardCandidates(((WildcardFilter) filter).getPattern());
+
+    return null;
+  }
+
+  /*
+   * Any match of a wildcard pattern starts with the literal chars before its
+   * first wildcard, ends with those after its last, and contains each of the
+   * literal runs in between
+   */
+  private int[] wildcardCandidates(String pattern)
+  {
+    if (pattern == null) return null;
+
+    String[] literals = pattern.split("[*?]", -1);
+    int[] best = null;
+    if (literals.length == 1) // no wildcards
+      return startsWith(pattern);
+
+    if (literals[0].length() > 0)
+      best = startsWith(literals[0]);
+
+    String last = literals[literals.length - 1];
+    if (last.length() > 0)
+      best = smaller(best, endsWith(last));
+
+    if (best == null || best.length > 0)
+      best = smaller(best, rarestPair(literals));
+
+    return best;
+  }
+
+  private int[] rarestPair(String[] texts)
+  {
+    int[] best = null;
+    for (int i = 0; i < texts.length; i++)
+    {
+      for (int j = 0; j < texts[i].length() - 1; j++)
+        best = smaller(best, containsPair(texts[i].substring(j)));
+    }
+    return best;
+  }
+
+  private static int[] smaller(int[] a, int[] b)
+  {
+    if (a == null) return b;
+    if (b == null) return a;
+    return b.length < a.length ? b : a;
+  }
+
+  /**
+   * Returns the ids, in dictionary order, in either array, or null if either
+   * is null (i.e., all lemmas)
+   */
+  public static int[] union(int[] a, int[] b)
+  {
+    if (a == null || b == null) return null;
+
+    int[] result = new int[a.length + b.length];
+    int i = 0, j = 0, k = 0;
+    while (i < a.length || j < b.length)
+    {
+      int next;
+      if (j == b.length || (i < a.length && a[i] < b[j]))
+        next = a[i++];
+      else if (i == a.length || b[j] < a[i])
+        next = b[j++];
+      else
+      {
+        next = a[i++];
+        j++;
+      }
+      result[k++] = next;
+    }
+    return Arrays.copyOf(result, k);
+  }
+
+  // privates ==============================================
+
+  private int[] range(int[] sorted, String affix, boolean fromEnd)
+  {
+    int lo = bound(sorted, affix, fromEnd, false);
+    int hi = bound(sorted, affix, fromEnd, true);
+    int[] ids = Arrays.copyOfRange(sorted, lo, hi);
+    Arrays.sort(ids); // to dictionary order
+    return ids;
+  }
+
+  // first index whose lemma is >= the affix (or > it, if 'after'),
+  // where lemmas with the affix compare as equal
+  private int bound(int[] sorted, String affix, boolean fromEnd, boolean after)
+  {
+    int lo = 0, hi = sorted.length;
+    while (lo < hi)
+    {
+      int mid = (lo + hi) >>> 1;
+      int cmp = compareAffix(lemmas[sorted[mid]], affix, fromEnd);
+      if (cmp < 0 || (after && cmp == 0))
+        lo = mid + 1;
+      else
+        hi = mid;
+    }
+    return lo;
+  }
+
+  private static int compareAffix(String s, String affix, boolean fromEnd)
+  {
+    int n = Math.min(s.length(), affix.length());
+    for (int i = 0; i < n; i++)
+    {
+      char a = fromEnd ? s.charAt(s.length() - 1 - i) : s.charAt(i);
+      char b = fromEnd ? affix.charAt(affix.length() - 1 - i) : affix.charAt(i);
+      if (a != b) return a - b;
+    }
+    return s.length() < affix.length() ? -1 : 0;
+  }
+
+  private static Integer pairKey(String s, int idx)
+  {
+    return (s.charAt(idx) << 16) | s.charAt(idx + 1);
+  }
+
+  private static void addTo(Map lists, Object key, int id)
+  {
+    List l = (List) lists.get(key);
+    if (l == null)
+      lists.put(key, l = new ArrayList(2));
+    l.add(id);
+  }
+
+  private static void toArrays(Map lists, Map result)
+  {
+    for (Iterator it = lists.entrySet().iterator(); it.hasNext();)
+    {
+      Map.Entry entry = (Map.Entry) it.next();
+      List l = (List) entry.getValue();
+      int[] ids = new int[l.size()];
+      for (int i = 0; i < ids.length; i++)
+        ids[i] = ((Integer) l.get(i)).intValue();
+      result.put(entry.getKey(), ids);
+    }
+  }
+}
@@ -1,105 +1,235 @@
 package rita.wordnet;
 
 import java.io.*;
-
-import javax.imageio.stream.MemoryCacheImageInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 /**
+ * A RandomAccessIF over an immutable buffer of bytes, either a (shared)
+ * byte[] or a read-only memory-mapped file. Besides the sequential
+ * seek/read/readLine methods, which use a cursor and so must be called by one
+ * thread at a time, it provides position-independent reads (e.g.,
+ * readLineAt(), compareWordAt()) that never touch the cursor and may be called
+ * concurrently, without locking.
+ * <p>
+ * Bytes are read as ISO-8859-1 chars, as in ImageInputStream.readLine().
+ * <p>
  * See the accompanying documentation for license information
  * @invisible
  * @author dhowe
  */
 public class RandomAccessByteArray
  implements RandomAccessIF
-{ 
-  protected MemoryCacheImageInputStream mis;
+{
+  protected final ByteBuffer data; // only absolute gets, never the position
+  protected final int length;
   protected String name = "unknown";
-  protected long length = -1L;
-  
+  protected long pointer;
+
   public RandomAccessByteArray(InputStream is) {
     this(null, is);
   }
 
   public RandomAccessByteArray(String name, InputStream is) {
-    if (name != null) this.name = name;   
+    this(name, readFully(is));
+  }
+
+  public RandomAccessByteArray(String name, byte[] data) {
+    this(name, ByteBuffer.wrap(data));
+  }
+
+  public RandomAccessByteArray(String name, ByteBuffer data) {
+    if (name != null) this.name = name;
+    this.data = data;
+    this.length = data.limit();
+  }
+
+  /**
+   * Maps the file (read-only) into memory
+   */
+  public static RandomAccessByteArray map(File file) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      FileChannel fc = raf.getChannel();
+      return new RandomAccessByteArray(file.getPath(),
+        fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size()));
+    }
+    finally {
+      raf.close();
+    }
+  }
+
+  private static byte[] readFully(InputStream is) {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
     try {
-      this.length = is.available(); 
-/*      if (is instanceof GZIPInputStream) {
-        if (1==1) throw new RuntimeException("GZIPs not supported!");
-        this.length = slowLength(is); //never use..
-      }*/
-      //System.err.println("RandomAccessByteArray: length="+length);
-    } 
+      byte[] buf = new byte[8192];
+      int n;
+      while ((n = is.read(buf)) > -1)
+        bos.write(buf, 0, n);
+    }
     catch (IOException e) {
       e.printStackTrace();
     }
-    this.mis = new MemoryCacheImageInputStream(is);
-  }
-  
-  public RandomAccessByteArray(String name, byte[] data) {
-    if (name != null) this.name = name; 
-    this.length = data.length;
-    this.mis = new MemoryCacheImageInputStream
-      (new ByteArrayInputStream(data));      
+    finally {
+      try {
+        is.close();
+      }
+      catch (IOException e) {}
+    }
+    return bos.toByteArray();
   }
-  
+
   public String toString()
   {
     return name;
   }
-  
-  // profile the length determination...
-  private void determineLength(InputStream is) {
-    long start = System.currentTimeMillis();
-    System.err.print("length of '"+name+"'=");
-    try {
-      length = is.available();
-    } catch (IOException e) {
-      e.printStackTrace();
+
+  // position-independent reads ===========================================
+
+  /**
+   * Returns the byte (0-255) at the position, or -1 if it is past the end
+   */
+  public int byteAt(long pos) {
+    return pos < 0 || pos >= length ? -1 : data.get((int) pos) & 0xff;
+  }
+
+  /**
+   * Returns the line starting at the position (without its terminator), or
+   * null if the position is at or past the end
+   */
+  public String readLineAt(long pos) {
+    if (pos >= length) return null;
+    int end = (int) pos;
+    while (end < length) {
+      byte b = data.get(end);
+      if (b == '\n' || b == '\r') break;
+      end++;
     }
-    long elapsed = System.currentTimeMillis()-start;
-    System.err.println(length+" time="+elapsed/1000d+"s");
+    return chars((int) pos, end);
   }
 
+  /**
+   * Returns the position following the line (and its terminator, where
+   * '\r\n' counts as one) that starts at the position
+   */
+  public long lineEnd(long pos) {
+    int c;
+    while ((c = byteAt(pos)) != -1) {
+      pos++;
+      if (c == '\n') break;
+      if (c == '\r') {
+        if (byteAt(pos) == '\n') pos++;
+        break;
+      }
+    }
+    return pos;
+  }
+
+  /**
+   * Returns the word (up to a space or line terminator) starting at the
+   * position, or an empty String if the position is at or past the end
+   */
+  public String readWordAt(long pos) {
+    if (pos >= length) return "";
+    int end = (int) pos;
+    while (end < length && !isWordEnd(data.get(end)))
+      end++;
+    return chars((int) pos, end);
+  }
+
+  /**
+   * Returns the position following the word, and the single space or
+   * terminator char that ends it, that starts at the position
+   */
+  public long wordEnd(long pos) {
+    int c;
+    while ((c = byteAt(pos)) != -1) {
+      pos++;
+      if (isWordEnd((byte) c)) break;
+    }
+    return pos;
+  }
+
+  /**
+   * Compares the word starting at the position to the target, as
+   * readWordAt(pos).compareTo(target) would, but without creating a String
+   */
+  public int compareWordAt(long pos, String target) {
+    int p = (int) pos, tlen = target.length();
+    for (int i = 0; ; i++, p++) {
+      if (p >= length || isWordEnd(data.get(p)))
+        return i - tlen;
+      if (i == tlen)
+        return i + wordLength(p) - tlen;
+      int diff = (data.get(p) & 0xff) - target.charAt(i);
+      if (diff != 0) return diff;
+    }
+  }
+
+  private int wordLength(int p) { // remaining chars in the word
+    int n = 0;
+    while (p < length && !isWordEnd(data.get(p++)))
+      n++;
+    return n;
+  }
+
+  private static boolean isWordEnd(byte b) {
+    return b == ' ' || b == '\n' || b == '\r';
+  }
+
+  private String chars(int start, int end) {
+    char[] c = new char[end - start];
+    for (int i = 0; i < c.length; i++)
+      c[i] = (char) (data.get(start + i) & 0xff);
+    return new String(c);
+  }
+
+  // sequential reads (not thread-safe) ===================================
+
   /* (non-Javadoc)
    * @see wn.RandomAccessIF#close()
    */
   public void close() throws IOException {
-    mis.close();
+    // nothing to release, the buffer is shared
   }
-  
+
   /* (non-Javadoc)
    * @see wn.RandomAccessIF#read()
    */
   public int read() throws IOException {
-    return mis.read();
+    int c = byteAt(pointer);
+    if (c > -1) pointer++;
+    return c;
   }
-  
+
   /* (non-Javadoc)
    * @see wn.RandomAccessIF#length()
    */
   public long length() throws IOException {
-    return this.length;// > 1 ? length : mis.length();
-  } 
-  
+    return this.length;
+  }
+
   /* (non-Javadoc)
    * @see wn.RandomAccessIF#seek(long)
    */
   public void seek(long pos) throws IOException {
-    mis.seek(pos);
-  } 
-  
+    if (pos < 0) throw new IndexOutOfBoundsException("pos < 0: "+pos);
+    pointer = pos;
+  }
+
   /* (non-Javadoc)
    * @see wn.RandomAccessIF#getFilePointer()
    */
   public long getFilePointer() throws IOException {
-    return mis.getStreamPosition();
+    return pointer;
   }
 
   /* (non-Javadoc)
    * @see wn.RandomAccessIF#readLine()
    */
   public String readLine() throws IOException {
-    return mis.readLine();
+    String line = readLineAt(pointer);
+    pointer = lineEnd(pointer);
+    return line;
   }
 }
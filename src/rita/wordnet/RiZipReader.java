@@ -1,7 +1,8 @@
 package rita.wordnet;
 
-import java.io.IOException;
-import java.io.InputStream;
+import java.io.*;
+import java.net.URL;
+import java.net.URLConnection;
 import java.util.*;
 import java.util.jar.JarInputStream;
 import java.util.zip.*;
@@ -116,6 +117,144 @@ public class RiZipReader
     }
   }
 
+  /**
+   * Extracts the archive at <code>url</code> (once) into a versioned
+   * sub-directory of <code>cacheRoot</code>, and returns that directory, whose
+   * files can then be mapped directly, without inflating the archive into
+   * the heap on each start.
+   * <p>
+   * The directory is named for the RiTa version and the archive's size and
+   * modification time; it holds a MANIFEST with the size and CRC-32 of each
+   * file, checked against the archive on extraction, and (for the sizes) each
+   * time the directory is re-used. Extraction goes to a temporary directory
+   * which is then renamed, so a partial extraction is never used (and is
+   * removed if extraction fails).
+   */
+  public static File extractTo(File cacheRoot, String archiveName, URL url) throws IOException
+  {
+    URLConnection conn = url.openConnection();
+    CRC32 key = new CRC32();
+    key.update((archiveName + conn.getContentLengthLong() + conn.getLastModified()).getBytes("UTF-8"));
+    String version = RiTa.VERSION.replaceAll("[^A-Za-z0-9.]", "");
+    File dir = new File(cacheRoot, "wordnet-" + version + "-" + Long.toHexString(key.getValue()));
+    if (isExtracted(dir)) return dir;
+
+    if (!cacheRoot.isDirectory() && !cacheRoot.mkdirs())
+      throw new IOException("Unable to create " + cacheRoot);
+    File tmp = new File(cacheRoot, dir.getName() + ".tmp" + System.nanoTime());
+    if (!tmp.mkdir()) throw new IOException("Unable to create " + tmp);
+
+    boolean renamed = false;
+    try
+    {
+      StringBuilder manifest = new StringBuilder();
+      ZipInputStream zis = new ZipInputStream(conn.getInputStream());
+      try
+      {
+        byte[] buf = new byte[8192];
+        ZipEntry ze;
+        while ((ze = zis.getNextEntry()) != null)
+        {
+          if (ze.isDirectory()) continue;
+          String name = new File(ze.getName()).getName();
+          CRC32 crc = new CRC32();
+          long size = 0;
+          OutputStream os = new FileOutputStream(new File(tmp, name));
+          try
+          {
+            int n;
+            while ((n = zis.read(buf)) > -1)
+            {
+              os.write(buf, 0, n);
+              crc.update(buf, 0, n);
+              size += n;
+            }
+          }
+          finally
+          {
+            os.close();
+          }
+          if (ze.getCrc() != -1 && ze.getCrc() != crc.getValue())
+            throw new IOException("Bad checksum for " + name + " in " + archiveName);
+          manifest.append(name).append('\t').append(size).append('\t')
+              .append(Long.toHexString(crc.getValue())).append('\n');
+        }
+      }
+      finally
+      {
+        zis.close();
+      }
+
+      Writer w = new OutputStreamWriter(new FileOutputStream(new File(tmp, MANIFEST)), "UTF-8");
+      try
+      {
+        w.write(manifest.toString());
+      }
+      finally
+      {
+        w.close();
+      }
+
+      if (dir.exists() && !isExtracted(dir)) // damaged
+        deleteDir(dir);
+      renamed = tmp.renameTo(dir);
+      if (!renamed && !isExtracted(dir)) // not just done by another process?
+        throw new IOException("Unable to create " + dir);
+    }
+    finally
+    {
+      if (!renamed) // failed, or another process got there first
+        deleteDir(tmp);
+    }
+    return dir;
+  }
+
+  private static final String MANIFEST = "MANIFEST";
+
+  /**
+   * Returns true if each file listed in the directory's MANIFEST exists, with
+   * the listed size
+   */
+  static boolean isExtracted(File dir)
+  {
+    File manifest = new File(dir, MANIFEST);
+    if (!manifest.isFile()) return false;
+    try
+    {
+      BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(manifest), "UTF-8"));
+      try
+      {
+        int files = 0;
+        String line;
+        while ((line = br.readLine()) != null)
+        {
+          String[] parts = line.split("\t");
+          if (parts.length != 3) return false;
+          File f = new File(dir, parts[0]);
+          if (!f.isFile() || f.length() != Long.parseLong(parts[1])) return false;
+          files++;
+        }
+        return files > 0;
+      }
+      finally
+      {
+        br.close();
+      }
+    }
+    catch (Exception e)
+    {
+      return false;
+    }
+  }
+
+  private static void deleteDir(File dir)
+  {
+    File[] files = dir.listFiles();
+    for (int i = 0; files != null && i < files.length; i++)
+      files[i].delete();
+    dir.delete();
+  }
+
   private int origGetBytes(ZipInputStream zis, int size, byte[] b) throws IOException
   {
     int rb = 0;
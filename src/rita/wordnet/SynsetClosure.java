@@ -0,0 +1,179 @@
+package rita.wordnet;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+import rita.wordnet.jwnl.JWNLException;
+import rita.wordnet.jwnl.dictionary.Dictionary;
+import rita.wordnet.jwnl.util.cache.Cache;
+import rita.wordnet.jwnl.util.cache.ConcurrentCache;
+import rita.wordnet.jwnl.wndata.*;
+
+/**
+ * The transitive closure of one pointer type (e.g., hyponym or hypernym) over
+ * the synsets of one part-of-speech, with which the full tree below (or above)
+ * a synset is found by walking int arrays, rather than by building a
+ * PointerTargetTree (with one copy of each shared subtree per path) and
+ * flattening it into lists of paths, as PointerUtils does.
+ * <p>
+ * Synsets are identified by their offsets. For each, the closure holds the
+ * offsets of its targets (read from the dictionary on first use) and a small
+ * dense id, so that the synsets visited in a walk can be marked in a BitSet.
+ * The closures themselves are kept in a bounded cache, so that repeated
+ * requests for large trees (e.g., the hyponyms of 'entity') are answered
+ * without walking the graph again.
+ * <p>
+ * The targets, ids and closures are kept in concurrent maps (or caches), so
+ * closure() may be called from several threads at once, provided the
+ * dictionary may be too (e.g., when its caches are ConcurrentCaches).
+ *
+ * @invisible
+ * @author dhowe
+ */
+public class SynsetClosure
+{
+  /** The default number of closures kept in the cache */
+  public static final int DEFAULT_CACHE_SIZE = 256;
+
+  private static final int[] NONE = new int[0];
+
+  protected final Dictionary dict;
+  protected final POS pos;
+  protected final PointerType type;
+  protected final Map targets = new ConcurrentHashMap(); // Integer -> int[]
+  protected final Map ids = new ConcurrentHashMap(); // Integer -> Integer
+  protected final Cache closures;
+
+  /**
+   * Creates an (empty) closure of the pointer type over the dictionary's
+   * synsets for the pos, caching up to DEFAULT_CACHE_SIZE results
+   */
+  public SynsetClosure(Dictionary dict, POS pos, PointerType type)
+  {
+    this(dict, pos, type, DEFAULT_CACHE_SIZE);
+  }
+
+  /**
+   * Creates an (empty) closure of the pointer type over the dictionary's
+   * synsets for the pos, caching up to <code>cacheSize</code> results
+   */
+  public SynsetClosure(Dictionary dict, POS pos, PointerType type, int cacheSize)
+  {
+    this.dict = dict;
+    this.pos = pos;
+    this.type = type;
+    this.closures = new ConcurrentCache(cacheSize);
+  }
+
+  /**
+   * Returns the offsets of the direct targets of the synset (in pointer
+   * order), or an empty array if it has none or is not found
+   */
+  public int[] targets(int offset) throws JWNLException
+  {
+    Integer key = new Integer(offset);
+    int[] result = (int[]) targets.get(key);
+    if (result == null)
+    {
+      Synset syn = dict.getSynsetAt(pos, offset);
+      result = syn == null ? NONE : targetsOf(syn);
+      targets.put(key, result);
+    }
+    return result;
+  }
+
+  private int[] targetsOf(Synset syn)
+  {
+    Pointer[] ptrs = syn.getPointers(type);
+    int[] result = new int[ptrs.length];
+    int n = 0;
+    for (int i = 0; i < ptrs.length; i++)
+    {
+      if (pos.equals(ptrs[i].getTargetPOS())) // always, in WordNet
+        result[n++] = (int) ptrs[i].getTargetOffset();
+    }
+    return n == result.length ? result : Arrays.copyOf(result, n);
+  }
+
+  /**
+   * Returns the offsets of the synset and of each synset reachable from it,
+   * each once, in the order first visited by a depth-first walk that follows
+   * the pointers in order (the order in which they first appear in the paths
+   * of the PointerTargetTree for the synset); the returned array should not
+   * be modified
+   */
+  public int[] closure(int offset) throws JWNLException
+  {
+    Integer key = new Integer(offset);
+    int[] result = (int[]) closures.get(key);
+    if (result == null)
+    {
+      result = walk(offset);
+      closures.put(key, result);
+    }
+    return result;
+  }
+
+  private int[] walk(int offset) throws JWNLException
+  {
+    BitSet visited = new BitSet(ids.size() + 1);
+    int[] stack = new int[16], found = new int[16];
+    int top = 0, n = 0;
+
+    stack[top++] = offset;
+    while (top > 0)
+    {
+      int next = stack[--top];
+      int id = id(next);
+      if (visited.get(id))
+        continue;
+      visited.set(id);
+
+      if (n == found.length)
+        found = Arrays.copyOf(found, n * 2);
+      found[n++] = next;
+
+      int[] children = targets(next);
+      if (top + children.length > stack.length)
+        stack = Arrays.copyOf(stack, Math.max(stack.length * 2, top + children.length));
+      for (int i = children.length - 1; i >= 0; i--) // so the first is next
+        stack[top++] = children[i];
+    }
+    return Arrays.copyOf(found, n);
+  }
+
+  private int id(int offset)
+  {
+    Integer key = new Integer(offset);
+    Integer id = (Integer) ids.get(key);
+    if (id == null)
+    {
+      synchronized (ids)
+      {
+        id = (Integer) ids.get(key);
+        if (id == null)
+        {
+          id = new Integer(ids.size());
+          ids.put(key, id);
+        }
+      }
+    }
+    return id.intValue();
+  }
+
+  /**
+   * Returns the number of closures in the cache
+   */
+  public int getCacheSize()
+  {
+    return closures.getSize();
+  }
+
+  /**
+   * Removes all closures from the cache
+   */
+  public void clearCache()
+  {
+    closures.clear();
+  }
+}
@@ -149,17 +149,16 @@ public class WordnetDictionaryFile extends PrincetonRandomAccessDictionaryFile
     if (!fileLoc.exists()) 
       throw new RiWordNetError("Couldn't find file: "+fileLoc);
     
-    InputStream is = null;
     String fileName = fileLoc.getPath();
     if (RiWordNet.wordNetHome != null) {
-      is = new FileInputStream(fileName);
+      randomAccessFile = RandomAccessByteArray.map(fileLoc);
+      return;
     }
-    else {
-      is = RiTa.openStream(fileName);        
-      if (is == null) {
-        System.err.println("[ERROR] Unable to open bad stream: "+fileName);
-        System.exit(1);
-      }
+    
+    InputStream is = RiTa.openStream(fileName);        
+    if (is == null) {
+      System.err.println("[ERROR] Unable to open bad stream: "+fileName);
+      System.exit(1);
     }
     randomAccessFile = new RandomAccessByteArray(fileName, is);
   } 
@@ -37,12 +37,14 @@ public class WordnetFilters
     if (pos == null) return null;
     
     List result = new LinkedList();
-    Iterator it = iterator(pos);
+    LemmaIndex index = index(pos);
+    int[] ids = index.candidates(filter);
+    int num = ids == null ? index.size() : ids.length;
     
-    while (it.hasNext() && result.size() < maxResults)
+    for (int k = 0; k < num && result.size() < maxResults; k++)
     {
-      String lemma = nextWord(it);
-      if (lemma == null || wordnet._ignorable(lemma)) 
+      String lemma = nextWord(index, ids, k);
+      if (lemma == null) 
         continue;
       if (filter.accept(lemma)) {
         
@@ -99,11 +101,17 @@ public class WordnetFilters
   {
     if (pos == null) return null;
     List result = new LinkedList();
-    Iterator it = iterator(pos);
+    LemmaIndex index = index(pos);
     
-    WHILE: while (it.hasNext())
+    // only the lemmas that might be accepted by any filter
+    int[] ids = new int[0];
+    for (int i = 0; i < filters.length; i++)
+      ids = LemmaIndex.union(ids, index.candidates(filters[i]));
+    int num = ids == null ? index.size() : ids.length;
+    
+    WHILE: for (int k = 0; k < num; k++)
     {
-      String lemma = nextWord(it);
+      String lemma = nextWord(index, ids, k);
       if (lemma == null)  continue WHILE;
       // check that we accept on every filter
       for (int i = 0; i < filters.length; i++) {
@@ -155,10 +163,20 @@ public class WordnetFilters
   {
     if (pos == null) return null;
     List result = new LinkedList();
-    Iterator it = iterator(pos);
-    WHILE: while (it.hasNext())
+    LemmaIndex index = index(pos);
+    
+    // only the lemmas that might be accepted by the most selective filter
+    int[] ids = null;
+    for (int i = 0; i < filters.length; i++) {
+      int[] candidates = index.candidates(filters[i]);
+      if (ids == null || (candidates != null && candidates.length < ids.length))
+        ids = candidates;
+    }
+    int num = ids == null ? index.size() : ids.length;
+    
+    WHILE: for (int k = 0; k < num; k++)
     {
-      String lemma = nextWord(it);
+      String lemma = nextWord(index, ids, k);
       if (lemma == null) continue WHILE;
       
       // check that we accept on every filter
@@ -186,29 +204,41 @@ public class WordnetFilters
     return iterator(dictionary, pos);
   }
   
-  // returns an iterator over all Lemmas for for 'pos'
-  public Iterator lemmaIterator(Dictionary d, POS pos) // TODO: this may be very slow!
+  // returns an iterator over all Lemmas for for 'pos', in dictionary order
+  public Iterator lemmaIterator(Dictionary d, POS pos)
+  {
+    return index(d, pos).lemmas().iterator();
+  }
+  
+  // returns the (cached) index of all Lemmas for 'pos'
+  protected LemmaIndex index(POS pos)
+  {
+    return index(dictionary, pos);
+  }
+  
+  protected LemmaIndex index(Dictionary d, POS pos)
   {
-    String tag = pos.getKey()+"Set";
+    String tag = pos.getKey()+"Index";
     
-    // check the Set cache 
-    Set result = (Set)filterCache.get(tag);
+    // check the index cache 
+    LemmaIndex result = (LemmaIndex)filterCache.get(tag);
     
     if (result == null) { 
       
-      result = new HashSet();
+      List lemmas = new ArrayList();
       Iterator it = iterator(d, pos);
       while (it.hasNext()) {
         IndexWord iw = (IndexWord) it.next();   
         String lemma = iw.getLemma();
         if (lemma != null) 
-          result.add(lemma);
+          lemmas.add(lemma);
       }
+      result = new LemmaIndex(lemmas);
       
-      // cache the Set
+      // cache the index
       filterCache.put(tag, result);
     }
-    return result.iterator();
+    return result;
   }
   
   static Iterator iterator(Dictionary d, POS pos)
@@ -237,4 +267,14 @@ public class WordnetFilters
     return lemma;
   } 
   
+  protected String nextWord(LemmaIndex index, int[] ids, int k)
+  {
+    String lemma = index.lemma(ids == null ? k : ids[k]);
+
+    if (wordnet._ignorable(lemma))
+      return null;
+    
+    return lemma;
+  } 
+  
 }
\ No newline at end of file
@@ -68,7 +68,7 @@ public final class AnagramFilter extends rita.wordnet.RiFilter
    * @param ic whether to ignore the string's case
    * @return the normalized string
    */
-  private static String buildData(final String term, final boolean ic)
+  public static String buildData(final String term, final boolean ic)
   {
     // Check the term
     if (term == null)
@@ -47,6 +47,11 @@ public final class WildcardFilter extends rita.wordnet.RiFilter
    * The list of substrings in the string with wildcards.
    */
   private List fields = new ArrayList(8);
+
+  /**
+   * The pattern, as given.
+   */
+  private String pattern;
   
   /**
    * Initializes the filter with the source term and
@@ -60,6 +65,7 @@ public final class WildcardFilter extends rita.wordnet.RiFilter
     
     this.ignoreCase = bIgnoreCase;
     this.term = word;
+    this.pattern = word;
     if (term.endsWith("*"))
       term = term.substring(0, term.length()-1);
     if (term.startsWith("*"))
@@ -68,6 +74,16 @@ public final class WildcardFilter extends rita.wordnet.RiFilter
   }
   
   
+  /**
+   * Returns the pattern, with its wildcards.
+   * 
+   * @return the pattern
+   */
+  public String getPattern()
+  {
+    return pattern;
+  }
+  
   /**
    * Determines if the term matches the source term.
    * 
@@ -10,6 +10,7 @@ import java.util.Iterator;
 import java.util.Map;
 import java.util.Observable;
 import java.util.Observer;
+import java.util.concurrent.ConcurrentHashMap;
 
 import rita.wordnet.jwnl.JWNLRuntimeException;
 import rita.wordnet.jwnl.util.cache.*;
@@ -21,8 +22,9 @@ public abstract class AbstractCachingDictionary extends Dictionary {
   private static boolean defaultCachingEnabled = true;
   static int count=0;
   
-	private DictionaryCacheSet _caches;
+	private volatile DictionaryCacheSet _caches;
 	private boolean _isCachingEnabled;
+	private boolean _isConcurrentCaching;
 
 	protected AbstractCachingDictionary() {
 		this(defaultCachingEnabled);
@@ -52,6 +54,27 @@ public abstract class AbstractCachingDictionary extends Dictionary {
 		_isCachingEnabled = cachingEnabled;
 	}
 
+	public boolean isConcurrentCaching() {
+		return _isConcurrentCaching;
+	}
+
+	/**
+	 * If true, elements are cached in thread-safe <code>ConcurrentCache</code>s, rather than
+	 * <code>LRUCache</code>s (which may only be used by one thread at a time). Any elements
+	 * already cached are dropped, so this should be set before the capacities.
+	 */
+	public synchronized void setConcurrentCaching(boolean concurrent) {
+		if (concurrent != _isConcurrentCaching) {
+			_isConcurrentCaching = concurrent;
+			_caches = null;
+		}
+	}
+
+	/** Returns the cache for elements of <var>type</var>, e.g., to read its statistics */
+	public Cache getCache(DictionaryElementType type) {
+		return getCaches().getCache(type);
+	}
+
 	public int getCacheSizes(DictionaryElementType type) {
 		return getCaches().getCacheSize(type);
 	}
@@ -110,10 +133,16 @@ public abstract class AbstractCachingDictionary extends Dictionary {
 		if (!isCachingEnabled()) {
 			throw new JWNLRuntimeException("DICTIONARY_EXCEPTION_022");
 		}
-		if (_caches == null) {
-			_caches = new DictionaryCacheSet();
+		DictionaryCacheSet caches = _caches;
+		if (caches == null) {
+			synchronized (this) {
+				if (_caches == null) {
+					_caches = _isConcurrentCaching ? new ConcurrentDictionaryCacheSet() : new DictionaryCacheSet();
+				}
+				caches = _caches;
+			}
 		}
-		return _caches;
+		return caches;
 	}
 
 	private void cache(DictionaryElementType fileType, POSKey key, Object obj) {
@@ -129,7 +158,7 @@ public abstract class AbstractCachingDictionary extends Dictionary {
 		return null;
 	}
 
-	private static final class DictionaryCacheSet extends CacheSet implements Observer {
+	private static class DictionaryCacheSet extends CacheSet implements Observer {
 		private Map _lemmaToOffsetMaps;
 
 		public DictionaryCacheSet() {
@@ -178,9 +207,13 @@ public abstract class AbstractCachingDictionary extends Dictionary {
 		private void initLemmaToOffsetMaps() {
 			_lemmaToOffsetMaps = new HashMap(2);
 			_lemmaToOffsetMaps.put(DictionaryElementType.INDEX_WORD,
-			                       new HashMap(getCache(DictionaryElementType.INDEX_WORD).getCapacity()));
+			                       createMap(getCache(DictionaryElementType.INDEX_WORD).getCapacity()));
 			_lemmaToOffsetMaps.put(DictionaryElementType.EXCEPTION,
-			                       new HashMap(getCache(DictionaryElementType.EXCEPTION).getCapacity()));
+			                       createMap(getCache(DictionaryElementType.EXCEPTION).getCapacity()));
+		}
+
+		protected Map createMap(int size) {
+			return new HashMap(size);
 		}
 
 		private void removeLemma(DictionaryElementType fileType, String lemma, POS pos) {
@@ -198,6 +231,24 @@ public abstract class AbstractCachingDictionary extends Dictionary {
 		}
 	}
 
+	/**
+	 * A <code>DictionaryCacheSet</code> whose caches are <code>ConcurrentCache</code>s, which also
+	 * drop the lemma of each element they evict.
+	 */
+	private static final class ConcurrentDictionaryCacheSet extends DictionaryCacheSet {
+		protected Map createMap(int size) {
+			return new ConcurrentHashMap(size);
+		}
+
+		protected Cache createCache(int size) {
+			return new ConcurrentCache(size) {
+				protected void onRemove(Object key, Object value) {
+					update(null, value);
+				}
+			};
+		}
+	}
+
 	private static final class ObservableCache extends LRUCache {
 		private Observable _observable = new Observable();
 
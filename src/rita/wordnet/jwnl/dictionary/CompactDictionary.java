@@ -0,0 +1,699 @@
+/**
+ * Java WordNet Library (JWNL)
+ * See the documentation for copyright information.
+ */
+package rita.wordnet.jwnl.dictionary;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import rita.RiTa;
+import rita.wordnet.jwnl.JWNLException;
+import rita.wordnet.jwnl.util.factory.Param;
+import rita.wordnet.jwnl.wndata.*;
+
+/**
+ * A <code>Dictionary</code> that holds all of WordNet in memory, in a compact columnar form, so
+ * that looking up a synset or index word is a binary search and a few array reads, rather than
+ * a file read and a parse of the line, as in <code>FileBackedDictionary</code>.<p>
+ *
+ * Synsets are numbered, per part-of-speech, in order of their offsets. Their words and pointers
+ * are held in compressed sparse row form (the words or pointers of synset <code>i</code> are at
+ * positions <code>start[i]</code> to <code>start[i + 1]</code> of the columns), in their order in
+ * the data files, and all strings (lemmas, glosses and exceptions) in a single pool of UTF-8
+ * bytes. The <code>Synset</code>, <code>IndexWord</code> and <code>Exc</code> objects returned
+ * are built from the arrays on each call (as by the file element factory, but without parsing),
+ * and are equal to those of the dictionary it was built from.<p>
+ *
+ * A <code>CompactDictionary</code> is built from any other dictionary (which is read once), and
+ * may be written to, and loaded from, a binary file, with which it starts in a fraction of the
+ * time. Its arrays are not modified once it has been built or loaded (<code>close</code> leaves
+ * them in place, as it holds no files open), so <code>getIndexWord</code>,
+ * <code>getSynsetAt</code> and <code>getException</code> may be called from several threads at
+ * once.
+ */
+public class CompactDictionary extends Dictionary {
+	/**
+	 * <code>MorphologicalProcessor</code> class install parameter. The value should be the
+	 * class of <code>MorphologicalProcessor</code> to use.
+	 */
+	public static final String MORPH = "morphological_processor";
+	/** The path of the binary file, as written by <code>write</code> */
+	public static final String PATH = "dictionary_path";
+
+	private static final int MAGIC = 0x574e4331; // "WNC1"
+	private static final int VERSION = 1;
+	private static final int ADJECTIVE_CLUSTER = 1;
+
+	/** Random number generator used by getRandomIndexWord() */
+	private static final Random _rand = new Random(new Date().getTime());
+
+	private StringPool _strings;
+	private PointerType[] _pointerTypes;
+	private POS[] _targetPOS;
+	private final Map _tables = new HashMap(); // POS -> Table
+
+	public CompactDictionary() {
+	}
+
+	private CompactDictionary(MorphologicalProcessor morph) {
+		super(morph);
+	}
+
+	/**
+	 * Install a <code>CompactDictionary</code> from a map of parameters, loading the binary file
+	 * named by <code>PATH</code>. The keys are chosen from the static variables above.
+	 */
+	public void install(Map params) throws JWNLException {
+		Param param = (Param) params.get(MORPH);
+		MorphologicalProcessor morph = (param == null) ? null : (MorphologicalProcessor) param.create();
+
+		String path = ((Param) params.get(PATH)).getValue();
+		try {
+			InputStream is = new BufferedInputStream(new FileInputStream(path));
+			try {
+				setDictionary(load(is, morph));
+			} finally {
+				is.close();
+			}
+		} catch (IOException ex) {
+			throw new JWNLException("DICTIONARY_EXCEPTION_020", path, ex);
+		}
+	}
+
+	/**
+	 * Returns a <code>CompactDictionary</code> (using the morphological processor of
+	 * <var>source</var>), loaded from <var>file</var> if it exists, or else built from
+	 * <var>source</var> and written to <var>file</var> (if non-null) for the next time, and
+	 * installs it as the dictionary to be used throughout the system.
+	 */
+	public static CompactDictionary open(Dictionary source, File file) throws JWNLException {
+		MorphologicalProcessor morph = source.getMorphologicalProcessor();
+		CompactDictionary dict = null;
+		if (file != null && file.exists()) {
+			try {
+				InputStream is = new BufferedInputStream(new FileInputStream(file));
+				try {
+					dict = load(is, morph);
+				} finally {
+					is.close();
+				}
+			} catch (IOException ex) {
+				System.err.println("[WARN] Unable to load compact dictionary from " + file + ": " + ex);
+			}
+		}
+		if (dict == null) {
+			dict = build(source, morph);
+			if (file != null) {
+				try {
+					File tmp = new File(file.getPath() + ".tmp");
+					OutputStream os = new BufferedOutputStream(new FileOutputStream(tmp));
+					try {
+						dict.write(os);
+					} finally {
+						os.close();
+					}
+					if (!tmp.renameTo(file))
+						tmp.delete();
+				} catch (IOException ex) {
+					System.err.println("[WARN] Unable to write compact dictionary to " + file + ": " + ex);
+				}
+			}
+		}
+		setDictionary(dict);
+		return dict;
+	}
+
+	/**
+	 * Builds a <code>CompactDictionary</code> holding every synset, index word and exception
+	 * of <var>source</var>.
+	 */
+	public static CompactDictionary build(Dictionary source, MorphologicalProcessor morph) throws JWNLException {
+		CompactDictionary dict = new CompactDictionary(morph);
+		StringPool.Builder strings = new StringPool.Builder();
+		List pointerTypes = new ArrayList(), targetPOS = new ArrayList();
+
+		for (Iterator posItr = POS.getAllPOS().iterator(); posItr.hasNext();) {
+			POS pos = (POS) posItr.next();
+			Table table = new Table();
+
+			List synsets = new ArrayList();
+			for (Iterator itr = source.getSynsetIterator(pos); itr.hasNext();) {
+				Synset synset = (Synset) itr.next();
+				if (synset != null)
+					synsets.add(synset);
+			}
+			Collections.sort(synsets, new Comparator() {
+				public int compare(Object a, Object b) {
+					long x = ((Synset) a).getOffset(), y = ((Synset) b).getOffset();
+					return x < y ? -1 : (x > y ? 1 : 0);
+				}
+			});
+			table.addSynsets(synsets, strings, pointerTypes, targetPOS);
+
+			List words = new ArrayList();
+			for (Iterator itr = source.getIndexWordIterator(pos); itr.hasNext();) {
+				IndexWord word = (IndexWord) itr.next();
+				if (word != null)
+					words.add(word);
+			}
+			table.addIndexWords(words, strings);
+
+			List excs = new ArrayList();
+			for (Iterator itr = source.getExceptionIterator(pos); itr.hasNext();) {
+				Exc exc = (Exc) itr.next();
+				if (exc != null)
+					excs.add(exc);
+			}
+			table.addExceptions(excs, strings);
+
+			dict._tables.put(pos, table);
+		}
+
+		dict._strings = strings.build();
+		dict._pointerTypes = (PointerType[]) pointerTypes.toArray(new PointerType[pointerTypes.size()]);
+		dict._targetPOS = (POS[]) targetPOS.toArray(new POS[targetPOS.size()]);
+		for (Iterator itr = dict._tables.values().iterator(); itr.hasNext();)
+			((Table) itr.next()).sort(dict._strings);
+		return dict;
+	}
+
+	/** Write the dictionary in the form read by <code>load</code>. */
+	public void write(OutputStream os) throws IOException {
+		DataOutputStream dos = new DataOutputStream(os);
+		dos.writeInt(MAGIC);
+		dos.writeInt(VERSION);
+		_strings.write(dos);
+		dos.writeInt(_pointerTypes.length);
+		for (int i = 0; i < _pointerTypes.length; i++)
+			dos.writeUTF(_pointerTypes[i] == null ? "" : _pointerTypes[i].getKey());
+		dos.writeInt(_targetPOS.length);
+		for (int i = 0; i < _targetPOS.length; i++)
+			dos.writeUTF(_targetPOS[i] == null ? "" : _targetPOS[i].getKey());
+		dos.writeInt(_tables.size());
+		for (Iterator itr = _tables.entrySet().iterator(); itr.hasNext();) {
+			Map.Entry entry = (Map.Entry) itr.next();
+			dos.writeUTF(((POS) entry.getKey()).getKey());
+			((Table) entry.getValue()).write(dos);
+		}
+		dos.flush();
+	}
+
+	/** Load a dictionary, as written by <code>write</code>. */
+	public static CompactDictionary load(InputStream is, MorphologicalProcessor morph) throws IOException {
+		DataInputStream dis = new DataInputStream(is);
+		if (dis.readInt() != MAGIC || dis.readInt() != VERSION)
+			throw new IOException("Not a compact dictionary (or an old version)");
+
+		CompactDictionary dict = new CompactDictionary(morph);
+		dict._strings = StringPool.read(dis);
+		dict._pointerTypes = new PointerType[dis.readInt()];
+		for (int i = 0; i < dict._pointerTypes.length; i++)
+			dict._pointerTypes[i] = PointerType.getPointerTypeForKey(dis.readUTF());
+		dict._targetPOS = new POS[dis.readInt()];
+		for (int i = 0; i < dict._targetPOS.length; i++)
+			dict._targetPOS[i] = POS.getPOSForKey(dis.readUTF());
+		int n = dis.readInt();
+		for (int i = 0; i < n; i++) {
+			POS pos = POS.getPOSForKey(dis.readUTF());
+			dict._tables.put(pos, Table.read(dis));
+		}
+		return dict;
+	}
+
+	//
+	// IndexWord methods
+	//
+
+	public IndexWord getIndexWord(POS pos, String lemma) {
+		Table table = getTable(pos);
+		if (table == null || lemma.length() < 1)
+			return null;
+		int id = table.find(table._indexLemmas, table._indexByLemma, lemma.replace(RiTa.SP, RiTa.USC), _strings);
+		return id < 0 ? null : createIndexWord(pos, table, id);
+	}
+
+	public Iterator getIndexWordIterator(final POS pos) {
+		final Table table = getTable(pos);
+		return new ArrayIterator(table == null ? 0 : table._indexLemmas.length) {
+			protected Object get(int id) {
+				return createIndexWord(pos, table, id);
+			}
+		};
+	}
+
+	public Iterator getIndexWordIterator(POS pos, String substring) {
+		substring = prepareQueryString(substring);
+		List words = new ArrayList();
+		Table table = getTable(pos);
+		for (int id = 0; table != null && id < table._indexLemmas.length; id++) {
+			if (_strings.get(table._indexLemmas[id]).indexOf(substring) > -1)
+				words.add(createIndexWord(pos, table, id));
+		}
+		return words.iterator();
+	}
+
+	public IndexWord getRandomIndexWord(POS pos) {
+		Table table = getTable(pos);
+		if (table == null || table._indexLemmas.length < 1)
+			return null;
+		return createIndexWord(pos, table, _rand.nextInt(table._indexLemmas.length));
+	}
+
+	private IndexWord createIndexWord(POS pos, Table table, int id) {
+		int start = table._senseStart[id], end = table._senseStart[id + 1];
+		long[] offsets = new long[end - start];
+		for (int i = 0; i < offsets.length; i++)
+			offsets[i] = table._senses[start + i];
+		return new IndexWord(_strings.get(table._indexLemmas[id]), pos, offsets);
+	}
+
+	//
+	// Synset methods
+	//
+
+	public Synset getSynsetAt(POS pos, long offset) {
+		Table table = getTable(pos);
+		if (table == null || offset < 0 || offset > Integer.MAX_VALUE)
+			return null;
+		int id = Arrays.binarySearch(table._offsets, (int) offset);
+		return id < 0 ? null : createSynset(pos, table, id);
+	}
+
+	public Iterator getSynsetIterator(final POS pos) {
+		final Table table = getTable(pos);
+		return new ArrayIterator(table == null ? 0 : table._offsets.length) {
+			protected Object get(int id) {
+				return createSynset(pos, table, id);
+			}
+		};
+	}
+
+	/** Build the synset as the Princeton file element factory does, but from the arrays. */
+	private Synset createSynset(POS pos, Table table, int id) {
+		SynsetProxy proxy = new SynsetProxy(pos);
+
+		int start = table._wordStart[id];
+		Word[] words = new Word[table._wordStart[id + 1] - start];
+		BitSet verbFrames = new BitSet();
+		for (int i = 0; i < words.length; i++) {
+			String lemma = _strings.get(table._wordLemmas[start + i]);
+			if (table._wordFrames != null) {
+				BitSet flags = toBitSet(table._wordFrames[start + i]);
+				verbFrames.or(flags);
+				words[i] = new Verb(proxy, i, lemma, flags);
+			} else {
+				words[i] = new Word(proxy, i, lemma);
+			}
+		}
+
+		start = table._pointerStart[id];
+		Pointer[] pointers = new Pointer[table._pointerStart[id + 1] - start];
+		for (int i = 0; i < pointers.length; i++) {
+			int sourceIndex = table._pointerSource[start + i] & 0xff;
+			PointerTarget source = (sourceIndex == 0) ? (PointerTarget) proxy : (PointerTarget) words[sourceIndex - 1];
+			pointers[i] = new Pointer(source, i, _pointerTypes[table._pointerTypes[start + i]],
+			    _targetPOS[table._pointerPOS[start + i]], table._pointerTargets[start + i] & 0xffffffffL,
+			    table._pointerTargetIndex[start + i] & 0xff);
+		}
+
+		int gloss = table._glosses[id];
+		Synset synset = new Synset(pos, table._offsets[id], words, pointers, gloss < 0 ? null : _strings.get(gloss),
+		    verbFrames, (table._flags[id] & ADJECTIVE_CLUSTER) != 0);
+		proxy.setSource(synset);
+		return proxy;
+	}
+
+	private static BitSet toBitSet(long bits) {
+		BitSet set = new BitSet();
+		for (int i = 0; bits != 0; i++, bits >>>= 1) {
+			if ((bits & 1) != 0)
+				set.set(i);
+		}
+		return set;
+	}
+
+	//
+	// Exception methods
+	//
+
+	public Exc getException(POS pos, String derivation) {
+		Table table = getTable(pos);
+		if (table == null || derivation == null)
+			return null;
+		int id = table.find(table._excLemmas, table._excsByLemma, prepareQueryString(derivation), _strings);
+		return id < 0 ? null : createExc(pos, table, id);
+	}
+
+	public Iterator getExceptionIterator(final POS pos) {
+		final Table table = getTable(pos);
+		return new ArrayIterator(table == null ? 0 : table._excLemmas.length) {
+			protected Object get(int id) {
+				return createExc(pos, table, id);
+			}
+		};
+	}
+
+	private Exc createExc(POS pos, Table table, int id) {
+		List exceptions = new ArrayList();
+		for (int i = table._excStart[id]; i < table._excStart[id + 1]; i++)
+			exceptions.add(_strings.get(table._excForms[i]));
+		return new Exc(pos, _strings.get(table._excLemmas[id]), exceptions);
+	}
+
+	public void close() {
+		// nothing to release: all the data is in memory
+	}
+
+	private Table getTable(POS pos) {
+		return (Table) _tables.get(pos);
+	}
+
+	/** The columns for one part-of-speech */
+	private static final class Table {
+		// synsets, by offset
+		private int[] _offsets, _glosses;
+		private byte[] _flags;
+		private int[] _wordStart, _wordLemmas;
+		private long[] _wordFrames; // verbs only
+		private int[] _pointerStart, _pointerTargets;
+		private byte[] _pointerTypes, _pointerPOS, _pointerSource, _pointerTargetIndex;
+
+		// index words and exceptions, in file order, with their ids sorted by lemma
+		private int[] _indexLemmas, _senseStart, _senses, _indexByLemma;
+		private int[] _excLemmas, _excStart, _excForms, _excsByLemma;
+
+		private void addSynsets(List synsets, StringPool.Builder strings, List pointerTypes, List targetPOS) {
+			int n = synsets.size(), wordCount = 0, pointerCount = 0;
+			boolean verbs = false;
+			for (int i = 0; i < n; i++) {
+				Synset synset = (Synset) synsets.get(i);
+				wordCount += synset.getWords().length;
+				pointerCount += synset.getPointers().length;
+				verbs |= synset.getPOS() == POS.VERB;
+			}
+
+			_offsets = new int[n];
+			_glosses = new int[n];
+			_flags = new byte[n];
+			_wordStart = new int[n + 1];
+			_wordLemmas = new int[wordCount];
+			_wordFrames = verbs ? new long[wordCount] : null;
+			_pointerStart = new int[n + 1];
+			_pointerTargets = new int[pointerCount];
+			_pointerTypes = new byte[pointerCount];
+			_pointerPOS = new byte[pointerCount];
+			_pointerSource = new byte[pointerCount];
+			_pointerTargetIndex = new byte[pointerCount];
+
+			int w = 0, p = 0;
+			for (int i = 0; i < n; i++) {
+				Synset synset = (Synset) synsets.get(i);
+				_offsets[i] = (int) synset.getOffset();
+				_glosses[i] = synset.getGloss() == null ? -1 : strings.add(synset.getGloss());
+				_flags[i] = (byte) (synset.isAdjectiveCluster() ? ADJECTIVE_CLUSTER : 0);
+
+				Word[] words = synset.getWords();
+				_wordStart[i] = w;
+				for (int j = 0; j < words.length; j++, w++) {
+					_wordLemmas[w] = strings.add(words[j].getLemma());
+					if (_wordFrames != null && words[j] instanceof Verb)
+						_wordFrames[w] = toLong(((Verb) words[j]).getVerbFrameFlags());
+				}
+
+				Pointer[] pointers = synset.getPointers();
+				_pointerStart[i] = p;
+				for (int j = 0; j < pointers.length; j++, p++) {
+					PointerTarget source = pointers[j].getSource();
+					_pointerTargets[p] = (int) pointers[j].getTargetOffset();
+					_pointerTypes[p] = (byte) indexOf(pointerTypes, pointers[j].getType());
+					_pointerPOS[p] = (byte) indexOf(targetPOS, pointers[j].getTargetPOS());
+					_pointerSource[p] = (byte) (source instanceof Word ? ((Word) source).getIndex() + 1 : 0);
+					_pointerTargetIndex[p] = (byte) pointers[j].getTargetIndex();
+				}
+			}
+			_wordStart[n] = w;
+			_pointerStart[n] = p;
+		}
+
+		private static int indexOf(List list, Object o) {
+			int i = list.indexOf(o);
+			if (i < 0) {
+				i = list.size();
+				list.add(o);
+			}
+			return i;
+		}
+
+		private static long toLong(BitSet set) {
+			long bits = 0;
+			for (int i = set.nextSetBit(0); i >= 0 && i < 64; i = set.nextSetBit(i + 1))
+				bits |= 1L << i;
+			return bits;
+		}
+
+		private void addIndexWords(List words, StringPool.Builder strings) {
+			int n = words.size(), senseCount = 0;
+			for (int i = 0; i < n; i++)
+				senseCount += ((IndexWord) words.get(i)).getSynsetOffsets().length;
+
+			_indexLemmas = new int[n];
+			_senseStart = new int[n + 1];
+			_senses = new int[senseCount];
+			int s = 0;
+			for (int i = 0; i < n; i++) {
+				IndexWord word = (IndexWord) words.get(i);
+				long[] offsets = word.getSynsetOffsets();
+				_indexLemmas[i] = strings.add(word.getLemma());
+				_senseStart[i] = s;
+				for (int j = 0; j < offsets.length; j++)
+					_senses[s++] = (int) offsets[j];
+			}
+			_senseStart[n] = s;
+		}
+
+		private void addExceptions(List excs, StringPool.Builder strings) {
+			int n = excs.size(), formCount = 0;
+			for (int i = 0; i < n; i++)
+				formCount += ((Exc) excs.get(i)).getExceptions().size();
+
+			_excLemmas = new int[n];
+			_excStart = new int[n + 1];
+			_excForms = new int[formCount];
+			int f = 0;
+			for (int i = 0; i < n; i++) {
+				Exc exc = (Exc) excs.get(i);
+				_excLemmas[i] = strings.add(exc.getLemma());
+				_excStart[i] = f;
+				for (Iterator itr = exc.getExceptions().iterator(); itr.hasNext();)
+					_excForms[f++] = strings.add((String) itr.next());
+			}
+			_excStart[n] = f;
+		}
+
+		private void sort(StringPool strings) {
+			_indexByLemma = sortedIds(_indexLemmas, strings);
+			_excsByLemma = sortedIds(_excLemmas, strings);
+		}
+
+		private static int[] sortedIds(int[] lemmas, StringPool strings) {
+			final String[] keys = new String[lemmas.length];
+			Integer[] ids = new Integer[lemmas.length];
+			for (int i = 0; i < ids.length; i++) {
+				keys[i] = strings.get(lemmas[i]);
+				ids[i] = new Integer(i);
+			}
+			Arrays.sort(ids, new Comparator() {
+				public int compare(Object a, Object b) {
+					return keys[((Integer) a).intValue()].compareTo(keys[((Integer) b).intValue()]);
+				}
+			});
+			int[] result = new int[ids.length];
+			for (int i = 0; i < ids.length; i++)
+				result[i] = ids[i].intValue();
+			return result;
+		}
+
+		/** Binary search the ids (sorted by lemma) for the lemma, returning its id or -1. */
+		private int find(int[] lemmas, int[] sorted, String lemma, StringPool strings) {
+			int low = 0, high = sorted.length - 1;
+			while (low <= high) {
+				int mid = (low + high) >>> 1;
+				int compare = strings.get(lemmas[sorted[mid]]).compareTo(lemma);
+				if (compare < 0) {
+					low = mid + 1;
+				} else if (compare > 0) {
+					high = mid - 1;
+				} else {
+					return sorted[mid];
+				}
+			}
+			return -1;
+		}
+
+		private void write(DataOutputStream dos) throws IOException {
+			writeInts(dos, _offsets);
+			writeInts(dos, _glosses);
+			writeBytes(dos, _flags);
+			writeInts(dos, _wordStart);
+			writeInts(dos, _wordLemmas);
+			dos.writeBoolean(_wordFrames != null);
+			if (_wordFrames != null) {
+				for (int i = 0; i < _wordFrames.length; i++)
+					dos.writeLong(_wordFrames[i]);
+			}
+			writeInts(dos, _pointerStart);
+			writeInts(dos, _pointerTargets);
+			writeBytes(dos, _pointerTypes);
+			writeBytes(dos, _pointerPOS);
+			writeBytes(dos, _pointerSource);
+			writeBytes(dos, _pointerTargetIndex);
+			writeInts(dos, _indexLemmas);
+			writeInts(dos, _senseStart);
+			writeInts(dos, _senses);
+			writeInts(dos, _indexByLemma);
+			writeInts(dos, _excLemmas);
+			writeInts(dos, _excStart);
+			writeInts(dos, _excForms);
+			writeInts(dos, _excsByLemma);
+		}
+
+		private static Table read(DataInputStream dis) throws IOException {
+			Table table = new Table();
+			table._offsets = readInts(dis);
+			table._glosses = readInts(dis);
+			table._flags = readBytes(dis);
+			table._wordStart = readInts(dis);
+			table._wordLemmas = readInts(dis);
+			if (dis.readBoolean()) {
+				table._wordFrames = new long[table._wordLemmas.length];
+				for (int i = 0; i < table._wordFrames.length; i++)
+					table._wordFrames[i] = dis.readLong();
+			}
+			table._pointerStart = readInts(dis);
+			table._pointerTargets = readInts(dis);
+			table._pointerTypes = readBytes(dis);
+			table._pointerPOS = readBytes(dis);
+			table._pointerSource = readBytes(dis);
+			table._pointerTargetIndex = readBytes(dis);
+			table._indexLemmas = readInts(dis);
+			table._senseStart = readInts(dis);
+			table._senses = readInts(dis);
+			table._indexByLemma = readInts(dis);
+			table._excLemmas = readInts(dis);
+			table._excStart = readInts(dis);
+			table._excForms = readInts(dis);
+			table._excsByLemma = readInts(dis);
+			return table;
+		}
+	}
+
+	/** Strings, each stored once, as UTF-8 in one byte array */
+	private static final class StringPool {
+		private final byte[] _bytes;
+		private final int[] _starts; // of string i, and (at i + 1) its end
+
+		private StringPool(byte[] bytes, int[] starts) {
+			_bytes = bytes;
+			_starts = starts;
+		}
+
+		private String get(int id) {
+			try {
+				return new String(_bytes, _starts[id], _starts[id + 1] - _starts[id], "UTF-8");
+			} catch (UnsupportedEncodingException ex) {
+				throw new RuntimeException(ex);
+			}
+		}
+
+		private void write(DataOutputStream dos) throws IOException {
+			writeInts(dos, _starts);
+			writeBytes(dos, _bytes);
+		}
+
+		private static StringPool read(DataInputStream dis) throws IOException {
+			int[] starts = readInts(dis);
+			return new StringPool(readBytes(dis), starts);
+		}
+
+		private static final class Builder {
+			private final Map _ids = new HashMap(); // String -> Integer
+			private final ByteArrayOutputStream _bytes = new ByteArrayOutputStream();
+			private int[] _starts = new int[1024];
+
+			private int add(String s) {
+				Integer id = (Integer) _ids.get(s);
+				if (id == null) {
+					id = new Integer(_ids.size());
+					_ids.put(s, id);
+					try {
+						_bytes.write(s.getBytes("UTF-8"));
+					} catch (IOException ex) {
+						throw new RuntimeException(ex);
+					}
+					if (id.intValue() + 2 > _starts.length)
+						_starts = Arrays.copyOf(_starts, _starts.length * 2);
+					_starts[id.intValue() + 1] = _bytes.size();
+				}
+				return id.intValue();
+			}
+
+			private StringPool build() {
+				return new StringPool(_bytes.toByteArray(), Arrays.copyOf(_starts, _ids.size() + 1));
+			}
+		}
+	}
+
+	/** An iterator over the ids 0 to n - 1, returning the element for each */
+	private abstract static class ArrayIterator implements Iterator {
+		private final int _size;
+		private int _next = 0;
+
+		private ArrayIterator(int size) {
+			_size = size;
+		}
+
+		protected abstract Object get(int id);
+
+		public boolean hasNext() {
+			return _next < _size;
+		}
+
+		public Object next() {
+			if (!hasNext())
+				throw new NoSuchElementException();
+			return get(_next++);
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	private static void writeInts(DataOutputStream dos, int[] values) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(values.length * 4);
+		buffer.asIntBuffer().put(values);
+		dos.writeInt(values.length);
+		dos.write(buffer.array());
+	}
+
+	private static int[] readInts(DataInputStream dis) throws IOException {
+		byte[] bytes = new byte[dis.readInt() * 4];
+		dis.readFully(bytes);
+		int[] values = new int[bytes.length / 4];
+		ByteBuffer.wrap(bytes).asIntBuffer().get(values);
+		return values;
+	}
+
+	private static void writeBytes(DataOutputStream dos, byte[] values) throws IOException {
+		dos.writeInt(values.length);
+		dos.write(values);
+	}
+
+	private static byte[] readBytes(DataInputStream dis) throws IOException {
+		byte[] values = new byte[dis.readInt()];
+		dis.readFully(values);
+		return values;
+	}
+}
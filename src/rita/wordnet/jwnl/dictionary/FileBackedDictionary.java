@@ -42,6 +42,12 @@ public class FileBackedDictionary extends AbstractCachingDictionary
   /** The default cache size. */
   public static final String CACHE_SIZE = "cache_size";
 
+  /**
+   * The kind of cache: "lru" (the default), or "concurrent" for
+   * ConcurrentCaches (see AbstractCachingDictionary.setConcurrentCaching()).
+   */
+  public static final String CACHE_TYPE = "cache_type";
+
   /** Size of the index word cache. Overrides the default cache size */
   public static final String INDEX_WORD_CACHE_SIZE = "index_word_cache_size";
 
@@ -124,6 +130,11 @@ public class FileBackedDictionary extends AbstractCachingDictionary
     install(manager, morph, factory, enableCaching);
 
     FileBackedDictionary dictionary = (FileBackedDictionary) getInstance();
+    if (enableCaching && params.containsKey(CACHE_TYPE))
+    {
+      dictionary.setConcurrentCaching(((Param) params.get(CACHE_TYPE))
+          .getValue().equalsIgnoreCase("concurrent"));
+    }
     if (params.containsKey(CACHE_SIZE))
     {
       dictionary.setCacheCapacity(Integer.parseInt(((Param) params
@@ -4,6 +4,7 @@
  */
 package rita.wordnet.jwnl.dictionary.file_manager;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.*;
@@ -14,6 +15,7 @@ import rita.wordnet.*;
 import rita.wordnet.jwnl.JWNLException;
 import rita.wordnet.jwnl.JWNLRuntimeException;
 import rita.wordnet.jwnl.dictionary.file.*;
+import rita.wordnet.jwnl.princeton.file.PrincetonRandomAccessDictionaryFile;
 import rita.wordnet.jwnl.util.factory.Param;
 import rita.wordnet.jwnl.wndata.POS;
 
@@ -22,6 +24,10 @@ import rita.wordnet.jwnl.wndata.POS;
  * <code>FileManagerImpl</code> caches the file position before and after <code>readLineAt</code>
  * in order to eliminate the redundant IO activity that a naive implementation of these methods
  * would necessitate.
+ * <p>
+ * Files backed by a <code>RandomAccessByteArray</code> (e.g., those read from the WordNet
+ * archive) are read with its position-independent methods instead, so that lookups need
+ * neither the file pointer nor a lock on the file, and may run concurrently.
  */
 public class FileManagerImpl implements FileManager {
     /**
@@ -60,11 +66,26 @@ public class FileManagerImpl implements FileManager {
       List posList = POS.getAllPOS();
       String archive = RiWordNet.WORDNET_ARCHIVE;
       
-      InputStream is = WordnetUtil.getResourceStream(RiWordNet.class, archive); 
+      File cached = null;
+      if (RiWordNet.archiveCacheDir != null) {
+        try {
+          cached = RiZipReader.extractTo(new File(RiWordNet.archiveCacheDir), archive,
+            WordnetUtil.getResourceURL(RiWordNet.class, archive));
+        }
+        catch (Exception e) {
+          System.err.println("[WARN] Unable to use WordNet cache at "
+            + RiWordNet.archiveCacheDir + ": " + e.getMessage());
+        }
+      }
+
+      RiZipReader zr = null;
+      if (cached == null) {
+        InputStream is = WordnetUtil.getResourceStream(RiWordNet.class, archive); 
 
 //System.err.println("FileManagerImpl.FileManagerImpl("+is+")");
       
-      RiZipReader zr = new RiZipReader(archive, is);
+        zr = new RiZipReader(archive, is);
+      }
       
       this._files = new DictionaryCatalogSet();
       DictionaryFile[] dfiles = new DictionaryFile[posList.size()];
@@ -77,9 +98,14 @@ public class FileManagerImpl implements FileManager {
             POS pos = (POS)itr.next();
             String fname = WordnetDictionaryFile.buildFilename(pos, fileType);
 
-            byte[] buf = zr.getResource(fname);
-            //System.err.println("FileManagerImpl.fetching: "+fname+" buf="+buf.length);
-            rab = new RandomAccessByteArray(fname, buf);            
+            if (cached != null) {
+              rab = RandomAccessByteArray.map(new File(cached, fname));
+            }
+            else {
+              byte[] buf = zr.getResource(fname);
+              //System.err.println("FileManagerImpl.fetching: "+fname+" buf="+buf.length);
+              rab = new RandomAccessByteArray(fname, buf);            
+            }
             dfiles[idx++] = new WordnetDictionaryFile(rab, pos, fileType);
           } 
         }
@@ -147,6 +173,30 @@ public class FileManagerImpl implements FileManager {
 	// IO primitives
 	//
 
+	/**
+	 * Returns the immutable bytes of the file, for position-independent (lock-free) reads,
+	 * or null if it is not backed by a <code>RandomAccessByteArray</code>
+	 */
+	private static RandomAccessByteArray bytesOf(RandomAccessDictionaryFile file) {
+		if (file instanceof PrincetonRandomAccessDictionaryFile) {
+			RandomAccessIF raf = ((PrincetonRandomAccessDictionaryFile) file).randomAccessFile;
+			if (raf instanceof RandomAccessByteArray) {
+				return (RandomAccessByteArray) raf;
+			}
+		}
+		return null;
+	}
+
+	/** As <code>skipLine()</code>, without moving the file pointer (which ends at the length) */
+	private static long skipLine(RandomAccessByteArray bytes, long pos) {
+		int c;
+		while (((c = bytes.byteAt(pos)) != -1) && c != '\n' && c != '\r') pos++;
+		if (c == -1) return pos;
+		c = bytes.byteAt(++pos);
+		if (c == '\n' || c == '\r') pos++;
+		return pos;
+	}
+
 	private void skipLine(RandomAccessDictionaryFile file) throws IOException {
 		int c;
 		while (((c = file.read()) != -1) && c != '\n' && c != '\r');
@@ -161,6 +211,10 @@ public class FileManagerImpl implements FileManager {
 	//
 	public String readLineAt(POS pos, DictionaryFileType fileType, long offset) throws IOException {
 		RandomAccessDictionaryFile file = (RandomAccessDictionaryFile)getFile(pos, fileType);
+		RandomAccessByteArray bytes = bytesOf(file);
+		if (bytes != null) {
+			return bytes.readLineAt(offset);
+		}
 		synchronized (file) {
 			file.seek(offset);
 			String line = file.readLine();
@@ -184,6 +238,10 @@ public class FileManagerImpl implements FileManager {
 
 	public long getNextLinePointer(POS pos, DictionaryFileType fileType, long offset) throws IOException {
 		RandomAccessDictionaryFile file = (RandomAccessDictionaryFile)getFile(pos, fileType);
+		RandomAccessByteArray bytes = bytesOf(file);
+		if (bytes != null) {
+			return skipLine(bytes, offset);
+		}
 		synchronized (file) {
 			if (file.isPreviousLineOffset(offset) && offset != file.getNextLineOffset()) {
                 return file.getNextLineOffset();
@@ -203,6 +261,15 @@ public class FileManagerImpl implements FileManager {
 		RandomAccessDictionaryFile file = (RandomAccessDictionaryFile)getFile(pos, fileType);
 		if (file == null || file.length() == 0) return -1;
 
+		RandomAccessByteArray bytes = bytesOf(file);
+		if (bytes != null) {
+			while (offset < bytes.length()) {
+				if (bytes.readWordAt(offset).indexOf(substring) >= 0) return offset;
+				offset = bytes.wordEnd(offset);
+			}
+			return -1;
+		}
+
 		synchronized (file) {
 			file.seek(offset);
 			do {
@@ -224,6 +291,11 @@ public class FileManagerImpl implements FileManager {
 		if (file == null || file.length() == 0) 
 			return -1;
 
+		RandomAccessByteArray bytes = bytesOf(file);
+		if (bytes != null) {
+			return getIndexedLinePointer(bytes, target);
+		}
+
 		synchronized (file) {
 			long start = 0;
 			long stop = file.length();
@@ -263,6 +335,35 @@ public class FileManagerImpl implements FileManager {
 		}
 	}
 
+	/** As above, with position-independent reads, so without a lock */
+	private long getIndexedLinePointer(RandomAccessByteArray bytes, String target) throws IOException {
+		long start = 0;
+		long stop = bytes.length();
+		long offset, midpoint;
+		while (true) {
+			midpoint = (start + stop) / 2;
+			offset = bytes.lineEnd(midpoint);
+			if (stop == offset) {
+				offset = start;
+				while (offset != stop) {
+					if (bytes.compareWordAt(offset, target) == 0) {
+						return offset;
+					}
+					offset = bytes.lineEnd(bytes.wordEnd(offset));
+				}
+				return -1;
+			}
+			int compare = bytes.compareWordAt(offset, target);
+			if (compare == 0) {
+				return offset;
+			} else if (compare > 0) {
+				stop = offset;
+			} else {
+				start = offset;
+			}
+		}
+	}
+
   public long getRandomLinePointer(POS pos, DictionaryFileType fileType) throws IOException {
       long fileLength = ((RandomAccessDictionaryFile) getFile(pos, fileType)).length();
       long start = getFirstLinePointer(pos, fileType);
@@ -273,6 +374,13 @@ public class FileManagerImpl implements FileManager {
   public long getFirstLinePointer(POS pos, DictionaryFileType fileType) throws IOException {
       long offset = 0;
       RandomAccessDictionaryFile file = (RandomAccessDictionaryFile) getFile(pos, fileType);
+      RandomAccessByteArray bytes = bytesOf(file);
+      if (bytes != null) {
+          do {
+              offset = skipLine(bytes, offset);
+          } while (bytes.readWordAt(offset).trim().length() == 0);
+          return offset;
+      }
       String line = null;
       for (line = null; line == null || line.trim().length() == 0; line = readLineWord(file)) {
           offset = getNextLinePointer(pos, fileType, offset);
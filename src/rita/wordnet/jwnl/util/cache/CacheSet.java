@@ -61,7 +61,8 @@ public abstract class CacheSet {
 		return _caches.size();
 	}
 
-	protected Cache getCache(Object cacheKey) {
+	/** Returns the cache for <var>cacheKey</var>, e.g., to read its statistics */
+	public Cache getCache(Object cacheKey) {
 		return (Cache) _caches.get(cacheKey);
 	}
 }
\ No newline at end of file
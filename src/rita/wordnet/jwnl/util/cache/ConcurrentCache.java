@@ -0,0 +1,180 @@
+/**
+ * Java WordNet Library (JWNL)
+ * See the documentation for copyright information.
+ */
+package rita.wordnet.jwnl.util.cache;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A thread-safe, fixed-capacity <code>Cache</code> that stores (approximately) the most recently
+ * used elements. Keys are spread over a number of segments, each an access-ordered map with its own
+ * lock and an equal share of the capacity (the shares adding up to exactly the capacity), so that
+ * threads using different keys rarely contend, and each segment removes its own least recently used
+ * elements once full.<p>
+ *
+ * Counts of hits, misses and evictions are kept, and subclasses may override <code>onRemove</code>
+ * to be told of each element that is removed or evicted.
+ */
+public class ConcurrentCache implements Cache {
+	private final Segment[] _segments;
+	private volatile int _capacity;
+
+	private final AtomicLong _hits = new AtomicLong();
+	private final AtomicLong _misses = new AtomicLong();
+	private final AtomicLong _evictions = new AtomicLong();
+
+	/**
+	 * @param capacity the maximum number of elements that can be contained in the cache.
+	 */
+	public ConcurrentCache(int capacity) {
+		this(capacity, defaultSegments());
+	}
+
+	/**
+	 * @param capacity the maximum number of elements that can be contained in the cache.
+	 * @param segments the number of independently locked segments (rounded up to a power of 2, but
+	 *                 reduced, if need be, so that each holds at least one element).
+	 */
+	public ConcurrentCache(int capacity, int segments) {
+		int n = 1;
+		while (n < segments && n << 1 <= capacity) n <<= 1;
+		_segments = new Segment[n];
+		for (int i = 0; i < n; i++) {
+			_segments[i] = new Segment();
+		}
+		setCapacity(capacity);
+	}
+
+	private static int defaultSegments() {
+		return Math.min(64, Runtime.getRuntime().availableProcessors() * 4);
+	}
+
+	public Object put(Object key, Object value) {
+		Segment s = segmentFor(key);
+		synchronized (s) {
+			return s.put(key, value);
+		}
+	}
+
+	public Object get(Object key) {
+		Segment s = segmentFor(key);
+		Object value;
+		synchronized (s) {
+			value = s.get(key);
+		}
+		(value == null ? _misses : _hits).incrementAndGet();
+		return value;
+	}
+
+	public Object remove(Object key) {
+		Segment s = segmentFor(key);
+		Object value;
+		synchronized (s) {
+			value = s.remove(key);
+		}
+		if (value != null) {
+			onRemove(key, value);
+		}
+		return value;
+	}
+
+	public int getCapacity() {
+		return _capacity;
+	}
+
+	public int setCapacity(int capacity) {
+		_capacity = capacity;
+		int share = capacity / _segments.length, extra = capacity % _segments.length;
+		for (int i = 0; i < _segments.length; i++) {
+			synchronized (_segments[i]) {
+				_segments[i].setCapacity(i < extra ? share + 1 : share);
+			}
+		}
+		return _capacity;
+	}
+
+	public int getSize() {
+		int size = 0;
+		for (int i = 0; i < _segments.length; i++) {
+			synchronized (_segments[i]) {
+				size += _segments[i].size();
+			}
+		}
+		return size;
+	}
+
+	public void clear() {
+		for (int i = 0; i < _segments.length; i++) {
+			synchronized (_segments[i]) {
+				_segments[i].clear();
+			}
+		}
+	}
+
+	/** Returns the number of calls to <code>get</code> that found a value. */
+	public long getHitCount() {
+		return _hits.get();
+	}
+
+	/** Returns the number of calls to <code>get</code> that found no value. */
+	public long getMissCount() {
+		return _misses.get();
+	}
+
+	/** Returns the number of elements removed to keep the cache within its capacity. */
+	public long getEvictionCount() {
+		return _evictions.get();
+	}
+
+	/**
+	 * Called after an element is removed, or evicted, from the cache (by the removing thread,
+	 * which may hold the lock for the key's segment). Does nothing by default.
+	 */
+	protected void onRemove(Object key, Object value) {}
+
+	public String toString() {
+		return getClass().getName() + "[size=" + getSize() + ", capacity=" + getCapacity()
+			+ ", hits=" + getHitCount() + ", misses=" + getMissCount()
+			+ ", evictions=" + getEvictionCount() + "]";
+	}
+
+	private Segment segmentFor(Object key) {
+		int h = key.hashCode();
+		h ^= (h >>> 16);
+		return _segments[h & (_segments.length - 1)];
+	}
+
+	/** An access-ordered map, whose methods are called with its lock held. */
+	private final class Segment extends LinkedHashMap {
+		static final long serialVersionUID = 0;
+
+		private int _max;
+
+		Segment() {
+			super(16, 0.75f, true);
+		}
+
+		void setCapacity(int capacity) {
+			_max = capacity;
+			for (Iterator it = entrySet().iterator(); size() > _max && it.hasNext();) {
+				Map.Entry eldest = (Map.Entry) it.next();
+				it.remove();
+				evicted(eldest);
+			}
+		}
+
+		protected boolean removeEldestEntry(Map.Entry eldest) {
+			if (size() <= _max) return false;
+			remove(eldest.getKey());
+			evicted(eldest);
+			return false;
+		}
+
+		private void evicted(Map.Entry entry) {
+			_evictions.incrementAndGet();
+			onRemove(entry.getKey(), entry.getValue());
+		}
+	}
+}
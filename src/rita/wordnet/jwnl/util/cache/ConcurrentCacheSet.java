@@ -0,0 +1,19 @@
+package rita.wordnet.jwnl.util.cache;
+
+public class ConcurrentCacheSet extends CacheSet {
+	public ConcurrentCacheSet(Object[] keys) {
+		super(keys);
+	}
+
+	public ConcurrentCacheSet(Object[] keys, int size) {
+		super(keys, size);
+	}
+
+	public ConcurrentCacheSet(Object[] keys, int[] sizes) {
+		super(keys, sizes);
+	}
+
+	protected Cache createCache(int size) {
+		return new ConcurrentCache(size);
+	}
+}